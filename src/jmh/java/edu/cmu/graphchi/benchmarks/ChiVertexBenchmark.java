@@ -0,0 +1,68 @@
+package edu.cmu.graphchi.benchmarks;
+
+import edu.cmu.graphchi.ChiVertex;
+import edu.cmu.graphchi.datablocks.DataBlockManager;
+import edu.cmu.graphchi.datablocks.FloatConverter;
+import edu.cmu.graphchi.engine.auxdata.VertexDegree;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adding the edges of an R-MAT graph to the vertices, as the shards do when
+ * loading an interval. Edges are added in shuffled order, so that the vertices
+ * are accessed randomly as with the sliding shards.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ChiVertexBenchmark {
+
+    @Param({"100000"})
+    public int numVertices;
+
+    @Param({"2000000"})
+    public int numEdges;
+
+    private long[] edges;
+    private int[] inDegrees, outDegrees;
+    private ChiVertex<Float, Float>[] vertices;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        ChiVertex.blockManager = new DataBlockManager();
+        ChiVertex.edgeValueConverter = new FloatConverter();
+        ChiVertex.vertexValueConverter = null;
+        ChiVertex.disableInedges = false;
+        ChiVertex.disableOutedges = false;
+
+        edges = RMATGraph.generateEdges(numVertices, numEdges);
+        inDegrees = new int[numVertices];
+        outDegrees = new int[numVertices];
+        for(long e : edges) {
+            outDegrees[(int) (e >> 32)]++;
+            inDegrees[(int) e]++;
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void createVertices() {
+        vertices = (ChiVertex<Float, Float>[]) new ChiVertex[numVertices];
+        for(int i=0; i < numVertices; i++) {
+            vertices[i] = new ChiVertex<Float, Float>(i, new VertexDegree(inDegrees[i], outDegrees[i]));
+        }
+    }
+
+    @Benchmark
+    public Object addEdges() {
+        for(int i=0; i < edges.length; i++) {
+            int from = (int) (edges[i] >> 32), to = (int) edges[i];
+            vertices[from].addOutEdge(0, i * 4, to);
+            vertices[to].addInEdge(0, i * 4, from);
+        }
+        return vertices;
+    }
+}
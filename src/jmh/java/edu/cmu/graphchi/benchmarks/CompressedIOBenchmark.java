@@ -0,0 +1,83 @@
+package edu.cmu.graphchi.benchmarks;
+
+import edu.cmu.graphchi.io.BlockCodec;
+import edu.cmu.graphchi.io.CompressedIO;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writing and reading one edge data block (4MB of float values from an R-MAT graph),
+ * from a byte array and from a heap or direct byte buffer, with each codec.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompressedIOBenchmark {
+
+    @Param({"array", "heap", "direct"})
+    public String buffer;
+
+    @Param({"zlib", "lz", "floatxor", "none"})
+    public String codecName;
+
+    private static final int BLOCK_SIZE = 4 * 1024 * 1024;
+
+    private byte[] data;
+    private ByteBuffer buf;
+    private File blockFile;
+    private BlockCodec codec;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        /* Edge values similar to the ones the sharder produces for the benchmark graphs */
+        long[] edges = RMATGraph.generateEdges(1 << 20, BLOCK_SIZE / 4);
+        buf = (buffer.equals("direct") ? ByteBuffer.allocateDirect(BLOCK_SIZE) : ByteBuffer.allocate(BLOCK_SIZE));
+        buf.order(ByteOrder.LITTLE_ENDIAN);
+        for(int i=0; i < edges.length; i++) {
+            int from = (int) (edges[i] >> 32), to = (int) edges[i];
+            buf.putFloat(i * 4, (float) ((from ^ to) % 1000) / 1000.0f);
+        }
+        data = new byte[BLOCK_SIZE];
+        buf.duplicate().get(data);
+
+        blockFile = File.createTempFile("graphchi-block", ".bin");
+        blockFile.deleteOnExit();
+        codec = CompressedIO.getCodec(codecName);
+        CompressedIO.writeCompressed(blockFile, data, BLOCK_SIZE, codec);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        blockFile.delete();
+    }
+
+    @Benchmark
+    public Object readCompressed() throws IOException {
+        if (buffer.equals("array")) {
+            CompressedIO.readCompressed(blockFile, data, BLOCK_SIZE, codec);
+            return data;
+        } else {
+            CompressedIO.readCompressed(blockFile, buf, BLOCK_SIZE, codec);
+            return buf;
+        }
+    }
+
+    @Benchmark
+    public Object writeCompressed() throws IOException {
+        if (buffer.equals("array")) {
+            CompressedIO.writeCompressed(blockFile, data, BLOCK_SIZE, codec);
+            return data;
+        } else {
+            CompressedIO.writeCompressed(blockFile, buf, BLOCK_SIZE, codec);
+            return buf;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package edu.cmu.graphchi.benchmarks;
+
+import edu.cmu.graphchi.engine.auxdata.DegreeData;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loading the degrees of an R-MAT graph in windows of the given size, and
+ * reading every vertex's degree, as the engine does when creating the vertices.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DegreeDataBenchmark {
+
+    @Param({"500000"})
+    public int numVertices;
+
+    @Param({"5000000"})
+    public long numEdges;
+
+    @Param({"10000", "100000"})
+    public int windowSize;
+
+    private RMATGraph graph;
+    private DegreeData degreeData;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        graph = RMATGraph.get(numVertices, numEdges, 4);
+        degreeData = new DegreeData(graph.baseFilename);
+    }
+
+    @Benchmark
+    public long loadAndGetDegrees() throws IOException {
+        long total = 0;
+        for(int st=0; st < numVertices; st += windowSize) {
+            int en = Math.min(numVertices - 1, st + windowSize - 1);
+            degreeData.load(st, en);
+            for(int v=st; v <= en; v++) {
+                total += degreeData.inDegree(v) + degreeData.outDegree(v);
+            }
+        }
+        return total;
+    }
+}
@@ -0,0 +1,104 @@
+package edu.cmu.graphchi.benchmarks;
+
+import edu.cmu.graphchi.ChiVertex;
+import edu.cmu.graphchi.datablocks.ChiPointer;
+import edu.cmu.graphchi.datablocks.DataBlockManager;
+import edu.cmu.graphchi.datablocks.FloatConverter;
+import edu.cmu.graphchi.datablocks.OffHeapDataBlockManager;
+import edu.cmu.graphchi.engine.auxdata.VertexDegree;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the boxed edge value access (getValue/setValue via the converters)
+ * with the primitive accessors, using the Pagerank update as the workload.
+ * Run: java -jar target/benchmarks.jar EdgeValueBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EdgeValueBenchmark {
+
+    @Param({"heap", "offheap"})
+    public String blocks;
+
+    @Param({"16", "256"})
+    public int degree;
+
+    private ChiVertex<Float, Float>[] vertices;
+    private DataBlockManager blockManager;
+
+    @Setup
+    public void setup() {
+        int nvertices = 1024;
+        blockManager = (blocks.equals("offheap") ? new OffHeapDataBlockManager() : new DataBlockManager());
+        FloatConverter conv = new FloatConverter();
+        ChiVertex.blockManager = blockManager;
+        ChiVertex.edgeValueConverter = conv;
+        ChiVertex.vertexValueConverter = conv;
+        ChiVertex.disableInedges = false;
+        ChiVertex.disableOutedges = false;
+
+        int vertexBlock = blockManager.allocateBlock(nvertices * 4);
+        int edgeBlock = blockManager.allocateBlock(nvertices * degree * 4);
+        Random r = new Random(260);
+
+        vertices = (ChiVertex<Float, Float>[]) new ChiVertex[nvertices];
+        for(int i=0; i < nvertices; i++) {
+            ChiVertex<Float, Float> v = new ChiVertex<Float, Float>(i, new VertexDegree(degree, degree));
+            v.setDataPtr(new ChiPointer(vertexBlock, i * 4));
+            v.setFloatValue(1.0f);
+            for(int j=0; j < degree; j++) {
+                /* In-edges point to random edge values, out-edges to the vertex's own values */
+                int inEdge = r.nextInt(nvertices * degree);
+                v.addInEdge(edgeBlock, inEdge * 4, r.nextInt(nvertices));
+                v.addOutEdge(edgeBlock, (i * degree + j) * 4, r.nextInt(nvertices));
+            }
+            vertices[i] = v;
+        }
+        for(ChiVertex<Float, Float> v : vertices) {
+            for(int j=0; j < v.numOutEdges(); j++) v.setOutEdgeFloatValue(j, 0.5f);
+        }
+    }
+
+    @Benchmark
+    public float pagerankBoxed() {
+        float total = 0.0f;
+        for(ChiVertex<Float, Float> vertex : vertices) {
+            float sum = 0.f;
+            for(int i=0; i < vertex.numInEdges(); i++) {
+                sum += vertex.inEdge(i).getValue();
+            }
+            vertex.setValue(0.15f + 0.85f * sum);
+            float outValue = vertex.getValue() / vertex.numOutEdges();
+            for(int i=0; i < vertex.numOutEdges(); i++) {
+                vertex.outEdge(i).setValue(outValue);
+            }
+            total += sum;
+        }
+        return total;
+    }
+
+    @Benchmark
+    public float pagerankPrimitive() {
+        float total = 0.0f;
+        for(ChiVertex<Float, Float> vertex : vertices) {
+            float sum = 0.f;
+            for(int i=0; i < vertex.numInEdges(); i++) {
+                sum += vertex.getInEdgeFloatValue(i);
+            }
+            vertex.setFloatValue(0.15f + 0.85f * sum);
+            float outValue = vertex.getFloatValue() / vertex.numOutEdges();
+            for(int i=0; i < vertex.numOutEdges(); i++) {
+                vertex.setOutEdgeFloatValue(i, outValue);
+            }
+            total += sum;
+        }
+        return total;
+    }
+}
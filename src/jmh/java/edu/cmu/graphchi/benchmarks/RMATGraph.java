@@ -0,0 +1,134 @@
+package edu.cmu.graphchi.benchmarks;
+
+import com.twitter.pers.graph_generator.GraphOutput;
+import com.twitter.pers.graph_generator.RMATGraphGenerator;
+import edu.cmu.graphchi.ChiFilenames;
+import edu.cmu.graphchi.GraphManifest;
+import edu.cmu.graphchi.datablocks.FloatConverter;
+import edu.cmu.graphchi.engine.VertexInterval;
+import edu.cmu.graphchi.preprocessing.EdgeProcessor;
+import edu.cmu.graphchi.preprocessing.FastSharder;
+import edu.cmu.graphchi.preprocessing.VertexProcessor;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+
+/**
+ * Synthetic R-MAT graph, sharded for the benchmarks. Graphs are generated with
+ * a fixed seed and cached per JVM, so each benchmark fork works on the same graph.
+ * The graphs are written to the directory given by system property
+ * graphchi.benchmark.dir (default: java.io.tmpdir), and reused by later runs of
+ * the same version.
+ */
+public class RMATGraph {
+
+    /* Part of the name of the cached graphs. Increment when the generated graph or the sharder output changes. */
+    private static final int GRAPH_VERSION = 2;
+
+    private static final HashMap<String, RMATGraph> graphs = new HashMap<String, RMATGraph>();
+
+    public final String baseFilename;
+    public final int numShards;
+    public final int numVertices;
+    public final long numEdges;
+
+    private RMATGraph(String baseFilename, int numShards, int numVertices, long numEdges) {
+        this.baseFilename = baseFilename;
+        this.numShards = numShards;
+        this.numVertices = numVertices;
+        this.numEdges = numEdges;
+    }
+
+    public static synchronized RMATGraph get(int numVertices, long numEdges, int numShards) throws IOException {
+        String key = numVertices + "_" + numEdges + "_" + numShards;
+        RMATGraph graph = graphs.get(key);
+        if (graph == null) {
+            File dir = new File(System.getProperty("graphchi.benchmark.dir", System.getProperty("java.io.tmpdir")),
+                    "graphchi-rmat-v" + GRAPH_VERSION + "." + GraphManifest.VERSION + "-" + key);
+            dir.mkdirs();
+            String baseFilename = new File(dir, "rmat").getAbsolutePath();
+            /* The manifest is written last, so a partially sharded graph is not reused */
+            if (!new File(ChiFilenames.getFilenameManifest(baseFilename, numShards)).exists()) {
+                generate(baseFilename, numVertices, numEdges, numShards);
+            }
+            graph = new RMATGraph(baseFilename, numShards, numVertices, numEdges);
+            graphs.put(key, graph);
+        }
+        return graph;
+    }
+
+    /**
+     * Returns the edges packed as (from << 32) + to, for benchmarks which do not need
+     * the shards. The order of the edges is shuffled with a fixed seed.
+     */
+    public static long[] generateEdges(int numVertices, int numEdges) {
+        final long[] edges = new long[numEdges];
+        final int[] n = new int[1];
+        RMATGraphGenerator generator = new RMATGraphGenerator(new GraphOutput() {
+            public synchronized void addEdges(int[] from, int[] to) {
+                for(int i=0; i < from.length && n[0] < edges.length; i++) {
+                    edges[n[0]++] = ((long) from[i] << 32) + to[i];
+                }
+            }
+
+            public void finishUp() {}
+        }, 0.45, 0.15, 0.15, 0.25, numVertices, numEdges);
+        generator.setSeed(260);
+        generator.execute();
+        long[] result = edges;
+        if (n[0] < numEdges) {
+            /* Generator rounds the number of edges down to a multiple of the number of threads */
+            result = new long[n[0]];
+            System.arraycopy(edges, 0, result, 0, n[0]);
+        }
+        /* Generator threads add edges in arbitrary order */
+        Arrays.sort(result);
+        Random r = new Random(260);
+        for(int i=result.length - 1; i > 0; i--) {
+            int j = r.nextInt(i + 1);
+            long tmp = result[i];
+            result[i] = result[j];
+            result[j] = tmp;
+        }
+        return result;
+    }
+
+    private static void generate(String baseFilename, int numVertices, long numEdges, int numShards) throws IOException {
+        final FastSharder<Float, Float> sharder = new FastSharder<Float, Float>(baseFilename, numShards, new VertexProcessor<Float>() {
+            public Float receiveVertexValue(int vertexId, String token) {
+                return 0.0f;
+            }
+        }, new EdgeProcessor<Float>() {
+            public Float receiveEdge(int from, int to, String token) {
+                return (float) ((from ^ to) % 1000) / 1000.0f;
+            }
+        }, new FloatConverter(), new FloatConverter());
+
+        final IOException[] error = new IOException[1];
+        RMATGraphGenerator generator = new RMATGraphGenerator(new GraphOutput() {
+            public synchronized void addEdges(int[] from, int[] to) {
+                try {
+                    for(int i=0; i < from.length; i++) {
+                        sharder.addEdge(from[i], to[i], null);
+                    }
+                } catch (IOException ioe) {
+                    error[0] = ioe;
+                }
+            }
+
+            public void finishUp() {}
+        }, 0.45, 0.15, 0.15, 0.25, numVertices, numEdges);
+        generator.setSeed(260);
+        generator.execute();
+        if (error[0] != null) throw error[0];
+        sharder.process();
+    }
+
+    public ArrayList<VertexInterval> intervals() throws IOException {
+        return ChiFilenames.loadIntervals(baseFilename, numShards);
+    }
+}
@@ -0,0 +1,112 @@
+package edu.cmu.graphchi.benchmarks;
+
+import edu.cmu.graphchi.ChiFilenames;
+import edu.cmu.graphchi.ChiVertex;
+import edu.cmu.graphchi.datablocks.DataBlockManager;
+import edu.cmu.graphchi.datablocks.FloatConverter;
+import edu.cmu.graphchi.engine.VertexInterval;
+import edu.cmu.graphchi.engine.auxdata.DegreeData;
+import edu.cmu.graphchi.shards.MemoryShard;
+import edu.cmu.graphchi.shards.SlidingShard;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loading the edges of the first interval of an R-MAT graph: in-edges from
+ * its memory shard, and out-edges from the sliding shards of the other intervals.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ShardBenchmark {
+
+    @Param({"500000"})
+    public int numVertices;
+
+    @Param({"5000000"})
+    public long numEdges;
+
+    @Param({"4"})
+    public int numShards;
+
+    @Param({"false", "true"})
+    public boolean memoryMapped;
+
+    private RMATGraph graph;
+    private ArrayList<VertexInterval> intervals;
+    private DegreeData degreeData;
+    private DataBlockManager blockManager;
+    private FloatConverter converter = new FloatConverter();
+    private ExecutorService executor;
+    private ChiVertex<Float, Float>[] vertices;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        graph = RMATGraph.get(numVertices, numEdges, numShards);
+        intervals = graph.intervals();
+        degreeData = new DegreeData(graph.baseFilename);
+        blockManager = new DataBlockManager();
+        executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    @Setup(Level.Invocation)
+    public void createVertices() throws IOException {
+        ChiVertex.blockManager = blockManager;
+        ChiVertex.edgeValueConverter = converter;
+        ChiVertex.vertexValueConverter = null;
+        ChiVertex.disableInedges = false;
+        ChiVertex.disableOutedges = false;
+        blockManager.reset();
+
+        VertexInterval interval = intervals.get(0);
+        degreeData.load(interval.getFirstVertex(), interval.getLastVertex());
+        vertices = (ChiVertex<Float, Float>[]) new ChiVertex[interval.getLastVertex() - interval.getFirstVertex() + 1];
+        for(int i=0; i < vertices.length; i++) {
+            int vertexId = interval.getFirstVertex() + i;
+            vertices[i] = new ChiVertex<Float, Float>(vertexId, degreeData.getDegree(vertexId));
+        }
+    }
+
+    @Benchmark
+    public Object memoryShardLoadVertices() throws IOException {
+        VertexInterval interval = intervals.get(0);
+        MemoryShard<Float> shard = new MemoryShard<Float>(ChiFilenames.getFilenameShardEdata(graph.baseFilename, converter, 0, numShards),
+                ChiFilenames.getFilenameShardsAdj(graph.baseFilename, 0, numShards),
+                interval.getFirstVertex(), interval.getLastVertex());
+        shard.setConverter(converter);
+        shard.setDataBlockManager(blockManager);
+        shard.setUseMemoryMapping(memoryMapped);
+        shard.loadVertices(interval.getFirstVertex(), interval.getLastVertex(), vertices, false, executor);
+        shard.commitAndRelease(false, false);
+        return vertices;
+    }
+
+    @Benchmark
+    public Object slidingShardReadNextVertices() throws IOException {
+        VertexInterval interval = intervals.get(0);
+        for(int p=1; p < numShards; p++) {
+            SlidingShard<Float> shard = new SlidingShard<Float>(ChiFilenames.getFilenameShardEdata(graph.baseFilename, converter, p, numShards),
+                    ChiFilenames.getFilenameShardsAdj(graph.baseFilename, p, numShards),
+                    intervals.get(p).getFirstVertex(), intervals.get(p).getLastVertex());
+            shard.setConverter(converter);
+            shard.setDataBlockManager(blockManager);
+            shard.setModifiesOutedges(false);
+            shard.readNextVertices(vertices, interval.getFirstVertex(), true);
+            shard.flush();
+        }
+        return vertices;
+    }
+}
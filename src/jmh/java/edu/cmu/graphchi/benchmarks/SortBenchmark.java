@@ -0,0 +1,50 @@
+package edu.cmu.graphchi.benchmarks;
+
+import edu.cmu.graphchi.preprocessing.FastSharder;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sorting of a shovel of R-MAT edges with 4-byte edge values, as done by the sharder.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class SortBenchmark {
+
+    @Param({"1000000"})
+    public int numVertices;
+
+    @Param({"10000000"})
+    public int numEdges;
+
+    private long[] edges;
+    private byte[] values;
+    private long[] shovel;
+    private byte[] shovelValues;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        edges = RMATGraph.generateEdges(numVertices, numEdges);
+        values = new byte[edges.length * 4];
+        for(int i=0; i < values.length; i++) values[i] = (byte) i;
+        shovel = new long[edges.length];
+        shovelValues = new byte[values.length];
+    }
+
+    @Setup(Level.Invocation)
+    public void copyShovel() {
+        System.arraycopy(edges, 0, shovel, 0, edges.length);
+        System.arraycopy(values, 0, shovelValues, 0, values.length);
+    }
+
+    @Benchmark
+    public long[] sortWithValues() {
+        FastSharder.sortWithValues(shovel, shovelValues, 4);
+        return shovel;
+    }
+}
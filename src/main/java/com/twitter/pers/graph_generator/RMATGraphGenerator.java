@@ -16,6 +16,10 @@ public class RMATGraphGenerator {
     private double pA, pB, pC, pD;
     private long numEdges;
     private int numVertices;
+    private Long seed = null;
+
+    /* Number of threads with a seed, so that the graph does not depend on the number of cores */
+    private static final int SEEDED_THREADS = 4;
 
     /**
      *  From http://pywebgraph.sourceforge.net
@@ -46,12 +50,22 @@ public class RMATGraphGenerator {
         numEdges = nEdges;
     }
 
+    /**
+     * Sets the seed of the random number generators, for generating
+     * the same graph on each run. The edges are then generated by a fixed
+     * number of threads, and thread i uses seed + i.
+     * @param seed
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
     public void execute() {
-        int nThreads = Runtime.getRuntime().availableProcessors();
+        int nThreads = (seed != null ? SEEDED_THREADS : Runtime.getRuntime().availableProcessors());
 
         ArrayList<Thread> threads = new ArrayList<Thread>();
         for(int i=0; i < nThreads; i++) {
-            Thread t = new Thread(new RMATGenerator(numEdges / nThreads));
+            Thread t = new Thread(new RMATGenerator(numEdges / nThreads, i));
             t.start();
             threads.add(t);
         }
@@ -67,16 +81,18 @@ public class RMATGraphGenerator {
     private class RMATGenerator implements Runnable {
 
         private long edgesToGenerate;
+        private int threadIdx;
 
-        private RMATGenerator(long genEdges) {
+        private RMATGenerator(long genEdges, int threadIdx) {
             this.edgesToGenerate = genEdges;
+            this.threadIdx = threadIdx;
         }
 
         public void run() {
             int nEdgesATime = 1000000;
             long createdEdges = 0;
 
-            Random r = new Random(System.currentTimeMillis() + this.hashCode());
+            Random r = (seed != null ? new Random(seed + threadIdx) : new Random(System.currentTimeMillis() + this.hashCode()));
 
             double cumA = pA;
             double cumB = cumA + pB;
@@ -50,6 +50,10 @@ public class ChiFilenames {
         return getDirnameShardEdataBlock(edataShardname, blocksize) + "/" + blockId;
     }
 
+    public static String getFilenameShardEdataCodec(String edataShardname) {
+        return edataShardname + ".codec";
+    }
+
     public static int getShardEdataSize(String edataShardname) throws IOException {
         String fname = edataShardname + ".size";
         BufferedReader rd = new BufferedReader(new FileReader(new File(fname)));
@@ -66,10 +70,25 @@ public class ChiFilenames {
         return baseFilename + ".edata_java." + p + "_" + nShards + ".adj";
     }
 
+    /**
+     * Block-compressed adjacency shard, see CompressedAdjacency.
+     */
+    public static String getFilenameShardsAdjBlocks(String adjFilename) {
+        return adjFilename + ".blocks";
+    }
+
+    public static String getFilenameShardsAdjFormat(String adjFilename) {
+        return adjFilename + ".format";
+    }
+
     public static String getFilenameIntervals(String baseFilename, int nShards) {
         return baseFilename + "." + nShards + ".intervalsjava";
     }
 
+    public static String getFilenameManifest(String baseFilename, int nShards) {
+        return baseFilename + "." + nShards + ".manifest";
+    }
+
     public static String getVertexTranslateDefFile(String baseFilename, int nshards) {
         return baseFilename + "." + nshards + ".vtranslate";
     }
@@ -97,6 +116,10 @@ public class ChiFilenames {
     }
 
     public static ArrayList<VertexInterval> loadIntervals(String baseFilename, int nShards)  throws FileNotFoundException, IOException {
+        GraphManifest manifest = GraphManifest.load(baseFilename, nShards);
+        if (manifest != null) {
+            return manifest.getIntervals();
+        }
         String intervalFilename = ChiFilenames.getFilenameIntervals(baseFilename, nShards);
 
         BufferedReader rd = new BufferedReader(new FileReader(new File(intervalFilename)));
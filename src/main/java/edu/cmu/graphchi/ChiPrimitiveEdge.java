@@ -0,0 +1,58 @@
+package edu.cmu.graphchi;
+
+/**
+ * Copyright [2012] [Aapo Kyrola, Guy Blelloch, Carlos Guestrin / Carnegie Mellon University]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Edge with accessors for primitive values, which do not allocate objects.
+ * The edges returned by ChiVertex implement this interface.
+ * @param <EdgeData>
+ */
+public interface ChiPrimitiveEdge<EdgeData> extends ChiEdge<EdgeData> {
+
+    /* These require that the edge value is encoded as by FloatConverter,
+       IntConverter or LongConverter. */
+
+    public float getFloatValue();
+
+    public void setFloatValue(float x);
+
+    /**
+     * Access a float field of a compound value, such as FloatPair.
+     * @param byteOffset offset of the field within the value in bytes
+     */
+    public float getFloatValue(int byteOffset);
+
+    public void setFloatValue(int byteOffset, float x);
+
+    public int getIntValue();
+
+    public void setIntValue(int x);
+
+    public long getLongValue();
+
+    public void setLongValue(long x);
+
+    /* Atomic updates of primitive values, for asynchronous execution where
+       neighbors may write to the same edge concurrently. The value is set
+       only if it is still equal to the expected value. */
+
+    public boolean compareAndSetFloatValue(float expect, float update);
+
+    public boolean compareAndSetIntValue(int expect, int update);
+
+    public boolean compareAndSetLongValue(long expect, long update);
+}
@@ -9,6 +9,7 @@ import sun.reflect.generics.reflectiveObjects.NotImplementedException;
 
 import java.lang.reflect.Field;
 import java.security.AccessController;
+import java.util.Arrays;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -44,11 +45,21 @@ public class ChiVertex<VertexValue, EdgeValue> {
     public static boolean disableInedges = false;
     public static boolean disableOutedges = false;
 
+    /* Edges are stored in parallel arrays: the neighbor ids, and the block ids and offsets
+       of the edge values. The value arrays are null if the edges have no values. */
     private volatile int nInedges = 0;
-    private int[] inEdgeDataArray = null;
+    private int[] inEdgeIds = null;
+    private int[] inEdgeBlocks = null;
+    private int[] inEdgeOffsets = null;
 
     private volatile int nOutedges = 0;
-    private int[] outEdgeDataArray = null;
+    private int[] outEdgeIds = null;
+    private int[] outEdgeBlocks = null;
+    private int[] outEdgeOffsets = null;
+
+    /* Start of the edges in the arrays, non-zero only for views of a CompactVertexWindow */
+    private int inBase = 0;
+    private int outBase = 0;
 
     /* Internal management */
     public boolean parallelSafe = true;
@@ -95,12 +106,20 @@ public class ChiVertex<VertexValue, EdgeValue> {
 
         if (degree != null) {
             if (!disableInedges) {
-                inEdgeDataArray = new int[degree.inDegree * (edgeValueConverter != null ? 3 : 1)];
+                inEdgeIds = new int[degree.inDegree];
+                if (edgeValueConverter != null) {
+                    inEdgeBlocks = new int[degree.inDegree];
+                    inEdgeOffsets = new int[degree.inDegree];
+                }
             } else {
                 nInedges =  degree.inDegree;
             }
             if (!disableOutedges) {
-                outEdgeDataArray = new int[degree.outDegree * (edgeValueConverter != null ? 3 : 1)];
+                outEdgeIds = new int[degree.outDegree];
+                if (edgeValueConverter != null) {
+                    outEdgeBlocks = new int[degree.outDegree];
+                    outEdgeOffsets = new int[degree.outDegree];
+                }
             } else {
                 nOutedges = degree.outDegree;
             }
@@ -112,6 +131,49 @@ public class ChiVertex<VertexValue, EdgeValue> {
         return this.id;
     }
 
+    /**
+     * Points this vertex to a vertex of a window, whose edges are stored in arrays
+     * shared by all vertices of the window. Used by CompactVertexWindow.
+     */
+    void moveTo(int id, int[] inIds, int[] inBlocks, int[] inOffsets, int inBase, int nInedges,
+                int[] outIds, int[] outBlocks, int[] outOffsets, int outBase, int nOutedges,
+                int vertexBlockId, int vertexOffset) {
+        this.id = id;
+        this.inEdgeIds = inIds;
+        this.inEdgeBlocks = inBlocks;
+        this.inEdgeOffsets = inOffsets;
+        this.inBase = inBase;
+        this.nInedges = nInedges;
+        this.outEdgeIds = outIds;
+        this.outEdgeBlocks = outBlocks;
+        this.outEdgeOffsets = outOffsets;
+        this.outBase = outBase;
+        this.nOutedges = nOutedges;
+        if (vertexBlockId < 0) {
+            this.vertexPtr = null;
+        } else if (vertexPtr == null) {
+            this.vertexPtr = new ChiPointer(vertexBlockId, vertexOffset);
+        } else {
+            vertexPtr.blockId = vertexBlockId;
+            vertexPtr.offset = vertexOffset;
+        }
+    }
+
+    /* Estimate of the size of a vertex object and its pointer, without the edge arrays */
+    static final int OBJECT_BYTES = 80;
+
+    /**
+     * @return estimate of the heap memory used by this vertex and its edge arrays
+     */
+    long memorySize() {
+        return OBJECT_BYTES + arraySize(inEdgeIds) + arraySize(inEdgeBlocks) + arraySize(inEdgeOffsets)
+                + arraySize(outEdgeIds) + arraySize(outEdgeBlocks) + arraySize(outEdgeOffsets);
+    }
+
+    private static long arraySize(int[] arr) {
+        return (arr != null ? 16 + 4L * arr.length : 0);
+    }
+
     public void setDataPtr(ChiPointer vertexPtr) {
         this.vertexPtr = vertexPtr;
     }
@@ -133,6 +195,34 @@ public class ChiVertex<VertexValue, EdgeValue> {
         blockManager.writeValue(vertexPtr, vertexValueConverter, x);
     }
 
+    /* Primitive accessors for the vertex value. These do not allocate objects, but
+       require that the vertex value is a float, int or long (see FloatConverter,
+       IntConverter, LongConverter). */
+
+    public float getFloatValue() {
+        return blockManager.getFloat(vertexPtr.blockId, vertexPtr.offset);
+    }
+
+    public void setFloatValue(float x) {
+        blockManager.setFloat(vertexPtr.blockId, vertexPtr.offset, x);
+    }
+
+    public int getIntValue() {
+        return blockManager.getInt(vertexPtr.blockId, vertexPtr.offset);
+    }
+
+    public void setIntValue(int x) {
+        blockManager.setInt(vertexPtr.blockId, vertexPtr.offset, x);
+    }
+
+    public long getLongValue() {
+        return blockManager.getLong(vertexPtr.blockId, vertexPtr.offset);
+    }
+
+    public void setLongValue(long x) {
+        blockManager.setLong(vertexPtr.blockId, vertexPtr.offset, x);
+    }
+
 
     /**
      * Returns a random out-neighbors vertex id.
@@ -140,12 +230,7 @@ public class ChiVertex<VertexValue, EdgeValue> {
      */
     public int getRandomOutNeighbor() {
         int i = (int) (Math.random() * numOutEdges());
-        if (edgeValueConverter != null) {
-            int idx = i * 3;
-            return outEdgeDataArray[idx + 2];
-        } else {
-            return outEdgeDataArray[i];
-        }
+        return outEdgeIds[outBase + i];
     }
 
     /**
@@ -186,14 +271,12 @@ public class ChiVertex<VertexValue, EdgeValue> {
         }
 
         tmpInEdges--;
-        if (edgeValueConverter != null) {
-            int idx = tmpInEdges * 3;
-            inEdgeDataArray[idx] = chunkId;
-            inEdgeDataArray[idx + 1] = offset;
-            inEdgeDataArray[idx + 2] = vertexId;
-        } else {
-            if (inEdgeDataArray != null)
-                inEdgeDataArray[tmpInEdges] = vertexId;
+        if (inEdgeIds != null) {
+            inEdgeIds[tmpInEdges] = vertexId;
+            if (inEdgeBlocks != null) {
+                inEdgeBlocks[tmpInEdges] = chunkId;
+                inEdgeOffsets[tmpInEdges] = offset;
+            }
         }
     }
 
@@ -212,14 +295,12 @@ public class ChiVertex<VertexValue, EdgeValue> {
             }
         }
         tmpOutEdges--;
-        if (edgeValueConverter != null) {
-            int idx = tmpOutEdges * 3;
-            outEdgeDataArray[idx] = chunkId;
-            outEdgeDataArray[idx + 1] = offset;
-            outEdgeDataArray[idx + 2] = vertexId;
-        } else {
-            if (outEdgeDataArray != null)
-                outEdgeDataArray[tmpOutEdges] = vertexId;
+        if (outEdgeIds != null) {
+            outEdgeIds[tmpOutEdges] = vertexId;
+            if (outEdgeBlocks != null) {
+                outEdgeBlocks[tmpOutEdges] = chunkId;
+                outEdgeOffsets[tmpOutEdges] = offset;
+            }
         }
     }
 
@@ -228,12 +309,12 @@ public class ChiVertex<VertexValue, EdgeValue> {
      * @param i
      * @return edge object
      */
-    public ChiEdge<EdgeValue> inEdge(int i) {
-        if (edgeValueConverter != null) {
-            int idx = i * 3;
-            return new Edge(new ChiPointer(inEdgeDataArray[idx], inEdgeDataArray[idx + 1]), inEdgeDataArray[idx + 2]);
+    public ChiPrimitiveEdge<EdgeValue> inEdge(int i) {
+        int idx = inBase + i;
+        if (inEdgeBlocks != null) {
+            return new Edge(new ChiPointer(inEdgeBlocks[idx], inEdgeOffsets[idx]), inEdgeIds[idx]);
         } else {
-            return new Edge(null, inEdgeDataArray[i]);
+            return new Edge(null, inEdgeIds[idx]);
         }
     }
 
@@ -242,26 +323,29 @@ public class ChiVertex<VertexValue, EdgeValue> {
      * @param i
      * @return  edge object
      */
-    public ChiEdge<EdgeValue>  outEdge(int i) {
-        if (edgeValueConverter != null) {
-            int idx = i * 3;
-            return new Edge(new ChiPointer(outEdgeDataArray[idx], outEdgeDataArray[idx + 1]), outEdgeDataArray[idx + 2]);
+    public ChiPrimitiveEdge<EdgeValue>  outEdge(int i) {
+        int idx = outBase + i;
+        if (outEdgeBlocks != null) {
+            return new Edge(new ChiPointer(outEdgeBlocks[idx], outEdgeOffsets[idx]), outEdgeIds[idx]);
         } else {
-            return new Edge(null, outEdgeDataArray[i]);
+            return new Edge(null, outEdgeIds[idx]);
         }
     }
 
+    /**
+     * Get vertex-id of the i'th in edge (avoid creating the edge-object).
+     * @param i
+     */
+    public int getInEdgeId(int i) {
+        return inEdgeIds[inBase + i];
+    }
+
     /**
      * Get vertex-id of the i'th out edge (avoid creating the edge-object).
      * @param i
      */
     public int getOutEdgeId(int i) {
-        if (edgeValueConverter != null) {
-            int idx = i * 3;
-            return outEdgeDataArray[idx + 2];
-        } else {
-            return outEdgeDataArray[i];
-        }
+        return outEdgeIds[outBase + i];
     }
 
     /**
@@ -269,7 +353,7 @@ public class ChiVertex<VertexValue, EdgeValue> {
      * @param i
      * @return  edge object
      */
-    public ChiEdge<EdgeValue> edge(int i) {
+    public ChiPrimitiveEdge<EdgeValue> edge(int i) {
         if (i < nInedges) return inEdge(i);
         else return outEdge(i - nInedges);
     }
@@ -285,15 +369,76 @@ public class ChiVertex<VertexValue, EdgeValue> {
      * ONLY ADVANCED USE
      */
     public int[] getOutNeighborArray() {
-        if (edgeValueConverter != null) {
-            int[] nbrs = new int[numOutEdges()];
-            for(int i=0; i<nbrs.length; i++) {
-                nbrs[i] = outEdgeDataArray[(i * 3) + 2];
-            }
-            return nbrs;
-        } else {
-            return outEdgeDataArray.clone();
-        }
+        return Arrays.copyOfRange(outEdgeIds, outBase, outBase + numOutEdges());
+    }
+
+    /**
+     * Returns the float value of i'th in-edge without creating the edge object
+     * (short-cut to inEdge(i).getFloatValue())
+     */
+    public float getInEdgeFloatValue(int i) {
+        int idx = inBase + i;
+        return blockManager.getFloat(inEdgeBlocks[idx], inEdgeOffsets[idx]);
+    }
+
+    public void setInEdgeFloatValue(int i, float x) {
+        int idx = inBase + i;
+        blockManager.setFloat(inEdgeBlocks[idx], inEdgeOffsets[idx], x);
+    }
+
+    public float getOutEdgeFloatValue(int i) {
+        int idx = outBase + i;
+        return blockManager.getFloat(outEdgeBlocks[idx], outEdgeOffsets[idx]);
+    }
+
+    public void setOutEdgeFloatValue(int i, float x) {
+        int idx = outBase + i;
+        blockManager.setFloat(outEdgeBlocks[idx], outEdgeOffsets[idx], x);
+    }
+
+    /**
+     * Float field of the compound value of i'th in-edge, such as FloatPair
+     * (short-cut to inEdge(i).getFloatValue(byteOffset))
+     * @param byteOffset offset of the field within the value in bytes
+     */
+    public float getInEdgeFloatValue(int i, int byteOffset) {
+        int idx = inBase + i;
+        return blockManager.getFloat(inEdgeBlocks[idx], inEdgeOffsets[idx], byteOffset);
+    }
+
+    public void setInEdgeFloatValue(int i, int byteOffset, float x) {
+        int idx = inBase + i;
+        blockManager.setFloat(inEdgeBlocks[idx], inEdgeOffsets[idx], byteOffset, x);
+    }
+
+    public float getOutEdgeFloatValue(int i, int byteOffset) {
+        int idx = outBase + i;
+        return blockManager.getFloat(outEdgeBlocks[idx], outEdgeOffsets[idx], byteOffset);
+    }
+
+    public void setOutEdgeFloatValue(int i, int byteOffset, float x) {
+        int idx = outBase + i;
+        blockManager.setFloat(outEdgeBlocks[idx], outEdgeOffsets[idx], byteOffset, x);
+    }
+
+    public int getInEdgeIntValue(int i) {
+        int idx = inBase + i;
+        return blockManager.getInt(inEdgeBlocks[idx], inEdgeOffsets[idx]);
+    }
+
+    public void setInEdgeIntValue(int i, int x) {
+        int idx = inBase + i;
+        blockManager.setInt(inEdgeBlocks[idx], inEdgeOffsets[idx], x);
+    }
+
+    public int getOutEdgeIntValue(int i) {
+        int idx = outBase + i;
+        return blockManager.getInt(outEdgeBlocks[idx], outEdgeOffsets[idx]);
+    }
+
+    public void setOutEdgeIntValue(int i, int x) {
+        int idx = outBase + i;
+        blockManager.setInt(outEdgeBlocks[idx], outEdgeOffsets[idx], x);
     }
 
     /**
@@ -302,15 +447,15 @@ public class ChiVertex<VertexValue, EdgeValue> {
      * @return  the value of i'th outedge (short-cut to outEdge(i)->getValue())
      */
     public EdgeValue getOutEdgeValue(int i) {
-        int idx = i * 3;
-        return blockManager.dereference(new ChiPointer(outEdgeDataArray[idx], outEdgeDataArray[idx + 1]),
+        int idx = outBase + i;
+        return blockManager.dereference(new ChiPointer(outEdgeBlocks[idx], outEdgeOffsets[idx]),
                 (BytesToValueConverter<EdgeValue>) edgeValueConverter);
     }
 
 
 
 
-    class Edge implements ChiEdge<EdgeValue> {
+    class Edge implements ChiPrimitiveEdge<EdgeValue> {
         Edge(ChiPointer dataPtr, int vertexId) {
             this.dataPtr = dataPtr;
             this.vertexId = vertexId;
@@ -331,6 +476,50 @@ public class ChiVertex<VertexValue, EdgeValue> {
         public void setValue(EdgeValue x) {
             blockManager.writeValue(dataPtr, edgeValueConverter, x);
         }
+
+        public float getFloatValue() {
+            return blockManager.getFloat(dataPtr.blockId, dataPtr.offset);
+        }
+
+        public void setFloatValue(float x) {
+            blockManager.setFloat(dataPtr.blockId, dataPtr.offset, x);
+        }
+
+        public float getFloatValue(int byteOffset) {
+            return blockManager.getFloat(dataPtr.blockId, dataPtr.offset, byteOffset);
+        }
+
+        public void setFloatValue(int byteOffset, float x) {
+            blockManager.setFloat(dataPtr.blockId, dataPtr.offset, byteOffset, x);
+        }
+
+        public int getIntValue() {
+            return blockManager.getInt(dataPtr.blockId, dataPtr.offset);
+        }
+
+        public void setIntValue(int x) {
+            blockManager.setInt(dataPtr.blockId, dataPtr.offset, x);
+        }
+
+        public long getLongValue() {
+            return blockManager.getLong(dataPtr.blockId, dataPtr.offset);
+        }
+
+        public void setLongValue(long x) {
+            blockManager.setLong(dataPtr.blockId, dataPtr.offset, x);
+        }
+
+        public boolean compareAndSetFloatValue(float expect, float update) {
+            return blockManager.compareAndSetFloat(dataPtr.blockId, dataPtr.offset, expect, update);
+        }
+
+        public boolean compareAndSetIntValue(int expect, int update) {
+            return blockManager.compareAndSetInt(dataPtr.blockId, dataPtr.offset, expect, update);
+        }
+
+        public boolean compareAndSetLongValue(long expect, long update) {
+            return blockManager.compareAndSetLong(dataPtr.blockId, dataPtr.offset, expect, update);
+        }
     }
 
 }
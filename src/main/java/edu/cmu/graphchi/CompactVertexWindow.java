@@ -0,0 +1,150 @@
+package edu.cmu.graphchi;
+
+import edu.cmu.graphchi.datablocks.ChiPointer;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Window of vertices stored in flat arrays instead of a ChiVertex object per vertex.
+ * The edges of all vertices are stored in shared arrays for in- and out-edges, in the
+ * same parallel-array format as in ChiVertex; each vertex has the range starting at its offset.
+ * For updates, each thread gets one ChiVertex which is moved from vertex to vertex,
+ * so the vertices must not be referenced after the update.
+ *
+ * The vertices are added with addVertex() in the order of their index, after which
+ * allocateEdges() must be called before adding edges.
+ */
+public class CompactVertexWindow<VertexValue, EdgeValue> implements VertexWindow<VertexValue, EdgeValue> {
+
+    private static final byte LOADED = 1;
+    private static final byte PARALLEL_UNSAFE = 2;
+
+    private final int firstVertex;
+    private final int size;
+
+    /* Offsets of the edges of each vertex, with the total number of edges as the last element.
+       Before allocateEdges(), element i + 1 holds the degree of vertex i. */
+    private final int[] inStart;
+    private final int[] outStart;
+    private final byte[] flags;
+
+    /* Neighbor ids, and block ids and offsets of the edge values (null without values) */
+    private int[] inIds;
+    private int[] inBlocks;
+    private int[] inOffsets;
+    private int[] outIds;
+    private int[] outBlocks;
+    private int[] outOffsets;
+    private AtomicIntegerArray inCount;
+    private AtomicIntegerArray outCount;
+
+    private int vertexBlockId = -1;
+    private int[] vertexOffsets;
+
+    public CompactVertexWindow(int firstVertex, int size) {
+        this.firstVertex = firstVertex;
+        this.size = size;
+        this.inStart = new int[size + 1];
+        this.outStart = new int[size + 1];
+        this.flags = new byte[size];
+    }
+
+    public void addVertex(int i, int inDegree, int outDegree) {
+        flags[i] = LOADED;
+        inStart[i + 1] = inDegree;
+        outStart[i + 1] = outDegree;
+    }
+
+    public void setVertexDataPtr(int i, ChiPointer vertexPtr) {
+        if (vertexOffsets == null) {
+            vertexOffsets = new int[size];
+        }
+        vertexBlockId = vertexPtr.blockId;
+        vertexOffsets[i] = vertexPtr.offset;
+    }
+
+    /**
+     * Allocates the edge arrays for the vertices added.
+     */
+    public void allocateEdges() {
+        for(int i=0; i < size; i++) {
+            inStart[i + 1] += inStart[i];
+            outStart[i + 1] += outStart[i];
+        }
+        boolean values = (ChiVertex.edgeValueConverter != null);
+        if (!ChiVertex.disableInedges) {
+            inIds = new int[inStart[size]];
+            if (values) {
+                inBlocks = new int[inStart[size]];
+                inOffsets = new int[inStart[size]];
+            }
+            inCount = new AtomicIntegerArray(size);
+        }
+        if (!ChiVertex.disableOutedges) {
+            outIds = new int[outStart[size]];
+            if (values) {
+                outBlocks = new int[outStart[size]];
+                outOffsets = new int[outStart[size]];
+            }
+            outCount = new AtomicIntegerArray(size);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean contains(int i) {
+        return (flags[i] & LOADED) != 0;
+    }
+
+    public int numEdges(int i) {
+        return inStart[i + 1] - inStart[i] + outStart[i + 1] - outStart[i];
+    }
+
+    public void addInEdge(int i, int chunkId, int offset, int vertexId) {
+        int idx = inStart[i] + inCount.getAndIncrement(i);
+        inIds[idx] = vertexId;
+        if (inBlocks != null) {
+            inBlocks[idx] = chunkId;
+            inOffsets[idx] = offset;
+        }
+    }
+
+    public void addOutEdge(int i, int chunkId, int offset, int vertexId) {
+        int idx = outStart[i] + outCount.getAndIncrement(i);
+        outIds[idx] = vertexId;
+        if (outBlocks != null) {
+            outBlocks[idx] = chunkId;
+            outOffsets[idx] = offset;
+        }
+    }
+
+    public void setParallelUnsafe(int i) {
+        flags[i] |= PARALLEL_UNSAFE;
+    }
+
+    public long memorySize() {
+        /* Offsets and flags, and the counters of the added edges */
+        long bytes = 8L * (size + 1) + size;
+        if (vertexOffsets != null) bytes += 4L * size;
+        if (inIds != null) bytes += 4L * inIds.length + 4L * size;
+        if (inBlocks != null) bytes += 8L * inBlocks.length;
+        if (outIds != null) bytes += 4L * outIds.length + 4L * size;
+        if (outBlocks != null) bytes += 8L * outBlocks.length;
+        return bytes;
+    }
+
+    public ChiVertex<VertexValue, EdgeValue> vertex(int i, ChiVertex<VertexValue, EdgeValue> reuse) {
+        if ((flags[i] & LOADED) == 0) return null;
+        ChiVertex<VertexValue, EdgeValue> vertex = (reuse != null ? reuse : new ChiVertex<VertexValue, EdgeValue>(0, null));
+        vertex.moveTo(firstVertex + i,
+                inIds, inBlocks, inOffsets, inStart[i],
+                (inCount != null ? inCount.get(i) : inStart[i + 1] - inStart[i]),
+                outIds, outBlocks, outOffsets, outStart[i],
+                (outCount != null ? outCount.get(i) : outStart[i + 1] - outStart[i]),
+                (vertexOffsets != null ? vertexBlockId : -1), (vertexOffsets != null ? vertexOffsets[i] : 0));
+        vertex.parallelSafe = (flags[i] & PARALLEL_UNSAFE) == 0;
+        return vertex;
+    }
+}
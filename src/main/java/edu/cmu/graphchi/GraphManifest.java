@@ -0,0 +1,269 @@
+package edu.cmu.graphchi;
+
+import edu.cmu.graphchi.engine.VertexInterval;
+import edu.cmu.graphchi.io.BlockCodec;
+import edu.cmu.graphchi.io.CompressedIO;
+import edu.cmu.graphchi.preprocessing.VertexIdTranslate;
+import edu.cmu.graphchi.shards.AdjacencyFormat;
+
+import java.io.*;
+import java.util.ArrayList;
+
+/**
+ * Copyright [2012] [Aapo Kyrola, Guy Blelloch, Carlos Guestrin / Carnegie Mellon University]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Binary manifest of a sharded graph, written by the sharder: the intervals, the
+ * vertex id translation, the kind of the degree file, degree statistics, the
+ * formats of the shards, and the sizes of each shard. With the manifest, the engine
+ * and the queries need not parse the text files nor check which files exist.
+ * The sharder still writes the text files for older readers; graphs without a
+ * manifest are read from those.
+ * <p>
+ * Layout (big-endian): magic, version, and the fields in the order of write().
+ * Readers reject versions newer than VERSION; when fields are added, VERSION is
+ * increased and read() keeps reading the older versions.
+ */
+public class GraphManifest {
+
+    public static final int MAGIC = 0x4743484d;    // "GCHM"
+    public static final int VERSION = 1;
+
+    private int version = VERSION;
+    private int numShards;
+    private int[] intervalEnds;
+    private int vertexIntervalLength;
+    private boolean sparseDegrees;
+    private long numEdges;
+    private int numVerticesWithEdges;
+    private int maxInDegree;
+    private int maxOutDegree;
+    private int edgeValueSize;
+    private int blockSize;
+    private String codec;
+    private AdjacencyFormat adjacencyFormat;
+    private long[] adjSizes;
+    private long[] shardEdges;
+    private long[] edataSizes;
+
+    private GraphManifest() {}
+
+    /**
+     * @param intervals intervals of the shards
+     * @param vertexIdTranslate translation of the vertex ids
+     * @param edgeValueSize size of the edge values in bytes, 0 if edges have no values
+     */
+    public GraphManifest(ArrayList<VertexInterval> intervals, VertexIdTranslate vertexIdTranslate, int edgeValueSize,
+                         BlockCodec codec, AdjacencyFormat adjacencyFormat) {
+        this.numShards = intervals.size();
+        this.intervalEnds = new int[numShards];
+        for(int p=0; p < numShards; p++) intervalEnds[p] = intervals.get(p).getLastVertex();
+        this.vertexIntervalLength = vertexIdTranslate.getVertexIntervalLength();
+        this.edgeValueSize = edgeValueSize;
+        this.blockSize = (edgeValueSize > 0 ? ChiFilenames.getBlocksize(edgeValueSize) : 0);
+        this.codec = codec.getName();
+        this.adjacencyFormat = adjacencyFormat;
+        this.adjSizes = new long[numShards];
+        this.shardEdges = new long[numShards];
+        this.edataSizes = new long[numShards];
+    }
+
+    public void setShard(int p, long adjSize, long numEdges, long edataSize) {
+        adjSizes[p] = adjSize;
+        shardEdges[p] = numEdges;
+        edataSizes[p] = edataSize;
+    }
+
+    public void setDegrees(boolean sparseDegrees, int numVerticesWithEdges, int maxInDegree, int maxOutDegree) {
+        this.sparseDegrees = sparseDegrees;
+        this.numVerticesWithEdges = numVerticesWithEdges;
+        this.maxInDegree = maxInDegree;
+        this.maxOutDegree = maxOutDegree;
+    }
+
+    public void write(String baseFilename) throws IOException {
+        numEdges = 0;
+        for(long n : shardEdges) numEdges += n;
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(ChiFilenames.getFilenameManifest(baseFilename, numShards))));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(numShards);
+        for(int end : intervalEnds) out.writeInt(end);
+        out.writeInt(vertexIntervalLength);
+        out.writeBoolean(sparseDegrees);
+        out.writeLong(numEdges);
+        out.writeInt(numVerticesWithEdges);
+        out.writeInt(maxInDegree);
+        out.writeInt(maxOutDegree);
+        out.writeInt(edgeValueSize);
+        out.writeInt(blockSize);
+        out.writeUTF(codec);
+        out.writeUTF(adjacencyFormat.name());
+        for(int p=0; p < numShards; p++) {
+            out.writeLong(adjSizes[p]);
+            out.writeLong(shardEdges[p]);
+            out.writeLong(edataSizes[p]);
+        }
+        out.close();
+    }
+
+    /**
+     * Reads the manifest of the graph.
+     * @return the manifest, or null if the graph has none
+     * @throws IOException if the manifest is corrupt or of a newer version
+     */
+    public static GraphManifest load(String baseFilename, int numShards) throws IOException {
+        File file = new File(ChiFilenames.getFilenameManifest(baseFilename, numShards));
+        DataInputStream in;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        } catch (FileNotFoundException fnf) {
+            return null;
+        }
+        try {
+            return read(in, file);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static GraphManifest read(DataInputStream in, File file) throws IOException {
+        if (in.readInt() != MAGIC) throw new IOException("Not a graph manifest: " + file);
+        GraphManifest m = new GraphManifest();
+        m.version = in.readInt();
+        if (m.version > VERSION) {
+            throw new IOException("Manifest version " + m.version + " is newer than supported (" + VERSION + "): " + file);
+        }
+        m.numShards = in.readInt();
+        m.intervalEnds = new int[m.numShards];
+        for(int p=0; p < m.numShards; p++) m.intervalEnds[p] = in.readInt();
+        m.vertexIntervalLength = in.readInt();
+        m.sparseDegrees = in.readBoolean();
+        m.numEdges = in.readLong();
+        m.numVerticesWithEdges = in.readInt();
+        m.maxInDegree = in.readInt();
+        m.maxOutDegree = in.readInt();
+        m.edgeValueSize = in.readInt();
+        m.blockSize = in.readInt();
+        m.codec = in.readUTF();
+        m.adjacencyFormat = AdjacencyFormat.valueOf(in.readUTF());
+        m.adjSizes = new long[m.numShards];
+        m.shardEdges = new long[m.numShards];
+        m.edataSizes = new long[m.numShards];
+        for(int p=0; p < m.numShards; p++) {
+            m.adjSizes[p] = in.readLong();
+            m.shardEdges[p] = in.readLong();
+            m.edataSizes[p] = in.readLong();
+        }
+        return m;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public int getNumShards() {
+        return numShards;
+    }
+
+    public ArrayList<VertexInterval> getIntervals() {
+        ArrayList<VertexInterval> intervals = new ArrayList<VertexInterval>(numShards);
+        int first = 0;
+        for(int end : intervalEnds) {
+            intervals.add(new VertexInterval(first, end));
+            first = end + 1;
+        }
+        return intervals;
+    }
+
+    public int numVertices() {
+        return intervalEnds[numShards - 1] + 1;
+    }
+
+    public VertexIdTranslate getVertexIdTranslate() {
+        return (vertexIntervalLength < 0 ? VertexIdTranslate.identity()
+                : new VertexIdTranslate(vertexIntervalLength, numShards));
+    }
+
+    /**
+     * @return true if the degree file is sparse, see DegreeData
+     */
+    public boolean isSparseDegrees() {
+        return sparseDegrees;
+    }
+
+    public long getNumEdges() {
+        return numEdges;
+    }
+
+    public int getNumVerticesWithEdges() {
+        return numVerticesWithEdges;
+    }
+
+    public int getMaxInDegree() {
+        return maxInDegree;
+    }
+
+    public int getMaxOutDegree() {
+        return maxOutDegree;
+    }
+
+    public int getEdgeValueSize() {
+        return edgeValueSize;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * Codec of the edge data blocks. If compression is disabled, blocks are uncompressed.
+     */
+    public BlockCodec getCodec() {
+        return (CompressedIO.isCompressionEnabled() ? CompressedIO.getCodec(codec) : CompressedIO.NONE);
+    }
+
+    public AdjacencyFormat getAdjacencyFormat() {
+        return adjacencyFormat;
+    }
+
+    public long getAdjSize(int p) {
+        return adjSizes[p];
+    }
+
+    public long getShardEdges(int p) {
+        return shardEdges[p];
+    }
+
+    /**
+     * Number of edges in the shards before shard p.
+     */
+    public long getShardEdgeOffset(int p) {
+        long offset = 0;
+        for(int i=0; i < p; i++) offset += shardEdges[i];
+        return offset;
+    }
+
+    /**
+     * Size of the edge data of shard p in bytes, or -1 if the edge values
+     * of the manifest are not of the given size.
+     */
+    public long getEdataSize(int p, int sizeOf) {
+        return (sizeOf == edgeValueSize ? edataSizes[p] : -1);
+    }
+}
@@ -0,0 +1,51 @@
+package edu.cmu.graphchi;
+
+/**
+ * Window of vertices which are separate ChiVertex objects. Vertices which
+ * are not loaded are null.
+ */
+public class VertexArrayWindow<VertexValue, EdgeValue> implements VertexWindow<VertexValue, EdgeValue> {
+
+    private final ChiVertex<VertexValue, EdgeValue>[] vertices;
+
+    public VertexArrayWindow(ChiVertex<VertexValue, EdgeValue>[] vertices) {
+        this.vertices = vertices;
+    }
+
+    public int size() {
+        return vertices.length;
+    }
+
+    public boolean contains(int i) {
+        return vertices[i] != null;
+    }
+
+    public int numEdges(int i) {
+        ChiVertex<VertexValue, EdgeValue> vertex = vertices[i];
+        return (vertex == null ? 0 : vertex.numEdges());
+    }
+
+    public void addInEdge(int i, int chunkId, int offset, int vertexId) {
+        vertices[i].addInEdge(chunkId, offset, vertexId);
+    }
+
+    public void addOutEdge(int i, int chunkId, int offset, int vertexId) {
+        vertices[i].addOutEdge(chunkId, offset, vertexId);
+    }
+
+    public void setParallelUnsafe(int i) {
+        vertices[i].parallelSafe = false;
+    }
+
+    public long memorySize() {
+        long size = 16 + 4L * vertices.length;
+        for(ChiVertex<VertexValue, EdgeValue> vertex : vertices) {
+            if (vertex != null) size += vertex.memorySize();
+        }
+        return size;
+    }
+
+    public ChiVertex<VertexValue, EdgeValue> vertex(int i, ChiVertex<VertexValue, EdgeValue> reuse) {
+        return vertices[i];
+    }
+}
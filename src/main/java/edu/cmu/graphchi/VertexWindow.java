@@ -0,0 +1,44 @@
+package edu.cmu.graphchi;
+
+/**
+ * The vertices of a sub-interval, indexed from zero. The shards add the loaded
+ * edges to the vertices, and the engine gets the vertices for updates.
+ * Used only internally.
+ * @see VertexArrayWindow
+ * @see CompactVertexWindow
+ */
+public interface VertexWindow<VertexValue, EdgeValue> {
+
+    public int size();
+
+    /**
+     * Whether the i'th vertex is loaded (scheduled and not skipped).
+     */
+    public boolean contains(int i);
+
+    /**
+     * Number of in- and out-edges of the i'th vertex, zero if not loaded.
+     */
+    public int numEdges(int i);
+
+    public void addInEdge(int i, int chunkId, int offset, int vertexId);
+
+    public void addOutEdge(int i, int chunkId, int offset, int vertexId);
+
+    /**
+     * Marks the i'th vertex to have an edge to a vertex in the same window.
+     */
+    public void setParallelUnsafe(int i);
+
+    /**
+     * @return estimate of the heap memory used by the vertices and their edges, in bytes
+     */
+    public long memorySize();
+
+    /**
+     * Returns the i'th vertex for update, or null if it is not loaded.
+     * @param reuse vertex returned by the previous call of this thread, or null.
+     *              The window may return the same object pointing to a different vertex.
+     */
+    public ChiVertex<VertexValue, EdgeValue> vertex(int i, ChiVertex<VertexValue, EdgeValue> reuse);
+}
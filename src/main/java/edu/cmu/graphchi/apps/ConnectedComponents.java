@@ -63,9 +63,14 @@ public class ConnectedComponents implements GraphChiProgram<Integer, Integer> {
          */
         if (iteration > 0) {
             for(int i=0; i < numEdges; i++) {
-                if (vertex.edge(i).getValue() > label) {
-                    vertex.edge(i).setValue(label);
-                    context.getScheduler().addTask(vertex.edge(i).getVertexId());
+                ChiPrimitiveEdge<Integer> edge = vertex.edge(i);
+                int edgeLabel;
+                /* Neighbor may write a smaller label concurrently in asynchronous mode */
+                while ((edgeLabel = edge.getIntValue()) > label) {
+                    if (edge.compareAndSetIntValue(edgeLabel, label)) {
+                        context.getScheduler().addTask(edge.getVertexId());
+                        break;
+                    }
                 }
             }
         } else {
@@ -28,32 +28,36 @@ public class WeightedPagerank implements GraphChiProgram<Float, FloatPair> {
     
     private static Logger logger = ChiLogger.getLogger("weighted_pagerank");
 
+    /* Byte offsets of the fields of the FloatPair edge value (see FloatPairConverter) */
+    private static final int FIRST = 0;
+    private static final int SECOND = 4;
+
     public void update(ChiVertex<Float, FloatPair> vertex, GraphChiContext context)  {
         if (context.getIteration() == 0) {
             /* Initialize on first iteration */
-            vertex.setValue(1.0f);
+            vertex.setFloatValue(1.0f);
         } else {
             /* On other iterations, set my value to be the weighted
                average of my in-coming neighbors pageranks.
              */
             float sum = 0.f;
             for(int i=0; i<vertex.numInEdges(); i++) {
-                sum += vertex.inEdge(i).getValue().second;
+                sum += vertex.getInEdgeFloatValue(i, SECOND);
             }
-            vertex.setValue(0.15f + 0.85f * sum);
+            vertex.setFloatValue(0.15f + 0.85f * sum);
         }
 
         /* Accumulate edge weights */
         float edgeWeightSum = 0.f;
         for(int i=0; i<vertex.numOutEdges(); i++) {
-            edgeWeightSum += vertex.outEdge(i).getValue().first;
+            edgeWeightSum += vertex.getOutEdgeFloatValue(i, FIRST);
         }
 
         /* Write my value (divided by my out-degree) to my out-edges so neighbors can read it. */
+        float value = vertex.getFloatValue();
         for(int i=0; i<vertex.numOutEdges(); i++) {
-            FloatPair curValue = vertex.outEdge(i).getValue();
-            float edgeWeight = vertex.outEdge(i).getValue().first;
-            vertex.outEdge(i).setValue(new FloatPair(curValue.first, vertex.getValue() * edgeWeight/edgeWeightSum));
+            float edgeWeight = vertex.getOutEdgeFloatValue(i, FIRST);
+            vertex.setOutEdgeFloatValue(i, SECOND, value * edgeWeight/edgeWeightSum);
         }
 
     }
@@ -1,6 +1,10 @@
 package edu.cmu.graphchi.datablocks;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Copyright [2012] [Aapo Kyrola, Guy Blelloch, Carlos Guestrin / Carnegie Mellon University]
@@ -20,19 +24,59 @@ import java.util.ArrayList;
 
 /**
  * Manages large chunks of data which are accessed using ChiPointers.
- * Used internally by GraphChi.
+ * Used internally by GraphChi. The blocks are heap byte-arrays; for
+ * blocks allocated outside of the Java heap, see OffHeapDataBlockManager.
+ * If locking is enabled, each read and write of a value is atomic: values are
+ * guarded by a fixed set of locks, chosen by the address of the value.
+ * The compareAndSet methods are atomic regardless of the setting.
  * @author akyrola
  */
 public class DataBlockManager {
 
-    private ArrayList<byte[]> blocks = new ArrayList<byte[]>(32678);
+    private ArrayList<ByteBuffer> blocks = new ArrayList<ByteBuffer>(32678);
+
+    private static final FloatConverter floatConverter = new FloatConverter();
+    private static final IntConverter intConverter = new IntConverter();
+    private static final LongConverter longConverter = new LongConverter();
+
+    private static final int LOCK_STRIPE_BITS = 10;
+    private final Object[] locks = new Object[1 << LOCK_STRIPE_BITS];
+    private boolean locking = false;
+
+    /* Bytes in the blocks currently allocated */
+    private final AtomicLong allocatedBytes = new AtomicLong();
+
+    /* Blocks added with addExternalBlock(), guarded by the blocks list */
+    private final BitSet externalBlocks = new BitSet();
 
     public DataBlockManager() {
+        for(int i=0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    public boolean isLocking() {
+        return locking;
+    }
 
+    /**
+     * Enables the locking of value reads and writes, for updating
+     * neighboring vertices concurrently. Disabled by default.
+     * Must not be changed while values are accessed.
+     */
+    public void setLocking(boolean locking) {
+        this.locking = locking;
+    }
+
+    /* Lock guarding the value at the address, package-private for tests */
+    Object lockFor(int blockId, int offset) {
+        return locks[((blockId * 31 + offset) * 0x9E3779B9) >>> (32 - LOCK_STRIPE_BITS)];
     }
 
     public int allocateBlock(int numBytes) {
-        byte[] dataBlock = new byte[numBytes];
+        ByteBuffer dataBlock = newBlock(numBytes);
+        dataBlock.order(ByteOrder.LITTLE_ENDIAN);
+        allocatedBytes.addAndGet(dataBlock.capacity());
 
         synchronized(blocks) {
             int blockId = blocks.size();
@@ -41,15 +85,59 @@ public class DataBlockManager {
         }
     }
 
-    public byte[] getRawBlock(int blockId) {
-        byte[] bb = blocks.get(blockId);    /* Note, not synchronized! */
+    /**
+     * Adds a buffer owned by the caller as a block, for example a part of a memory-mapped
+     * file. The block is not counted as allocated memory, and it is not recycled
+     * when it is released.
+     * @return id of the block
+     */
+    public int addExternalBlock(ByteBuffer block) {
+        block.order(ByteOrder.LITTLE_ENDIAN);
+        synchronized(blocks) {
+            int blockId = blocks.size();
+            blocks.add(blockId, block);
+            externalBlocks.set(blockId);
+            return blockId;
+        }
+    }
+
+    /**
+     * Creates the storage for a new block. The block must have position 0 and limit numBytes.
+     */
+    protected ByteBuffer newBlock(int numBytes) {
+        return ByteBuffer.wrap(new byte[numBytes]);
+    }
+
+    /**
+     * Called when a block is released.
+     */
+    protected void recycleBlock(ByteBuffer block) {
+    }
+
+    /**
+     * Returns the block as a buffer. Use absolute get/put methods, or a duplicate of
+     * the buffer, as the buffer is shared by all threads.
+     */
+    public ByteBuffer getBlock(int blockId) {
+        ByteBuffer bb = blocks.get(blockId);    /* Note, not synchronized! */
         if (bb == null) {
             throw new IllegalStateException("Null-reference!");
         }
-
         return bb;
     }
 
+    /**
+     * Returns the byte array backing the block.
+     * @throws UnsupportedOperationException if the block is not stored on the heap
+     */
+    public byte[] getRawBlock(int blockId) {
+        ByteBuffer bb = getBlock(blockId);
+        if (!bb.hasArray()) {
+            throw new UnsupportedOperationException("Block " + blockId + " is not a heap block, use getBlock()");
+        }
+        return bb.array();
+    }
+
 
     /**
      * Called by the engine to clear the registry. All blocks must be null
@@ -62,6 +150,9 @@ public class DataBlockManager {
             }
         }
         blocks.clear();
+        synchronized(blocks) {
+            externalBlocks.clear();
+        }
     }
 
     public boolean empty() {
@@ -74,27 +165,189 @@ public class DataBlockManager {
     }
 
     public void release(int blockId) {
-        blocks.set(blockId, null);
+        ByteBuffer block;
+        boolean external;
+        /* Blocks may be released by the I/O threads while new blocks are allocated */
+        synchronized(blocks) {
+            block = blocks.set(blockId, null);
+            external = externalBlocks.get(blockId);
+            externalBlocks.clear(blockId);
+        }
+        if (block != null && !external) {
+            allocatedBytes.addAndGet(-block.capacity());
+            recycleBlock(block);
+        }
     }
 
-    public <T> T dereference(ChiPointer ptr, BytesToValueConverter<T> conv) {
-        byte[] arr = new byte[conv.sizeOf()];
+    /**
+     * @return number of bytes in the blocks which have been allocated and not released
+     */
+    public long getAllocatedBytes() {
+        return allocatedBytes.get();
+    }
 
+    public final <T> T dereference(ChiPointer ptr, BytesToValueConverter<T> conv) {
         if (ptr == null) {
             throw new IllegalStateException("Tried to dereference a null pointer!");
         }
-
-        System.arraycopy(getRawBlock(ptr.blockId), ptr.offset, arr, 0, arr.length);
-        return conv.getValue(arr);
+        if (!locking) return readValue(ptr, conv);
+        synchronized (lockFor(ptr.blockId, ptr.offset)) {
+            return readValue(ptr, conv);
+        }
     }
 
     public <T> void writeValue(ChiPointer ptr, BytesToValueConverter<T> conv, T value) {
         byte[] arr = new byte[conv.sizeOf()];
         conv.setValue(arr, value);
-        System.arraycopy(arr, 0, getRawBlock(ptr.blockId), ptr.offset, arr.length);
+        writeValue(ptr, arr);
+    }
+
+    public final void writeValue(ChiPointer ptr, byte[] data) {
+        if (!locking) {
+            writeBytes(ptr, data);
+            return;
+        }
+        synchronized (lockFor(ptr.blockId, ptr.offset)) {
+            writeBytes(ptr, data);
+        }
     }
 
-    public <T> void writeValue(ChiPointer ptr, byte[] data) {
-        System.arraycopy(data, 0, getRawBlock(ptr.blockId), ptr.offset, data.length);
+    /**
+     * Reads a value without locking.
+     */
+    protected <T> T readValue(ChiPointer ptr, BytesToValueConverter<T> conv) {
+        byte[] arr = new byte[conv.sizeOf()];
+        ByteBuffer block = getBlock(ptr.blockId);
+        if (block.hasArray()) {
+            System.arraycopy(block.array(), block.arrayOffset() + ptr.offset, arr, 0, arr.length);
+        } else {
+            /* External blocks may be outside of the heap */
+            for(int i=0; i < arr.length; i++) arr[i] = block.get(ptr.offset + i);
+        }
+        return conv.getValue(arr);
+    }
+
+    /**
+     * Writes a value without locking.
+     */
+    protected void writeBytes(ChiPointer ptr, byte[] data) {
+        ByteBuffer block = getBlock(ptr.blockId);
+        if (block.hasArray()) {
+            System.arraycopy(data, 0, block.array(), block.arrayOffset() + ptr.offset, data.length);
+        } else {
+            for(int i=0; i < data.length; i++) block.put(ptr.offset + i, data[i]);
+        }
+    }
+
+    /* Primitive accessors. These read and write the values in place, using the same
+       encoding as FloatConverter, IntConverter and LongConverter. */
+
+    public float getFloat(int blockId, int offset) {
+        if (!locking) return floatConverter.getFloat(getBlock(blockId), offset);
+        synchronized (lockFor(blockId, offset)) {
+            return floatConverter.getFloat(getBlock(blockId), offset);
+        }
+    }
+
+    public void setFloat(int blockId, int offset, float value) {
+        if (!locking) {
+            floatConverter.setFloat(getBlock(blockId), offset, value);
+            return;
+        }
+        synchronized (lockFor(blockId, offset)) {
+            floatConverter.setFloat(getBlock(blockId), offset, value);
+        }
+    }
+
+    /**
+     * Reads a float field of a compound value such as FloatPair. The lock is the lock of
+     * the value, so the field is not read while the whole value is being written.
+     * @param valueOffset offset of the value in the block
+     * @param fieldOffset offset of the field in the value
+     */
+    public float getFloat(int blockId, int valueOffset, int fieldOffset) {
+        if (!locking) return floatConverter.getFloat(getBlock(blockId), valueOffset + fieldOffset);
+        synchronized (lockFor(blockId, valueOffset)) {
+            return floatConverter.getFloat(getBlock(blockId), valueOffset + fieldOffset);
+        }
+    }
+
+    /**
+     * Writes a float field of a compound value, see getFloat(blockId, valueOffset, fieldOffset).
+     */
+    public void setFloat(int blockId, int valueOffset, int fieldOffset, float value) {
+        if (!locking) {
+            floatConverter.setFloat(getBlock(blockId), valueOffset + fieldOffset, value);
+            return;
+        }
+        synchronized (lockFor(blockId, valueOffset)) {
+            floatConverter.setFloat(getBlock(blockId), valueOffset + fieldOffset, value);
+        }
+    }
+
+    public int getInt(int blockId, int offset) {
+        if (!locking) return intConverter.getInt(getBlock(blockId), offset);
+        synchronized (lockFor(blockId, offset)) {
+            return intConverter.getInt(getBlock(blockId), offset);
+        }
+    }
+
+    public void setInt(int blockId, int offset, int value) {
+        if (!locking) {
+            intConverter.setInt(getBlock(blockId), offset, value);
+            return;
+        }
+        synchronized (lockFor(blockId, offset)) {
+            intConverter.setInt(getBlock(blockId), offset, value);
+        }
+    }
+
+    public long getLong(int blockId, int offset) {
+        if (!locking) return longConverter.getLong(getBlock(blockId), offset);
+        synchronized (lockFor(blockId, offset)) {
+            return longConverter.getLong(getBlock(blockId), offset);
+        }
+    }
+
+    public void setLong(int blockId, int offset, long value) {
+        if (!locking) {
+            longConverter.setLong(getBlock(blockId), offset, value);
+            return;
+        }
+        synchronized (lockFor(blockId, offset)) {
+            longConverter.setLong(getBlock(blockId), offset, value);
+        }
+    }
+
+    /* Atomic updates. The value is compared by its bits, so for floats
+       the expected value must be one read with getFloat(). */
+
+    public boolean compareAndSetFloat(int blockId, int offset, float expect, float update) {
+        ByteBuffer block = getBlock(blockId);
+        synchronized (lockFor(blockId, offset)) {
+            if (Float.floatToRawIntBits(floatConverter.getFloat(block, offset)) != Float.floatToRawIntBits(expect)) {
+                return false;
+            }
+            floatConverter.setFloat(block, offset, update);
+            return true;
+        }
+    }
+
+    public boolean compareAndSetInt(int blockId, int offset, int expect, int update) {
+        ByteBuffer block = getBlock(blockId);
+        synchronized (lockFor(blockId, offset)) {
+            if (intConverter.getInt(block, offset) != expect) return false;
+            intConverter.setInt(block, offset, update);
+            return true;
+        }
+    }
+
+    public boolean compareAndSetLong(int blockId, int offset, long expect, long update) {
+        ByteBuffer block = getBlock(blockId);
+        synchronized (lockFor(blockId, offset)) {
+            if (longConverter.getLong(block, offset) != expect) return false;
+            longConverter.setLong(block, offset, update);
+            return true;
+        }
     }
 }
@@ -1,5 +1,8 @@
 package edu.cmu.graphchi.datablocks;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
 /**
  * Copyright [2012] [Aapo Kyrola, Guy Blelloch, Carlos Guestrin / Carnegie Mellon University]
  *
@@ -37,4 +40,17 @@ public class FloatConverter implements  BytesToValueConverter<Float> {
         array[1] = (byte) ((x >>> 8) & 0xff);
         array[0] = (byte) ((x >>> 0) & 0xff);
     }
+
+    /**
+     * Reads the value directly from a buffer, without boxing or temporary arrays.
+     */
+    public float getFloat(ByteBuffer buf, int offset) {
+        if (buf.order() == ByteOrder.LITTLE_ENDIAN) return buf.getFloat(offset);
+        return Float.intBitsToFloat(Integer.reverseBytes(buf.getInt(offset)));
+    }
+
+    public void setFloat(ByteBuffer buf, int offset, float val) {
+        if (buf.order() == ByteOrder.LITTLE_ENDIAN) buf.putFloat(offset, val);
+        else buf.putInt(offset, Integer.reverseBytes(Float.floatToRawIntBits(val)));
+    }
 }
\ No newline at end of file
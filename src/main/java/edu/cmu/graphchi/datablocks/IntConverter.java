@@ -1,5 +1,8 @@
 package edu.cmu.graphchi.datablocks;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
 /**
  * Copyright [2012] [Aapo Kyrola, Guy Blelloch, Carlos Guestrin / Carnegie Mellon University]
  *
@@ -36,4 +39,16 @@ public class IntConverter implements  BytesToValueConverter<Integer> {
         array[3] = (byte) ((x >>> 24) & 0xff);
 
     }
+
+    /**
+     * Reads the value directly from a buffer, without boxing or temporary arrays.
+     */
+    public int getInt(ByteBuffer buf, int offset) {
+        int x = buf.getInt(offset);
+        return (buf.order() == ByteOrder.LITTLE_ENDIAN ? x : Integer.reverseBytes(x));
+    }
+
+    public void setInt(ByteBuffer buf, int offset, int val) {
+        buf.putInt(offset, buf.order() == ByteOrder.LITTLE_ENDIAN ? val : Integer.reverseBytes(val));
+    }
 }
\ No newline at end of file
@@ -1,5 +1,8 @@
 package edu.cmu.graphchi.datablocks;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
 /**
  * Copyright [2012] [Aapo Kyrola, Guy Blelloch, Carlos Guestrin / Carnegie Mellon University]
  *
@@ -46,4 +49,17 @@ public class LongConverter implements  BytesToValueConverter<Long> {
         array[6] = (byte) ((x >>> 8) & 0xff);
         array[7] = (byte) ((x) & 0xff);
     }
+
+    /**
+     * Reads the value directly from a buffer, without boxing or temporary arrays.
+     * Note: longs are stored in big-endian order.
+     */
+    public long getLong(ByteBuffer buf, int offset) {
+        long x = buf.getLong(offset);
+        return (buf.order() == ByteOrder.BIG_ENDIAN ? x : Long.reverseBytes(x));
+    }
+
+    public void setLong(ByteBuffer buf, int offset, long val) {
+        buf.putLong(offset, buf.order() == ByteOrder.BIG_ENDIAN ? val : Long.reverseBytes(val));
+    }
 }
\ No newline at end of file
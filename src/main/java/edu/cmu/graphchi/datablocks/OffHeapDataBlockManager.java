@@ -0,0 +1,137 @@
+package edu.cmu.graphchi.datablocks;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Copyright [2012] [Aapo Kyrola, Guy Blelloch, Carlos Guestrin / Carnegie Mellon University]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Block manager which stores the blocks outside of the Java heap in direct
+ * byte buffers. Released buffers are pooled and reused for later blocks (also
+ * after reset()), so that loading edge data does not churn the heap.
+ * Values are read and written in place without allocating temporary arrays.
+ * Note: the contents of a newly allocated block are undefined.
+ * Blocks are not backed by arrays, so getRawBlock() cannot be used.
+ */
+public class OffHeapDataBlockManager extends DataBlockManager {
+
+    /* Buffer capacities are rounded up to this granularity to improve reuse */
+    private static final int SIZE_GRANULARITY = 64 * 1024;
+
+    private final HashMap<Integer, ArrayList<ByteBuffer>> pool = new HashMap<Integer, ArrayList<ByteBuffer>>();
+    private long pooledBytes = 0;
+
+    private static final ThreadLocal<byte[][]> scratch = new ThreadLocal<byte[][]>() {
+        @Override
+        protected byte[][] initialValue() {
+            return new byte[64][];
+        }
+    };
+
+    public OffHeapDataBlockManager() {
+    }
+
+    @Override
+    protected ByteBuffer newBlock(int numBytes) {
+        int capacity = ((numBytes + SIZE_GRANULARITY - 1) / SIZE_GRANULARITY) * SIZE_GRANULARITY;
+        ByteBuffer buf = null;
+        synchronized (pool) {
+            ArrayList<ByteBuffer> free = pool.get(capacity);
+            if (free != null && !free.isEmpty()) {
+                buf = free.remove(free.size() - 1);
+                pooledBytes -= capacity;
+            }
+        }
+        if (buf == null) {
+            buf = ByteBuffer.allocateDirect(Math.max(capacity, 1));
+        }
+        buf.clear();
+        buf.limit(numBytes);
+        return buf;
+    }
+
+    @Override
+    protected void recycleBlock(ByteBuffer block) {
+        synchronized (pool) {
+            ArrayList<ByteBuffer> free = pool.get(block.capacity());
+            if (free == null) {
+                free = new ArrayList<ByteBuffer>();
+                pool.put(block.capacity(), free);
+            }
+            free.add(block);
+            pooledBytes += block.capacity();
+        }
+    }
+
+    /**
+     * @return number of bytes held by released buffers waiting for reuse
+     */
+    public long getPooledBytes() {
+        synchronized (pool) {
+            return pooledBytes;
+        }
+    }
+
+    /**
+     * Drops the pooled buffers. The memory is freed once the buffers are garbage collected.
+     */
+    public void clearPool() {
+        synchronized (pool) {
+            pool.clear();
+            pooledBytes = 0;
+        }
+    }
+
+    /* The converters work on byte arrays, so values are staged through
+       a per-thread array of the right size. */
+    private static byte[] scratchArray(int size) {
+        byte[][] arrays = scratch.get();
+        if (size >= arrays.length) return new byte[size];
+        byte[] arr = arrays[size];
+        if (arr == null) {
+            arr = new byte[size];
+            arrays[size] = arr;
+        }
+        return arr;
+    }
+
+    @Override
+    protected <T> T readValue(ChiPointer ptr, BytesToValueConverter<T> conv) {
+        ByteBuffer block = getBlock(ptr.blockId);
+        byte[] arr = scratchArray(conv.sizeOf());
+        for(int i=0; i < arr.length; i++) {
+            arr[i] = block.get(ptr.offset + i);
+        }
+        return conv.getValue(arr);
+    }
+
+    @Override
+    public <T> void writeValue(ChiPointer ptr, BytesToValueConverter<T> conv, T value) {
+        byte[] arr = scratchArray(conv.sizeOf());
+        conv.setValue(arr, value);
+        writeValue(ptr, arr);
+    }
+
+    @Override
+    protected void writeBytes(ChiPointer ptr, byte[] data) {
+        ByteBuffer block = getBlock(ptr.blockId);
+        for(int i=0; i < data.length; i++) {
+            block.put(ptr.offset + i, data[i]);
+        }
+    }
+}
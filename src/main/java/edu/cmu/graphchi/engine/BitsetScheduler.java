@@ -3,24 +3,27 @@ package edu.cmu.graphchi.engine;
 import edu.cmu.graphchi.ChiVertex;
 import edu.cmu.graphchi.Scheduler;
 
-import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
  * Scheduler implementation for "Selective Scheduling". Each vertex in the
  * graph has a bit which is 1 if the vertex should be updated, and 0 otherwise.
  * To obtain the current scheduler during computation, use context.getScheduler().
+ * The bits are stored in 64-bit words, which are updated atomically, so tasks
+ * can be added from parallel updates. Ranges of vertices are cleared and
+ * scanned a word at a time.
  * @see edu.cmu.graphchi.GraphChiContext
  * @author akyrola
  */
 public class BitsetScheduler implements Scheduler {
 
     private int nvertices;
-    private BitSet bitset;
-    private boolean hasNewTasks;
+    private AtomicLongArray words;
+    private volatile boolean hasNewTasks;
 
     public BitsetScheduler(int nvertices) {
         this.nvertices = nvertices;
-        bitset = new BitSet(nvertices);
+        words = new AtomicLongArray((nvertices + 63) >>> 6);
     }
 
     /**
@@ -28,19 +31,43 @@ public class BitsetScheduler implements Scheduler {
      * @param vertexId
      */
     public void addTask(int vertexId) {
-        bitset.set(vertexId, true);
+        int w = vertexId >>> 6;
+        long bit = 1L << vertexId;
+        long cur;
+        while (((cur = words.get(w)) & bit) == 0) {
+            if (words.compareAndSet(w, cur, cur | bit)) break;
+        }
         hasNewTasks = true;
     }
 
+    /* Clears the bits of mask in word w */
+    private void clearBits(int w, long mask) {
+        long cur;
+        while (((cur = words.get(w)) & mask) != 0) {
+            if (words.compareAndSet(w, cur, cur & ~mask)) break;
+        }
+    }
+
     /**
      * Removes vertices in an interval from schedule
      * @param from first vertex to remove
      * @param to last vertex (inclusive)
      */
     public void removeTasks(int from, int to) {
-        for(int i=from; i<=to; i++) {
-            bitset.set(i, false);
+        if (from > to) return;
+        int firstWord = from >>> 6;
+        int lastWord = to >>> 6;
+        long firstMask = -1L << from;
+        long lastMask = -1L >>> (63 - (to & 63));
+        if (firstWord == lastWord) {
+            clearBits(firstWord, firstMask & lastMask);
+            return;
+        }
+        clearBits(firstWord, firstMask);
+        for(int w=firstWord + 1; w < lastWord; w++) {
+            words.set(w, 0);
         }
+        clearBits(lastWord, lastMask);
     }
 
     /**
@@ -48,7 +75,9 @@ public class BitsetScheduler implements Scheduler {
      */
     public void addAllTasks() {
         hasNewTasks = true;
-        bitset.set(0, bitset.size(), true);
+        for(int w=0; w < words.length(); w++) {
+            words.set(w, -1L);
+        }
     }
 
     /**
@@ -65,14 +94,56 @@ public class BitsetScheduler implements Scheduler {
      * @return
      */
     public boolean isScheduled(int i) {
-        return bitset.get(i);
+        return (words.get(i >>> 6) & (1L << i)) != 0;
+    }
+
+    /**
+     * Returns the first scheduled vertex in an interval.
+     * @param from first vertex
+     * @param to last vertex (inclusive)
+     * @return id of the vertex, or -1 if no vertex in the interval is scheduled
+     */
+    public int nextScheduled(int from, int to) {
+        if (from > to) return -1;
+        int w = from >>> 6;
+        int lastWord = to >>> 6;
+        long word = words.get(w) & (-1L << from);
+        while (word == 0) {
+            if (++w > lastWord) return -1;
+            word = words.get(w);
+        }
+        int i = (w << 6) + Long.numberOfTrailingZeros(word);
+        return (i <= to ? i : -1);
+    }
+
+    /**
+     * Returns the number of scheduled vertices in an interval.
+     * @param from first vertex
+     * @param to last vertex (inclusive)
+     */
+    public int numScheduled(int from, int to) {
+        if (from > to) return 0;
+        int firstWord = from >>> 6;
+        int lastWord = to >>> 6;
+        long firstMask = -1L << from;
+        long lastMask = -1L >>> (63 - (to & 63));
+        if (firstWord == lastWord) {
+            return Long.bitCount(words.get(firstWord) & firstMask & lastMask);
+        }
+        int n = Long.bitCount(words.get(firstWord) & firstMask);
+        for(int w=firstWord + 1; w < lastWord; w++) {
+            n += Long.bitCount(words.get(w));
+        }
+        return n + Long.bitCount(words.get(lastWord) & lastMask);
     }
 
     /**
      * Sets all bits to zero/
      */
     public void removeAllTasks() {
-        bitset.clear();
+        for(int w=0; w < words.length(); w++) {
+            words.set(w, 0);
+        }
         hasNewTasks = false;
     }
 
@@ -84,7 +155,7 @@ public class BitsetScheduler implements Scheduler {
      */
     public void scheduleOutNeighbors(ChiVertex vertex) {
         int nEdges = vertex.numOutEdges();
-        for(int i=0; i < nEdges; i++) addTask(vertex.outEdge(i).getVertexId());
+        for(int i=0; i < nEdges; i++) addTask(vertex.getOutEdgeId(i));
     }
 
     @Override
@@ -95,7 +166,7 @@ public class BitsetScheduler implements Scheduler {
      */
     public void scheduleInNeighbors(ChiVertex vertex) {
         int nEdges = vertex.numInEdges();
-        for(int i=0; i < nEdges; i++) addTask(vertex.inEdge(i).getVertexId());
+        for(int i=0; i < nEdges; i++) addTask(vertex.getInEdgeId(i));
     }
 
     /**
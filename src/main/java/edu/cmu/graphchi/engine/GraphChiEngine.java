@@ -1,23 +1,30 @@
 package edu.cmu.graphchi.engine;
 
 import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.Histogram;
 import com.yammer.metrics.core.Timer;
 import com.yammer.metrics.core.TimerContext;
 import edu.cmu.graphchi.*;
 import edu.cmu.graphchi.datablocks.BytesToValueConverter;
 import edu.cmu.graphchi.datablocks.DataBlockManager;
+import edu.cmu.graphchi.datablocks.OffHeapDataBlockManager;
 import edu.cmu.graphchi.engine.auxdata.DegreeData;
 import edu.cmu.graphchi.engine.auxdata.VertexData;
 import edu.cmu.graphchi.engine.auxdata.VertexDegree;
 import edu.cmu.graphchi.hadoop.PigGraphChiBase;
+import edu.cmu.graphchi.io.AsyncBlockIO;
 import edu.cmu.graphchi.preprocessing.VertexIdTranslate;
 import edu.cmu.graphchi.shards.MemoryShard;
 import edu.cmu.graphchi.shards.SlidingShard;
+import edu.cmu.graphchi.util.IntegerBuffer;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 
 /**
@@ -54,8 +61,12 @@ public class GraphChiEngine <VertexDataType, EdgeDataType> {
     protected GraphChiContextInternal chiContext = new GraphChiContextInternal();
     private DataBlockManager blockManager;
     private ExecutorService parallelExecutor;
+    private int numUpdateThreads;
     private ExecutorService loadingExecutor;
+    private ExecutorService prefetchExecutor;
+    private AsyncBlockIO blockIO;
     private DegreeData degreeHandler;
+    private GraphManifest manifest;
     private VertexData<VertexDataType> vertexDataHandler;
 
     protected int subIntervalStart, subIntervalEnd;
@@ -66,6 +77,12 @@ public class GraphChiEngine <VertexDataType, EdgeDataType> {
     protected BitsetScheduler scheduler = null;
     protected long nupdates = 0;
     protected boolean enableDeterministicExecution = true;
+    protected boolean enableColoring = false;
+    protected boolean enableAsynchronousExecution = false;
+    protected double selectiveLoadingThreshold = 0.05;
+    protected boolean useCompactWindows = false;
+    protected boolean adaptiveWindowSize = false;
+    protected int vertexDataCheckpointInterval = 1;
     private boolean useStaticWindowSize = false;
     protected long memBudget;
     protected VertexIdTranslate vertexIdTranslate;
@@ -76,8 +93,13 @@ public class GraphChiEngine <VertexDataType, EdgeDataType> {
     private static final Logger logger = ChiLogger.getLogger("engine");
 
     /* Automatic loading of next window */
-    private boolean autoLoadNext = false; // Only for only-adjacency cases!
+    private boolean autoLoadNext = false;
+    private boolean prefetching = false;
     private boolean skipZeroDegreeVertices = false;
+    private boolean useMemoryMappedShards = false;
+    private boolean useDirectIO = false;
+    private int numIOThreads = 2;
+    private int numLoadingThreads = 4;
 
     private FutureTask<IntervalData> nextWindow;
 
@@ -87,6 +109,37 @@ public class GraphChiEngine <VertexDataType, EdgeDataType> {
     private final Timer waitForFutureTimer = Metrics.defaultRegistry().newTimer(GraphChiEngine.class, "wait-for-future", TimeUnit.SECONDS, TimeUnit.MINUTES);
     private final Timer initVerticesTimer = Metrics.defaultRegistry().newTimer(GraphChiEngine.class, "init-vertices", TimeUnit.SECONDS, TimeUnit.MINUTES);
     private final Timer determineNextWindowTimer = Metrics.defaultRegistry().newTimer(GraphChiEngine.class, "det-next-window", TimeUnit.SECONDS, TimeUnit.MINUTES);
+    private final Timer checkpointTimer = Metrics.defaultRegistry().newTimer(GraphChiEngine.class, "vertex-data-checkpoint", TimeUnit.SECONDS, TimeUnit.MINUTES);
+    private final Timer coloringTimer = Metrics.defaultRegistry().newTimer(GraphChiEngine.class, "coloring", TimeUnit.SECONDS, TimeUnit.MINUTES);
+    private final Timer updateThreadBusyTimer = Metrics.defaultRegistry().newTimer(GraphChiEngine.class, "update-thread-busy", TimeUnit.MILLISECONDS, TimeUnit.SECONDS);
+    /* Busy time of the parallel update threads, as percentage of the time to execute the updates */
+    private final Histogram updateThreadUtilization = Metrics.defaultRegistry().newHistogram(GraphChiEngine.class, "update-thread-utilization", false);
+
+    /* Memory accounting, updated after each sub-interval has been loaded */
+    private volatile long trackedMemory = 0;
+    private volatile long windowMemory = 0;
+    /* Adjacency and edge data of the memory shard, which do not depend on the window size */
+    private volatile long memoryShardMemory = 0;
+    /* Ratio of the memory use of the windows to the estimate used for the window sizes */
+    private volatile double memoryScale = 1.0;
+    private static final double MIN_MEMORY_SCALE = 0.25;
+    private static final double MAX_MEMORY_SCALE = 4.0;
+
+    private final Gauge<Long> trackedMemoryGauge = Metrics.defaultRegistry().newGauge(GraphChiEngine.class, "tracked-memory", new Gauge<Long>() {
+        public Long value() {
+            return trackedMemory;
+        }
+    });
+    private final Gauge<Long> windowMemoryGauge = Metrics.defaultRegistry().newGauge(GraphChiEngine.class, "window-memory", new Gauge<Long>() {
+        public Long value() {
+            return windowMemory;
+        }
+    });
+    private final Gauge<Double> memoryScaleGauge = Metrics.defaultRegistry().newGauge(GraphChiEngine.class, "memory-estimate-scale", new Gauge<Double>() {
+        public Double value() {
+            return memoryScale;
+        }
+    });
 
 
     protected boolean modifiesInedges = true, modifiesOutedges = true;
@@ -103,12 +156,15 @@ public class GraphChiEngine <VertexDataType, EdgeDataType> {
     public GraphChiEngine(String baseFilename, int nShards) throws FileNotFoundException, IOException {
         this.baseFilename = baseFilename;
         this.nShards = nShards;
+        manifest = GraphManifest.load(baseFilename, nShards);
         loadIntervals();
         blockManager = new DataBlockManager();
-        degreeHandler = new DegreeData(baseFilename);
+        degreeHandler = (manifest != null ? new DegreeData(baseFilename, manifest.isSparseDegrees()) : new DegreeData(baseFilename));
 
         File vertexIdTranslateFile = new File(ChiFilenames.getVertexTranslateDefFile(baseFilename, nShards));
-        if (vertexIdTranslateFile.exists()) {
+        if (manifest != null) {
+            vertexIdTranslate = manifest.getVertexIdTranslate();
+        } else if (vertexIdTranslateFile.exists()) {
             vertexIdTranslate = VertexIdTranslate.fromFile(vertexIdTranslateFile);
         } else {
             vertexIdTranslate = VertexIdTranslate.identity();
@@ -131,7 +187,19 @@ public class GraphChiEngine <VertexDataType, EdgeDataType> {
     }
 
     protected void loadIntervals() throws FileNotFoundException, IOException {
-        intervals = ChiFilenames.loadIntervals(baseFilename, nShards);
+        intervals = (manifest != null ? manifest.getIntervals() : ChiFilenames.loadIntervals(baseFilename, nShards));
+    }
+
+    /**
+     * @return the manifest of the graph, or null if the graph was sharded without one
+     */
+    public GraphManifest getManifest() {
+        return manifest;
+    }
+
+    /* Size of the edge data of shard p from the manifest, or -1 if it is not there for the edge values */
+    private long manifestEdataSize(int p) {
+        return (manifest == null || onlyAdjacency ? -1 : manifest.getEdataSize(p, edataConverter.sizeOf()));
     }
 
 
@@ -179,12 +247,23 @@ public class GraphChiEngine <VertexDataType, EdgeDataType> {
             String edataFilename = (onlyAdjacency ? null : ChiFilenames.getFilenameShardEdata(baseFilename, edataConverter, p, nShards));
             String adjFilename = ChiFilenames.getFilenameShardsAdj(baseFilename, p, nShards);
 
-            SlidingShard<EdgeDataType> slidingShard = new SlidingShard<EdgeDataType>(edataFilename, adjFilename, intervals.get(p).getFirstVertex(),
-                    intervals.get(p).getLastVertex());
+            SlidingShard<EdgeDataType> slidingShard;
+            if (manifest == null) {
+                slidingShard = new SlidingShard<EdgeDataType>(edataFilename, adjFilename, intervals.get(p).getFirstVertex(),
+                        intervals.get(p).getLastVertex());
+            } else {
+                long edataSize = manifestEdataSize(p);
+                slidingShard = new SlidingShard<EdgeDataType>(edataFilename, adjFilename, intervals.get(p).getFirstVertex(),
+                        intervals.get(p).getLastVertex(), manifest.getAdjSize(p), edataSize,
+                        (edataSize >= 0 ? manifest.getCodec() : null), manifest.getAdjacencyFormat());
+            }
             slidingShard.setConverter(edataConverter);
             slidingShard.setDataBlockManager(blockManager);
+            slidingShard.setBlockIO(blockIO);
             slidingShard.setModifiesOutedges(modifiesOutedges);
             slidingShard.setOnlyAdjacency(onlyAdjacency);
+            slidingShard.setDirectIO(useDirectIO);
+            slidingShard.setParallelExecutor(parallelExecutor);
             slidingShards.add(slidingShard);
 
         }
@@ -198,12 +277,30 @@ public class GraphChiEngine <VertexDataType, EdgeDataType> {
         String edataFilename = (onlyAdjacency ? null : ChiFilenames.getFilenameShardEdata(baseFilename, edataConverter, execInterval, nShards));
         String adjFilename = ChiFilenames.getFilenameShardsAdj(baseFilename, execInterval, nShards);
 
-        MemoryShard<EdgeDataType> newMemoryShard = new MemoryShard<EdgeDataType>(edataFilename, adjFilename,
-                intervals.get(execInterval).getFirstVertex(),
-                intervals.get(execInterval).getLastVertex());
+        MemoryShard<EdgeDataType> newMemoryShard;
+        if (manifest == null) {
+            newMemoryShard = new MemoryShard<EdgeDataType>(edataFilename, adjFilename,
+                    intervals.get(execInterval).getFirstVertex(),
+                    intervals.get(execInterval).getLastVertex());
+        } else {
+            long edataSize = manifestEdataSize(execInterval);
+            newMemoryShard = new MemoryShard<EdgeDataType>(edataFilename, adjFilename,
+                    intervals.get(execInterval).getFirstVertex(),
+                    intervals.get(execInterval).getLastVertex(), edataSize,
+                    (edataSize >= 0 ? manifest.getCodec() : null), manifest.getAdjacencyFormat());
+        }
         newMemoryShard.setConverter(edataConverter);
         newMemoryShard.setDataBlockManager(blockManager);
+        newMemoryShard.setBlockIO(blockIO);
         newMemoryShard.setOnlyAdjacency(onlyAdjacency);
+        newMemoryShard.setUseMemoryMapping(useMemoryMappedShards);
+        if (enableScheduler && scheduler != null) {
+            long numScheduled = scheduler.numScheduled(intervalStart, intervalEnd);
+            if (numScheduled < selectiveLoadingThreshold * (intervalEnd - intervalStart + 1)) {
+                logger.info("Only " + numScheduled + " vertices scheduled, loading edge data selectively.");
+                newMemoryShard.setSelectiveLoading(true);
+            }
+        }
         return newMemoryShard;
     }
 
@@ -236,8 +333,21 @@ public class GraphChiEngine <VertexDataType, EdgeDataType> {
 
         logger.info(":::::::: Using " + nprocs + " execution threads :::::::::");
 
+        numUpdateThreads = nprocs;
         parallelExecutor = Executors.newFixedThreadPool(nprocs);
-        loadingExecutor = Executors.newFixedThreadPool(4);
+        loadingExecutor = Executors.newFixedThreadPool(numLoadingThreads);
+        if (numIOThreads > 0) {
+            blockIO = new AsyncBlockIO(numIOThreads, numIOThreads * 4);
+        }
+
+        /* The scheduler may add tasks to vertices of the next window while it is being loaded */
+        prefetching = autoLoadNext && !enableScheduler;
+        if (autoLoadNext && !prefetching) {
+            logger.info("Loading the next window ahead is not supported with the scheduler, disabled.");
+        }
+        if (prefetching) {
+            prefetchExecutor = Executors.newSingleThreadExecutor();
+        }
 
         chiContext.setNumIterations(niters);
 
@@ -272,6 +382,7 @@ public class GraphChiEngine <VertexDataType, EdgeDataType> {
 
         for(int iter=0; iter < niters; iter++) {
             /* Wait for executor have finished all writes */
+            if (blockIO != null) blockIO.drain();
             while (!blockManager.empty()) {
                 try {
                     Thread.sleep(50);
@@ -305,8 +416,9 @@ public class GraphChiEngine <VertexDataType, EdgeDataType> {
                 program.beginInterval(chiContext, intervals.get(execInterval));
 
                 MemoryShard<EdgeDataType> memoryShard = null;
+                boolean handedOffOffset = false;
                 if (!disableInEdges) {
-                    if (!onlyAdjacency || !autoLoadNext || nextWindow == null) {
+                    if (nextWindow == null) {
                         if (!disableOutEdges) slidingShards.get(execInterval).flush();     // MESSY!
                         memoryShard = createMemoryShard(intervalSt, intervalEn, execInterval);
                     } else {
@@ -321,10 +433,10 @@ public class GraphChiEngine <VertexDataType, EdgeDataType> {
                     if (Integer.MAX_VALUE - subIntervalStart < maxWindow) adjMaxWindow = Integer.MAX_VALUE - subIntervalStart - 1;
 
                     if (anyVertexScheduled(subIntervalStart, Math.min(intervalEn, subIntervalStart + adjMaxWindow ))) {
-                        ChiVertex<VertexDataType, EdgeDataType>[] vertices = null;
+                        VertexWindow<VertexDataType, EdgeDataType> vertices = null;
                         int vertexBlockId = -1;
 
-                        if (!autoLoadNext || nextWindow == null) {
+                        if (nextWindow == null) {
                             try {
                                 subIntervalEnd = determineNextWindow(subIntervalStart, Math.min(intervalEn, subIntervalStart + adjMaxWindow ));
                             } catch (NoEdgesInIntervalException nie) {
@@ -337,38 +449,52 @@ public class GraphChiEngine <VertexDataType, EdgeDataType> {
 
                             logger.info("Subinterval:: " + subIntervalStart + " -- " + subIntervalEnd + " (iteration " + iter + ")");
 
-                            vertices = new ChiVertex[nvertices];
-
                             logger.info("Init vertices...");
-                            vertexBlockId = initVertices(nvertices, subIntervalStart, vertices);
+                            IntervalData window = initWindow(subIntervalStart, subIntervalEnd, memoryShard, execInterval);
+                            vertices = window.getVertices();
+                            vertexBlockId = window.getVertexBlockId();
 
                             logger.info("Loading...");
                             long t0 = System.currentTimeMillis();
-                            loadBeforeUpdates(execInterval, vertices, memoryShard, subIntervalStart, subIntervalEnd);
+                            loadBeforeUpdates(execInterval, vertices, memoryShard, subIntervalStart, subIntervalEnd, false);
                             logger.info("Load took: " + (System.currentTimeMillis() - t0) + "ms");
                         } else {
-                            /* This is a mess! */
+                            /* The window was loaded while the previous one was updated */
+                            IntervalData next;
                             try {
                                 long tf = System.currentTimeMillis();
                                 final TimerContext _timer = waitForFutureTimer.time();
-                                IntervalData next = nextWindow.get();
-
-                                memoryShard = next.getMemShard();
+                                next = nextWindow.get();
                                 _timer.stop();
                                 logger.info("Waiting for future task loading took " + (System.currentTimeMillis() - tf) + " ms");
-                                if (subIntervalStart != next.getSubInterval().getFirstVertex())
-                                    throw new IllegalStateException("Future loaders interval does not match the expected one! " +
-                                            subIntervalStart + " != " + next.getSubInterval().getFirstVertex());
-                                subIntervalEnd = next.getSubInterval().getLastVertex();
-                                vertexBlockId = next.getVertexBlockId();
-                                vertices = next.getVertices();
-                                nextWindow = null;
                             } catch (Exception err) {
                                 throw new RuntimeException(err);
                             }
+                            nextWindow = null;
+
+                            /* Previous window has been updated, so the blocks it used alone can be written */
+                            if (!disableOutEdges) {
+                                for(SlidingShard<EdgeDataType> shard : slidingShards) {
+                                    shard.releaseRetiredBlocks(false);
+                                }
+                            }
+
+                            if (next.getMemShard() != null) memoryShard = next.getMemShard();
+                            if (subIntervalStart != next.getSubInterval().getFirstVertex())
+                                throw new IllegalStateException("Future loaders interval does not match the expected one! " +
+                                        subIntervalStart + " != " + next.getSubInterval().getFirstVertex());
+                            subIntervalEnd = next.getSubInterval().getLastVertex();
+                            vertexBlockId = next.getVertexBlockId();
+                            vertices = next.getVertices();
+
+                            if (vertices == null) {
+                                logger.info("No edges, skip: " + subIntervalStart + " -- " + subIntervalEnd);
+                                subIntervalStart = subIntervalEnd + 1;
+                                continue;
+                            }
                         }
 
-                        if (autoLoadNext) {
+                        if (prefetching) {
                             /* Start a future for loading the next window */
                             adjMaxWindow = maxWindow;
                             if (Integer.MAX_VALUE - subIntervalEnd < maxWindow) adjMaxWindow = Integer.MAX_VALUE - subIntervalEnd - 1;
@@ -376,21 +502,28 @@ public class GraphChiEngine <VertexDataType, EdgeDataType> {
                             if (subIntervalEnd + 1 <= intervalEn) {
                                 nextWindow = new FutureTask<IntervalData>(new AutoLoaderTask(new VertexInterval(subIntervalEnd + 1,
                                         Math.min(intervalEn, subIntervalEnd + 1 + adjMaxWindow)), execInterval, memoryShard));
-                            } else if (execInterval < nShards - 1) {
+                            } else if (execInterval < nShards - 1 && onlyAdjacency) {
+                                /* With edge data, the next interval cannot be loaded before the memory shard
+                                   of this interval has been committed. */
                                 int nextIntervalSt = intervals.get(execInterval + 1).getFirstVertex();
                                 int nextIntervalEn = intervals.get(execInterval + 1).getLastVertex();
 
-                                slidingShards.get(execInterval).setOffset(memoryShard.getStreamingOffset(),
-                                        memoryShard.getStreamingOffsetVid(), memoryShard.getStreamingOffsetEdgePtr());
+                                if (!disableInEdges && !disableOutEdges) {
+                                    slidingShards.get(execInterval).setOffset(memoryShard.getStreamingOffset(),
+                                            memoryShard.getStreamingOffsetVid(), memoryShard.getStreamingOffsetEdgePtr());
+                                    handedOffOffset = true;
+                                }
                                 nextWindow = new FutureTask<IntervalData>(new AutoLoaderTask(new VertexInterval(nextIntervalSt,
                                         Math.min(nextIntervalEn, nextIntervalSt + 1 + adjMaxWindow)), execInterval + 1,
-                                        createMemoryShard(nextIntervalSt, nextIntervalEn, execInterval + 1)));
+                                        (disableInEdges ? null : createMemoryShard(nextIntervalSt, nextIntervalEn, execInterval + 1))));
 
                             }
                             if (nextWindow != null)
-                                loadingExecutor.submit(nextWindow);
+                                prefetchExecutor.submit(nextWindow);
 
                         }
+                        accountMemory(vertices, memoryShard);
+
                         /* Clear scheduler bits */
                         if (scheduler != null) scheduler.removeTasks(subIntervalStart, subIntervalEnd);
 
@@ -431,7 +564,7 @@ public class GraphChiEngine <VertexDataType, EdgeDataType> {
                 /* Commit */
                 if (!disableInEdges) {
                     memoryShard.commitAndRelease(modifiesInedges, modifiesOutedges);
-                    if (!disableOutEdges && !autoLoadNext) {
+                    if (!disableOutEdges && !handedOffOffset) {
                         slidingShards.get(execInterval).setOffset(memoryShard.getStreamingOffset(),
                                 memoryShard.getStreamingOffsetVid(), memoryShard.getStreamingOffsetEdgePtr());
                     }
@@ -443,11 +576,33 @@ public class GraphChiEngine <VertexDataType, EdgeDataType> {
                 shard.setOffset(0, 0, 0);
             }
             program.endIteration(chiContext);
+
+            if (vertexDataHandler != null && vertexDataCheckpointInterval > 0 && (iter + 1) % vertexDataCheckpointInterval == 0) {
+                final TimerContext _timer = checkpointTimer.time();
+                vertexDataHandler.checkpoint();
+                _timer.stop();
+            }
         }    // Iterations
 
+        if (blockIO != null) {
+            blockIO.drain();
+            blockIO.shutdown();
+            blockIO = null;
+        }
         parallelExecutor.shutdown();
         loadingExecutor.shutdown();
+        if (prefetchExecutor != null) {
+            prefetchExecutor.shutdown();
+            prefetchExecutor = null;
+        }
+        try {
+            /* Vertex data is committed on the parallel executor */
+            parallelExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+        } catch (InterruptedException ie) {}
 
+        for(SlidingShard shard : slidingShards) {
+            shard.close();
+        }
         if (vertexDataHandler != null)
             vertexDataHandler.close();
         logger.info("Engine finished in: " + (System.currentTimeMillis() - startTime) * 0.001 + " secs.");
@@ -456,53 +611,136 @@ public class GraphChiEngine <VertexDataType, EdgeDataType> {
 
     private boolean anyVertexScheduled(int subIntervalStart, int lastVertex) {
         if (!enableScheduler) return true;
-
-        for(int i=subIntervalStart; i<= lastVertex; i++) {
-            if (scheduler.isScheduled(i)) return true;
-        }
-        return false;
+        return scheduler.nextScheduled(subIntervalStart, lastVertex) >= 0;
     }
 
     private void initializeScheduler() {
         scheduler = new BitsetScheduler(numVertices());
     }
 
+    private static final int CHUNKS_PER_THREAD = 16;
+
+    /* Estimate of the memory used per vertex by a compact window (offsets, counters and flags) */
+    private static final int COMPACT_VERTEX_OVERHEAD = 24;
+    private static final int MIN_CHUNK_EDGES = 1024;
+
+    /**
+     * Splits the vertices to about numChunks chunks with equal number of edges.
+     * A vertex with more edges than a chunk gets a chunk of its own.
+     * @param order indices of the vertices to split, or null for all vertices of the window
+     * @return start position of each chunk, and the number of vertices as the last element
+     */
+    static int[] splitByEdges(VertexWindow<?, ?> vertices, int[] order, int numChunks) {
+        int n = (order == null ? vertices.size() : order.length);
+        long totalEdges = 0;
+        for(int k=0; k < n; k++) {
+            totalEdges += 1 + vertices.numEdges(order == null ? k : order[k]);
+        }
+        long chunkEdges = Math.max(MIN_CHUNK_EDGES, totalEdges / numChunks + 1);
+
+        IntegerBuffer starts = new IntegerBuffer(numChunks + 2);
+        starts.add(0);
+        long edges = 0;
+        for(int k=0; k < n; k++) {
+            int i = (order == null ? k : order[k]);
+            int numEdges = vertices.numEdges(i);
+            if (vertices.contains(i) && edges > 0 && edges + 1 + numEdges > chunkEdges) {
+                starts.add(k);
+                edges = 0;
+            }
+            edges += 1 + numEdges;
+        }
+        starts.add(n);
+        return starts.toIntArray();
+    }
+
+    static <V, E> int[] splitByEdges(ChiVertex<V, E>[] vertices, int numChunks) {
+        return splitByEdges(new VertexArrayWindow<V, E>(vertices), null, numChunks);
+    }
+
     private void execUpdates(final GraphChiProgram<VertexDataType, EdgeDataType> program,
-                             final ChiVertex<VertexDataType, EdgeDataType>[] vertices) {
-        if (vertices == null || vertices.length == 0) return;
+                             final VertexWindow<VertexDataType, EdgeDataType> vertices) {
+        if (vertices == null || vertices.size() == 0) return;
         TimerContext _timer = executionTimer.time();
         if (Runtime.getRuntime().availableProcessors() == 1) {
             /* Sequential updates */
-            for(ChiVertex<VertexDataType, EdgeDataType> vertex : vertices) {
-                if (vertex != null) {
+            ChiVertex<VertexDataType, EdgeDataType> vertex = null;
+            for(int i=0; i < vertices.size(); i++) {
+                ChiVertex<VertexDataType, EdgeDataType> v = vertices.vertex(i, vertex);
+                if (v != null) {
+                    vertex = v;
                     nupdates++;
                     program.update(vertex, chiContext);
                 }
             }
+        } else if (enableColoring && enableDeterministicExecution && !enableAsynchronousExecution && !disableInEdges && !disableOutEdges) {
+            /* Color classes one after another, each in parallel */
+            final TimerContext _coloringTimer = coloringTimer.time();
+            int[][] colorClasses = colorClasses(vertices, subIntervalStart);
+            _coloringTimer.stop();
+            for(int[] colorClass : colorClasses) {
+                updateInParallel(program, vertices, colorClass, false);
+            }
         } else {
-            final Object termlock = new Object();
-            final int chunkSize = 1 + vertices.length / 64;
-
-            final int nWorkers = vertices.length / chunkSize + 1;
-            final AtomicInteger countDown = new AtomicInteger(1 + nWorkers);
+            /* Without deterministic execution, all vertices are updated in parallel */
+            updateInParallel(program, vertices, null, enableDeterministicExecution && !enableAsynchronousExecution);
+        }
+        _timer.stop();
+    }
 
-            if (!enableDeterministicExecution) {
-                for(ChiVertex<VertexDataType, EdgeDataType> vertex : vertices) {
-                    if (vertex != null) vertex.parallelSafe = true;
+    /**
+     * Updates the vertices in parallel and waits for the updates to finish.
+     * @param order indices of the vertices to update, or null for all vertices of the window
+     * @param sequentialUnsafe if true, vertices which are not parallel safe are
+     *                         updated in order in one thread, concurrently with the others.
+     */
+    private void updateInParallel(final GraphChiProgram<VertexDataType, EdgeDataType> program,
+                                  final VertexWindow<VertexDataType, EdgeDataType> vertices,
+                                  final int[] order, final boolean sequentialUnsafe) {
+        /* The vertices are split to chunks of about equal number of edges. Threads
+           take the next chunk when they are done, so that a thread which gets
+           the chunks with the high-degree vertices does not hold up the others. */
+        final int[] chunkStarts = splitByEdges(vertices, order, numUpdateThreads * CHUNKS_PER_THREAD);
+        final int numChunks = chunkStarts.length - 1;
+        final int n = chunkStarts[numChunks];
+
+        if (!sequentialUnsafe && numChunks <= 1) {
+            /* Not worth the threads */
+            ChiVertex<VertexDataType, EdgeDataType> vertex = null;
+            for(int k=0; k < n; k++) {
+                ChiVertex<VertexDataType, EdgeDataType> v = vertices.vertex(order == null ? k : order[k], vertex);
+                if (v != null) {
+                    vertex = v;
+                    nupdates++;
+                    program.update(vertex, chiContext);
                 }
             }
+            return;
+        }
 
-            /* Parallel updates. One thread for non-parallel safe updates, others
-     updated in parallel. This guarantees deterministic execution. */
+        final AtomicInteger nextChunk = new AtomicInteger(0);
+        final int nWorkers = Math.min(numUpdateThreads, numChunks);
 
-            /* Non-safe updates */
+        final CountDownLatch finished = new CountDownLatch((sequentialUnsafe ? 1 : 0) + nWorkers);
+        final AtomicLong updates = new AtomicLong(0);
+        final AtomicLong busyNanos = new AtomicLong(0);
+        final long startTime = System.nanoTime();
+
+        /* Parallel updates. One thread for non-parallel safe updates, others
+ updated in parallel. This guarantees deterministic execution. */
+
+        /* Non-safe updates */
+        if (sequentialUnsafe) {
             parallelExecutor.submit(new Runnable() {
                 public void run() {
                     int thrupdates = 0;
                     GraphChiContext threadContext = chiContext.clone(0);
                     try {
-                        for(ChiVertex<VertexDataType, EdgeDataType> vertex : vertices) {
-                            if (vertex != null && !vertex.parallelSafe) {
+                        ChiVertex<VertexDataType, EdgeDataType> vertex = null;
+                        for(int k=0; k < n; k++) {
+                            ChiVertex<VertexDataType, EdgeDataType> v = vertices.vertex(order == null ? k : order[k], vertex);
+                            if (v != null && !v.parallelSafe) {
+                                vertex = v;
                                 thrupdates++;
                                 program.update(vertex, threadContext);
                             }
@@ -511,104 +749,209 @@ public class GraphChiEngine <VertexDataType, EdgeDataType> {
                     } catch (Exception e) {
                         e.printStackTrace();
                     }  finally {
-                        int pending = countDown.decrementAndGet();
-                        synchronized (termlock) {
-                            nupdates += thrupdates;
-                            if (pending == 0) {
-                                termlock.notifyAll();;
-                            }
-                        }
+                        updates.addAndGet(thrupdates);
+                        finished.countDown();
                     }
                 }
             });
+        }
 
 
-            /* Parallel updates */
-            for(int thrId = 0; thrId < nWorkers; thrId++) {
-                final int myId = thrId;
-                final int chunkStart = myId * chunkSize;
-                final int chunkEnd = chunkStart + chunkSize;
+        /* Parallel updates */
+        for(int thrId = 0; thrId < nWorkers; thrId++) {
+            final int myId = thrId;
 
-                parallelExecutor.submit(new Runnable() {
+            parallelExecutor.submit(new Runnable() {
 
-                    public void run() {
-                        int thrupdates = 0;
-                        GraphChiContext threadContext = chiContext.clone(1 + myId);
+                public void run() {
+                    long st = System.nanoTime();
+                    int thrupdates = 0;
+                    GraphChiContext threadContext = chiContext.clone(1 + myId);
 
-                        try {
-                            int end = chunkEnd;
-                            if (end > vertices.length) end = vertices.length;
-                            for(int i = chunkStart; i < end; i++) {
-                                ChiVertex<VertexDataType, EdgeDataType> vertex = vertices[i];
-                                if (vertex != null && vertex.parallelSafe) {
+                    try {
+                        ChiVertex<VertexDataType, EdgeDataType> vertex = null;
+                        int chunk;
+                        while((chunk = nextChunk.getAndIncrement()) < numChunks) {
+                            int end = chunkStarts[chunk + 1];
+                            for(int k = chunkStarts[chunk]; k < end; k++) {
+                                ChiVertex<VertexDataType, EdgeDataType> v = vertices.vertex(order == null ? k : order[k], vertex);
+                                if (v != null && (v.parallelSafe || !sequentialUnsafe)) {
+                                    vertex = v;
                                     thrupdates++;
                                     program.update(vertex, threadContext);
                                 }
                             }
-
-                        } catch (Exception e) {
-                            e.printStackTrace();
-                        } finally {
-                            int pending = countDown.decrementAndGet();
-                            synchronized (termlock) {
-                                nupdates += thrupdates;
-                                if (pending == 0) {
-                                    termlock.notifyAll();
-                                }
-                            }
                         }
+
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    } finally {
+                        long busy = System.nanoTime() - st;
+                        updateThreadBusyTimer.update(busy, TimeUnit.NANOSECONDS);
+                        busyNanos.addAndGet(busy);
+                        updates.addAndGet(thrupdates);
+                        finished.countDown();
                     }
-                });
+                }
+            });
+        }
+
+        boolean interrupted = false;
+        while (true) {
+            try {
+                finished.await();
+                break;
+            } catch (InterruptedException e) {
+                /* The updates must finish before the vertices are committed */
+                interrupted = true;
             }
-            synchronized (termlock) {
-                while(countDown.get() > 0) {
-                    try {
-                        termlock.wait(1500);
-                    } catch (InterruptedException e) {
-                        // What to do?
-                        e.printStackTrace();
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+
+        nupdates += updates.get();
+        long elapsed = System.nanoTime() - startTime;
+        if (elapsed > 0 && nWorkers > 0) {
+            updateThreadUtilization.update((int) (100 * busyNanos.get() / (nWorkers * elapsed)));
+        }
+    }
+
+    /**
+     * Greedy coloring of the vertices in the order of their ids: a vertex gets the
+     * smallest color not used by its neighbors in the window with smaller ids.
+     * Vertices of the same color have no edges between them, so they can be updated
+     * in parallel. The coloring does not depend on the order of the edges, so
+     * the execution is deterministic. Parallel safe vertices get color 0.
+     * @param firstVertex id of the vertex at index 0
+     * @return indices of the vertices of each color
+     */
+    static <V, E> int[][] colorClasses(VertexWindow<V, E> vertices, int firstVertex) {
+        int[] colors = new int[vertices.size()];
+        /* usedBy[c] == i + 1 if a neighbor of the i'th vertex has color c */
+        int[] usedBy = new int[16];
+        int[] classSizes = new int[16];
+        int numColors = 0;
+
+        ChiVertex<V, E> vertex = null;
+        for(int i=0; i < colors.length; i++) {
+            ChiVertex<V, E> v = vertices.vertex(i, vertex);
+            if (v == null) {
+                colors[i] = -1;
+                continue;
+            }
+            vertex = v;
+            int color = 0;
+            if (!vertex.parallelSafe) {
+                int numIn = vertex.numInEdges();
+                int n = vertex.numEdges();
+                for(int j=0; j < n; j++) {
+                    int nb = (j < numIn ? vertex.getInEdgeId(j) : vertex.getOutEdgeId(j - numIn)) - firstVertex;
+                    if (nb >= 0 && nb < i && colors[nb] >= 0) {
+                        usedBy[colors[nb]] = i + 1;
                     }
-                    if (countDown.get() > 0) logger.info("Waiting for execution to finish: countDown:" + countDown.get());
                 }
+                while (usedBy[color] == i + 1) color++;
+            }
+            colors[i] = color;
+            if (color + 1 >= usedBy.length) {
+                usedBy = Arrays.copyOf(usedBy, usedBy.length * 2);
+                classSizes = Arrays.copyOf(classSizes, classSizes.length * 2);
             }
+            classSizes[color]++;
+            numColors = Math.max(numColors, color + 1);
+        }
 
+        int[][] classes = new int[numColors][];
+        for(int c=0; c < numColors; c++) {
+            classes[c] = new int[classSizes[c]];
+            classSizes[c] = 0;
         }
-        _timer.stop();
+        for(int i=0; i < colors.length; i++) {
+            if (colors[i] >= 0) {
+                classes[colors[i]][classSizes[colors[i]]++] = i;
+            }
+        }
+        return classes;
+    }
+
+    protected int initVertices(int nvertices, int firstVertexId, ChiVertex<VertexDataType, EdgeDataType>[] vertices) throws IOException {
+        return initVertices(nvertices, firstVertexId, vertices, null);
     }
 
-    protected int initVertices(int nvertices, int firstVertexId, ChiVertex<VertexDataType, EdgeDataType>[] vertices) throws IOException
+    /**
+     * Creates the vertices of a window, either to the array or to the compact window.
+     * @return vertex data block
+     */
+    private int initVertices(int nvertices, int firstVertexId, ChiVertex<VertexDataType, EdgeDataType>[] vertices,
+                             CompactVertexWindow<VertexDataType, EdgeDataType> compactWindow) throws IOException
     {
         final TimerContext _timer = initVerticesTimer.time();
         ChiVertex.edgeValueConverter = edataConverter;
         ChiVertex.vertexValueConverter = vertexDataConverter;
         ChiVertex.blockManager = blockManager;
+        blockManager.setLocking(enableAsynchronousExecution);
 
         int blockId = (vertexDataConverter != null ? vertexDataHandler.load(firstVertexId, firstVertexId + nvertices - 1) : -1);
         for(int j=0; j < nvertices; j++) {
-            if (enableScheduler && !scheduler.isScheduled(j + firstVertexId)) {
+            if (enableScheduler) {
+                /* Skip to the next scheduled vertex */
+                int next = scheduler.nextScheduled(j + firstVertexId, firstVertexId + nvertices - 1);
+                if (next < 0) break;
+                j = next - firstVertexId;
+            }
+
+            int inDegree = degreeHandler.inDegree(j + firstVertexId);
+            int outDegree = degreeHandler.outDegree(j + firstVertexId);
+            if (skipZeroDegreeVertices && (inDegree + outDegree == 0)) {
                 continue;
             }
 
-            VertexDegree degree = degreeHandler.getDegree(j + firstVertexId);
-            if (skipZeroDegreeVertices && (degree.inDegree + degree.outDegree == 0)) {
+            if (compactWindow != null) {
+                compactWindow.addVertex(j, inDegree, outDegree);
+                if (vertexDataConverter != null) {
+                    compactWindow.setVertexDataPtr(j, vertexDataHandler.getVertexValuePtr(j + firstVertexId, blockId));
+                }
                 continue;
             }
 
-            ChiVertex<VertexDataType, EdgeDataType> v = new ChiVertex<VertexDataType, EdgeDataType>(j + firstVertexId, degree);
+            ChiVertex<VertexDataType, EdgeDataType> v = new ChiVertex<VertexDataType, EdgeDataType>(j + firstVertexId,
+                    new VertexDegree(inDegree, outDegree));
 
             if (vertexDataConverter != null) {
                 v.setDataPtr(vertexDataHandler.getVertexValuePtr(j + firstVertexId, blockId));
             }
             vertices[j] = v;
         }
-
+        if (compactWindow != null) {
+            compactWindow.allocateEdges();
+        }
 
         _timer.stop();
         return blockId;
     }
 
-    private void loadBeforeUpdates(int interval, final ChiVertex<VertexDataType, EdgeDataType>[] vertices,  final MemoryShard<EdgeDataType> memShard,
-                                   final int startVertex, final int endVertex) throws IOException {
+    /**
+     * Creates the vertices of a window. The edges are not loaded.
+     */
+    private IntervalData initWindow(int firstVertex, int lastVertex, MemoryShard<EdgeDataType> memShard,
+                                    int intervalNum) throws IOException {
+        int nvertices = lastVertex - firstVertex + 1;
+        VertexWindow<VertexDataType, EdgeDataType> window;
+        int vertexBlockId;
+        if (useCompactWindows) {
+            CompactVertexWindow<VertexDataType, EdgeDataType> compactWindow =
+                    new CompactVertexWindow<VertexDataType, EdgeDataType>(firstVertex, nvertices);
+            vertexBlockId = initVertices(nvertices, firstVertex, null, compactWindow);
+            window = compactWindow;
+        } else {
+            ChiVertex<VertexDataType, EdgeDataType>[] vertices = (ChiVertex<VertexDataType, EdgeDataType>[]) new ChiVertex[nvertices];
+            vertexBlockId = initVertices(nvertices, firstVertex, vertices, null);
+            window = new VertexArrayWindow<VertexDataType, EdgeDataType>(vertices);
+        }
+        return new IntervalData(new VertexInterval(firstVertex, lastVertex), window, vertexBlockId, memShard, intervalNum);
+    }
+
+    private void loadBeforeUpdates(int interval, final VertexWindow<VertexDataType, EdgeDataType> vertices,  final MemoryShard<EdgeDataType> memShard,
+                                   final int startVertex, final int endVertex, final boolean deferRelease) throws IOException {
         final Object terminationLock = new Object();
         final TimerContext _timer = loadTimer.time();
         // TODO: make easier to read
@@ -646,7 +989,7 @@ public class GraphChiEngine <VertexDataType, EdgeDataType> {
 
                             public void run() {
                                 try {
-                                    shard.readNextVertices(vertices, startVertex, false);
+                                    shard.readNextVertices(vertices, startVertex, false, deferRelease);
                                     if (countDown.decrementAndGet() == 0) {
                                         synchronized (terminationLock) {
                                             terminationLock.notifyAll();
@@ -688,6 +1031,7 @@ public class GraphChiEngine <VertexDataType, EdgeDataType> {
     }
 
     public long numEdges() {
+        if (manifest != null) return manifest.getNumEdges();
         long numEdges = 0;
         for(SlidingShard shard : slidingShards) {
             numEdges += shard.getNumEdges();
@@ -698,12 +1042,12 @@ public class GraphChiEngine <VertexDataType, EdgeDataType> {
 
     class IntervalData {
         private VertexInterval subInterval;
-        private ChiVertex<VertexDataType, EdgeDataType>[] vertices;
+        private VertexWindow<VertexDataType, EdgeDataType> vertices;
         private int vertexBlockId;
         private MemoryShard<EdgeDataType> memShard;
         private int intervalNum;
 
-        IntervalData(VertexInterval subInterval, ChiVertex<VertexDataType, EdgeDataType>[] vertices, int vertexBlockId,
+        IntervalData(VertexInterval subInterval, VertexWindow<VertexDataType, EdgeDataType> vertices, int vertexBlockId,
                      MemoryShard<EdgeDataType> memShard, int intervalNum) {
             this.subInterval = subInterval;
             this.vertices = vertices;
@@ -716,7 +1060,7 @@ public class GraphChiEngine <VertexDataType, EdgeDataType> {
             return subInterval;
         }
 
-        public ChiVertex<VertexDataType, EdgeDataType>[] getVertices() {
+        public VertexWindow<VertexDataType, EdgeDataType> getVertices() {
             return vertices;
         }
 
@@ -735,7 +1079,6 @@ public class GraphChiEngine <VertexDataType, EdgeDataType> {
 
     class AutoLoaderTask implements Callable<IntervalData> {
 
-        private ChiVertex<VertexDataType, EdgeDataType>[] vertices;
         private VertexInterval interval;
         private MemoryShard<EdgeDataType> memShard;
         private int intervalNum;
@@ -744,26 +1087,19 @@ public class GraphChiEngine <VertexDataType, EdgeDataType> {
             this.interval = interval;
             this.memShard = memShard;
             this.intervalNum = intervalNum;
-            if (!onlyAdjacency)  throw new RuntimeException("Can use auto-loading only with only-adjacency mode!");
         }
 
         @Override
-        public IntervalData call() {
+        public IntervalData call() throws IOException {
             try {
                 int lastVertex  = determineNextWindow(interval.getFirstVertex(), interval.getLastVertex());
-                int nVertices = lastVertex - interval.getFirstVertex() + 1;
-                this.vertices = (ChiVertex<VertexDataType, EdgeDataType>[]) new ChiVertex[nVertices];
-                int vertexBlockid = initVertices(nVertices, interval.getFirstVertex(), vertices);
+                IntervalData window = initWindow(interval.getFirstVertex(), lastVertex, memShard, intervalNum);
 
-                loadBeforeUpdates(intervalNum, vertices, memShard, interval.getFirstVertex(), lastVertex);
-                return new IntervalData(new VertexInterval(interval.getFirstVertex(), lastVertex), vertices, vertexBlockid, memShard, intervalNum);
+                loadBeforeUpdates(intervalNum, window.getVertices(), memShard, interval.getFirstVertex(), lastVertex, true);
+                return window;
 
             } catch (NoEdgesInIntervalException nie) {
-                return new IntervalData(new VertexInterval(interval.getFirstVertex(), interval.getLastVertex()), vertices, -1, memShard, intervalNum);
-
-            } catch (Exception err) {
-                err.printStackTrace();
-                return null;
+                return new IntervalData(new VertexInterval(interval.getFirstVertex(), interval.getLastVertex()), null, -1, memShard, intervalNum);
             }
         }
 
@@ -785,31 +1121,40 @@ public class GraphChiEngine <VertexDataType, EdgeDataType> {
             int vertexDataSizeOf = (vertexDataConverter != null ? vertexDataConverter.sizeOf() : 0);
             int edataSizeOf = (onlyAdjacency ? 0 : edataConverter.sizeOf());
 
-            logger.info("Memory budget: " + memBudget);
+            /* When the next window is loaded ahead, two windows share the budget */
+            long budget = (prefetching ? memBudget / 2 : memBudget);
+            if (adaptiveWindowSize) {
+                /* The windows get what the memory shard leaves, but at least a quarter if the shard is too large */
+                budget = Math.max(budget - memoryShardMemory, budget / 4);
+            }
+            logger.info("Memory budget: " + budget);
 
             for(int i=0; i< maxInterval; i++) {
                 if (enableScheduler) {
-                    if (!scheduler.isScheduled(i + subIntervalStart)) continue;
+                    int next = scheduler.nextScheduled(i + subIntervalStart, maxVertex - 1);
+                    if (next < 0) break;
+                    i = next - subIntervalStart;
                 }
-                VertexDegree deg = degreeHandler.getDegree(i + subIntervalStart);
-                int inc = deg.inDegree;
-                int outc = deg.outDegree;
+                int inc = degreeHandler.inDegree(i + subIntervalStart);
+                int outc = degreeHandler.outDegree(i + subIntervalStart);
 
                 if (inc + outc == 0 && skipZeroDegreeVertices) {
                     continue;
                 }
 
                 totalDegree += inc + outc;
+                if (useCompactWindows && totalDegree > Integer.MAX_VALUE && i > 0) {
+                    /* The edges of a compact window are stored in int arrays */
+                    return subIntervalStart + i - 1;
+                }
 
-                // Following calculation contains some perhaps reasonable estimates of the
-                // overhead of Java objects.
-
-                memReq += vertexDataSizeOf + 256 + (edataSizeOf + 4 + 4 + 4) * (inc + outc);
-                if (memReq > memBudget) {
+                memReq += vertexMemoryEstimate(vertexDataSizeOf, edataSizeOf, inc + outc);
+                if (memReq * memoryScale > budget) {
                     if (totalDegree == 0 && vertexDataConverter == null) {
                         throw new NoEdgesInIntervalException();
                     }
-                    return subIntervalStart + i - 1; // Previous vertex was enough
+                    /* A vertex which alone exceeds the budget gets a window of its own */
+                    return subIntervalStart + Math.max(i - 1, 0); // Previous vertex was enough
                 }
             }
             if (totalDegree == 0 && vertexDataConverter == null) {
@@ -821,6 +1166,48 @@ public class GraphChiEngine <VertexDataType, EdgeDataType> {
         }
     }
 
+    /* Following calculation contains some perhaps reasonable estimates of the
+       overhead of Java objects. */
+    private long vertexMemoryEstimate(int vertexDataSizeOf, int edataSizeOf, int numEdges) {
+        return vertexDataSizeOf + (useCompactWindows ? COMPACT_VERTEX_OVERHEAD : 256) + (edataSizeOf + 4 + 4 + 4) * (long) numEdges;
+    }
+
+    /**
+     * Measures the memory used by the engine after a window has been loaded: the vertices
+     * and their edges, and the data blocks and adjacency data of the shards. With adaptive
+     * window size, the ratio of the memory of the window to its estimate scales the following
+     * windows, so that the windows converge to the budget left by the memory shard.
+     * The memory shard and the data blocks do not grow with the window in proportion, so the
+     * window is measured as its vertex objects and the size of its vertex and edge values.
+     */
+    private void accountMemory(VertexWindow<VertexDataType, EdgeDataType> vertices, MemoryShard<EdgeDataType> memoryShard) {
+        long windowBytes = vertices.memorySize();
+        long measured = windowBytes + blockManager.getAllocatedBytes() + (memoryShard != null ? memoryShard.getHeapMemorySize() : 0);
+        windowMemory = windowBytes;
+        trackedMemory = measured;
+        memoryShardMemory = (memoryShard != null ? memoryShard.getHeapMemorySize() + memoryShard.getEdataMemorySize() : 0);
+
+        if (adaptiveWindowSize && !useStaticWindowSize) {
+            int vertexDataSizeOf = (vertexDataConverter != null ? vertexDataConverter.sizeOf() : 0);
+            int edataSizeOf = (onlyAdjacency ? 0 : edataConverter.sizeOf());
+            long estimate = 0;
+            long windowValues = 0;
+            for(int i=0; i < vertices.size(); i++) {
+                if (vertices.contains(i)) {
+                    estimate += vertexMemoryEstimate(vertexDataSizeOf, edataSizeOf, vertices.numEdges(i));
+                    windowValues += vertexDataSizeOf + edataSizeOf * (long) vertices.numEdges(i);
+                }
+            }
+            if (estimate > 0) {
+                double ratio = (double) (windowBytes + windowValues) / estimate;
+                /* Averaged with the previous scale to dampen the oscillation */
+                memoryScale = Math.min(MAX_MEMORY_SCALE, Math.max(MIN_MEMORY_SCALE, (memoryScale + ratio) / 2));
+                logger.info("Memory: measured " + measured + " bytes, window " + (windowBytes + windowValues)
+                        + ", estimate " + estimate + ", scale " + memoryScale);
+            }
+        }
+    }
+
     public boolean isEnableScheduler() {
         return enableScheduler;
     }
@@ -865,6 +1252,106 @@ public class GraphChiEngine <VertexDataType, EdgeDataType> {
         this.enableDeterministicExecution = enableDeterministicExecution;
     }
 
+    public int getVertexDataCheckpointInterval() {
+        return vertexDataCheckpointInterval;
+    }
+
+    /**
+     * Sets how often the vertex values are forced to the disk: every n'th iteration,
+     * or only when the engine finishes if n is 0. The vertex data file is memory-mapped,
+     * so the values are written by the operating system in between. Default 1.
+     * @param vertexDataCheckpointInterval number of iterations between checkpoints
+     */
+    public void setVertexDataCheckpointInterval(int vertexDataCheckpointInterval) {
+        this.vertexDataCheckpointInterval = vertexDataCheckpointInterval;
+    }
+
+    public boolean isAdaptiveWindowSize() {
+        return adaptiveWindowSize;
+    }
+
+    /**
+     * If enabled, the memory used by each loaded window is measured and the estimate
+     * of the window sizes is scaled so that the engine uses about the memory budget,
+     * instead of relying only on the fixed estimates of the object sizes.
+     * The memory use is exposed as metrics regardless of the setting. Default false.
+     * @param adaptiveWindowSize
+     */
+    public void setAdaptiveWindowSize(boolean adaptiveWindowSize) {
+        this.adaptiveWindowSize = adaptiveWindowSize;
+    }
+
+    /**
+     * @return the ratio of the measured memory use of the windows to their estimate,
+     *         see setAdaptiveWindowSize()
+     */
+    public double getMemoryScale() {
+        return memoryScale;
+    }
+
+    public boolean isUseCompactWindows() {
+        return useCompactWindows;
+    }
+
+    /**
+     * If enabled, the vertices of a window and their edges are stored in flat arrays
+     * (see CompactVertexWindow) instead of a ChiVertex object per vertex. This takes less
+     * memory, so larger windows fit in the memory budget, and creates less garbage.
+     * The update threads reuse the vertex objects, so programs must not keep references to
+     * the vertices or call addInEdge()/addOutEdge() on them. Default false.
+     * @param useCompactWindows
+     */
+    public void setUseCompactWindows(boolean useCompactWindows) {
+        this.useCompactWindows = useCompactWindows;
+    }
+
+    public double getSelectiveLoadingThreshold() {
+        return selectiveLoadingThreshold;
+    }
+
+    /**
+     * If the scheduler is enabled and less than this fraction of the vertices of an
+     * interval are scheduled, only the edge data blocks of the memory shard
+     * which contain edges of scheduled vertices are read and written. Default 0.05.
+     * @param selectiveLoadingThreshold
+     */
+    public void setSelectiveLoadingThreshold(double selectiveLoadingThreshold) {
+        this.selectiveLoadingThreshold = selectiveLoadingThreshold;
+    }
+
+    public boolean isEnableAsynchronousExecution() {
+        return enableAsynchronousExecution;
+    }
+
+    /**
+     * Enables asynchronous execution: all vertices are updated in parallel, and
+     * updates see the values written by their neighbors immediately. Unlike
+     * with deterministic execution disabled, each read and write of an edge or
+     * vertex value is atomic. Read-modify-write updates of edges shared with
+     * neighbors should use the compareAndSet methods of ChiEdge.
+     * Overrides deterministic execution. Default false.
+     * @param enableAsynchronousExecution
+     */
+    public void setEnableAsynchronousExecution(boolean enableAsynchronousExecution) {
+        this.enableAsynchronousExecution = enableAsynchronousExecution;
+    }
+
+    public boolean isEnableColoring() {
+        return enableColoring;
+    }
+
+    /**
+     * If enabled, with deterministic execution the vertices which are not parallel safe
+     * are not updated in one thread, but colored so that vertices with the same color
+     * have no edges between them. The colors are updated one after another, each color
+     * in parallel. The execution is deterministic, but the order of the updates is
+     * different than by default. Requires both in- and out-edges. Default false.
+     * @param enableColoring
+     */
+    public void setEnableColoring(boolean enableColoring) {
+        this.enableColoring = enableColoring;
+    }
+
     public boolean isDisableOutEdges() {
         return disableOutEdges;
     }
@@ -945,14 +1432,92 @@ public class GraphChiEngine <VertexDataType, EdgeDataType> {
         this.useStaticWindowSize = useStaticWindowSize;
     }
 
+    public boolean isUseMemoryMappedShards() {
+        return useMemoryMappedShards;
+    }
+
+    /**
+     * If enabled, the adjacency files of the memory shards are memory-mapped
+     * instead of being read to the heap. This avoids copying the shard on
+     * each interval and lets the OS page cache serve repeated iterations.
+     * Disabled by default.
+     * @param useMemoryMappedShards
+     */
+    public void setUseMemoryMappedShards(boolean useMemoryMappedShards) {
+        this.useMemoryMappedShards = useMemoryMappedShards;
+    }
+
+    public boolean isUseDirectIO() {
+        return useDirectIO;
+    }
+
+    /**
+     * If enabled, the sliding shards are streamed bypassing the OS page cache (O_DIRECT,
+     * requires JDK 10 or later and a file system supporting it), so that streaming the
+     * shards does not evict the vertex data and memory shards from the cache. Useful
+     * when the graph is much larger than the memory. Disabled by default.
+     * @param useDirectIO
+     */
+    public void setUseDirectIO(boolean useDirectIO) {
+        this.useDirectIO = useDirectIO;
+    }
+
+    public boolean isUseOffHeapBlocks() {
+        return blockManager instanceof OffHeapDataBlockManager;
+    }
+
+    /**
+     * If enabled, edge and vertex data blocks are allocated outside of the Java heap
+     * and reused between intervals. This reduces garbage collection with
+     * large graphs. Must be called before run(). Disabled by default.
+     * @param useOffHeapBlocks
+     */
+    public void setUseOffHeapBlocks(boolean useOffHeapBlocks) {
+        if (useOffHeapBlocks != isUseOffHeapBlocks()) {
+            blockManager = (useOffHeapBlocks ? new OffHeapDataBlockManager() : new DataBlockManager());
+        }
+    }
+
+    public int getNumIOThreads() {
+        return numIOThreads;
+    }
+
+    /**
+     * Sets the number of threads used for reading and writing edge data blocks
+     * in the background, so that block (de)compression overlaps with the updates.
+     * Zero disables asynchronous block I/O. Default is 2.
+     * @param numIOThreads
+     */
+    public void setNumIOThreads(int numIOThreads) {
+        this.numIOThreads = numIOThreads;
+    }
+
+    public int getNumLoadingThreads() {
+        return numLoadingThreads;
+    }
+
+    /**
+     * Sets the number of threads loading the sliding shards of a window in parallel,
+     * one shard per thread. Large windows of a shard are in addition parsed in
+     * chunks by the execution threads. Must be called before run(). Default is 4.
+     * @param numLoadingThreads
+     */
+    public void setNumLoadingThreads(int numLoadingThreads) {
+        if (numLoadingThreads < 1) throw new IllegalArgumentException("Need at least one loading thread");
+        this.numLoadingThreads = numLoadingThreads;
+    }
+
     public boolean isAutoLoadNext() {
         return autoLoadNext;
     }
 
 
     /**
-     * Experimental feature that enables GraphChi to load data ahead.
-     * This works only with onlyAdjacency-setting. DO NOT USE - NOT TESTED.
+     * Enables loading the next sub-interval, including its edge data and vertex
+     * data, while the current one is being updated. The two windows share the
+     * memory budget. With edge data, loading ahead is done within an interval;
+     * in only-adjacency mode, also the first window of the next interval is loaded ahead.
+     * Not supported with the scheduler (ignored if the scheduler is enabled).
      * @param autoLoadNext
      */
     public void setAutoLoadNext(boolean autoLoadNext) {
@@ -1,12 +1,13 @@
 package edu.cmu.graphchi.engine.auxdata;
 
 import edu.cmu.graphchi.ChiFilenames;
-import edu.cmu.graphchi.ChiLogger;
-import ucar.unidata.io.RandomAccessFile;
 
-import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 /**
  * Copyright [2012] [Aapo Kyrola, Guy Blelloch, Carlos Guestrin / Carnegie Mellon University]
  *
@@ -26,122 +27,148 @@ import java.io.IOException;
 
 /**
  * GraphChi keeps track of the degree of each vertex (count of in- and out-edges). This class
- * allows accessing the vertex degrees efficiently by loading a window
- * of the edges a time. This supports both sparse and dense representation
- * of the degrees. This class should not be needed by application writers, and
+ * allows accessing the vertex degrees efficiently. The degree file is memory-mapped, and the
+ * degrees are read directly from the mapping without allocating objects.
+ * This supports both sparse and dense representation of the degrees: the dense file has the
+ * in- and out-degree of each vertex, and the sparse file has records (id, in-degree, out-degree)
+ * for the vertices with edges, sorted by the id, which are found by binary search.
+ * This class should not be needed by application writers, and
  * is only used internally by GraphChi.
  * @author Aapo Kyrola
  */
 public class DegreeData {
 
-    private RandomAccessFile degreeFile;
+    /* The file is mapped in segments, as a buffer is limited to 2GB */
+    private static final int RECORDS_PER_SEGMENT_BITS = 26;
+    private static final int RECORDS_PER_SEGMENT = 1 << RECORDS_PER_SEGMENT_BITS;
+
+    private final ByteBuffer[] segments;
+    private final int recordSize;
+    private final long numRecords;
 
-    private byte[] degreeData;
     private int vertexSt, vertexEn;
 
-    private boolean sparse = false;
-    private int lastQuery = 0, lastId = -1;
+    private final boolean sparse;
+    /* Records of the loaded interval in the sparse file, and the last record found */
+    private long firstRecord, endRecord, lastRecord;
 
+    /**
+     * The degree file is sparse if the sparse file exists.
+     */
     public DegreeData(String baseFilename) throws IOException {
-        File sparseFile = new File(ChiFilenames.getFilenameOfDegreeData(baseFilename, true));
-        File denseFile = new File(ChiFilenames.getFilenameOfDegreeData(baseFilename, false));
-
-        if (sparseFile.exists()) {
-            sparse = true;
-            degreeFile = new RandomAccessFile(sparseFile.getAbsolutePath(), "r");
-        } else {
-            sparse = false;
-            degreeFile = new RandomAccessFile(denseFile.getAbsolutePath(), "r");
+        this(baseFilename, new File(ChiFilenames.getFilenameOfDegreeData(baseFilename, true)).exists());
+    }
+
+    /**
+     * @param sparse whether the degree file is sparse, as recorded in the graph manifest
+     */
+    public DegreeData(String baseFilename, boolean sparse) throws IOException {
+        this.sparse = sparse;
+        File degreeFile = new File(ChiFilenames.getFilenameOfDegreeData(baseFilename, sparse));
+        recordSize = (sparse ? 12 : 8);
+
+        RandomAccessFile raf = new RandomAccessFile(degreeFile, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            numRecords = channel.size() / recordSize;
+            segments = new ByteBuffer[(int) ((numRecords + RECORDS_PER_SEGMENT - 1) / RECORDS_PER_SEGMENT)];
+            for(int i=0; i < segments.length; i++) {
+                long start = (long) i * RECORDS_PER_SEGMENT * recordSize;
+                long len = Math.min(numRecords * recordSize - start, (long) RECORDS_PER_SEGMENT * recordSize);
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, len);
+                segments[i].order(ByteOrder.LITTLE_ENDIAN);
+            }
+        } finally {
+            raf.close();    // The mappings remain valid after the channel is closed
         }
         vertexEn = vertexSt = 0;
     }
 
+    /* Field of a record: 0 = first int of the record */
+    private int recordInt(long record, int field) {
+        return segments[(int) (record >>> RECORDS_PER_SEGMENT_BITS)].getInt(
+                (int) (record & (RECORDS_PER_SEGMENT - 1)) * recordSize + field * 4);
+    }
+
+    /* First record of the sparse file in [from, to) with id >= vertexId, or to */
+    private long lowerBound(long from, long to, int vertexId) {
+        while (from < to) {
+            long mid = (from + to) >>> 1;
+            if (recordInt(mid, 0) < vertexId) {
+                from = mid + 1;
+            } else {
+                to = mid;
+            }
+        }
+        return from;
+    }
+
     /**
-     * Load degrees for an interval of vertices
+     * Load degrees for an interval of vertices. The degrees are read from the
+     * mapped file, so this only limits the vertices which can be queried.
      * @param _vertexSt first vertex
      * @param _vertexEn last vertex (inclusive)
      * @throws IOException
      */
     public void load(int _vertexSt, int _vertexEn) throws IOException {
-
-        int prevVertexEn = vertexEn;
-        int prevVertexSt = vertexSt;
-
         vertexSt = _vertexSt;
         vertexEn = _vertexEn;
 
-        long dataSize =  (long)  (vertexEn - vertexSt + 1) * 4 * 2;
-
-        byte[] prevData = degreeData;
-        degreeData = new byte[(int)dataSize];
-        int len = 0;
-
-        // Little bit cmoplicated book keeping to avoid redundant reads
-        if (prevVertexEn > _vertexSt && prevVertexSt <= _vertexSt) {
-            // Copy previous
-            len = (int) ((prevVertexEn - vertexSt + 1) * 8);
-            System.arraycopy(prevData, prevData.length - len, degreeData, 0, len);
+        if (sparse) {
+            firstRecord = lowerBound(0, numRecords, vertexSt);
+            endRecord = lowerBound(firstRecord, numRecords, vertexEn + 1);
+            lastRecord = firstRecord;
         }
+    }
 
-
+    /* Record of the vertex, or -1 if the vertex has no edges. Queries
+       are usually in ascending order, so the search starts from the last record found. */
+    private long record(int vertexId) {
+        assert(vertexId >= vertexSt && vertexId <= vertexEn);
         if (!sparse) {
-            int adjLen = (int) (dataSize - len);
-
-            if (adjLen == 0) return;
-            long dataStart =  (long)  vertexSt * 4l * 2l + len;
+            return (vertexId < numRecords ? vertexId : -1);
+        }
+        long r = lastRecord;
+        if (r < firstRecord || r >= endRecord || recordInt(r, 0) > vertexId) {
+            r = lowerBound(firstRecord, endRecord, vertexId);
+        } else if (recordInt(r, 0) < vertexId) {
+            r = lowerBound(r + 1, endRecord, vertexId);
+        }
+        lastRecord = r;
+        return (r < endRecord && recordInt(r, 0) == vertexId ? r : -1);
+    }
 
-            try {
-                degreeFile.seek(dataStart);
-                degreeFile.readFully(degreeData, (int)(dataSize - adjLen), adjLen);
-            } catch (EOFException eof) {
-            	ChiLogger.getLogger("engine").info("Error: Tried to read past file: " + dataStart + " --- " + (dataStart + dataSize));
-                // But continue
-            }
-        } else {
-            if (lastQuery > _vertexSt) {
-                lastId = -1;
-                degreeFile.seek(0);
-            }
+    /**
+     * Returns the in-degree of a vertex. The vertex must be in the previous
+     * interval loaded using load().
+     */
+    public int inDegree(int vertexId) {
+        long r = record(vertexId);
+        return (r < 0 ? 0 : recordInt(r, sparse ? 1 : 0));
+    }
 
-            try {
-                while(true) {
-                    int vertexId = (lastId < 0 ? degreeFile.readInt() : lastId);
-                    if (vertexId >= _vertexSt && vertexId <= _vertexEn) {
-                        degreeFile.readFully(degreeData, (vertexId - vertexSt) * 8, 8);
-                        VertexDegree deg = getDegree(vertexId);
-                        lastId = -1;
-                    } else if (vertexId > vertexEn){
-                        lastId = vertexId; // Remember last one read
-                        break;
-                    } else {
-                        degreeFile.skipBytes(8);
-                    }
-                }
-            } catch (EOFException eof) {
-                degreeFile.seek(0);
-            }
-            lastQuery = _vertexEn;
-        }
+    /**
+     * Returns the out-degree of a vertex. The vertex must be in the previous
+     * interval loaded using load().
+     */
+    public int outDegree(int vertexId) {
+        long r = record(vertexId);
+        return (r < 0 ? 0 : recordInt(r, sparse ? 2 : 1));
     }
 
     /**
      * Returns degree of a vertex. The vertex must be in the previous
-     * interval loaded using load().
+     * interval loaded using load(). Allocates an object for each call, use
+     * inDegree() and outDegree() in loops over vertices.
      * @param vertexId id of the vertex
      * @return  VertexDegree object
      */
     public VertexDegree getDegree(int vertexId) {
-        assert(vertexId >= vertexSt && vertexId <= vertexEn);
-
-        byte[] tmp = new byte[4];
-        int idx = vertexId - vertexSt;
-        System.arraycopy(degreeData, idx * 8, tmp, 0, 4);
-
-        int indeg = ((tmp[3]  & 0xff) << 24) + ((tmp[2] & 0xff) << 16) + ((tmp[1] & 0xff) << 8) + (tmp[0] & 0xff);
-
-        System.arraycopy(degreeData, idx * 8 + 4, tmp, 0, 4);
-        int outdeg = ((tmp[3]  & 0xff) << 24) + ((tmp[2] & 0xff) << 16) + ((tmp[1] & 0xff) << 8) + (tmp[0] & 0xff);
-
-        return new VertexDegree(indeg, outdeg);
+        long r = record(vertexId);
+        if (r < 0) {
+            return new VertexDegree(0, 0);
+        }
+        int field = (sparse ? 1 : 0);
+        return new VertexDegree(recordInt(r, field), recordInt(r, field + 1));
     }
 }
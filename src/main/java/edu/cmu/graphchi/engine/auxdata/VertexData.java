@@ -5,12 +5,14 @@ import edu.cmu.graphchi.ChiLogger;
 import edu.cmu.graphchi.datablocks.BytesToValueConverter;
 import edu.cmu.graphchi.datablocks.ChiPointer;
 import edu.cmu.graphchi.datablocks.DataBlockManager;
-import edu.cmu.graphchi.datablocks.IntConverter;
 import nom.tam.util.BufferedDataInputStream;
-import ucar.unidata.io.RandomAccessFile;
 
 import java.io.*;
-import java.util.Arrays;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.logging.Logger;
 
@@ -29,18 +31,41 @@ import java.util.logging.Logger;
  * See the License for the specific language governing permissions and
  * limitations under the License.
  */
+/**
+ * Vertex values, stored in a file which is memory-mapped. The block of a loaded window
+ * is a view of the mapping, so the values are updated in place and committing a window
+ * does not copy or write anything. The changes are forced to the disk by checkpoint()
+ * and close(), instead of synchronously on each write.
+ *
+ * The sparse file has records (vertex id, value) sorted by the id; the records of a
+ * window are found by binary search on the ids, and the block of the window covers
+ * its records, so that the value pointers skip the ids.
+ */
 public class VertexData <VertexDataType> {
 
-    private byte[] vertexData;
+    /* The file is mapped in segments of 2 * SEGMENT_SIZE bytes starting at each multiple
+       of SEGMENT_SIZE, so that any range of at most SEGMENT_SIZE bytes is within one
+       segment. Larger windows are copied to a block. */
+    private static final int SEGMENT_BITS = 29;
+    private static final long SEGMENT_SIZE = 1L << SEGMENT_BITS;
+
     private int vertexSt, vertexEn;
     private String baseFilename;
     private RandomAccessFile vertexDataFile;
+    private FileChannel channel;
+    private MappedByteBuffer[] segments;
+    private long fileLength;
     private BytesToValueConverter <VertexDataType> converter;
     private DataBlockManager blockManager;
     private boolean sparse;
-    private int[] index;
-    private int lastOffset = 0;
-    private int lastStart = 0;
+    private int recordSize;
+
+    /* Records of the last window loaded, for currentIterator() */
+    private long firstRecord, endRecord;
+
+    /* Window of each loaded block, as two windows may be loaded at the same
+       time when the engine prefetches the next window. */
+    private final HashMap<Integer, Window> windows = new HashMap<Integer, Window>();
 
     private final static Logger logger = ChiLogger.getLogger("vertex-data");
 
@@ -102,40 +127,63 @@ public class VertexData <VertexDataType> {
             }
         }
 
-        vertexDataFile = new RandomAccessFile(vertexfile.getAbsolutePath(), "rwd");
+        recordSize = (sparse ? 4 : 0) + converter.sizeOf();
+        vertexDataFile = new RandomAccessFile(vertexfile, "rw");
+        channel = vertexDataFile.getChannel();
+        fileLength = channel.size();
+        segments = new MappedByteBuffer[(int) ((fileLength + SEGMENT_SIZE - 1) / SEGMENT_SIZE)];
+        for(int i=0; i < segments.length; i++) {
+            long start = i * SEGMENT_SIZE;
+            segments[i] = channel.map(FileChannel.MapMode.READ_WRITE, start, Math.min(fileLength - start, 2 * SEGMENT_SIZE));
+            segments[i].order(ByteOrder.LITTLE_ENDIAN);
+        }
         vertexEn = vertexSt = 0;
     }
 
-    public void releaseAndCommit(int firstVertex, int blockId) throws IOException {
-        assert(blockId >= 0);
-        byte[] data = blockManager.getRawBlock(blockId);
-
-        if (!sparse) {
-            long dataStart = (long) firstVertex * (long) converter.sizeOf();
-
-            synchronized (vertexDataFile) {
-                vertexDataFile.seek(dataStart);
-                vertexDataFile.write(data);
+    /* Int at a position of the file, which must be mapped */
+    private int readInt(long pos) {
+        int segment = (int) (pos >>> SEGMENT_BITS);
+        return segments[segment].getInt((int) (pos - segment * SEGMENT_SIZE));
+    }
 
-                blockManager.release(blockId);
+    private int recordId(long record) {
+        return readInt(record * recordSize);
+    }
 
-                vertexDataFile.flush();
+    /* First record of the sparse file with id >= vertexId */
+    private long lowerBound(int vertexId) {
+        long from = 0, to = fileLength / recordSize;
+        while (from < to) {
+            long mid = (from + to) >>> 1;
+            if (recordId(mid) < vertexId) {
+                from = mid + 1;
+            } else {
+                to = mid;
             }
-            logger.info("Vertex data write: " + dataStart + " -- " + (dataStart + data.length));
-
-        } else {
-            synchronized (vertexDataFile) {
-                vertexDataFile.seek(lastOffset);
-                int sizeOf = converter.sizeOf();
-                for(int i=0; i < index.length; i++) {
-                    vertexDataFile.writeInt(Integer.reverseBytes(index[i]));  // Note: when writing, the random access file does not take byte order into account!
-                    vertexDataFile.write(data, i * sizeOf, sizeOf);
-                }
-                blockManager.release(blockId);
-                vertexDataFile.flush();
+        }
+        return from;
+    }
 
+    /**
+     * Releases the block of a window. If the block was copied from the file
+     * because it was too large to map, it is written back.
+     */
+    public void releaseAndCommit(int firstVertex, int blockId) throws IOException {
+        assert(blockId >= 0);
+        Window window;
+        synchronized (windows) {
+            window = windows.remove(blockId);
+        }
+        if (window.copied) {
+            ByteBuffer data = blockManager.getBlock(blockId).duplicate();
+            data.clear();
+            long pos = window.fileOffset;
+            while (data.hasRemaining()) {
+                pos += channel.write(data, pos);
             }
+            logger.info("Vertex data write: " + window.fileOffset + " -- " + pos);
         }
+        blockManager.release(blockId);
     }
 
     /**
@@ -146,84 +194,73 @@ public class VertexData <VertexDataType> {
      * @throws IOException
      */
     public int load(int _vertexSt, int _vertexEn) throws IOException {
-
         vertexSt = _vertexSt;
         vertexEn = _vertexEn;
-        synchronized (vertexDataFile) {
-
-            if (!sparse) {
-                long dataSize = (long) (vertexEn - vertexSt + 1) *  (long)  converter.sizeOf();
-                long dataStart =  (long) vertexSt *  (long) converter.sizeOf();
 
-                int blockId =  blockManager.allocateBlock((int) dataSize);
-                vertexData = blockManager.getRawBlock(blockId);
-                vertexDataFile.seek(dataStart);
-                vertexDataFile.readFully(vertexData);
-                return blockId;
-            } else {
-
-                // Have to read in two passes
-                if (lastStart > _vertexSt) {
-                    vertexDataFile.seek(0);
-                }
-                lastStart = _vertexSt;
-
-                int sizeOf = converter.sizeOf();
-                long startPos = vertexDataFile.getFilePointer();
-                int n = 0;
-                boolean foundStart = false;
-                try {
-                    while(true) {
-                        int vertexId = vertexDataFile.readInt();
-                        if (!foundStart && vertexId >= _vertexSt) {
-                            startPos = vertexDataFile.getFilePointer() - 4;
-                            foundStart = true;
-                        }
-                        if (vertexId >= _vertexSt && vertexId <= _vertexEn) {
-                            n++;
-                        } else if (vertexId > vertexEn) {
-                            break;
-                        }
-
-                        vertexDataFile.skipBytes(sizeOf);
-                    }
-                } catch (EOFException eof) {}
-
-                index = new int[n];
-                vertexDataFile.seek(startPos);
-                int blockId =  blockManager.allocateBlock(n * sizeOf);
-                vertexData = blockManager.getRawBlock(blockId);
+        long start, end;
+        if (!sparse) {
+            start = (long) vertexSt * recordSize;
+            end = (long) (vertexEn + 1) * recordSize;
+        } else {
+            firstRecord = lowerBound(vertexSt);
+            endRecord = lowerBound(vertexEn + 1);
+            start = firstRecord * recordSize;
+            end = endRecord * recordSize;
+        }
 
-                int i = 0;
-                try {
-                    while(i < n) {
-                        int vertexId = vertexDataFile.readInt();
-                        if (vertexId >= _vertexSt && vertexId <= _vertexEn) {
-                            index[i] = vertexId;
-                            vertexDataFile.read(vertexData, i * sizeOf, sizeOf);
-                            i++;
-                        } else {
-                            vertexDataFile.skipBytes(sizeOf);
-                        }
-                    }
-                } catch (EOFException eof) {}
-                if (i != n) throw new IllegalStateException("Mismatch when reading sparse vertex data:" + i + " != " + n);
-                lastOffset = (int) startPos;
-                return blockId;
+        Window window = new Window(vertexSt, start, firstRecord, endRecord);
+        int blockId;
+        int length = (int) (end - start);
+        if (length == 0) {
+            blockId = blockManager.addExternalBlock(ByteBuffer.allocate(0));
+        } else if (length <= SEGMENT_SIZE && end <= fileLength) {
+            int segment = (int) (start >>> SEGMENT_BITS);
+            ByteBuffer view = segments[segment].duplicate();
+            int offset = (int) (start - segment * SEGMENT_SIZE);
+            view.limit(offset + length);
+            view.position(offset);
+            blockId = blockManager.addExternalBlock(view.slice());
+        } else {
+            blockId = blockManager.allocateBlock(length);
+            ByteBuffer data = blockManager.getBlock(blockId).duplicate();
+            data.clear();
+            long pos = start;
+            while (data.hasRemaining() && pos < fileLength) {
+                int n = channel.read(data, pos);
+                if (n < 0) break;
+                pos += n;
             }
+            window.copied = true;
+        }
+        synchronized (windows) {
+            windows.put(blockId, window);
         }
+        return blockId;
     }
 
     public ChiPointer getVertexValuePtr(int vertexId, int blockId) {
         assert(vertexId >= vertexSt && vertexId <= vertexEn);
+        Window window;
+        synchronized (windows) {
+            window = windows.get(blockId);
+        }
         if (!sparse) {
-            return new ChiPointer(blockId, (vertexId - vertexSt) * converter.sizeOf());
+            return new ChiPointer(blockId, (vertexId - window.firstVertex) * recordSize);
         } else {
-            int idx = Arrays.binarySearch(index, vertexId);
-            if (idx < 0) {
+            ByteBuffer block = blockManager.getBlock(blockId);
+            int from = 0, to = (int) (window.endRecord - window.firstRecord);
+            while (from < to) {
+                int mid = (from + to) >>> 1;
+                if (block.getInt(mid * recordSize) < vertexId) {
+                    from = mid + 1;
+                } else {
+                    to = mid;
+                }
+            }
+            if (from == window.endRecord - window.firstRecord || block.getInt(from * recordSize) != vertexId) {
                 return null;
             }
-            return new ChiPointer(blockId, idx * converter.sizeOf());
+            return new ChiPointer(blockId, from * recordSize + 4);
         }
     }
 
@@ -257,16 +294,17 @@ public class VertexData <VertexDataType> {
                 }
             };
         } else {
+            final long first = firstRecord, end = endRecord;
             return new Iterator<Integer>() {
-                int j = 0;
+                long j = first;
                 @Override
                 public boolean hasNext() {
-                    return (j < index.length);
+                    return (j < end);
                 }
 
                 @Override
                 public Integer next() {
-                    return index[j++];
+                    return recordId(j++);
                 }
 
                 @Override
@@ -278,10 +316,33 @@ public class VertexData <VertexDataType> {
         }
     }
 
+    private static class Window {
+        final int firstVertex;
+        final long fileOffset;
+        final long firstRecord, endRecord;
+        boolean copied = false;
+
+        Window(int firstVertex, long fileOffset, long firstRecord, long endRecord) {
+            this.firstVertex = firstVertex;
+            this.fileOffset = fileOffset;
+            this.firstRecord = firstRecord;
+            this.endRecord = endRecord;
+        }
+    }
+
+    /**
+     * Writes the changes of the vertex values to the disk.
+     */
+    public void checkpoint() throws IOException {
+        for(MappedByteBuffer segment : segments) {
+            segment.force();
+        }
+        channel.force(false);
+    }
+
     public void close() {
         try {
-            vertexDataFile.flush();
-            vertexDataFile.getFD().sync();
+            checkpoint();
             vertexDataFile.close();
         } catch (IOException ie) {
             ie.printStackTrace();
@@ -0,0 +1,169 @@
+package edu.cmu.graphchi.io;
+
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Timer;
+import com.yammer.metrics.core.TimerContext;
+import edu.cmu.graphchi.datablocks.DataBlockManager;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.*;
+
+/**
+ * Copyright [2012] [Aapo Kyrola, Guy Blelloch, Carlos Guestrin / Carnegie Mellon University]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Asynchronous reads and writes of compressed edge data blocks. Reads return
+ * a future which must be waited for before the block is accessed. Writes are
+ * "write-behind": the block is released from the block manager once it has been
+ * written, and the engine must call drain() before resetting the block manager.
+ * A read of a block file always waits for a pending write of the same file, so
+ * readers never see stale data.
+ * Used internally by GraphChi.
+ */
+public class AsyncBlockIO {
+
+    private final ThreadPoolExecutor executor;
+
+    /* Latest pending write of each block file */
+    private final ConcurrentHashMap<String, Future<?>> pendingWrites = new ConcurrentHashMap<String, Future<?>>();
+
+    private final Timer drainTimer = Metrics.defaultRegistry().newTimer(AsyncBlockIO.class, "drain-writes", TimeUnit.SECONDS, TimeUnit.MINUTES);
+
+    /**
+     * @param nthreads number of I/O threads
+     * @param maxQueued maximum number of queued operations. When the queue is full,
+     *                  the calling thread executes the operation itself, which bounds
+     *                  the memory held by pending writes.
+     */
+    public AsyncBlockIO(int nthreads, int maxQueued) {
+        executor = new ThreadPoolExecutor(nthreads, nthreads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(maxQueued), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "graphchi-blockio");
+                t.setDaemon(true);
+                return t;
+            }
+        }, new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /**
+     * Reads a compressed block file into the given block asynchronously.
+     */
+    public Future<?> read(final File blockFile, final BlockCodec codec, final DataBlockManager blockManager,
+                          final int blockId, final int nbytes) {
+        final Future<?> pendingWrite = pendingWrites.get(blockFile.getPath());
+        return executor.submit(new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                if (pendingWrite != null) pendingWrite.get();
+                CompressedIO.readCompressed(blockFile, blockManager.getBlock(blockId), nbytes, codec);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Writes the block to a compressed file in the background. If release is true,
+     * the block is released from the block manager after it has been written.
+     */
+    public void writeBehind(final File blockFile, final BlockCodec codec, final DataBlockManager blockManager,
+                            final int blockId, final int nbytes, final boolean release) {
+        final String path = blockFile.getPath();
+        final Future<?>[] previous = new Future<?>[1];
+        final Future<?>[] self = new Future<?>[1];
+        FutureTask<Object> task = new FutureTask<Object>(new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                // Writes of the same file must be applied in order
+                if (previous[0] != null) previous[0].get();
+                try {
+                    CompressedIO.writeCompressed(blockFile, blockManager.getBlock(blockId), nbytes, codec);
+                } finally {
+                    if (release) blockManager.release(blockId);
+                }
+                /* Failed writes are left for drain() to report */
+                pendingWrites.remove(path, self[0]);
+                return null;
+            }
+        });
+        self[0] = task;
+        previous[0] = pendingWrites.put(path, task);
+        executor.execute(task);
+    }
+
+    /**
+     * Writes the block synchronously, after any pending write of the same file.
+     */
+    public void writeNow(File blockFile, BlockCodec codec, DataBlockManager blockManager, int blockId, int nbytes) throws IOException {
+        waitFor(pendingWrites.get(blockFile.getPath()));
+        CompressedIO.writeCompressed(blockFile, blockManager.getBlock(blockId), nbytes, codec);
+    }
+
+    /**
+     * Waits until all pending writes have finished.
+     * @throws IOException if any of the writes failed
+     */
+    public void drain() throws IOException {
+        TimerContext _timer = drainTimer.time();
+        IOException failure = null;
+        /* Writes queued meanwhile are waited for too */
+        while (!pendingWrites.isEmpty()) {
+            for(Map.Entry<String, Future<?>> pending : new ArrayList<Map.Entry<String, Future<?>>>(pendingWrites.entrySet())) {
+                try {
+                    waitFor(pending.getValue());
+                } catch (IOException ioe) {
+                    failure = ioe;
+                }
+                pendingWrites.remove(pending.getKey(), pending.getValue());
+            }
+        }
+        _timer.stop();
+        if (failure != null) throw failure;
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Waits for an I/O operation returned by read() to finish.
+     */
+    public static void waitFor(Future<?> f) throws IOException {
+        if (f == null) return;
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    f.get();
+                    return;
+                } catch (InterruptedException ie) {
+                    interrupted = true;
+                } catch (ExecutionException ee) {
+                    Throwable cause = ee.getCause();
+                    if (cause instanceof IOException) throw (IOException) cause;
+                    if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+                    throw new IOException("Block I/O failed", cause);
+                }
+            }
+        } finally {
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+    }
+}
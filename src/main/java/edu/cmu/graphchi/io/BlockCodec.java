@@ -0,0 +1,50 @@
+package edu.cmu.graphchi.io;
+
+import java.io.IOException;
+
+/**
+ * Copyright [2012] [Aapo Kyrola, Guy Blelloch, Carlos Guestrin / Carnegie Mellon University]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Encoding of the edge data blocks on disk. The codec of a graph is chosen
+ * when it is sharded and recorded next to the edge data shards, see
+ * CompressedIO.getShardCodec(). Implementations must be thread-safe.
+ */
+public interface BlockCodec {
+
+    /**
+     * Name of the codec, stored in the shard metadata.
+     */
+    String getName();
+
+    /**
+     * Upper bound of the encoded size of nbytes of data.
+     */
+    int maxEncodedLength(int nbytes);
+
+    /**
+     * Encodes the first nbytes of src to dst, which must have room for
+     * maxEncodedLength(nbytes) bytes.
+     * @return length of the encoded data
+     */
+    int encode(byte[] src, int nbytes, byte[] dst);
+
+    /**
+     * Decodes the first len bytes of src to the first nbytes of dst.
+     * @throws IOException if the data is corrupt
+     */
+    void decode(byte[] src, int len, byte[] dst, int nbytes) throws IOException;
+}
@@ -0,0 +1,354 @@
+package edu.cmu.graphchi.io;
+
+import edu.cmu.graphchi.ChiLogger;
+
+import java.io.*;
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Logger;
+
+/**
+ * Copyright [2012] [Aapo Kyrola, Guy Blelloch, Carlos Guestrin / Carnegie Mellon University]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Streaming reader of a file, used for the adjacency of the sliding shards.
+ * The file is read with a FileChannel in large reads, aligned to ALIGNMENT, into a
+ * direct buffer which is reused by the next reader after close(). Seeking within the
+ * buffer does not read the file again.
+ * <p>
+ * With direct I/O, the file is opened with O_DIRECT (ExtendedOpenOption.DIRECT,
+ * available from JDK 10), so that streaming large shards does not evict the vertex
+ * data and memory shards from the OS page cache. If the JDK or the file system does
+ * not support it, the file is read through the page cache as usual.
+ * <p>
+ * Other channels, such as of gzipped shards, can be read too, but then the reader
+ * can only seek forward.
+ */
+public class ChannelDataInput implements DataInput {
+
+    public static final int ALIGNMENT = 4096;
+    public static final int BUFFER_SIZE = 1024 * 1024;
+
+    private static final Logger logger = ChiLogger.getLogger("channel-input");
+
+    /* Buffers of closed readers */
+    private static final ConcurrentLinkedQueue<ByteBuffer> bufferPool = new ConcurrentLinkedQueue<ByteBuffer>();
+    private static boolean directIOWarned = false;
+
+    private File file;
+    private FileChannel fileChannel;
+    private ReadableByteChannel channel;
+    private boolean directIO;
+    private ByteBuffer buf;
+    /* Position of the beginning of the buffer in the file */
+    private long bufStart = 0;
+
+    /**
+     * @param directIO if true, the file is read bypassing the page cache if supported
+     */
+    public ChannelDataInput(File file, boolean directIO) throws IOException {
+        this.file = file;
+        if (directIO) {
+            fileChannel = openDirect(file);
+            this.directIO = (fileChannel != null);
+        }
+        if (fileChannel == null) {
+            fileChannel = new RandomAccessFile(file, "r").getChannel();
+        }
+        channel = fileChannel;
+        buf = allocate();
+    }
+
+    /**
+     * Reads a channel which does not support seeking, e.g. of a compressed stream.
+     */
+    public ChannelDataInput(ReadableByteChannel channel) {
+        this(channel, 0);
+    }
+
+    /**
+     * Reads a channel which does not support seeking, and which starts at
+     * the given position of the data.
+     */
+    public ChannelDataInput(ReadableByteChannel channel, long position) {
+        this.channel = channel;
+        this.bufStart = position;
+        buf = allocate();
+    }
+
+    private static ByteBuffer allocate() {
+        ByteBuffer b = bufferPool.poll();
+        if (b == null) {
+            b = alignedBuffer(BUFFER_SIZE);
+        }
+        b.clear();
+        b.limit(0);
+        return b;
+    }
+
+    /**
+     * Direct buffer whose address is aligned to ALIGNMENT, as required by O_DIRECT.
+     * Before JDK 9 the buffer cannot be aligned, but then direct I/O is not available either.
+     */
+    private static ByteBuffer alignedBuffer(int size) {
+        ByteBuffer b = ByteBuffer.allocateDirect(size + ALIGNMENT);
+        try {
+            Method alignedSlice = ByteBuffer.class.getMethod("alignedSlice", int.class);
+            b = (ByteBuffer) alignedSlice.invoke(b, ALIGNMENT);
+        } catch (Exception e) {
+            /* Not aligned */
+        }
+        b.limit(size);
+        return b.slice();
+    }
+
+    /**
+     * Opens the file with O_DIRECT by reflection, as the JDK this is built with has no java.nio.file.
+     * @return channel, or null if direct I/O is not supported
+     */
+    private static FileChannel openDirect(File file) {
+        try {
+            Class<?> openOptionClass = Class.forName("java.nio.file.OpenOption");
+            Object options = Array.newInstance(openOptionClass, 2);
+            Array.set(options, 0, Class.forName("java.nio.file.StandardOpenOption").getField("READ").get(null));
+            Array.set(options, 1, Class.forName("com.sun.nio.file.ExtendedOpenOption").getField("DIRECT").get(null));
+            ByteBuffer.class.getMethod("alignedSlice", int.class);
+
+            Object path = File.class.getMethod("toPath").invoke(file);
+            Method open = FileChannel.class.getMethod("open", Class.forName("java.nio.file.Path"), options.getClass());
+            return (FileChannel) open.invoke(null, path, options);
+        } catch (Exception e) {
+            if (!directIOWarned) {
+                directIOWarned = true;
+                logger.info("Direct I/O not available, reading through the page cache: " + e);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * @return true if the reader can seek backwards
+     */
+    public boolean isSeekable() {
+        return fileChannel != null;
+    }
+
+    public long position() {
+        return bufStart + buf.position();
+    }
+
+    public void seek(long pos) throws IOException {
+        if (pos >= bufStart && pos <= bufStart + buf.limit()) {
+            buf.position((int) (pos - bufStart));
+        } else if (fileChannel != null) {
+            /* Read on demand */
+            buf.limit(0);
+            bufStart = pos;
+        } else {
+            if (pos < position()) throw new IOException("Cannot seek backwards in a stream");
+            while (position() < pos) {
+                if (!buf.hasRemaining() && !fill()) throw new EOFException();
+                buf.position((int) Math.min(buf.limit(), pos - bufStart));
+            }
+        }
+    }
+
+    /**
+     * Reads more data into the buffer, keeping the unread bytes.
+     * @return false if nothing more could be read
+     */
+    private boolean fill() throws IOException {
+        int remaining = buf.remaining();
+        if (fileChannel != null) {
+            long pos = position();
+            long alignedPos = pos - pos % ALIGNMENT;
+            buf.clear();
+            try {
+                readAt(alignedPos);
+            } catch (IOException e) {
+                if (!directIO) throw e;
+                /* File system does not support O_DIRECT after all */
+                logger.info("Direct I/O failed, reading through the page cache: " + e);
+                fileChannel.close();
+                fileChannel = new RandomAccessFile(file, "r").getChannel();
+                channel = fileChannel;
+                directIO = false;
+                buf.clear();
+                readAt(alignedPos);
+            }
+            buf.flip();
+            bufStart = alignedPos;
+            buf.position((int) Math.min(buf.limit(), pos - alignedPos));
+        } else {
+            int consumed = buf.position();
+            buf.compact();
+            bufStart += consumed;
+            while (buf.hasRemaining()) {
+                if (channel.read(buf) < 0) break;
+            }
+            buf.flip();
+        }
+        return buf.remaining() > remaining;
+    }
+
+    private void readAt(long pos) throws IOException {
+        while (buf.hasRemaining()) {
+            int n = fileChannel.read(buf, pos + buf.position());
+            if (n <= 0) break;
+            /* Short read with O_DIRECT is the end of the file */
+            if (directIO && buf.position() % ALIGNMENT != 0) break;
+        }
+    }
+
+    private void require(int n) throws IOException {
+        while (buf.remaining() < n) {
+            if (!fill()) throw new EOFException();
+        }
+    }
+
+    public void readFully(byte[] b) throws IOException {
+        readFully(b, 0, b.length);
+    }
+
+    public void readFully(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (!buf.hasRemaining() && !fill()) throw new EOFException();
+            int n = Math.min(len, buf.remaining());
+            buf.get(b, off, n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Reads bytes until the buffer is full.
+     */
+    public void readFully(ByteBuffer dst) throws IOException {
+        while (dst.hasRemaining()) {
+            if (!buf.hasRemaining() && !fill()) throw new EOFException();
+            int n = Math.min(dst.remaining(), buf.remaining());
+            ByteBuffer src = buf.duplicate();
+            src.limit(src.position() + n);
+            dst.put(src);
+            buf.position(buf.position() + n);
+        }
+    }
+
+    public int skipBytes(int n) throws IOException {
+        long start = position();
+        if (fileChannel != null) {
+            seek(start + n);
+        } else {
+            try {
+                seek(start + n);
+            } catch (EOFException eof) {}
+        }
+        return (int) (position() - start);
+    }
+
+    public boolean readBoolean() throws IOException {
+        return readByte() != 0;
+    }
+
+    public byte readByte() throws IOException {
+        if (!buf.hasRemaining()) require(1);
+        return buf.get();
+    }
+
+    public int readUnsignedByte() throws IOException {
+        if (!buf.hasRemaining()) require(1);
+        return buf.get() & 0xff;
+    }
+
+    public short readShort() throws IOException {
+        if (buf.remaining() < 2) require(2);
+        return buf.getShort();
+    }
+
+    public int readUnsignedShort() throws IOException {
+        return readShort() & 0xffff;
+    }
+
+    public char readChar() throws IOException {
+        if (buf.remaining() < 2) require(2);
+        return buf.getChar();
+    }
+
+    public int readInt() throws IOException {
+        if (buf.remaining() < 4) require(4);
+        return buf.getInt();
+    }
+
+    /**
+     * Reads a little-endian int, as written by the sharder.
+     */
+    public int readIntReversed() throws IOException {
+        return Integer.reverseBytes(readInt());
+    }
+
+    public long readLong() throws IOException {
+        if (buf.remaining() < 8) require(8);
+        return buf.getLong();
+    }
+
+    public float readFloat() throws IOException {
+        return Float.intBitsToFloat(readInt());
+    }
+
+    public double readDouble() throws IOException {
+        return Double.longBitsToDouble(readLong());
+    }
+
+    /**
+     * Reads bytes until a line terminator, as DataInputStream.readLine(): each byte
+     * is a character, and the line ends with \n, \r or \r\n.
+     * @return the line, or null at the end of the file
+     */
+    public String readLine() throws IOException {
+        StringBuilder line = new StringBuilder();
+        while (true) {
+            if (!buf.hasRemaining() && !fill()) {
+                return (line.length() == 0 ? null : line.toString());
+            }
+            int c = buf.get() & 0xff;
+            if (c == '\n') return line.toString();
+            if (c == '\r') {
+                if ((buf.hasRemaining() || fill()) && buf.get(buf.position()) == '\n') buf.get();
+                return line.toString();
+            }
+            line.append((char) c);
+        }
+    }
+
+    public String readUTF() throws IOException {
+        return DataInputStream.readUTF(this);
+    }
+
+    /**
+     * Closes the file. The buffer is given to the next reader.
+     */
+    public void close() throws IOException {
+        if (buf != null) {
+            bufferPool.add(buf);
+            buf = null;
+        }
+        channel.close();
+    }
+}
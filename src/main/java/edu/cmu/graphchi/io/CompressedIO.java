@@ -17,46 +17,158 @@ package edu.cmu.graphchi.io;
  */
 
 
+import edu.cmu.graphchi.ChiFilenames;
+
 import java.io.*;
-import java.util.zip.*;
+import java.nio.ByteBuffer;
 
 /**
- * Zlib-compressed I/O utilities.
+ * I/O of edge data blocks, encoded with a BlockCodec. The codec of a graph is
+ * chosen when it is sharded, see setDefaultCodec(), and recorded next to the
+ * edge data shards. Shards without the record are zlib-compressed. If compression
+ * is disabled, blocks are stored uncompressed regardless of the codec.
  * @author akyrola
  */
 public class CompressedIO {
 
     static boolean COMPRESSION_ENABLED = true;
 
+    public static final BlockCodec NONE = new UncompressedCodec();
+    public static final BlockCodec ZLIB = new ZlibCodec();
+    public static final BlockCodec LZ = new LZCodec();
+    public static final BlockCodec FLOAT_XOR = new FloatXorCodec();
+
+    private static BlockCodec defaultCodec = ZLIB;
+
+    /**
+     * Returns the codec with the given name.
+     * @throws IllegalArgumentException if there is no such codec
+     */
+    public static BlockCodec getCodec(String name) {
+        for(BlockCodec codec : new BlockCodec[] {NONE, ZLIB, LZ, FLOAT_XOR}) {
+            if (codec.getName().equals(name)) return codec;
+        }
+        throw new IllegalArgumentException("Unknown block codec: " + name);
+    }
+
+    /**
+     * Codec for the blocks of an edge data shard, as recorded when the shard was written.
+     */
+    public static BlockCodec getShardCodec(String edataShardName) throws IOException {
+        if (!COMPRESSION_ENABLED) return NONE;
+        File codecFile = new File(ChiFilenames.getFilenameShardEdataCodec(edataShardName));
+        if (!codecFile.exists()) return ZLIB;
+        BufferedReader rd = new BufferedReader(new FileReader(codecFile));
+        String name = rd.readLine();
+        rd.close();
+        return getCodec(name.trim());
+    }
+
+    /**
+     * Records the codec of the blocks of an edge data shard.
+     */
+    public static void writeShardCodec(String edataShardName, BlockCodec codec) throws IOException {
+        FileWriter wr = new FileWriter(new File(ChiFilenames.getFilenameShardEdataCodec(edataShardName)));
+        wr.write(codec.getName());
+        wr.close();
+    }
+
     public static void readCompressed(File f, byte[] buf, int nbytes) throws FileNotFoundException, IOException {
-        if (COMPRESSION_ENABLED) {
-            BufferedInputStream bis = new BufferedInputStream(new FileInputStream(f));
-            InflaterInputStream iis = new InflaterInputStream(bis);
-            int read = 0;
-            while (read < nbytes) {
-                read += iis.read(buf, read, nbytes - read);
-            }
-            iis.close(); bis.close();
-        } else {
-            FileInputStream in = new FileInputStream(f);
-            int read = 0;
-            while (read < nbytes) {
-                read += in.read(buf, read, buf.length - read);
+        readCompressed(f, buf, nbytes, (COMPRESSION_ENABLED ? ZLIB : NONE));
+    }
+
+    public static void writeCompressed(File f, byte[] data, int nbytes) throws FileNotFoundException, IOException {
+        writeCompressed(f, data, nbytes, (COMPRESSION_ENABLED ? ZLIB : NONE));
+    }
+
+    public static void readCompressed(File f, ByteBuffer buf, int nbytes) throws FileNotFoundException, IOException {
+        readCompressed(f, buf, nbytes, (COMPRESSION_ENABLED ? ZLIB : NONE));
+    }
+
+    public static void writeCompressed(File f, ByteBuffer buf, int nbytes) throws FileNotFoundException, IOException {
+        writeCompressed(f, buf, nbytes, (COMPRESSION_ENABLED ? ZLIB : NONE));
+    }
+
+    public static void readCompressed(File f, byte[] buf, int nbytes, BlockCodec codec) throws FileNotFoundException, IOException {
+        FileInputStream in = new FileInputStream(f);
+        try {
+            if (codec == NONE) {
+                readFully(in, buf, nbytes);
+            } else {
+                int len = (int) f.length();
+                byte[] encoded = staging(encodedArray, len);
+                readFully(in, encoded, len);
+                codec.decode(encoded, len, buf, nbytes);
             }
+        } finally {
             in.close();
         }
     }
 
-    public static void writeCompressed(File f, byte[] data, int nbytes) throws FileNotFoundException, IOException {
-        if (COMPRESSION_ENABLED) {
-            BufferedOutputStream bos = new BufferedOutputStream(new FileOutputStream(f));
-            DeflaterOutputStream dos = new DeflaterOutputStream(bos);
-            dos.write(data, 0, nbytes);
-            dos.close(); bos.close();
+    public static void writeCompressed(File f, byte[] data, int nbytes, BlockCodec codec) throws FileNotFoundException, IOException {
+        FileOutputStream out = new FileOutputStream(f);
+        try {
+            if (codec == NONE) {
+                out.write(data, 0, nbytes);
+            } else {
+                byte[] encoded = staging(encodedArray, codec.maxEncodedLength(nbytes));
+                out.write(encoded, 0, codec.encode(data, nbytes, encoded));
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void readFully(InputStream in, byte[] buf, int nbytes) throws IOException {
+        int read = 0;
+        while (read < nbytes) {
+            int n = in.read(buf, read, nbytes - read);
+            if (n < 0) throw new EOFException("Block too short: " + read + " < " + nbytes);
+            read += n;
+        }
+    }
+
+    /* Staging arrays for buffers which are not backed by an array (e.g direct buffers) */
+    private static final ThreadLocal<byte[]> stagingArray = new ThreadLocal<byte[]>();
+    /* Encoded blocks */
+    private static final ThreadLocal<byte[]> encodedArray = new ThreadLocal<byte[]>();
+
+    private static byte[] staging(ThreadLocal<byte[]> local, int nbytes) {
+        byte[] arr = local.get();
+        if (arr == null || arr.length < nbytes) {
+            arr = new byte[nbytes];
+            local.set(arr);
+        }
+        return arr;
+    }
+
+    /**
+     * Reads nbytes to the beginning of the buffer. The position of the buffer is not changed.
+     */
+    public static void readCompressed(File f, ByteBuffer buf, int nbytes, BlockCodec codec) throws FileNotFoundException, IOException {
+        if (buf.hasArray() && buf.arrayOffset() == 0) {
+            readCompressed(f, buf.array(), nbytes, codec);
+        } else {
+            byte[] arr = staging(stagingArray, nbytes);
+            readCompressed(f, arr, nbytes, codec);
+            ByteBuffer dst = buf.duplicate();
+            dst.clear();
+            dst.put(arr, 0, nbytes);
+        }
+    }
+
+    /**
+     * Writes the first nbytes of the buffer. The position of the buffer is not changed.
+     */
+    public static void writeCompressed(File f, ByteBuffer buf, int nbytes, BlockCodec codec) throws FileNotFoundException, IOException {
+        if (buf.hasArray() && buf.arrayOffset() == 0) {
+            writeCompressed(f, buf.array(), nbytes, codec);
         } else {
-            BufferedOutputStream bos = new BufferedOutputStream(new FileOutputStream(f));
-            bos.write(data, 0, nbytes);
-            bos.close();
+            byte[] arr = staging(stagingArray, nbytes);
+            ByteBuffer src = buf.duplicate();
+            src.clear();
+            src.get(arr, 0, nbytes);
+            writeCompressed(f, arr, nbytes, codec);
         }
     }
 
@@ -69,9 +181,26 @@ public class CompressedIO {
         return COMPRESSION_ENABLED;
     }
 
+    public static BlockCodec getDefaultCodec() {
+        return defaultCodec;
+    }
+
+    /**
+     * Sets the codec of the graphs sharded from now on, unless the sharder is given
+     * another one. Default zlib, or the codec named by the system property graphchi.codec.
+     * The codecs are "zlib", "lz" (faster than zlib, lower ratio), "floatxor"
+     * (for float edge values) and "none".
+     */
+    public static void setDefaultCodec(BlockCodec codec) {
+        defaultCodec = codec;
+    }
+
     static {
         if ("0".equals(System.getProperty("graphchi.compression"))) {
             disableCompression();
         }
+        if (System.getProperty("graphchi.codec") != null) {
+            setDefaultCodec(getCodec(System.getProperty("graphchi.codec")));
+        }
     }
 }
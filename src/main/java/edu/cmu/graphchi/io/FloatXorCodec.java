@@ -0,0 +1,79 @@
+package edu.cmu.graphchi.io;
+
+import java.io.IOException;
+
+/**
+ * Copyright [2012] [Aapo Kyrola, Guy Blelloch, Carlos Guestrin / Carnegie Mellon University]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * For blocks of 4-byte values, typically floats. Each value is XORed with the
+ * previous one, which zeroes the sign, exponent and high mantissa bits of values
+ * of similar magnitude, and the bytes are transposed so that the bytes of the
+ * same significance are stored together. The result is compressed with LZCodec,
+ * which finds the long runs of zeros. Bytes after the last whole value are
+ * stored as they are.
+ */
+public class FloatXorCodec implements BlockCodec {
+
+    private final LZCodec lz = new LZCodec();
+
+    private final ThreadLocal<byte[]> transformed = new ThreadLocal<byte[]>();
+
+    public String getName() {
+        return "floatxor";
+    }
+
+    public int maxEncodedLength(int nbytes) {
+        return lz.maxEncodedLength(nbytes);
+    }
+
+    private byte[] transformBuffer(int nbytes) {
+        byte[] buf = transformed.get();
+        if (buf == null || buf.length < nbytes) {
+            buf = new byte[nbytes];
+            transformed.set(buf);
+        }
+        return buf;
+    }
+
+    public int encode(byte[] src, int nbytes, byte[] dst) {
+        byte[] tmp = transformBuffer(nbytes);
+        int n = nbytes / 4;
+        for(int k=0; k < 4; k++) {
+            int plane = k * n;
+            if (n > 0) tmp[plane] = src[k];
+            for(int i=1; i < n; i++) {
+                tmp[plane + i] = (byte) (src[4 * i + k] ^ src[4 * i - 4 + k]);
+            }
+        }
+        System.arraycopy(src, 4 * n, tmp, 4 * n, nbytes - 4 * n);
+        return lz.encode(tmp, nbytes, dst);
+    }
+
+    public void decode(byte[] src, int len, byte[] dst, int nbytes) throws IOException {
+        byte[] tmp = transformBuffer(nbytes);
+        lz.decode(src, len, tmp, nbytes);
+        int n = nbytes / 4;
+        for(int k=0; k < 4; k++) {
+            int plane = k * n;
+            if (n > 0) dst[k] = tmp[plane];
+            for(int i=1; i < n; i++) {
+                dst[4 * i + k] = (byte) (tmp[plane + i] ^ dst[4 * i - 4 + k]);
+            }
+        }
+        System.arraycopy(tmp, 4 * n, dst, 4 * n, nbytes - 4 * n);
+    }
+}
@@ -0,0 +1,176 @@
+package edu.cmu.graphchi.io;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Copyright [2012] [Aapo Kyrola, Guy Blelloch, Carlos Guestrin / Carnegie Mellon University]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Byte-oriented LZ77 compression in the LZ4 block format: a sequence is a
+ * token (literal length and match length in four bits each, 15 meaning that
+ * the length continues in the following bytes), the literals, and the match
+ * as a two-byte little-endian offset back in the output. The last sequence has
+ * only literals. Matches are found greedily with a hash table of 4-byte
+ * prefixes, and incompressible data is skipped over with growing steps, so
+ * the codec is several times faster than zlib in both directions, at a lower
+ * compression ratio.
+ */
+public class LZCodec implements BlockCodec {
+
+    private static final int MIN_MATCH = 4;
+    private static final int MAX_OFFSET = 0xffff;
+    /* The last match must start this far from the end, and the last bytes are literals */
+    private static final int MATCH_LIMIT = 12;
+    private static final int LAST_LITERALS = 5;
+    private static final int HASH_LOG = 16;
+    /* After 2^SKIP_TRIGGER misses, the search step grows by one */
+    private static final int SKIP_TRIGGER = 6;
+
+    private final ThreadLocal<int[]> hashTables = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[1 << HASH_LOG];
+        }
+    };
+
+    public String getName() {
+        return "lz";
+    }
+
+    public int maxEncodedLength(int nbytes) {
+        return nbytes + nbytes / 255 + 16;
+    }
+
+    private static int readInt(byte[] a, int i) {
+        return (a[i] & 0xff) | ((a[i + 1] & 0xff) << 8) | ((a[i + 2] & 0xff) << 16) | (a[i + 3] << 24);
+    }
+
+    private static int hash(int seq) {
+        return (seq * -1640531535) >>> (32 - HASH_LOG);
+    }
+
+    public int encode(byte[] src, int nbytes, byte[] dst) {
+        int[] table = hashTables.get();
+        Arrays.fill(table, -1);
+        int anchor = 0;
+        int ip = 0;
+        int op = 0;
+        int misses = 0;
+        int matchLimit = nbytes - MATCH_LIMIT;
+        int extendLimit = nbytes - LAST_LITERALS;
+
+        while (ip < matchLimit) {
+            int seq = readInt(src, ip);
+            int h = hash(seq);
+            int ref = table[h];
+            table[h] = ip;
+            if (ref < 0 || ip - ref > MAX_OFFSET || readInt(src, ref) != seq) {
+                ip += 1 + (misses++ >>> SKIP_TRIGGER);
+                continue;
+            }
+            misses = 0;
+            /* Extend the match backwards over the pending literals, and forwards */
+            while (ip > anchor && ref > 0 && src[ip - 1] == src[ref - 1]) {
+                ip--;
+                ref--;
+            }
+            int matchLen = MIN_MATCH;
+            while (ip + matchLen < extendLimit && src[ip + matchLen] == src[ref + matchLen]) {
+                matchLen++;
+            }
+            op = writeLiterals(src, anchor, ip - anchor, matchLen - MIN_MATCH, dst, op);
+            int offset = ip - ref;
+            dst[op++] = (byte) offset;
+            dst[op++] = (byte) (offset >>> 8);
+            if (matchLen - MIN_MATCH >= 15) {
+                op = writeLength(matchLen - MIN_MATCH - 15, dst, op);
+            }
+            ip += matchLen;
+            anchor = ip;
+        }
+        return writeLiterals(src, anchor, nbytes - anchor, 0, dst, op);
+    }
+
+    /* Writes the token and the literals of a sequence */
+    private static int writeLiterals(byte[] src, int start, int len, int matchCode, byte[] dst, int op) {
+        dst[op++] = (byte) ((Math.min(len, 15) << 4) | Math.min(matchCode, 15));
+        if (len >= 15) {
+            op = writeLength(len - 15, dst, op);
+        }
+        System.arraycopy(src, start, dst, op, len);
+        return op + len;
+    }
+
+    private static int writeLength(int len, byte[] dst, int op) {
+        while (len >= 255) {
+            dst[op++] = (byte) 255;
+            len -= 255;
+        }
+        dst[op++] = (byte) len;
+        return op;
+    }
+
+    public void decode(byte[] src, int len, byte[] dst, int nbytes) throws IOException {
+        int ip = 0;
+        int op = 0;
+        try {
+            while (true) {
+                int token = src[ip++] & 0xff;
+                int litLen = token >>> 4;
+                if (litLen == 15) {
+                    int b;
+                    do {
+                        b = src[ip++] & 0xff;
+                        litLen += b;
+                    } while (b == 255);
+                }
+                if (op + litLen > nbytes || ip + litLen > len) throw new IOException("Corrupt block at " + op);
+                System.arraycopy(src, ip, dst, op, litLen);
+                ip += litLen;
+                op += litLen;
+                if (ip >= len) break;
+                if (ip + 2 > len) throw new IOException("Corrupt block: truncated");
+
+                int offset = (src[ip] & 0xff) | ((src[ip + 1] & 0xff) << 8);
+                ip += 2;
+                int matchLen = token & 15;
+                if (matchLen == 15) {
+                    int b;
+                    do {
+                        b = src[ip++] & 0xff;
+                        matchLen += b;
+                    } while (b == 255);
+                }
+                matchLen += MIN_MATCH;
+                int ref = op - offset;
+                if (offset == 0 || ref < 0 || op + matchLen > nbytes) {
+                    throw new IOException("Corrupt block: bad match at " + op);
+                }
+                if (offset >= matchLen) {
+                    System.arraycopy(dst, ref, dst, op, matchLen);
+                    op += matchLen;
+                } else {
+                    /* Overlapping match repeats the last offset bytes */
+                    for(int end = op + matchLen; op < end; ) dst[op++] = dst[ref++];
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IOException("Corrupt block: truncated", e);
+        }
+        if (op != nbytes) throw new IOException("Block too short: " + op + " < " + nbytes);
+    }
+}
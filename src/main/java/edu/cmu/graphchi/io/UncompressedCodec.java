@@ -0,0 +1,43 @@
+package edu.cmu.graphchi.io;
+
+import java.io.IOException;
+
+/**
+ * Copyright [2012] [Aapo Kyrola, Guy Blelloch, Carlos Guestrin / Carnegie Mellon University]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Blocks are stored as they are.
+ */
+public class UncompressedCodec implements BlockCodec {
+
+    public String getName() {
+        return "none";
+    }
+
+    public int maxEncodedLength(int nbytes) {
+        return nbytes;
+    }
+
+    public int encode(byte[] src, int nbytes, byte[] dst) {
+        System.arraycopy(src, 0, dst, 0, nbytes);
+        return nbytes;
+    }
+
+    public void decode(byte[] src, int len, byte[] dst, int nbytes) throws IOException {
+        if (len < nbytes) throw new IOException("Block too short: " + len + " < " + nbytes);
+        System.arraycopy(src, 0, dst, 0, nbytes);
+    }
+}
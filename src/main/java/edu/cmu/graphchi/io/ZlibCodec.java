@@ -0,0 +1,83 @@
+package edu.cmu.graphchi.io;
+
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Copyright [2012] [Aapo Kyrola, Guy Blelloch, Carlos Guestrin / Carnegie Mellon University]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Zlib streams, compatible with the blocks written by DeflaterOutputStream.
+ * Each thread reuses its own Deflater and Inflater, as creating them
+ * allocates native memory.
+ */
+public class ZlibCodec implements BlockCodec {
+
+    private final ThreadLocal<Deflater> deflaters = new ThreadLocal<Deflater>() {
+        @Override
+        protected Deflater initialValue() {
+            return new Deflater();
+        }
+    };
+
+    private final ThreadLocal<Inflater> inflaters = new ThreadLocal<Inflater>() {
+        @Override
+        protected Inflater initialValue() {
+            return new Inflater();
+        }
+    };
+
+    public String getName() {
+        return "zlib";
+    }
+
+    public int maxEncodedLength(int nbytes) {
+        /* Stored blocks add 5 bytes per 16K, plus the zlib header and checksum */
+        return nbytes + (nbytes >> 12) + (nbytes >> 14) + 64;
+    }
+
+    public int encode(byte[] src, int nbytes, byte[] dst) {
+        Deflater deflater = deflaters.get();
+        deflater.reset();
+        deflater.setInput(src, 0, nbytes);
+        deflater.finish();
+        int len = 0;
+        while (!deflater.finished()) {
+            len += deflater.deflate(dst, len, dst.length - len);
+        }
+        return len;
+    }
+
+    public void decode(byte[] src, int len, byte[] dst, int nbytes) throws IOException {
+        Inflater inflater = inflaters.get();
+        inflater.reset();
+        inflater.setInput(src, 0, len);
+        try {
+            int read = 0;
+            while (read < nbytes) {
+                int n = inflater.inflate(dst, read, nbytes - read);
+                if (n == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("Block too short: " + read + " < " + nbytes);
+                }
+                read += n;
+            }
+        } catch (DataFormatException dfe) {
+            throw new IOException(dfe);
+        }
+    }
+}
@@ -3,12 +3,16 @@ package edu.cmu.graphchi.preprocessing;
 import edu.cmu.graphchi.ChiFilenames;
 import edu.cmu.graphchi.ChiLogger;
 import edu.cmu.graphchi.ChiVertex;
+import edu.cmu.graphchi.GraphManifest;
 import edu.cmu.graphchi.datablocks.BytesToValueConverter;
 import edu.cmu.graphchi.datablocks.ChiPointer;
 import edu.cmu.graphchi.datablocks.DataBlockManager;
 import edu.cmu.graphchi.datablocks.IntConverter;
+import edu.cmu.graphchi.engine.VertexInterval;
 import edu.cmu.graphchi.engine.auxdata.VertexData;
+import edu.cmu.graphchi.io.BlockCodec;
 import edu.cmu.graphchi.io.CompressedIO;
+import edu.cmu.graphchi.shards.AdjacencyFormat;
 import edu.cmu.graphchi.shards.MemoryShard;
 import edu.cmu.graphchi.shards.SlidingShard;
 import nom.tam.util.BufferedDataInputStream;
@@ -19,12 +23,19 @@ import java.sql.DriverManager;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
-import java.util.Random;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 import java.util.logging.Logger;
-import java.util.zip.DeflaterOutputStream;
 
 /**
  * New version of sharder that requires predefined number of shards and
@@ -73,6 +84,7 @@ public class FastSharder<VertexValueType, EdgeValueType> {
     private DataOutputStream[] vertexShovelStreams;
 
     private int maxVertexId = 0;
+    private Shoveler streamShoveler;
 
     private int[] inDegrees;
     private int[] outDegrees;
@@ -80,6 +92,16 @@ public class FastSharder<VertexValueType, EdgeValueType> {
     private long numEdges = 0;
     private boolean useSparseDegrees = false;
     private boolean allowSparseDegreesAndVertexData = false;
+    private int numShovelThreads = 1;
+    private int numParserThreads = 1;
+    private long shovelMemoryBudget = Runtime.getRuntime().maxMemory() / 2;
+    private BlockCodec edgeDataCodec = CompressedIO.getDefaultCodec();
+    private AdjacencyFormat adjacencyFormat = AdjacencyFormat.RAW;
+    private BlockCodec adjacencyCodec = null;
+    private GraphManifest manifest;
+    private int numVerticesWithEdges = 0;
+    private int maxInDegree = 0;
+    private int maxOutDegree = 0;
 
     private BytesToValueConverter<EdgeValueType> edgeValueTypeBytesToValueConverter;
     private BytesToValueConverter<VertexValueType> vertexValueTypeBytesToValueConverter;
@@ -144,6 +166,7 @@ public class FastSharder<VertexValueType, EdgeValueType> {
         if (vertexValueTypeBytesToValueConverter != null) {
             vertexValueTemplate = new byte[vertexValueTypeBytesToValueConverter.sizeOf()];
         }
+        streamShoveler = new StreamShoveler();
     }
 
     private String shovelFilename(int i) {
@@ -163,55 +186,198 @@ public class FastSharder<VertexValueType, EdgeValueType> {
      * @throws IOException
      */
     public void addEdge(int from, int to, String edgeValueToken) throws IOException {
-        if (maxVertexId < from) {
-            maxVertexId = from;
+        streamShoveler.addEdge(from, to, edgeValueToken);
+    }
+
+    private byte[] valueTemplate;
+    private byte[] vertexValueTemplate;
+
+    /**
+     * Shovels edges and vertex values. At this stage, the vertex-ids are
+     * "pretranslated" to a temporary internal ids. In the last phase, each
+     * vertex-id is assigned its final id. The pretranslation is requried
+     * because at this point we do not know the total number of vertices.
+     * The shard() parsers share the handling of the input lines, so parsing
+     * in parallel shovels exactly the same as parsing in one thread.
+     */
+    private abstract class Shoveler {
+        final byte[] edgeValue = new byte[valueTemplate.length];
+        final byte[] vertexValue = (vertexValueTemplate != null ? new byte[vertexValueTemplate.length] : null);
+        int maxId = 0;
+        long numLines = 0;
+        String mismatch;
+
+        /* Token positions of the current line */
+        private int[] tokenStarts = new int[16];
+        private int[] tokenEnds = new int[16];
+
+        /**
+         * Shovels the edges of the lines of an edge list or an adjacency list.
+         * The lines are parsed from the bytes, only edge values are converted to strings.
+         * @return false if the edge count of an adjacency list does not match
+         * the number of neighbors, see checkMismatch()
+         */
+        boolean parseLines(byte[] data, int length, GraphInputFormat format) throws IOException {
+            int lineStart = 0;
+            while (lineStart < length) {
+                /* Lines end like in BufferedReader.readLine() */
+                int lineEnd = lineStart;
+                while (lineEnd < length && data[lineEnd] != '\n' && data[lineEnd] != '\r') {
+                    lineEnd++;
+                }
+                if (!parseLine(data, lineStart, lineEnd, format)) {
+                    return false;
+                }
+                lineStart = lineEnd + 1;
+                if (lineEnd + 1 < length && data[lineEnd] == '\r' && data[lineEnd + 1] == '\n') {
+                    lineStart++;
+                }
+            }
+            return true;
         }
-        if (maxVertexId < to) {
-            maxVertexId = to;
+
+        /**
+         * Shovels the edges of a line. Comments and short lines are skipped.
+         */
+        private boolean parseLine(byte[] data, int start, int end, GraphInputFormat format) throws IOException {
+            if (end - start <= 2 || data[start] == '#') {
+                return true;
+            }
+            numLines++;
+            if (numLines % 2000000 == 0) {
+                logger.info("Reading line: " + numLines);
+            }
+
+            int numTokens = tokenize(data, start, end, (byte) '\t');
+            if (numTokens == 1) {
+                numTokens = tokenize(data, start, end, (byte) ' ');
+            }
+
+            if (numTokens > 1) {
+                if (format == GraphInputFormat.EDGELIST) {
+                    /* Edge list: <src> <dst> <value> */
+                    if (numTokens == 2) {
+                        addEdge(parseToken(data, 0), parseToken(data, 1), null);
+                    } else if (numTokens == 3) {
+                        addEdge(parseToken(data, 0), parseToken(data, 1),
+                                new String(data, tokenStarts[2], tokenEnds[2] - tokenStarts[2]));
+                    }
+                } else if (format == GraphInputFormat.ADJACENCY) {
+                    /* Adjacency list: <vertex-id> <count> <neighbor-1> <neighbor-2> ... */
+                    int vertexId = parseToken(data, 0);
+                    int len = parseToken(data, 1);
+                    if (len != numTokens - 2) {
+                        mismatch = "number of edges does not match number of tokens:" + len + " != " + numTokens;
+                        return false;
+                    }
+                    for (int j = 2; j < 2 + len; j++) {
+                        int dest = parseToken(data, j);
+                        addEdge(vertexId, dest, null);
+                    }
+                } else {
+                    throw new IllegalArgumentException("Please specify graph input format");
+                }
+            }
+            return true;
         }
 
-        /* If the from and to ids are same, this entry is assumed to contain value
-         for the vertex, and it is passed to the vertexProcessor.
+        /**
+         * Finds the tokens of a line like String.split(): empty tokens are kept,
+         * except at the end of the line.
+         * @return number of tokens
          */
-        if (from == to) {
-            if (vertexProcessor != null && edgeValueToken != null) {
-                VertexValueType value = vertexProcessor.receiveVertexValue(from, edgeValueToken);
-                if (value != null) {
-                    addVertexValue(from % numShards, preIdTranslate.forward(from), value);
+        private int tokenize(byte[] data, int start, int end, byte separator) {
+            int numTokens = 0;
+            int tokenStart = start;
+            for (int i = start; i <= end; i++) {
+                if (i == end || data[i] == separator) {
+                    if (numTokens == tokenStarts.length) {
+                        tokenStarts = Arrays.copyOf(tokenStarts, numTokens * 2);
+                        tokenEnds = Arrays.copyOf(tokenEnds, numTokens * 2);
+                    }
+                    tokenStarts[numTokens] = tokenStart;
+                    tokenEnds[numTokens] = i;
+                    numTokens++;
+                    tokenStart = i + 1;
                 }
             }
-            return;
+            while (numTokens > 0 && tokenStarts[numTokens - 1] == tokenEnds[numTokens - 1]) {
+                numTokens--;
+            }
+            return numTokens;
         }
-        int preTranslatedIdFrom = preIdTranslate.forward(from);
-        int preTranslatedTo = preIdTranslate.forward(to);
 
-        addToShovel(to % numShards, preTranslatedIdFrom, preTranslatedTo,
-                (edgeProcessor != null ? edgeProcessor.receiveEdge(from, to, edgeValueToken) : null));
-    }
+        private int parseToken(byte[] data, int token) {
+            return parseInt(data, tokenStarts[token], tokenEnds[token]);
+        }
 
-    private byte[] valueTemplate;
-    private byte[] vertexValueTemplate;
+        /**
+         * A mismatch on the first lines means a wrong input format, later the
+         * input is read up to the line.
+         * @param linesBefore number of lines before the lines of this shoveler
+         * @return false if the reading must stop
+         */
+        boolean checkMismatch(long linesBefore) {
+            if (mismatch == null) {
+                return true;
+            }
+            long lineNum = linesBefore + numLines;
+            if (lineNum < 10) {
+                throw new IllegalArgumentException("Error on line " + lineNum + "; " + mismatch);
+            }
+            logger.warning("Error on line " + lineNum + "; " + mismatch);
+            return false;
+        }
+
+        void addEdge(int from, int to, String edgeValueToken) throws IOException {
+            if (maxId < from) {
+                maxId = from;
+            }
+            if (maxId < to) {
+                maxId = to;
+            }
+
+            /* If the from and to ids are same, this entry is assumed to contain value
+             for the vertex, and it is passed to the vertexProcessor.
+             */
+            if (from == to) {
+                if (vertexProcessor != null && edgeValueToken != null) {
+                    VertexValueType value = vertexProcessor.receiveVertexValue(from, edgeValueToken);
+                    if (value != null) {
+                        vertexValueTypeBytesToValueConverter.setValue(vertexValue, value);
+                        shovelVertexValue(from % numShards, preIdTranslate.forward(from), vertexValue);
+                    }
+                }
+                return;
+            }
+            EdgeValueType value = (edgeProcessor != null ? edgeProcessor.receiveEdge(from, to, edgeValueToken) : null);
+            if (edgeValueTypeBytesToValueConverter != null) {
+                edgeValueTypeBytesToValueConverter.setValue(edgeValue, value);
+            }
+            shovelEdge(to % numShards, packEdges(preIdTranslate.forward(from), preIdTranslate.forward(to)), edgeValue);
+        }
+
+        abstract void shovelEdge(int shard, long packedEdge, byte[] value) throws IOException;
+
+        /* We keep separate shovel-file for vertex-values */
+        abstract void shovelVertexValue(int shard, int pretranslatedVertexId, byte[] value) throws IOException;
+    }
 
     /**
-     * Adds n edge to the shovel. At this stage, the vertex-ids are
-     * "pretranslated" to a temporary internal ids. In the last phase, each
-     * vertex-id is assigned its final id. The pretranslation is requried
-     * because at this point we do not know the total number of vertices.
-     *
-     * @param shard
-     * @param preTranslatedIdFrom internal from-id
-     * @param preTranslatedTo internal to-id
-     * @param value
-     * @throws IOException
+     * Writes to the shovel streams.
      */
-    private void addToShovel(int shard, int preTranslatedIdFrom, int preTranslatedTo,
-            EdgeValueType value) throws IOException {
-        DataOutputStream strm = shovelStreams[shard];
-        strm.writeLong(packEdges(preTranslatedIdFrom, preTranslatedTo));
-        if (edgeValueTypeBytesToValueConverter != null) {
-            edgeValueTypeBytesToValueConverter.setValue(valueTemplate, value);
+    private class StreamShoveler extends Shoveler {
+        void shovelEdge(int shard, long packedEdge, byte[] value) throws IOException {
+            DataOutputStream strm = shovelStreams[shard];
+            strm.writeLong(packedEdge);
+            strm.write(value);
+        }
+
+        void shovelVertexValue(int shard, int pretranslatedVertexId, byte[] value) throws IOException {
+            DataOutputStream strm = vertexShovelStreams[shard];
+            strm.writeInt(pretranslatedVertexId);
+            strm.write(value);
         }
-        strm.write(valueTemplate);
     }
 
     public boolean isAllowSparseDegreesAndVertexData() {
@@ -230,19 +396,87 @@ public class FastSharder<VertexValueType, EdgeValueType> {
         this.allowSparseDegreesAndVertexData = allowSparseDegreesAndVertexData;
     }
 
+    public int getNumParserThreads() {
+        return numParserThreads;
+    }
+
     /**
-     * We keep separate shovel-file for vertex-values.
-     *
-     * @param shard
-     * @param pretranslatedVertexId
-     * @param value
-     * @throws IOException
+     * Sets the number of threads parsing the input in shard(). Default 1.
+     * With more threads, edge lists and adjacency lists are read in chunks of lines
+     * which are parsed in parallel, so the edge and vertex processors must be
+     * thread-safe. The parsed chunks are shoveled in the order of the input, so
+     * the shards are the same as with one thread. Matrix market input is always
+     * parsed in one thread.
+     * @param numParserThreads
      */
-    private void addVertexValue(int shard, int pretranslatedVertexId, VertexValueType value) throws IOException {
-        DataOutputStream strm = vertexShovelStreams[shard];
-        strm.writeInt(pretranslatedVertexId);
-        vertexValueTypeBytesToValueConverter.setValue(vertexValueTemplate, value);
-        strm.write(vertexValueTemplate);
+    public void setNumParserThreads(int numParserThreads) {
+        this.numParserThreads = Math.max(1, numParserThreads);
+    }
+
+    public int getNumShovelThreads() {
+        return numShovelThreads;
+    }
+
+    /**
+     * Sets the number of shovels processed concurrently into shards.
+     * Default 1. The shovels being processed must fit together in the
+     * shovel memory budget, see setShovelMemoryBudget().
+     * @param numShovelThreads
+     */
+    public void setNumShovelThreads(int numShovelThreads) {
+        this.numShovelThreads = Math.max(1, numShovelThreads);
+    }
+
+    public long getShovelMemoryBudget() {
+        return shovelMemoryBudget;
+    }
+
+    /**
+     * Sets the amount of memory (bytes) the concurrently processed shovels may use for
+     * sorting the edges. Default is half of the maximum heap size. A shovel which
+     * alone needs more than the budget is processed alone.
+     * @param shovelMemoryBudget
+     */
+    public void setShovelMemoryBudget(long shovelMemoryBudget) {
+        this.shovelMemoryBudget = shovelMemoryBudget;
+    }
+
+    public BlockCodec getEdgeDataCodec() {
+        return edgeDataCodec;
+    }
+
+    /**
+     * Sets the codec of the edge data blocks. Default is CompressedIO.getDefaultCodec().
+     * The codec is recorded with the shards, so the engine reads them with the same codec.
+     * CompressedIO.LZ decompresses several times faster than zlib, and CompressedIO.FLOAT_XOR
+     * is meant for float edge values.
+     * @param edgeDataCodec
+     */
+    public void setEdgeDataCodec(BlockCodec edgeDataCodec) {
+        this.edgeDataCodec = edgeDataCodec;
+    }
+
+    public AdjacencyFormat getAdjacencyFormat() {
+        return adjacencyFormat;
+    }
+
+    /**
+     * Sets the format of the adjacency shards. Default RAW, which is compatible with
+     * the C++ version of GraphChi. VARINT shards are typically 2-3 times smaller.
+     * @param adjacencyFormat
+     */
+    public void setAdjacencyFormat(AdjacencyFormat adjacencyFormat) {
+        this.adjacencyFormat = adjacencyFormat;
+    }
+
+    /**
+     * Sets the codec for compressing the adjacency shards, or null (default) to
+     * write them uncompressed. Compressed shards are stored as chunks which the
+     * engine decompresses in parallel, see CompressedAdjacency.
+     * @param adjacencyCodec
+     */
+    public void setAdjacencyCompression(BlockCodec adjacencyCodec) {
+        this.adjacencyCodec = adjacencyCodec;
     }
 
     /**
@@ -270,6 +504,10 @@ public class FastSharder<VertexValueType, EdgeValueType> {
      * @throws IOException
      */
     public void process() throws IOException {
+        /* The manifest is written last, so an interrupted sharding leaves none */
+        new File(ChiFilenames.getFilenameManifest(baseFilename, numShards)).delete();
+        maxVertexId = Math.max(maxVertexId, streamShoveler.maxId);
+
         /* Check if we have enough memory to keep track of
          vertex degree in memory. If not, we need to run a special
          graphchi-program to create the degree-file.
@@ -311,13 +549,14 @@ public class FastSharder<VertexValueType, EdgeValueType> {
          * Store the vertex intervals.
          */
         writeIntervals();
+        manifest = new GraphManifest(intervals(), finalIdTranslate,
+                (edgeValueTypeBytesToValueConverter != null ? edgeValueTypeBytesToValueConverter.sizeOf() : 0),
+                (CompressedIO.isCompressionEnabled() ? edgeDataCodec : CompressedIO.NONE), adjacencyFormat);
 
         /**
          * Process each shovel to create a final shard.
          */
-        for (int i = 0; i < numShards; i++) {
-            processShovel(i);
-        }
+        processShovels();
 
         /**
          * If we have more vertices than edges, it makes sense to use sparse
@@ -346,6 +585,16 @@ public class FastSharder<VertexValueType, EdgeValueType> {
         if (vertexProcessor != null) {
             processVertexValues(useSparseDegrees);
         }
+
+        manifest.setDegrees(useSparseDegrees, numVerticesWithEdges, maxInDegree, maxOutDegree);
+        manifest.write(baseFilename);
+    }
+
+    /* Degree statistics for the manifest */
+    private void countDegree(int inDegree, int outDegree) {
+        if (inDegree + outDegree > 0) numVerticesWithEdges++;
+        maxInDegree = Math.max(maxInDegree, inDegree);
+        maxOutDegree = Math.max(maxOutDegree, outDegree);
     }
 
     /**
@@ -357,6 +606,7 @@ public class FastSharder<VertexValueType, EdgeValueType> {
         DataOutputStream degreeOut = new DataOutputStream(new BufferedOutputStream(
                 new FileOutputStream(ChiFilenames.getFilenameOfDegreeData(baseFilename, useSparseDegrees))));
         for (int i = 0; i < inDegrees.length; i++) {
+            countDegree(inDegrees[i], outDegrees[i]);
             if (!useSparseDegrees) {
                 degreeOut.writeInt(Integer.reverseBytes(inDegrees[i]));
                 degreeOut.writeInt(Integer.reverseBytes(outDegrees[i]));
@@ -369,6 +619,15 @@ public class FastSharder<VertexValueType, EdgeValueType> {
         degreeOut.close();
     }
 
+    private ArrayList<VertexInterval> intervals() {
+        ArrayList<VertexInterval> intervals = new ArrayList<VertexInterval>(numShards);
+        for (int j = 0; j < numShards; j++) {
+            int len = finalIdTranslate.getVertexIntervalLength();
+            intervals.add(new VertexInterval(j * len, (j + 1) * len - 1));
+        }
+        return intervals;
+    }
+
     private void writeIntervals() throws IOException {
         FileWriter wr = new FileWriter(ChiFilenames.getFilenameIntervals(baseFilename, numShards));
         for (int j = 1; j <= numShards; j++) {
@@ -467,30 +726,166 @@ public class FastSharder<VertexValueType, EdgeValueType> {
     }
 
     /**
-     * Converts a shovel-file into a shard.
+     * Converts the shovel-files into shards, numShovelThreads shovels at a time,
+     * as long as they fit in the memory budget.
+     *
+     * @throws IOException
+     */
+    private void processShovels() throws IOException {
+        final int sizeOf = (edgeValueTypeBytesToValueConverter != null ? edgeValueTypeBytesToValueConverter.sizeOf() : 0);
+        int numCores = Runtime.getRuntime().availableProcessors();
+        int numThreads = Math.min(numShovelThreads, numShards);
+        final int sortThreads = Math.max(1, numCores / numThreads);
+
+        ExecutorService shovelExecutor = Executors.newFixedThreadPool(numThreads);
+        final ExecutorService compressionExecutor = Executors.newFixedThreadPool(numCores);
+
+        /* Memory budget in kilobytes, so that it fits the semaphore's permits */
+        final int budgetKb = (int) Math.max(1, Math.min(Integer.MAX_VALUE, shovelMemoryBudget / 1024));
+        final Semaphore memoryBudget = new Semaphore(budgetKb, true);
+
+        try {
+            ArrayList<Future<Object>> futures = new ArrayList<Future<Object>>();
+            for (int i = 0; i < numShards; i++) {
+                final int shardNum = i;
+                futures.add(shovelExecutor.submit(new Callable<Object>() {
+                    public Object call() throws Exception {
+                        long shovelLength = new File(shovelFilename(shardNum)).length() / (8 + sizeOf);
+                        int requiredKb = (int) Math.min(budgetKb, shovelLength * sortMemoryPerEdge(sizeOf) / 1024 + 1);
+                        memoryBudget.acquire(requiredKb);
+                        try {
+                            processShovel(shardNum, sortThreads, compressionExecutor);
+                        } finally {
+                            memoryBudget.release(requiredKb);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Object> f : futures) {
+                waitFor(f);
+            }
+        } finally {
+            shovelExecutor.shutdownNow();
+            compressionExecutor.shutdown();
+        }
+    }
+
+    static void waitFor(Future<?> f) throws IOException {
+        try {
+            f.get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted", ie);
+        } catch (ExecutionException ee) {
+            if (ee.getCause() instanceof IOException) throw (IOException) ee.getCause();
+            throw new RuntimeException(ee.getCause());
+        }
+    }
+
+    /* Memory needed for sorting an edge: keys and positions, both twice, and the value twice */
+    private static long sortMemoryPerEdge(int sizeOf) {
+        return 24 + 2 * sizeOf;
+    }
+
+    /**
+     * Converts a shovel-file into a shard. The in-degrees are updated without
+     * synchronization, as all the edges to a vertex are in the same shovel.
+     * If sorting the shovel in memory would exceed the shovel memory budget,
+     * the shovel is sorted externally.
      *
      * @param shardNum
+     * @param sortThreads number of threads for sorting the edges
+     * @param compressionExecutor executor for compressing the edge data blocks
      * @throws IOException
      */
-    private void processShovel(int shardNum) throws IOException {
+    private void processShovel(int shardNum, int sortThreads, ExecutorService compressionExecutor) throws IOException {
         File shovelFile = new File(shovelFilename(shardNum));
         int sizeOf = (edgeValueTypeBytesToValueConverter != null ? edgeValueTypeBytesToValueConverter.sizeOf() : 0);
 
-        long[] shoveled = new long[(int) (shovelFile.length() / (8 + sizeOf))];
+        long shovelLength = shovelFile.length() / (8 + sizeOf);
 
-        // TODO: improve
-        if (shoveled.length > 500000000) {
-            throw new RuntimeException("Too big shard size, shovel length was: " + shoveled.length + " max: " + 500000000);
+        /* The shard files use 32-bit offsets */
+        long maxShardEdges = Integer.MAX_VALUE / Math.max(4, sizeOf);
+        if (shovelLength > maxShardEdges) {
+            throw new RuntimeException("Too big shard size, shovel length was: " + shovelLength + " max: " + maxShardEdges
+                    + ". Use more shards.");
+        }
+        synchronized (this) {
+            numEdges += shovelLength;
         }
-        byte[] edgeValues = new byte[shoveled.length * sizeOf];
 
         logger.info("Processing shovel " + shardNum);
 
-        /**
-         * Read the edges into memory.
-         */
+        /* Edges and their values are sorted in memory in java arrays */
+        long maxInMemory = Math.min((Integer.MAX_VALUE - 8) / Math.max(1, sizeOf),
+                Math.max(1, shovelMemoryBudget / sortMemoryPerEdge(sizeOf)));
+
+        File adjFile = new File(ChiFilenames.getFilenameShardsAdj(baseFilename, shardNum, numShards));
+        ShardWriter writer = new ShardWriter(adjFile, adjacencyFormat, adjacencyCodec, shardNum * finalIdTranslate.getVertexIntervalLength(),
+                (sizeOf > 0 ? edgeDataFilename(shardNum) : null), sizeOf, edgeDataCodec, compressionExecutor, 2 * Runtime.getRuntime().availableProcessors());
+
         BufferedDataInputStream in = new BufferedDataInputStream(new FileInputStream(shovelFile));
-        for (int i = 0; i < shoveled.length; i++) {
+        if (shovelLength <= maxInMemory) {
+            long[] shoveled = new long[(int) shovelLength];
+            byte[] edgeValues = new byte[shoveled.length * sizeOf];
+            readAndSortShovel(in, shoveled, edgeValues, sizeOf, sortThreads);
+            in.close();
+            shovelFile.delete();
+
+            logger.info("Processing shovel " + shardNum + " ... writing shard");
+            for (int i = 0; i < shoveled.length; i++) {
+                writer.add(shoveled[i], edgeValues, i * sizeOf);
+            }
+        } else {
+            /* Sort runs which fit in the budget, and merge them to the shard */
+            int runLength = (int) maxInMemory;
+            int numRuns = (int) ((shovelLength + runLength - 1) / runLength);
+            logger.info("Processing shovel " + shardNum + " ... sorting externally in " + numRuns + " runs");
+
+            long[] shoveled = new long[runLength];
+            byte[] edgeValues = new byte[runLength * sizeOf];
+            File[] runFiles = new File[numRuns];
+            for (int r = 0; r < numRuns; r++) {
+                int n = (int) Math.min(runLength, shovelLength - (long) r * runLength);
+                if (n < shoveled.length) {
+                    shoveled = null;
+                    edgeValues = null;
+                    shoveled = new long[n];
+                    edgeValues = new byte[n * sizeOf];
+                }
+                readAndSortShovel(in, shoveled, edgeValues, sizeOf, sortThreads);
+                runFiles[r] = new File(shovelFilename(shardNum) + ".run." + r);
+                DataOutputStream runOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(runFiles[r]), 1024 * 1024));
+                for (int i = 0; i < n; i++) {
+                    runOut.writeLong(shoveled[i]);
+                    runOut.write(edgeValues, i * sizeOf, sizeOf);
+                }
+                runOut.close();
+            }
+            in.close();
+            shovelFile.delete();
+            shoveled = null;
+            edgeValues = null;
+
+            logger.info("Processing shovel " + shardNum + " ... merging runs to shard");
+            mergeRuns(runFiles, sizeOf, writer);
+            for (File runFile : runFiles) {
+                runFile.delete();
+            }
+        }
+        writer.close();
+        manifest.setShard(shardNum, writer.getAdjSize(), writer.getNumEdges(), writer.getEdataSize());
+    }
+
+    /**
+     * Fills the array with edges from the shovel, translated to the final ids, and sorts them.
+     */
+    private void readAndSortShovel(BufferedDataInputStream in, long[] shoveled, byte[] edgeValues,
+                                   int sizeOf, int sortThreads) throws IOException {
+        int n = shoveled.length;
+        byte[] valueTemplate = new byte[sizeOf];
+        for (int i = 0; i < n; i++) {
             long l = in.readLong();
             int from = getFirst(l);
             int to = getSecond(l);
@@ -505,197 +900,101 @@ public class FastSharder<VertexValueType, EdgeValueType> {
             System.arraycopy(valueTemplate, 0, edgeValues, valueIdx, sizeOf);
             if (!memoryEfficientDegreeCount) {
                 inDegrees[newTo]++;
-                outDegrees[newFrom]++;
             }
         }
-        numEdges += shoveled.length;
-
-        in.close();
-
-        /* Delete the shovel-file */
-        shovelFile.delete();
-
-        logger.info("Processing shovel " + shardNum + " ... sorting");
-
-        /* Sort the edges */
-        sortWithValues(shoveled, edgeValues, sizeOf);  // The source id is  higher order, so sorting the longs will produce right result
-
-        logger.info("Processing shovel " + shardNum + " ... writing shard");
-
-
-        /*
-         Now write the final shard in a compact form. Note that there is separate shard
-         for adjacency and the edge-data. The edge-data is split and stored into 4-megabyte compressed blocks.
-         */
-        /**
-         * Step 1: ADJACENCY SHARD
-         */
-        File adjFile = new File(ChiFilenames.getFilenameShardsAdj(baseFilename, shardNum, numShards));
-        DataOutputStream adjOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(adjFile)));
-        File indexFile = new File(adjFile.getAbsolutePath() + ".index");
-        DataOutputStream indexOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile)));
-        int curvid = 0;
-        int istart = 0;
-        int edgeCounter = 0;
-        int lastIndexFlush = 0;
-        int edgesPerIndexEntry = 4096; // Tuned for fast shard queries
-
-        for (int i = 0; i <= shoveled.length; i++) {
-            int from = (i < shoveled.length ? getFirst(shoveled[i]) : -1);
-
-            if (from != curvid) {
-                /* Write index */
-                if (edgeCounter - lastIndexFlush >= edgesPerIndexEntry) {
-                    indexOut.writeInt(curvid);
-                    indexOut.writeInt(adjOut.size());
-                    indexOut.writeInt(edgeCounter);
-                    lastIndexFlush = edgeCounter;
-                }
-
-                int count = i - istart;
-
-                if (count > 0) {
-                    if (count < 255) {
-                        adjOut.writeByte(count);
-                    } else {
-                        adjOut.writeByte(0xff);
-                        adjOut.writeInt(Integer.reverseBytes(count));
-                    }
-                }
-                for (int j = istart; j < i; j++) {
-                    adjOut.writeInt(Integer.reverseBytes(getSecond(shoveled[j])));
-                    edgeCounter++;
-                }
 
-                istart = i;
+        /* The source id is higher order, so sorting the longs will produce right result */
+        ParallelRadixSort.sortWithValues(shoveled, edgeValues, sizeOf, sortThreads);
 
-                // Handle zeros
-                if (from != (-1)) {
-                    if (from - curvid > 1 || (i == 0 && from > 0)) {
-                        int nz = from - curvid - 1;
-                        if (i == 0 && from > 0) {
-                            nz = from;
-                        }
-                        do {
-                            adjOut.writeByte(0);
-                            nz--;
-                            int tnz = Math.min(254, nz);
-                            adjOut.writeByte(tnz);
-                            nz -= tnz;
-                        } while (nz > 0);
+        /* Edges are now grouped by source, so out-degrees are added once per source */
+        if (!memoryEfficientDegreeCount) {
+            synchronized (outDegrees) {
+                int runStart = 0;
+                for (int i = 1; i <= n; i++) {
+                    if (i == n || getFirst(shoveled[i]) != getFirst(shoveled[runStart])) {
+                        outDegrees[getFirst(shoveled[runStart])] += i - runStart;
+                        runStart = i;
                     }
                 }
-                curvid = from;
             }
         }
-        adjOut.close();
-        indexOut.close();
-
-        /**
-         * Step 2: EDGE DATA
-         */
-
-        /* Create compressed edge data directories */
-        if (sizeOf > 0) {
-            int blockSize = ChiFilenames.getBlocksize(sizeOf);
-            String edataFileName = ChiFilenames.getFilenameShardEdata(baseFilename, new BytesToValueConverter() {
-                @Override
-                public int sizeOf() {
-                    return edgeValueTypeBytesToValueConverter.sizeOf();
-                }
+    }
 
-                @Override
-                public Object getValue(byte[] array) {
-                    return null;
-                }
+    /**
+     * Sorted run of edges in a file, for the merge.
+     */
+    private static class RunReader implements Comparable<RunReader> {
+        final BufferedDataInputStream in;
+        final int runIdx;
+        final byte[] value;
+        long remaining;
+        long edge;
+
+        RunReader(File runFile, int runIdx, int sizeOf, int bufferSize) throws IOException {
+            this.in = new BufferedDataInputStream(new FileInputStream(runFile), bufferSize);
+            this.runIdx = runIdx;
+            this.value = new byte[sizeOf];
+            this.remaining = runFile.length() / (8 + sizeOf);
+        }
 
-                @Override
-                public void setValue(byte[] array, Object val) {
-                }
-            }, shardNum, numShards);
-            File edgeDataSizeFile = new File(edataFileName + ".size");
-            File edgeDataDir = new File(ChiFilenames.getDirnameShardEdataBlock(edataFileName, blockSize));
-            if (!edgeDataDir.exists()) {
-                edgeDataDir.mkdir();
+        boolean next() throws IOException {
+            if (remaining == 0) {
+                in.close();
+                return false;
             }
+            edge = in.readLong();
+            in.readFully(value);
+            remaining--;
+            return true;
+        }
 
-            long edatasize = shoveled.length * edgeValueTypeBytesToValueConverter.sizeOf();
-            FileWriter sizeWr = new FileWriter(edgeDataSizeFile);
-            sizeWr.write(edatasize + "");
-            sizeWr.close();
-
-            /* Create compressed blocks */
-            int blockIdx = 0;
-            int edgeIdx = 0;
-            for (long idx = 0; idx < edatasize; idx += blockSize) {
-                File blockFile = new File(ChiFilenames.getFilenameShardEdataBlock(edataFileName, blockIdx, blockSize));
-                OutputStream blockOs = (CompressedIO.isCompressionEnabled()
-                        ? new DeflaterOutputStream(new BufferedOutputStream(new FileOutputStream(blockFile)))
-                        : new FileOutputStream(blockFile));
-                long len = Math.min(blockSize, edatasize - idx);
-                byte[] block = new byte[(int) len];
-
-                System.arraycopy(edgeValues, edgeIdx * sizeOf, block, 0, block.length);
-                edgeIdx += len / sizeOf;
-
-                blockOs.write(block);
-                blockOs.close();
-                blockIdx++;
+        /* Equal edges are taken in run order, so that the merge is stable like the in-memory sort */
+        public int compareTo(RunReader other) {
+            if (edge != other.edge) {
+                return (edge < other.edge ? -1 : 1);
             }
-
-            assert (edgeIdx == edgeValues.length);
+            return runIdx - other.runIdx;
         }
     }
 
-    private static Random random = new Random();
-
-    // http://www.algolist.net/Algorithms/Sorting/Quicksort
-    // TODO: implement faster
-    private static int partition(long arr[], byte[] values, int sizeOf, int left, int right) {
-        int i = left, j = right;
-        long tmp;
-        long pivot = arr[left + random.nextInt(right - left + 1)];
-        byte[] valueTemplate = new byte[sizeOf];
-
-        while (i <= j) {
-            while (arr[i] < pivot) {
-                i++;
-            }
-            while (arr[j] > pivot) {
-                j--;
+    private void mergeRuns(File[] runFiles, int sizeOf, ShardWriter writer) throws IOException {
+        int bufferSize = (int) Math.max(64 * 1024, Math.min(4 * 1024 * 1024, shovelMemoryBudget / 4 / runFiles.length));
+        PriorityQueue<RunReader> heads = new PriorityQueue<RunReader>(runFiles.length);
+        for (int r = 0; r < runFiles.length; r++) {
+            RunReader run = new RunReader(runFiles[r], r, sizeOf, bufferSize);
+            if (run.next()) {
+                heads.add(run);
             }
-            if (i <= j) {
-                tmp = arr[i];
-
-                /* Swap */
-                System.arraycopy(values, j * sizeOf, valueTemplate, 0, sizeOf);
-                System.arraycopy(values, i * sizeOf, values, j * sizeOf, sizeOf);
-                System.arraycopy(valueTemplate, 0, values, i * sizeOf, sizeOf);
-
-                arr[i] = arr[j];
-                arr[j] = tmp;
-                i++;
-                j--;
+        }
+        while (!heads.isEmpty()) {
+            RunReader run = heads.poll();
+            writer.add(run.edge, run.value, 0);
+            if (run.next()) {
+                heads.add(run);
             }
         }
-
-        return i;
     }
 
-    static void quickSort(long arr[], byte[] values, int sizeOf, int left, int right) {
-        if (left < right) {
-            int index = partition(arr, values, sizeOf, left, right);
-            if (left < index - 1) {
-                quickSort(arr, values, sizeOf, left, index - 1);
+    private String edgeDataFilename(int shardNum) {
+        return ChiFilenames.getFilenameShardEdata(baseFilename, new BytesToValueConverter() {
+            @Override
+            public int sizeOf() {
+                return edgeValueTypeBytesToValueConverter.sizeOf();
             }
-            if (index < right) {
-                quickSort(arr, values, sizeOf, index, right);
+
+            @Override
+            public Object getValue(byte[] array) {
+                return null;
             }
-        }
+
+            @Override
+            public void setValue(byte[] array, Object val) {
+            }
+        }, shardNum, numShards);
     }
 
     public static void sortWithValues(long[] shoveled, byte[] edgeValues, int sizeOf) {
-        quickSort(shoveled, edgeValues, sizeOf, 0, shoveled.length - 1);
+        ParallelRadixSort.sortWithValues(shoveled, edgeValues, sizeOf);
     }
 
     /**
@@ -771,56 +1070,30 @@ public class FastSharder<VertexValueType, EdgeValueType> {
      * @throws IOException
      */
     public void shard(InputStream inputStream, GraphInputFormat format) throws IOException {
-        BufferedReader ins = new BufferedReader(new InputStreamReader(inputStream));
-        String ln;
-        long lineNum = 0;
+        if (numParserThreads > 1 && (format == GraphInputFormat.EDGELIST || format == GraphInputFormat.ADJACENCY)) {
+            shardParallel(inputStream, format);
+            this.process();
+            return;
+        }
 
         if (!format.equals(GraphInputFormat.MATRIXMARKET)) {
-            while ((ln = ins.readLine()) != null) {
-                if (ln.length() > 2 && !ln.startsWith("#")) {
-                    lineNum++;
-                    if (lineNum % 2000000 == 0) {
-                        logger.info("Reading line: " + lineNum);
-                    }
-
-                    String[] tok = ln.split("\t");
-                    if (tok.length == 1) {
-                        tok = ln.split(" ");
-                    }
-
-                    if (tok.length > 1) {
-                        if (format == GraphInputFormat.EDGELIST) {
-                            /* Edge list: <src> <dst> <value> */
-                            if (tok.length == 2) {
-                                this.addEdge(Integer.parseInt(tok[0]), Integer.parseInt(tok[1]), null);
-                            } else if (tok.length == 3) {
-                                this.addEdge(Integer.parseInt(tok[0]), Integer.parseInt(tok[1]), tok[2]);
-                            }
-                        } else if (format == GraphInputFormat.ADJACENCY) {
-                            /* Adjacency list: <vertex-id> <count> <neighbor-1> <neighbor-2> ... */
-                            int vertexId = Integer.parseInt(tok[0]);
-                            int len = Integer.parseInt(tok[1]);
-                            if (len != tok.length - 2) {
-                                if (lineNum < 10) {
-                                    throw new IllegalArgumentException("Error on line " + lineNum + "; number of edges does not match number of tokens:"
-                                            + len + " != " + tok.length);
-                                } else {
-                                    logger.warning("Error on line " + lineNum + "; number of edges does not match number of tokens:"
-                                            + len + " != " + tok.length);
-                                    break;
-                                }
-                            }
-                            for (int j = 2; j < 2 + len; j++) {
-                                int dest = Integer.parseInt(tok[j]);
-                                this.addEdge(vertexId, dest, null);
-                            }
-                        } else {
-                            throw new IllegalArgumentException("Please specify graph input format");
-                        }
-                    }
+            InputChunk chunk = new InputChunk(PARSE_CHUNK_SIZE);
+            InputChunk next = new InputChunk(PARSE_CHUNK_SIZE);
+            boolean more = true;
+            while (more) {
+                more = readChunk(inputStream, chunk, next);
+                if (!streamShoveler.parseLines(chunk.data, chunk.length, format)) {
+                    break;
                 }
+                InputChunk parsed = chunk;
+                chunk = next;
+                next = parsed;
             }
+            streamShoveler.checkMismatch(0);
         } else if (format.equals(GraphInputFormat.MATRIXMARKET)) {
+            BufferedReader ins = new BufferedReader(new InputStreamReader(inputStream));
+            String ln;
+            long lineNum = 0;
             /* Process matrix-market format to create a bipartite graph. */
             boolean parsedMatrixSize = false;
             int numLeft = 0;
@@ -871,6 +1144,229 @@ public class FastSharder<VertexValueType, EdgeValueType> {
         this.process();
     }
 
+    private static final int PARSE_CHUNK_SIZE = 4 * 1024 * 1024;
+
+    /**
+     * Lines of input. Chunks always end at a line end.
+     */
+    private static class InputChunk {
+        byte[] data;
+        int length;
+
+        InputChunk(int size) {
+            data = new byte[size];
+        }
+    }
+
+    /**
+     * Reads the input into the chunk until it is full, and moves the bytes after
+     * the last line end to the next chunk, so that the chunk ends at a line end.
+     * @return false if the input ended, in which case the chunk has the rest of the input
+     */
+    private static boolean readChunk(InputStream inputStream, InputChunk chunk, InputChunk next) throws IOException {
+        while (true) {
+            int n = inputStream.read(chunk.data, chunk.length, chunk.data.length - chunk.length);
+            if (n < 0) {
+                return false;
+            }
+            chunk.length += n;
+            if (chunk.length < chunk.data.length) {
+                continue;
+            }
+
+            int lineEnd = chunk.length - 1;
+            while (lineEnd >= 0 && chunk.data[lineEnd] != '\n') {
+                lineEnd--;
+            }
+            if (lineEnd < 0) {
+                /* Line does not fit the chunk */
+                byte[] larger = new byte[chunk.data.length * 2];
+                System.arraycopy(chunk.data, 0, larger, 0, chunk.length);
+                chunk.data = larger;
+                continue;
+            }
+
+            next.length = chunk.length - lineEnd - 1;
+            if (next.data.length < next.length) {
+                next.data = new byte[chunk.data.length];
+            }
+            System.arraycopy(chunk.data, lineEnd + 1, next.data, 0, next.length);
+            chunk.length = lineEnd + 1;
+            return true;
+        }
+    }
+
+    /**
+     * Reads the input in chunks of lines, which are parsed by numParserThreads
+     * threads. The edges and vertex values of a chunk are buffered, and written
+     * to the shovel streams in the order of the chunks.
+     */
+    private void shardParallel(InputStream inputStream, GraphInputFormat format) throws IOException {
+        ArrayBlockingQueue<InputChunk> freeChunks = new ArrayBlockingQueue<InputChunk>(3 * numParserThreads + 1);
+        ArrayDeque<ChunkShoveler> parsing = new ArrayDeque<ChunkShoveler>();
+        ExecutorService parserExecutor = Executors.newFixedThreadPool(numParserThreads);
+
+        try {
+            InputChunk chunk = new InputChunk(PARSE_CHUNK_SIZE);
+            long chunkIdx = 0;
+            long linesRead = 0;
+            boolean stopped = false;
+            while (!stopped) {
+                InputChunk next = freeChunks.poll();
+                if (next == null) {
+                    next = new InputChunk(PARSE_CHUNK_SIZE);
+                }
+                boolean more = readChunk(inputStream, chunk, next);
+                if (chunk.length > 0) {
+                    parsing.add(new ChunkShoveler(format, chunk, freeChunks, parserExecutor));
+                }
+                if (!more) {
+                    break;
+                }
+                chunk = next;
+                chunkIdx++;
+
+                if (chunkIdx % 100 == 0) {
+                    logger.info("Read " + (chunkIdx * (PARSE_CHUNK_SIZE / 1024 / 1024)) + " megabytes");
+                }
+                /* Keeps the parsers busy, but limits the buffered chunks */
+                while (parsing.size() > 2 * numParserThreads && !stopped) {
+                    ChunkShoveler parsed = parsing.poll();
+                    stopped = !parsed.writeToShovels(linesRead);
+                    linesRead += parsed.numLines;
+                }
+            }
+            while (!parsing.isEmpty() && !stopped) {
+                ChunkShoveler parsed = parsing.poll();
+                stopped = !parsed.writeToShovels(linesRead);
+                linesRead += parsed.numLines;
+            }
+        } finally {
+            parserExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * Parses a chunk of lines like shard() parses the input in one thread,
+     * and buffers the edges of each shovel and the vertex values.
+     */
+    private class ChunkShoveler extends Shoveler implements Callable<Object> {
+        private final GraphInputFormat format;
+        private final InputChunk chunk;
+        private final ArrayBlockingQueue<InputChunk> freeChunks;
+        private final Future<Object> parsed;
+
+        /* Buffers are allocated when first used. An edge takes about as many bytes as its line,
+           so the edge buffers start from the chunk size divided between the shards. */
+        private final int edgeBufferSize;
+        private final byte[][] edgeBuffers = new byte[numShards][];
+        private final int[] edgeBufferLengths = new int[numShards];
+        private final byte[][] vertexBuffers = new byte[numShards][];
+        private final int[] vertexBufferLengths = new int[numShards];
+
+        ChunkShoveler(GraphInputFormat format, InputChunk chunk, ArrayBlockingQueue<InputChunk> freeChunks,
+                      ExecutorService parserExecutor) {
+            this.format = format;
+            this.chunk = chunk;
+            this.edgeBufferSize = chunk.length / numShards + 8 + valueTemplate.length;
+            this.freeChunks = freeChunks;
+            this.parsed = parserExecutor.submit(this);
+        }
+
+        public Object call() throws Exception {
+            parseLines(chunk.data, chunk.length, format);
+            freeChunks.offer(chunk);
+            return null;
+        }
+
+        /**
+         * Waits for the parsing, and writes the buffered edges and vertex values.
+         * @param linesBefore number of lines in the previous chunks
+         * @return false if the reading must stop, see checkMismatch()
+         */
+        boolean writeToShovels(long linesBefore) throws IOException {
+            waitFor(parsed);
+            for (int shard = 0; shard < numShards; shard++) {
+                if (edgeBufferLengths[shard] > 0) {
+                    shovelStreams[shard].write(edgeBuffers[shard], 0, edgeBufferLengths[shard]);
+                }
+                if (vertexBufferLengths[shard] > 0) {
+                    vertexShovelStreams[shard].write(vertexBuffers[shard], 0, vertexBufferLengths[shard]);
+                }
+            }
+            maxVertexId = Math.max(maxVertexId, maxId);
+            return checkMismatch(linesBefore);
+        }
+
+        void shovelEdge(int shard, long packedEdge, byte[] value) {
+            byte[] buf = edgeBuffers[shard] = ensureCapacity(edgeBuffers[shard], edgeBufferLengths[shard] + 8 + value.length,
+                    edgeBufferSize);
+            int off = edgeBufferLengths[shard];
+            for (int b = 0; b < 8; b++) {
+                buf[off + b] = (byte) (packedEdge >>> (56 - 8 * b));
+            }
+            System.arraycopy(value, 0, buf, off + 8, value.length);
+            edgeBufferLengths[shard] = off + 8 + value.length;
+        }
+
+        void shovelVertexValue(int shard, int pretranslatedVertexId, byte[] value) {
+            byte[] buf = vertexBuffers[shard] = ensureCapacity(vertexBuffers[shard], vertexBufferLengths[shard] + 4 + value.length, 0);
+            int off = vertexBufferLengths[shard];
+            for (int b = 0; b < 4; b++) {
+                buf[off + b] = (byte) (pretranslatedVertexId >>> (24 - 8 * b));
+            }
+            System.arraycopy(value, 0, buf, off + 4, value.length);
+            vertexBufferLengths[shard] = off + 4 + value.length;
+        }
+    }
+
+    /**
+     * Parses a decimal integer like Integer.parseInt(), without creating a string.
+     */
+    static int parseInt(byte[] data, int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (data[i] == '-' || data[i] == '+')) {
+            negative = (data[i] == '-');
+            i++;
+        }
+        if (i == end) {
+            throw numberFormatException(data, start, end);
+        }
+        long value = 0;
+        for (; i < end; i++) {
+            int digit = data[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw numberFormatException(data, start, end);
+            }
+            value = value * 10 + digit;
+            if (value > 1L + Integer.MAX_VALUE) {
+                throw numberFormatException(data, start, end);
+            }
+        }
+        if (negative) {
+            value = -value;
+        }
+        if (value > Integer.MAX_VALUE) {
+            throw numberFormatException(data, start, end);
+        }
+        return (int) value;
+    }
+
+    private static NumberFormatException numberFormatException(byte[] data, int start, int end) {
+        return new NumberFormatException("For input string: \"" + new String(data, start, end - start) + "\"");
+    }
+
+    private static byte[] ensureCapacity(byte[] buf, int length, int initialSize) {
+        if (buf == null) {
+            return new byte[Math.max(initialSize, length)];
+        }
+        if (buf.length < length) {
+            return Arrays.copyOf(buf, Math.max(buf.length * 2, length));
+        }
+        return buf;
+    }
+
     /**
      * Shard a graph
      *
@@ -908,12 +1404,12 @@ public class FastSharder<VertexValueType, EdgeValueType> {
             DataOutputStream degreeOut = new DataOutputStream(new BufferedOutputStream(
                     new FileOutputStream(ChiFilenames.getFilenameOfDegreeData(baseFilename, useSparseDegrees))));
 
-            SlidingShard[] slidingShards = new SlidingShard[numShards];
+            SlidingShard<Float>[] slidingShards = new SlidingShard[numShards];
             for (int p = 0; p < numShards; p++) {
                 int intervalSt = p * finalIdTranslate.getVertexIntervalLength();
                 int intervalEn = (p + 1) * finalIdTranslate.getVertexIntervalLength() - 1;
 
-                slidingShards[p] = new SlidingShard(null, ChiFilenames.getFilenameShardsAdj(baseFilename, p, numShards),
+                slidingShards[p] = new SlidingShard<Float>(null, ChiFilenames.getFilenameShardsAdj(baseFilename, p, numShards),
                         intervalSt, intervalEn);
                 slidingShards[p].setOnlyAdjacency(true);
             }
@@ -935,9 +1431,9 @@ public class FastSharder<VertexValueType, EdgeValueType> {
                     if (subIntervalEn > intervalEn) {
                         subIntervalEn = intervalEn;
                     }
-                    ChiVertex[] verts = new ChiVertex[subIntervalEn - subIntervalSt + 1];
+                    ChiVertex<Float, Float>[] verts = new ChiVertex[subIntervalEn - subIntervalSt + 1];
                     for (int i = 0; i < verts.length; i++) {
-                        verts[i] = new ChiVertex(i + subIntervalSt, null);
+                        verts[i] = new ChiVertex<Float, Float>(i + subIntervalSt, null);
                     }
 
                     memoryShard.loadVertices(subIntervalSt, subIntervalEn, verts, false, parallelExecutor);
@@ -948,6 +1444,7 @@ public class FastSharder<VertexValueType, EdgeValueType> {
                     }
 
                     for (int i = 0; i < verts.length; i++) {
+                        countDegree(verts[i].numInEdges(), verts[i].numOutEdges());
                         if (!useSparseDegrees) {
                             degreeOut.writeInt(Integer.reverseBytes(verts[i].numInEdges()));
                             degreeOut.writeInt(Integer.reverseBytes(verts[i].numOutEdges()));
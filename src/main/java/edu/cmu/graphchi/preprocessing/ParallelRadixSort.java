@@ -0,0 +1,237 @@
+package edu.cmu.graphchi.preprocessing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Parallel LSD radix sort for long keys with fixed-size values attached, used
+ * for sorting the shovels in the sharder. Each pass sorts by one byte of the key;
+ * passes over bytes which are equal in all keys are skipped, so for example
+ * graphs with less than 2^24 vertices need only six passes. The sort is stable.
+ * Keys are sorted together with their original positions, and the values
+ * are moved to their final positions once at the end.
+ *
+ * Requires memory for two key arrays, two position arrays (if there are values)
+ * and two value arrays.
+ */
+public class ParallelRadixSort {
+
+    private static final int RADIX_BITS = 8;
+    private static final int RADIX = 1 << RADIX_BITS;
+
+    /* Smaller arrays are not worth splitting to threads */
+    private static final int MIN_ELEMENTS_PER_THREAD = 1 << 16;
+
+    private final int numThreads;
+    private ExecutorService executor;
+
+    private ParallelRadixSort(int numThreads) {
+        this.numThreads = numThreads;
+    }
+
+    /**
+     * Sorts keys into ascending order and permutes the values accordingly.
+     * @param keys keys to sort
+     * @param values values, sizeOf bytes for each key (can be null if sizeOf is zero)
+     * @param sizeOf size of a value in bytes
+     * @param numThreads maximum number of threads to use
+     */
+    public static void sortWithValues(long[] keys, byte[] values, int sizeOf, int numThreads) {
+        int n = keys.length;
+        if (n < 2) return;
+        int threads = Math.max(1, Math.min(numThreads, n / MIN_ELEMENTS_PER_THREAD));
+        ParallelRadixSort sorter = new ParallelRadixSort(threads);
+        try {
+            sorter.sort(keys, (sizeOf > 0 ? values : null), sizeOf);
+        } finally {
+            if (sorter.executor != null) sorter.executor.shutdown();
+        }
+    }
+
+    public static void sortWithValues(long[] keys, byte[] values, int sizeOf) {
+        sortWithValues(keys, values, sizeOf, Runtime.getRuntime().availableProcessors());
+    }
+
+    /* Digit of the key for a pass. The sign bit is flipped on the
+       highest byte so that negative keys are ordered first. */
+    private static int digit(long key, int shift) {
+        int d = (int) (key >>> shift) & (RADIX - 1);
+        return (shift == 64 - RADIX_BITS ? d ^ (RADIX >> 1) : d);
+    }
+
+    private interface ChunkTask {
+        void run(int thread, int from, int to);
+    }
+
+    private int chunkStart(int n, int thread) {
+        return (int) ((long) n * thread / numThreads);
+    }
+
+    /**
+     * Runs the task for each thread's chunk of the range [0, n) and waits for them to finish.
+     */
+    private void parallel(final int n, final ChunkTask task) {
+        if (numThreads == 1) {
+            task.run(0, 0, n);
+            return;
+        }
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(numThreads, new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "radix-sort");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        ArrayList<Callable<Object>> tasks = new ArrayList<Callable<Object>>(numThreads);
+        for(int t=0; t < numThreads; t++) {
+            final int thread = t;
+            tasks.add(new Callable<Object>() {
+                public Object call() {
+                    task.run(thread, chunkStart(n, thread), chunkStart(n, thread + 1));
+                    return null;
+                }
+            });
+        }
+        try {
+            for(Future<Object> f : executor.invokeAll(tasks)) {
+                f.get();
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(ie);
+        } catch (ExecutionException ee) {
+            throw new RuntimeException(ee.getCause());
+        }
+    }
+
+    private void sort(final long[] keys, final byte[] values, final int sizeOf) {
+        final int n = keys.length;
+
+        /* Find the bytes which vary between keys */
+        final long[] ors = new long[numThreads];
+        final long[] ands = new long[numThreads];
+        parallel(n, new ChunkTask() {
+            public void run(int thread, int from, int to) {
+                long or = 0, and = -1L;
+                for(int i=from; i < to; i++) {
+                    or |= keys[i];
+                    and &= keys[i];
+                }
+                ors[thread] = or;
+                ands[thread] = and;
+            }
+        });
+        long or = 0, and = -1L;
+        for(int t=0; t < numThreads; t++) {
+            or |= ors[t];
+            and &= ands[t];
+        }
+        long varying = or ^ and;
+
+        ArrayList<Integer> shifts = new ArrayList<Integer>();
+        for(int shift=0; shift < 64; shift += RADIX_BITS) {
+            if (((varying >>> shift) & (RADIX - 1)) != 0) shifts.add(shift);
+        }
+        if (shifts.isEmpty()) return;
+
+        long[] srcKeys = keys;
+        long[] dstKeys = new long[n];
+        int[] srcPos = null, dstPos = null;
+        if (values != null) {
+            final int[] pos = new int[n];
+            parallel(n, new ChunkTask() {
+                public void run(int thread, int from, int to) {
+                    for(int i=from; i < to; i++) pos[i] = i;
+                }
+            });
+            srcPos = pos;
+            dstPos = new int[n];
+        }
+
+        final int[][] offsets = new int[numThreads][RADIX];
+        for(final int shift : shifts) {
+            final long[] sk = srcKeys, dk = dstKeys;
+            final int[] sp = srcPos, dp = dstPos;
+
+            /* Count the digits of each thread's chunk */
+            parallel(n, new ChunkTask() {
+                public void run(int thread, int from, int to) {
+                    int[] counts = offsets[thread];
+                    Arrays.fill(counts, 0);
+                    for(int i=from; i < to; i++) counts[digit(sk[i], shift)]++;
+                }
+            });
+
+            /* Chunks write each digit in thread order, which keeps the sort stable */
+            int total = 0;
+            for(int d=0; d < RADIX; d++) {
+                for(int t=0; t < numThreads; t++) {
+                    int c = offsets[t][d];
+                    offsets[t][d] = total;
+                    total += c;
+                }
+            }
+
+            parallel(n, new ChunkTask() {
+                public void run(int thread, int from, int to) {
+                    int[] dst = offsets[thread];
+                    if (sp == null) {
+                        for(int i=from; i < to; i++) {
+                            long k = sk[i];
+                            dk[dst[digit(k, shift)]++] = k;
+                        }
+                    } else {
+                        for(int i=from; i < to; i++) {
+                            long k = sk[i];
+                            int j = dst[digit(k, shift)]++;
+                            dk[j] = k;
+                            dp[j] = sp[i];
+                        }
+                    }
+                }
+            });
+
+            srcKeys = dk; dstKeys = sk;
+            srcPos = dp; dstPos = sp;
+        }
+        dstKeys = null;
+        dstPos = null;
+
+        if (srcKeys != keys) {
+            final long[] sorted = srcKeys;
+            parallel(n, new ChunkTask() {
+                public void run(int thread, int from, int to) {
+                    System.arraycopy(sorted, from, keys, from, to - from);
+                }
+            });
+        }
+
+        if (values != null) {
+            /* Move the values to their sorted positions */
+            final int[] pos = srcPos;
+            final byte[] sortedValues = new byte[values.length];
+            parallel(n, new ChunkTask() {
+                public void run(int thread, int from, int to) {
+                    for(int i=from; i < to; i++) {
+                        int src = pos[i] * sizeOf;
+                        int dst = i * sizeOf;
+                        for(int b=0; b < sizeOf; b++) sortedValues[dst + b] = values[src + b];
+                    }
+                }
+            });
+            parallel(n, new ChunkTask() {
+                public void run(int thread, int from, int to) {
+                    System.arraycopy(sortedValues, from * sizeOf, values, from * sizeOf, (to - from) * sizeOf);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package edu.cmu.graphchi.preprocessing;
+
+import edu.cmu.graphchi.ChiFilenames;
+import edu.cmu.graphchi.io.BlockCodec;
+import edu.cmu.graphchi.io.CompressedIO;
+import edu.cmu.graphchi.shards.AdjacencyFormat;
+import edu.cmu.graphchi.shards.CompressedAdjacency;
+
+import java.io.*;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Writes a shard from a stream of edges sorted by source and destination:
+ * the adjacency file with its index, and the edge data in blocks encoded with the codec.
+ * Blocks are compressed by the executor while the writing continues; at most
+ * maxPendingBlocks blocks are kept in memory waiting for compression.
+ * The destinations of the current source vertex are buffered until the
+ * next source, as the adjacency format stores the count first.
+ * If the adjacency is compressed, it is written as a CompressedAdjacency whose
+ * chunks end at index entries.
+ */
+class ShardWriter {
+
+    private static final int EDGES_PER_INDEX_ENTRY = 4096; // Tuned for fast shard queries
+
+    private final File adjFile;
+    private final DataOutputStream adjOut;
+    private final CompressedAdjacency.Writer blocksOut;
+    private final DataOutputStream indexOut;
+    private final AdjacencyFormat adjFormat;
+    private final int firstVertex;
+
+    private int curvid = 0;
+    private boolean started = false;
+    private int edgeCounter = 0;
+    private int lastIndexFlush = 0;
+    private int[] destinations = new int[1024];
+    private int numDestinations = 0;
+
+    private final int sizeOf;
+    private final String edataFileName;
+    private final int blockSize;
+    private final BlockCodec codec;
+    private final ExecutorService compressionExecutor;
+    private final int maxPendingBlocks;
+    private final ArrayDeque<Future<Object>> pendingBlocks = new ArrayDeque<Future<Object>>();
+    private byte[] block;
+    private int blockPos = 0;
+    private int blockIdx = 0;
+    private long edataSize = 0;
+
+    /**
+     * @param adjFile adjacency shard file
+     * @param adjFormat format of the adjacency file
+     * @param adjCodec codec of the compressed adjacency, null if not compressed
+     * @param firstVertex first vertex of the interval of the shard
+     * @param edataFileName edge data shard name, null if edges have no values
+     * @param sizeOf size of the edge values in bytes
+     * @param codec codec of the edge data blocks
+     */
+    ShardWriter(File adjFile, AdjacencyFormat adjFormat, BlockCodec adjCodec, int firstVertex, String edataFileName, int sizeOf,
+                BlockCodec codec, ExecutorService compressionExecutor, int maxPendingBlocks) throws IOException {
+        this.adjFile = adjFile;
+        this.adjFormat = adjFormat;
+        this.firstVertex = firstVertex;
+        File blocksFile = new File(ChiFilenames.getFilenameShardsAdjBlocks(adjFile.getAbsolutePath()));
+        if (adjCodec != null) {
+            /* Readers prefer the compressed file, but do not leave a stale one in either case */
+            adjFile.delete();
+            this.blocksOut = new CompressedAdjacency.Writer(adjFile.getAbsolutePath(), adjCodec);
+            this.adjOut = new DataOutputStream(blocksOut);
+        } else {
+            blocksFile.delete();
+            this.blocksOut = null;
+            this.adjOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(adjFile)));
+        }
+        this.indexOut = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(new File(adjFile.getAbsolutePath() + ".index"))));
+        this.sizeOf = (edataFileName != null ? sizeOf : 0);
+        this.edataFileName = edataFileName;
+        this.codec = (CompressedIO.isCompressionEnabled() ? codec : CompressedIO.NONE);
+        this.compressionExecutor = compressionExecutor;
+        this.maxPendingBlocks = Math.max(1, maxPendingBlocks);
+
+        if (this.sizeOf > 0) {
+            blockSize = ChiFilenames.getBlocksize(sizeOf);
+            File edgeDataDir = new File(ChiFilenames.getDirnameShardEdataBlock(edataFileName, blockSize));
+            if (!edgeDataDir.exists()) {
+                edgeDataDir.mkdir();
+            }
+            block = new byte[blockSize];
+        } else {
+            blockSize = 0;
+        }
+    }
+
+    /**
+     * Adds the next edge.
+     * @param edge packed source and destination, see FastSharder.packEdges()
+     * @param values array containing the value of the edge
+     * @param valueOffset offset of the value in the array
+     */
+    void add(long edge, byte[] values, int valueOffset) throws IOException {
+        int from = FastSharder.getFirst(edge);
+        if (from != curvid) {
+            nextVertex(from);
+        }
+        started = true;
+        if (numDestinations == destinations.length) {
+            destinations = Arrays.copyOf(destinations, destinations.length * 2);
+        }
+        destinations[numDestinations++] = FastSharder.getSecond(edge);
+
+        if (sizeOf > 0) {
+            System.arraycopy(values, valueOffset, block, blockPos, sizeOf);
+            blockPos += sizeOf;
+            if (blockPos == block.length) {
+                flushBlock();
+            }
+        }
+    }
+
+    /* Writes the edges of the current vertex, and the zero-degree vertices until the next one */
+    private void nextVertex(int from) throws IOException {
+        /* Write index */
+        if (edgeCounter - lastIndexFlush >= EDGES_PER_INDEX_ENTRY) {
+            if (blocksOut != null) blocksOut.indexEntry();
+            indexOut.writeInt(curvid);
+            indexOut.writeInt(adjOut.size());
+            indexOut.writeInt(edgeCounter);
+            lastIndexFlush = edgeCounter;
+        }
+
+        int count = numDestinations;
+        if (count > 0) {
+            if (count < 255) {
+                adjOut.writeByte(count);
+            } else {
+                adjOut.writeByte(0xff);
+                adjOut.writeInt(Integer.reverseBytes(count));
+            }
+        }
+        if (adjFormat == AdjacencyFormat.VARINT) {
+            int prev = firstVertex;
+            for (int j = 0; j < count; j++) {
+                AdjacencyFormat.writeVarint(adjOut, destinations[j] - prev);
+                prev = destinations[j];
+            }
+        } else {
+            for (int j = 0; j < count; j++) {
+                adjOut.writeInt(Integer.reverseBytes(destinations[j]));
+            }
+        }
+        edgeCounter += count;
+        numDestinations = 0;
+
+        // Handle zeros
+        if (from != (-1)) {
+            if (from - curvid > 1 || (!started && from > 0)) {
+                int nz = from - curvid - 1;
+                if (!started && from > 0) {
+                    nz = from;
+                }
+                do {
+                    adjOut.writeByte(0);
+                    nz--;
+                    int tnz = Math.min(254, nz);
+                    adjOut.writeByte(tnz);
+                    nz -= tnz;
+                } while (nz > 0);
+            }
+        }
+        curvid = from;
+    }
+
+    private void flushBlock() throws IOException {
+        final File blockFile = new File(ChiFilenames.getFilenameShardEdataBlock(edataFileName, blockIdx, blockSize));
+        final byte[] data = block;
+        final int len = blockPos;
+        while (pendingBlocks.size() >= maxPendingBlocks) {
+            FastSharder.waitFor(pendingBlocks.poll());
+        }
+        pendingBlocks.add(compressionExecutor.submit(new Callable<Object>() {
+            public Object call() throws IOException {
+                CompressedIO.writeCompressed(blockFile, data, len, codec);
+                return null;
+            }
+        }));
+        edataSize += len;
+        blockIdx++;
+        block = new byte[blockSize];
+        blockPos = 0;
+    }
+
+    int getNumEdges() {
+        return edgeCounter;
+    }
+
+    /**
+     * Size of the adjacency, uncompressed.
+     */
+    long getAdjSize() {
+        return adjOut.size();
+    }
+
+    long getEdataSize() {
+        return edataSize;
+    }
+
+    /**
+     * Writes the rest of the shard and waits for the blocks to be written.
+     */
+    void close() throws IOException {
+        nextVertex(-1);
+        adjOut.close();
+        indexOut.close();
+        adjFormat.writeFor(adjFile.getAbsolutePath());
+
+        if (sizeOf > 0) {
+            if (blockPos > 0) {
+                flushBlock();
+            }
+            while (!pendingBlocks.isEmpty()) {
+                FastSharder.waitFor(pendingBlocks.poll());
+            }
+            FileWriter sizeWr = new FileWriter(new File(edataFileName + ".size"));
+            sizeWr.write(edataSize + "");
+            sizeWr.close();
+            CompressedIO.writeShardCodec(edataFileName, codec);
+        }
+    }
+}
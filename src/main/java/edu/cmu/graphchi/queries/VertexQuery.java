@@ -7,10 +7,14 @@ import java.util.logging.Logger;
 
 import edu.cmu.graphchi.ChiFilenames;
 import edu.cmu.graphchi.ChiLogger;
+import edu.cmu.graphchi.GraphManifest;
 import edu.cmu.graphchi.datablocks.BytesToValueConverter;
 import edu.cmu.graphchi.engine.auxdata.DegreeData;
 import edu.cmu.graphchi.engine.auxdata.VertexDegree;
+import edu.cmu.graphchi.io.BlockCodec;
 import edu.cmu.graphchi.io.CompressedIO;
+import edu.cmu.graphchi.shards.AdjacencyFormat;
+import edu.cmu.graphchi.shards.CompressedAdjacency;
 import edu.cmu.graphchi.shards.ShardIndex;
 import edu.cmu.graphchi.vertexdata.VertexIdValue;
 import ucar.unidata.io.RandomAccessFile;
@@ -30,8 +34,9 @@ public class VertexQuery {
 
     public VertexQuery(String baseFilename, int numShards) throws IOException{
         shards = new ArrayList<Shard>();
+        GraphManifest manifest = GraphManifest.load(baseFilename, numShards);
         for(int i=0; i<numShards; i++) {
-            shards.add(new Shard(baseFilename, i, numShards));
+            shards.add(new Shard(baseFilename, i, numShards, manifest));
         }
         executor = Executors.newFixedThreadPool(NTHREADS);
     }
@@ -196,15 +201,45 @@ public class VertexQuery {
         int shardNum;
         int numShards;
         String fileName;
+        boolean varintAdjacency;
+        int firstVertex;
+        GraphManifest manifest;
 
 
-        private Shard(String fileName, int shardNum, int numShards) throws IOException {
+        private Shard(String fileName, int shardNum, int numShards, GraphManifest manifest) throws IOException {
             this.shardNum = shardNum;
             this.numShards = numShards;
             this.fileName = fileName;
+            this.manifest = manifest;
             File f = new File(ChiFilenames.getFilenameShardsAdj(fileName, shardNum, numShards));
-            adjFile = new RandomAccessFile(f.getAbsolutePath(), "r", 64 * 1024);
+            if (CompressedAdjacency.exists(f.getAbsolutePath())) {
+                adjFile = new CompressedAdjacency(f.getAbsolutePath()).randomAccess(64 * 1024);
+            } else {
+                adjFile = new RandomAccessFile(f.getAbsolutePath(), "r", 64 * 1024);
+            }
             index = new ShardIndex(f);
+            if (manifest != null) {
+                varintAdjacency = (manifest.getAdjacencyFormat() == AdjacencyFormat.VARINT);
+                firstVertex = manifest.getIntervals().get(shardNum).getFirstVertex();
+            } else {
+                varintAdjacency = (AdjacencyFormat.forShard(f.getAbsolutePath()) == AdjacencyFormat.VARINT);
+                if (varintAdjacency) {
+                    firstVertex = ChiFilenames.loadIntervals(fileName, numShards).get(shardNum).getFirstVertex();
+                }
+            }
+        }
+
+        /* Reads the next neighbor of a vertex, given the previous one (or firstVertex) */
+        private int readTarget(int prev) throws IOException {
+            return (varintAdjacency ? prev + AdjacencyFormat.readVarint(adjFile) : adjFile.readInt());
+        }
+
+        private void skipTargets(int n) throws IOException {
+            if (varintAdjacency) {
+                AdjacencyFormat.skipVarints(adjFile, n);
+            } else {
+                adjFile.skipBytes(n * 4);
+            }
         }
 
         /**
@@ -262,8 +297,9 @@ public class VertexQuery {
                     }
 
                     if (curvid == vertexId) {
+                        int target = firstVertex;
                         while (--n >= 0) {
-                            int target = adjFile.readInt();
+                            target = readTarget(target);
                             Integer curCount = results.get(target);
                             if (curCount == null) {
                                 results.put(target, 1);
@@ -272,7 +308,7 @@ public class VertexQuery {
                             }
                         }
                     } else {
-                        adjFile.skipBytes(n * 4);
+                        skipTargets(n);
                     }
                     curvid++;
                 }
@@ -336,13 +372,14 @@ public class VertexQuery {
                         ArrayList<Integer> nbrs = new ArrayList<Integer>(n);
                         found = true;
 
+                        int target = firstVertex;
                         while (--n >= 0) {
-                            int target = adjFile.readInt();
+                            target = readTarget(target);
                             nbrs.add(target);
                         }
                         results.put(vertexId, nbrs);
                     } else {
-                        adjFile.skipBytes(n * 4);
+                        skipTargets(n);
                     }
                     curvid++;
                 }
@@ -367,7 +404,9 @@ public class VertexQuery {
             int adjOffset = entry.fileOffset;
             int edgeOffset = entry.edgePointer;
             String edataShardName = ChiFilenames.getFilenameShardEdata(fileName, conv, shardNum, numShards);
-            int fileSize = ChiFilenames.getShardEdataSize(edataShardName);
+            long manifestSize = (manifest != null ? manifest.getEdataSize(shardNum, conv.sizeOf()) : -1);
+            int fileSize = (manifestSize >= 0 ? (int) manifestSize : ChiFilenames.getShardEdataSize(edataShardName));
+            BlockCodec codec = (manifestSize >= 0 ? manifest.getCodec() : CompressedIO.getShardCodec(edataShardName));
 
 
             adjFile.seek(adjOffset);
@@ -403,8 +442,9 @@ public class VertexQuery {
                 }
 
                 if (curvid == vertexId) {
+                    int target = firstVertex;
                     while (--n >= 0) {
-                        int target = adjFile.readInt();
+                        target = readTarget(target);
 
                         int blockId = edgeOffset * conv.sizeOf() / blockSize;
                         if (blockId != curBlockId) {
@@ -413,7 +453,7 @@ public class VertexQuery {
                                     blockId, blockSize);
                             curBlockId = blockId;
                             int len = Math.min(blockSize, fileSize - blockId * blockSize);
-                            CompressedIO.readCompressed(new File(blockFileName), edgeDataBlock, len);
+                            CompressedIO.readCompressed(new File(blockFileName), edgeDataBlock, len, codec);
                         }
                         System.arraycopy(edgeDataBlock, (edgeOffset * conv.sizeOf()) % blockSize, tmp, 0, conv.sizeOf());
                         VT value = conv.getValue(tmp);
@@ -421,7 +461,7 @@ public class VertexQuery {
                         edgeOffset++;
                     }
                 } else {
-                    adjFile.skipBytes(n * 4);
+                    skipTargets(n);
                     edgeOffset += n;
                 }
                 curvid++;
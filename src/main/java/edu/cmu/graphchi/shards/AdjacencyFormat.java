@@ -0,0 +1,99 @@
+package edu.cmu.graphchi.shards;
+
+import edu.cmu.graphchi.ChiFilenames;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * Encoding of the neighbor lists in the adjacency shards. In both formats a vertex
+ * starts with its number of edges (one byte, or 0xff and a 32-bit little-endian
+ * integer; zero and one byte for the number of following vertices without edges),
+ * followed by the ids of the targets in ascending order:
+ * <ul>
+ *     <li>RAW: each id as a 32-bit little-endian integer. Same as in the C++ version of GraphChi.</li>
+ *     <li>VARINT: the first id relative to the first vertex of the shard's interval, and then
+ *     the gaps between consecutive ids, as varints of 7 bits per byte, least significant first.
+ *     Typically 2-3 times smaller than RAW.</li>
+ * </ul>
+ * The format is recorded next to the adjacency file. Shards without the record are RAW.
+ */
+public enum AdjacencyFormat {
+    RAW, VARINT;
+
+    public static AdjacencyFormat forShard(String adjFilename) throws IOException {
+        File formatFile = new File(ChiFilenames.getFilenameShardsAdjFormat(adjFilename));
+        if (!formatFile.exists()) return RAW;
+        BufferedReader rd = new BufferedReader(new FileReader(formatFile));
+        String name = rd.readLine();
+        rd.close();
+        return valueOf(name.trim().toUpperCase());
+    }
+
+    /**
+     * Records the format of the adjacency file.
+     */
+    public void writeFor(String adjFilename) throws IOException {
+        FileWriter wr = new FileWriter(new File(ChiFilenames.getFilenameShardsAdjFormat(adjFilename)));
+        wr.write(name().toLowerCase());
+        wr.close();
+    }
+
+    public static void writeVarint(DataOutput out, int value) throws IOException {
+        while ((value & ~0x7f) != 0) {
+            out.writeByte((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    public static int readVarint(ByteBuffer in) {
+        int b = in.get();
+        if (b >= 0) return b;
+        int value = b & 0x7f;
+        int shift = 7;
+        do {
+            b = in.get();
+            value |= (b & 0x7f) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+    public static int readVarint(DataInput in) throws IOException {
+        int b = in.readByte();
+        if (b >= 0) return b;
+        int value = b & 0x7f;
+        for(int shift = 7; shift <= 28; shift += 7) {
+            b = in.readByte();
+            value |= (b & 0x7f) << shift;
+            if (b >= 0) return value;
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    /**
+     * Number of bytes of the value encoded as a varint.
+     */
+    public static int varintSize(int value) {
+        return (38 - Integer.numberOfLeadingZeros(value | 1)) / 7;
+    }
+
+    /**
+     * Skips n varints.
+     * @return number of bytes skipped
+     */
+    public static int skipVarints(DataInput in, int n) throws IOException {
+        int bytes = 0;
+        for(int i=0; i < n; i++) {
+            int len = 0;
+            byte b;
+            do {
+                if (++len > 5) throw new IOException("Malformed varint");
+                b = in.readByte();
+            } while (b < 0);
+            bytes += len;
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,313 @@
+package edu.cmu.graphchi.shards;
+
+import edu.cmu.graphchi.ChiFilenames;
+import edu.cmu.graphchi.io.AsyncBlockIO;
+import edu.cmu.graphchi.io.BlockCodec;
+import edu.cmu.graphchi.io.CompressedIO;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Block-compressed adjacency shard. The adjacency is split to chunks of at least chunkBytes
+ * at the entries of the shard index, and each chunk is compressed independently with
+ * a block codec. Unlike a gzipped shard, the chunks can be decompressed in parallel,
+ * and reading can start at any chunk.
+ * <p>
+ * Layout: the compressed chunks, followed by the codec name, the number of chunks, the
+ * uncompressed size, and the uncompressed offset, compressed offset and compressed length
+ * of each chunk. The file ends with the offset of this table and MAGIC.
+ * The uncompressed file and the gzipped file are not written when the shard is compressed.
+ * The offsets of the uncompressed adjacency are ints, so it is limited to 2GB like the
+ * shards read to memory.
+ */
+public class CompressedAdjacency {
+
+    public static final int MAGIC = 0x47434241;    // "GCBA"
+
+    /* Minimum size of a chunk, changed by tests */
+    static int chunkBytes = 256 * 1024;
+
+    private final File file;
+    private final BlockCodec codec;
+    private final int size;
+    /* Uncompressed offsets of the chunks, and the size as the last element */
+    private final int[] offsets;
+    private final long[] compressedOffsets;
+    private final int[] compressedLengths;
+
+    private static final ThreadLocal<byte[]> encodedArray = new ThreadLocal<byte[]>();
+    private static final ThreadLocal<byte[]> decodedArray = new ThreadLocal<byte[]>();
+
+    public static boolean exists(String adjFilename) {
+        return new File(ChiFilenames.getFilenameShardsAdjBlocks(adjFilename)).exists();
+    }
+
+    public CompressedAdjacency(String adjFilename) throws IOException {
+        file = new File(ChiFilenames.getFilenameShardsAdjBlocks(adjFilename));
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            raf.seek(raf.length() - 12);
+            long tableOffset = raf.readLong();
+            if (raf.readInt() != MAGIC) throw new IOException("Not a compressed adjacency file: " + file);
+            raf.seek(tableOffset);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(raf.getFD())));
+            codec = CompressedIO.getCodec(in.readUTF());
+            int numChunks = in.readInt();
+            size = in.readInt();
+            offsets = new int[numChunks + 1];
+            compressedOffsets = new long[numChunks];
+            compressedLengths = new int[numChunks];
+            for(int i=0; i < numChunks; i++) {
+                offsets[i] = in.readInt();
+                compressedOffsets[i] = in.readLong();
+                compressedLengths[i] = in.readInt();
+            }
+            offsets[numChunks] = size;
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Size of the uncompressed adjacency.
+     */
+    public int size() {
+        return size;
+    }
+
+    public int numChunks() {
+        return compressedLengths.length;
+    }
+
+    /* Chunk containing the uncompressed offset, or the last chunk if the offset is past the end */
+    private int chunkOf(long offset) {
+        int idx = Arrays.binarySearch(offsets, 0, numChunks(), (int) Math.min(offset, size));
+        return Math.max(0, idx >= 0 ? idx : -(idx + 1) - 1);
+    }
+
+    private static byte[] staging(ThreadLocal<byte[]> local, int len) {
+        byte[] arr = local.get();
+        if (arr == null || arr.length < len) {
+            arr = new byte[len];
+            local.set(arr);
+        }
+        return arr;
+    }
+
+    /* Decompresses a chunk to dst, which must have room for the chunk */
+    private void readChunk(FileChannel channel, int chunk, byte[] dst) throws IOException {
+        int len = compressedLengths[chunk];
+        byte[] src = staging(encodedArray, len);
+        ByteBuffer buf = ByteBuffer.wrap(src, 0, len);
+        long pos = compressedOffsets[chunk];
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, pos + buf.position()) < 0) throw new EOFException(file.getName());
+        }
+        codec.decode(src, len, dst, offsets[chunk + 1] - offsets[chunk]);
+    }
+
+    /**
+     * Decompresses the whole adjacency, the chunks in parallel.
+     */
+    public byte[] decompress(ExecutorService executor) throws IOException {
+        final byte[] data = new byte[size];
+        final FileChannel channel = new RandomAccessFile(file, "r").getChannel();
+        try {
+            ArrayList<Future<?>> chunks = new ArrayList<Future<?>>();
+            for(int i=0; i < numChunks(); i++) {
+                final int chunk = i;
+                chunks.add(executor.submit(new Callable<Object>() {
+                    public Object call() throws IOException {
+                        int len = offsets[chunk + 1] - offsets[chunk];
+                        byte[] tmp = staging(decodedArray, len);
+                        readChunk(channel, chunk, tmp);
+                        System.arraycopy(tmp, 0, data, offsets[chunk], len);
+                        return null;
+                    }
+                }));
+            }
+            for(Future<?> f : chunks) {
+                AsyncBlockIO.waitFor(f);
+            }
+        } finally {
+            channel.close();
+        }
+        return data;
+    }
+
+    /**
+     * Uncompressed offset of the chunk containing the offset, where channel(offset) starts.
+     */
+    public long chunkStart(long offset) {
+        return offsets[chunkOf(offset)];
+    }
+
+    /**
+     * Sequential channel of the uncompressed adjacency, from the beginning of the
+     * chunk containing the offset.
+     */
+    public ReadableByteChannel channel(long offset) throws IOException {
+        final FileChannel fileChannel = new RandomAccessFile(file, "r").getChannel();
+        final int firstChunk = chunkOf(offset);
+        return new ReadableByteChannel() {
+            int nextChunk = firstChunk;
+            ByteBuffer current = ByteBuffer.allocate(0);
+            byte[] chunkData = new byte[0];
+
+            public int read(ByteBuffer dst) throws IOException {
+                if (!current.hasRemaining()) {
+                    if (nextChunk >= numChunks()) return -1;
+                    int len = offsets[nextChunk + 1] - offsets[nextChunk];
+                    if (chunkData.length < len) chunkData = new byte[len];
+                    readChunk(fileChannel, nextChunk++, chunkData);
+                    current = ByteBuffer.wrap(chunkData, 0, len);
+                }
+                int n = Math.min(dst.remaining(), current.remaining());
+                ByteBuffer src = current.duplicate();
+                src.limit(src.position() + n);
+                dst.put(src);
+                current.position(current.position() + n);
+                return n;
+            }
+
+            public boolean isOpen() {
+                return fileChannel.isOpen();
+            }
+
+            public void close() throws IOException {
+                fileChannel.close();
+            }
+        };
+    }
+
+    /**
+     * Random access to the uncompressed adjacency, for queries. Keeps the
+     * chunk last read decompressed.
+     */
+    public ucar.unidata.io.RandomAccessFile randomAccess(int bufferSize) throws IOException {
+        /* Not named fileChannel, which is a field of the superclass */
+        final FileChannel compressedChannel = new RandomAccessFile(file, "r").getChannel();
+        return new ucar.unidata.io.RandomAccessFile(bufferSize) {
+            int cachedChunk = -1;
+            byte[] chunkData = new byte[0];
+
+            @Override
+            protected int read_(long pos, byte[] b, int offset, int len) throws IOException {
+                int total = 0;
+                while (len > 0 && pos < size) {
+                    int chunk = chunkOf(pos);
+                    if (chunk != cachedChunk) {
+                        int chunkLen = offsets[chunk + 1] - offsets[chunk];
+                        if (chunkData.length < chunkLen) chunkData = new byte[chunkLen];
+                        readChunk(compressedChannel, chunk, chunkData);
+                        cachedChunk = chunk;
+                    }
+                    int start = (int) (pos - offsets[chunk]);
+                    int n = Math.min(len, offsets[chunk + 1] - offsets[chunk] - start);
+                    System.arraycopy(chunkData, start, b, offset, n);
+                    pos += n;
+                    offset += n;
+                    len -= n;
+                    total += n;
+                }
+                return (total == 0 ? -1 : total);
+            }
+
+            @Override
+            public long length() {
+                return size;
+            }
+
+            @Override
+            public void close() throws IOException {
+                compressedChannel.close();
+            }
+        };
+    }
+
+    /**
+     * Output stream which compresses the adjacency written to it. The chunk is
+     * ended at the next call of indexEntry() after it has grown to chunkBytes.
+     */
+    public static class Writer extends OutputStream {
+        private final DataOutputStream out;
+        private final BlockCodec codec;
+        private byte[] chunk = new byte[chunkBytes + 1024];
+        private int chunkLen = 0;
+        private int size = 0;
+        private long compressedSize = 0;
+        private ByteArrayOutputStream table = new ByteArrayOutputStream();
+        private DataOutputStream tableOut = new DataOutputStream(table);
+        private int numChunks = 0;
+
+        public Writer(String adjFilename, BlockCodec codec) throws IOException {
+            this.out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(ChiFilenames.getFilenameShardsAdjBlocks(adjFilename))));
+            this.codec = codec;
+        }
+
+        /* Fails before the uncompressed size overflows the offsets */
+        private void checkSize(int len) throws IOException {
+            if ((long) size + chunkLen + len > Integer.MAX_VALUE) {
+                throw new IOException("Compressed adjacency cannot be larger than " + Integer.MAX_VALUE + " bytes");
+            }
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            checkSize(1);
+            if (chunkLen == chunk.length) chunk = Arrays.copyOf(chunk, chunk.length * 2);
+            chunk[chunkLen++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            checkSize(len);
+            if (chunkLen + len > chunk.length) chunk = Arrays.copyOf(chunk, Math.max(chunk.length * 2, chunkLen + len));
+            System.arraycopy(b, off, chunk, chunkLen, len);
+            chunkLen += len;
+        }
+
+        /**
+         * Called at each entry of the shard index, where a chunk may end.
+         */
+        public void indexEntry() throws IOException {
+            if (chunkLen >= chunkBytes) flushChunk();
+        }
+
+        private void flushChunk() throws IOException {
+            if (chunkLen == 0) return;
+            byte[] encoded = staging(encodedArray, codec.maxEncodedLength(chunkLen));
+            int len = codec.encode(chunk, chunkLen, encoded);
+            out.write(encoded, 0, len);
+            tableOut.writeInt(size);
+            tableOut.writeLong(compressedSize);
+            tableOut.writeInt(len);
+            numChunks++;
+            size += chunkLen;
+            compressedSize += len;
+            chunkLen = 0;
+        }
+
+        @Override
+        public void close() throws IOException {
+            flushChunk();
+            long tableOffset = compressedSize;
+            out.writeUTF(codec.getName());
+            out.writeInt(numChunks);
+            out.writeInt(size);
+            table.writeTo(out);
+            out.writeLong(tableOffset);
+            out.writeInt(MAGIC);
+            out.close();
+        }
+    }
+}
@@ -6,14 +6,24 @@ import com.yammer.metrics.core.TimerContext;
 import edu.cmu.graphchi.ChiFilenames;
 import edu.cmu.graphchi.ChiLogger;
 import edu.cmu.graphchi.ChiVertex;
+import edu.cmu.graphchi.VertexArrayWindow;
+import edu.cmu.graphchi.VertexWindow;
 import edu.cmu.graphchi.datablocks.BytesToValueConverter;
 import edu.cmu.graphchi.datablocks.DataBlockManager;
+import edu.cmu.graphchi.io.AsyncBlockIO;
+import edu.cmu.graphchi.io.BlockCodec;
 import edu.cmu.graphchi.io.CompressedIO;
 import nom.tam.util.BufferedDataInputStream;
 
 import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
@@ -47,19 +57,26 @@ public class MemoryShard <EdgeDataType> {
     private int rangeStart;
     private int rangeEnd;
 
-    private byte[] adjData;
+    private ByteBuffer adjData;
+    private AdjacencyFormat adjFormat;
+    private boolean varintAdjacency = false;
     private int[] blockIds = new int[0];
     private int[] blockSizes = new int[0];;
 
-    private int edataFilesize;
+    private int edataFilesize = -1;
     private boolean loaded = false;
     private boolean onlyAdjacency = false;
+    private boolean useMemoryMapping = false;
+    private boolean selectiveLoading = false;
+    private final ArrayList<Future<?>> pendingReads = new ArrayList<Future<?>>();
     private boolean hasSetRangeOffset = false, hasSetOffset = false;
 
     private int rangeStartOffset, rangeStartEdgePtr, rangeContVid;
     private int adjDataLength;
 
     private DataBlockManager dataBlockManager;
+    private AsyncBlockIO blockIO;
+    private BlockCodec codec;
     private BytesToValueConverter<EdgeDataType> converter;
     private int streamingOffset, streamingOffsetEdgePtr, streamingOffsetVid;
     private int blocksize = 0;
@@ -75,11 +92,22 @@ public class MemoryShard <EdgeDataType> {
     private MemoryShard() {}
 
     public MemoryShard(String edgeDataFilename, String adjDataFilename, int rangeStart, int rangeEnd) {
+        this(edgeDataFilename, adjDataFilename, rangeStart, rangeEnd, -1, null, null);
+    }
+
+    /**
+     * Shard whose sizes and formats are known, typically from the graph manifest.
+     * A negative size and null codec or format are read from the files of the shard.
+     */
+    public MemoryShard(String edgeDataFilename, String adjDataFilename, int rangeStart, int rangeEnd,
+                       long edataFilesize, BlockCodec codec, AdjacencyFormat adjFormat) {
         this.edgeDataFilename = edgeDataFilename;
         this.adjDataFilename = adjDataFilename;
         this.rangeStart = rangeStart;
         this.rangeEnd = rangeEnd;
-
+        this.edataFilesize = (int) edataFilesize;
+        this.codec = codec;
+        this.adjFormat = adjFormat;
     }
 
     public void commitAndRelease(boolean modifiesInedges, boolean modifiesOutedges) throws IOException {
@@ -92,17 +120,17 @@ public class MemoryShard <EdgeDataType> {
                 }
                 int startStreamBlock = rangeStartEdgePtr / blocksize;
                 for(int i=0; i < nblocks; i++) {
-                    String blockFilename = ChiFilenames.getFilenameShardEdataBlock(edgeDataFilename, i, blocksize);
+                    if (blockIds[i] < 0) continue;  // Not loaded
+                    File blockFile = new File(ChiFilenames.getFilenameShardEdataBlock(edgeDataFilename, i, blocksize));
                     if (i >= startStreamBlock) {
                         // Synchronous write
-                        CompressedIO.writeCompressed(new File(blockFilename),
-                                dataBlockManager.getRawBlock(blockIds[i]),
-                                blockSizes[i]);
+                        writeBlock(blockFile, i);
+                    } else if (blockIO != null) {
+                        // Asynchronous write: the block is released after it has been written
+                        blockIO.writeBehind(blockFile, codec, dataBlockManager, blockIds[i], blockSizes[i], true);
+                        blockIds[i] = -1;
                     } else {
-                        // Asynchronous write (not implemented yet, so is same as synchronous)
-                        CompressedIO.writeCompressed(new File(blockFilename),
-                                dataBlockManager.getRawBlock(blockIds[i]),
-                                blockSizes[i]);
+                        writeBlock(blockFile, i);
                     }
                 }
 
@@ -114,78 +142,88 @@ public class MemoryShard <EdgeDataType> {
                 int startblock = (int) (rangeStartEdgePtr / blocksize);
                 int endblock = (int) (last / blocksize);
                 for(int i=startblock; i <= endblock; i++) {
+                    if (i >= nblocks || blockIds[i] < 0) continue;
                     String blockFilename = ChiFilenames.getFilenameShardEdataBlock(edgeDataFilename, i, blocksize);
-                    CompressedIO.writeCompressed(new File(blockFilename),
-                            dataBlockManager.getRawBlock(blockIds[i]),
-                            blockSizes[i]);
+                    writeBlock(new File(blockFilename), i);
                 }
             }
             /* Release all blocks */
-            for(Integer blockId : blockIds) {
-                dataBlockManager.release(blockId);
+            for(int blockId : blockIds) {
+                if (blockId >= 0) dataBlockManager.release(blockId);
             }
         }
     }
 
-    public void loadVertices(final int windowStart, final int windowEnd, final ChiVertex[] vertices, final boolean disableOutEdges, final ExecutorService parallelExecutor)
+    private void writeBlock(File blockFile, int i) throws IOException {
+        if (blockIO != null) {
+            blockIO.writeNow(blockFile, codec, dataBlockManager, blockIds[i], blockSizes[i]);
+        } else {
+            CompressedIO.writeCompressed(blockFile, dataBlockManager.getBlock(blockIds[i]), blockSizes[i], codec);
+        }
+    }
+
+    public <VertexDataType> void loadVertices(int windowStart, int windowEnd, ChiVertex<VertexDataType, EdgeDataType>[] vertices,
+                                              boolean disableOutEdges, ExecutorService parallelExecutor)
+            throws IOException {
+        loadVertices(windowStart, windowEnd, new VertexArrayWindow<VertexDataType, EdgeDataType>(vertices),
+                disableOutEdges, parallelExecutor);
+    }
+
+    public void loadVertices(final int windowStart, final int windowEnd, final VertexWindow<?, EdgeDataType> vertices, final boolean disableOutEdges, final ExecutorService parallelExecutor)
             throws IOException {
-        DataInput compressedInput = null;
         if (adjData == null) {
-            compressedInput = loadAdj();
+            loadAdj(parallelExecutor);
 
             if (!onlyAdjacency) loadEdata();
         }
 
         TimerContext _timer = loadVerticesTimers.time();
 
-        if (compressedInput != null) {
-            // This means we are using compressed data and cannot read in parallel (or could we?)
-            // A bit ugly.
-            index = new ArrayList<ShardIndex.IndexEntry>();
-            index.add(new ShardIndex.IndexEntry(0, 0, 0));
-        }
         final int sizeOf = (converter == null ? 0 : converter.sizeOf());
 
         /* Load in parallel */
-        if (compressedInput == null) {
-            final AtomicInteger countDown = new AtomicInteger(index.size());
-            final Object waitLock = new Object();
-            for(int chunk=0; chunk<index.size(); chunk++) {
-                final int _chunk = chunk;
-                parallelExecutor.submit(new Runnable() {
-                    @Override
-                    public void run() {
-                        try {
-                            loadAdjChunk(windowStart, windowEnd, vertices, disableOutEdges, null, sizeOf, _chunk);
-                        } catch (IOException ioe) {
-                            ioe.printStackTrace();
-                            throw new RuntimeException(ioe);
-                        } finally {
-                            countDown.decrementAndGet();
-                            synchronized (waitLock) {
-                                waitLock.notifyAll();
-                            }
-
+        final AtomicInteger countDown = new AtomicInteger(index.size());
+        final Object waitLock = new Object();
+        for(int chunk=0; chunk<index.size(); chunk++) {
+            final int _chunk = chunk;
+            parallelExecutor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        loadAdjChunk(windowStart, windowEnd, vertices, disableOutEdges, sizeOf, _chunk);
+                    } finally {
+                        countDown.decrementAndGet();
+                        synchronized (waitLock) {
+                            waitLock.notifyAll();
                         }
+
                     }
-                } );
+                }
+            } );
+        }
+        /* Wait for finishing */
+        while (countDown.get() > 0) {
+            synchronized (waitLock) {
+                try {
+                    waitLock.wait(10000);
+                } catch (InterruptedException e) {}
             }
-            /* Wait for finishing */
-            while (countDown.get() > 0) {
-                synchronized (waitLock) {
-                    try {
-                        waitLock.wait(10000);
-                    } catch (InterruptedException e) {}
+        }
+
+        /* Edge data must be in memory before the vertices are updated */
+        if (selectiveLoading) {
+            synchronized (pendingReads) {
+                for(Future<?> read : pendingReads) {
+                    AsyncBlockIO.waitFor(read);
                 }
+                pendingReads.clear();
             }
-        } else {
-            loadAdjChunk(windowStart, windowEnd, vertices, disableOutEdges, compressedInput, sizeOf, 0);
         }
 
         _timer.stop();
     }
 
-    private void loadAdjChunk(int windowStart, int windowEnd, ChiVertex[] vertices, boolean disableOutEdges, DataInput compressedInput, int sizeOf, int chunk) throws IOException {
+    private void loadAdjChunk(int windowStart, int windowEnd, VertexWindow<?, EdgeDataType> vertices, boolean disableOutEdges, int sizeOf, int chunk) {
         ShardIndex.IndexEntry indexEntry = index.get(chunk);
 
         int vid = indexEntry.vertex;
@@ -200,9 +238,11 @@ public class MemoryShard <EdgeDataType> {
         boolean containsRangeEnd = (vid < rangeEnd && viden > rangeEnd);
         boolean containsRangeSt = (vid <= rangeStart && viden > rangeStart);
 
-        DataInput adjInput = (compressedInput != null ? compressedInput : new DataInputStream(new ByteArrayInputStream(adjData)));
-
-        adjInput.skipBytes(adjOffset);
+        /* Each chunk gets its own view of the (shared) adjacency buffer. Note: duplicate()
+           does not inherit the byte order. */
+        ByteBuffer adjInput = adjData.duplicate();
+        adjInput.order(ByteOrder.LITTLE_ENDIAN);
+        adjInput.position(adjOffset);
 
         try {
             while(adjOffset < end) {
@@ -224,49 +264,56 @@ public class MemoryShard <EdgeDataType> {
                 }
 
                 int n = 0;
-                int ns = adjInput.readUnsignedByte();
+                int ns = adjInput.get() & 0xff;
                 adjOffset += 1;
                 assert(ns >= 0);
                 if (ns == 0) {
                     // next value tells the number of vertices with zeros
                     vid++;
-                    int nz = adjInput.readUnsignedByte();
+                    int nz = adjInput.get() & 0xff;
                     adjOffset += 1;
                     vid += nz;
                     continue;
                 }
                 if (ns == 0xff) {   // If 255 is not enough, then stores a 32-bit integer after.
-                    n = Integer.reverseBytes(adjInput.readInt());
+                    n = adjInput.getInt();
                     adjOffset += 4;
                 } else {
                     n = ns;
                 }
 
-                ChiVertex vertex = null;
-                if (vid >= windowStart && vid <= windowEnd) {
-                    vertex = vertices[vid - windowStart];
+                /* Index of the vertex in the window, or -1 */
+                int vertex = -1;
+                if (vid >= windowStart && vid <= windowEnd && vertices.contains(vid - windowStart)) {
+                    vertex = vid - windowStart;
                 }
 
+                int target = rangeStart;
                 while (--n >= 0) {
-                    int target = Integer.reverseBytes(adjInput.readInt());
-                    adjOffset += 4;
+                    if (varintAdjacency) {
+                        target += AdjacencyFormat.readVarint(adjInput);
+                        adjOffset = adjInput.position();
+                    } else {
+                        target = adjInput.getInt();
+                        adjOffset += 4;
+                    }
                     if (!(target >= rangeStart && target <= rangeEnd))
                         throw new IllegalStateException("Target " + target + " not in range!");
-                    if (vertex != null && !disableOutEdges) {
-                        vertex.addOutEdge((onlyAdjacency ? -1 : blockIds[edataPtr / blocksize]), (onlyAdjacency ? -1 : edataPtr % blocksize), target);
+                    if (vertex >= 0 && !disableOutEdges) {
+                        vertices.addOutEdge(vertex, (onlyAdjacency ? -1 : edataBlockId(edataPtr)), (onlyAdjacency ? -1 : edataPtr % blocksize), target);
                     }
 
                     if (target >= windowStart) {
                         if (target <= windowEnd) {
-                            ChiVertex dstVertex = vertices[target - windowStart];
-                            if (dstVertex != null) {
-                                dstVertex.addInEdge((onlyAdjacency ? -1 : blockIds[edataPtr / blocksize]),
+                            int dstVertex = target - windowStart;
+                            if (vertices.contains(dstVertex)) {
+                                vertices.addInEdge(dstVertex, (onlyAdjacency ? -1 : edataBlockId(edataPtr)),
                                         (onlyAdjacency ? -1 : edataPtr % blocksize),
                                         vid);
-                            }
-                            if (vertex != null && dstVertex != null) {
-                                dstVertex.parallelSafe = false;
-                                vertex.parallelSafe = false;
+                                if (vertex >= 0) {
+                                    vertices.setParallelUnsafe(dstVertex);
+                                    vertices.setParallelUnsafe(vertex);
+                                }
                             }
                         }
                     }
@@ -276,80 +323,159 @@ public class MemoryShard <EdgeDataType> {
                 }
                 vid++;
             }
-        } catch (EOFException eof) {
+        } catch (BufferUnderflowException eof) {
             return;
+        } catch (IOException ioe) {
+            throw new RuntimeException(ioe);
         }
-        if (adjInput instanceof InputStream) {
-            ((InputStream) adjInput).close();
+    }
+
+    /* Block containing the edge data at the offset. With selective loading, the block is read on first access. */
+    private int edataBlockId(int edataPtr) throws IOException {
+        int fileBlockId = edataPtr / blocksize;
+        int blockId = blockIds[fileBlockId];
+        return (blockId >= 0 || !selectiveLoading ? blockId : loadEdataBlock(fileBlockId));
+    }
+
+    private synchronized int loadEdataBlock(int fileBlockId) throws IOException {
+        if (blockIds[fileBlockId] < 0) {
+            int blockId = dataBlockManager.allocateBlock(blockSizes[fileBlockId]);
+            File blockFile = new File(ChiFilenames.getFilenameShardEdataBlock(edgeDataFilename, fileBlockId, blocksize));
+            if (blockIO != null) {
+                Future<?> read = blockIO.read(blockFile, codec, dataBlockManager, blockId, blockSizes[fileBlockId]);
+                synchronized (pendingReads) {
+                    pendingReads.add(read);
+                }
+            } else {
+                CompressedIO.readCompressed(blockFile, dataBlockManager.getBlock(blockId), blockSizes[fileBlockId], codec);
+            }
+            blockIds[fileBlockId] = blockId;
         }
+        return blockIds[fileBlockId];
     }
 
 
-    private DataInput loadAdj() throws FileNotFoundException, IOException {
+    private void loadAdj(ExecutorService parallelExecutor) throws FileNotFoundException, IOException {
         File compressedFile = new File(adjDataFilename + ".gz");
-        InputStream adjStreamRaw;
-        long fileSizeEstimate = 0;
-        if (compressedFile.exists()) {
-            logger.info("Note: using compressed: " + compressedFile.getAbsolutePath());
-            adjStreamRaw = new GZIPInputStream(new FileInputStream(compressedFile));
-            fileSizeEstimate = compressedFile.length() * 3 / 2;
-        } else {
-            adjStreamRaw = new FileInputStream(adjDataFilename);
-            fileSizeEstimate = new File(adjDataFilename).length();
-        }
 
         /* Load index */
         index = new ShardIndex(new File(adjDataFilename)).sparserIndex(1204 * 1024);
-        BufferedInputStream adjStream =	new BufferedInputStream(adjStreamRaw, (int) fileSizeEstimate /
-                4);
+        if (adjFormat == null) adjFormat = AdjacencyFormat.forShard(adjDataFilename);
+        varintAdjacency = (adjFormat == AdjacencyFormat.VARINT);
 
         // Hack for cases when the load is not divided into subwindows
         TimerContext _timer = loadAdjTimer.time();
 
-        ByteArrayOutputStream adjDataStream = new ByteArrayOutputStream((int) fileSizeEstimate);
-        try {
-            byte[] buf = new byte[(int) fileSizeEstimate / 4];   // Read in 16 chunks
-            while (true) {
-                int read =  adjStream.read(buf);
-                if (read > 0) {
-                    adjDataStream.write(buf, 0, read);
-                } else break;
+        if (CompressedAdjacency.exists(adjDataFilename)) {
+            /* Chunks are decompressed in parallel */
+            adjData = ByteBuffer.wrap(new CompressedAdjacency(adjDataFilename).decompress(parallelExecutor));
+        } else if (compressedFile.exists()) {
+            logger.info("Note: using compressed: " + compressedFile.getAbsolutePath());
+            long fileSizeEstimate = compressedFile.length() * 3 / 2;
+            BufferedInputStream adjStream = new BufferedInputStream(new GZIPInputStream(new FileInputStream(compressedFile)),
+                    (int) fileSizeEstimate / 4);
+
+            ByteArrayOutputStream adjDataStream = new ByteArrayOutputStream((int) fileSizeEstimate);
+            try {
+                byte[] buf = new byte[(int) fileSizeEstimate / 4];   // Read in 16 chunks
+                while (true) {
+                    int read =  adjStream.read(buf);
+                    if (read > 0) {
+                        adjDataStream.write(buf, 0, read);
+                    } else break;
+                }
+            } catch (EOFException err) {
+                // Done
+            }
+            adjData = ByteBuffer.wrap(adjDataStream.toByteArray());
+
+            adjStream.close();
+            adjDataStream.close();
+        } else if (useMemoryMapping) {
+            /* Map the shard directly: no copies on the heap, and the OS page cache
+               serves the data on subsequent iterations. */
+            RandomAccessFile adjFile = new RandomAccessFile(adjDataFilename, "r");
+            try {
+                FileChannel channel = adjFile.getChannel();
+                MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                adjData = mapped;
+            } finally {
+                adjFile.close();    // The mapping remains valid after the channel is closed
+            }
+        } else {
+            File adjFile = new File(adjDataFilename);
+            byte[] data = new byte[(int) adjFile.length()];
+            DataInputStream adjStream = new DataInputStream(new FileInputStream(adjFile));
+            try {
+                adjStream.readFully(data);
+            } finally {
+                adjStream.close();
             }
-        } catch (EOFException err) {
-            // Done
+            adjData = ByteBuffer.wrap(data);
         }
-
-        adjData = adjDataStream.toByteArray();
-        adjDataLength = adjData.length;
-
-        adjStream.close();
-        adjDataStream.close();
+        adjData.order(ByteOrder.LITTLE_ENDIAN);
+        adjDataLength = adjData.limit();
 
         _timer.stop();
-        return null;
     }
 
     private void loadEdata() throws FileNotFoundException, IOException {
-        /* Load the edge data from file. Should be done asynchronously. */
+        /* Load the edge data from file. */
         blocksize = ChiFilenames.getBlocksize(converter.sizeOf());
 
         if (!loaded) {
-            edataFilesize = ChiFilenames.getShardEdataSize(edgeDataFilename);
+            if (edataFilesize < 0) edataFilesize = ChiFilenames.getShardEdataSize(edgeDataFilename);
+            if (codec == null) codec = CompressedIO.getShardCodec(edgeDataFilename);
             int nblocks = edataFilesize / blocksize + (edataFilesize % blocksize == 0 ? 0 : 1);
             blockIds = new int[nblocks];
             blockSizes = new int[nblocks];
+            Future<?>[] reads = new Future<?>[nblocks];
             for(int fileBlockId=0; fileBlockId < nblocks; fileBlockId++) {
                 int fsize = Math.min(edataFilesize - blocksize * fileBlockId, blocksize);
-                blockIds[fileBlockId] = dataBlockManager.allocateBlock(fsize);
                 blockSizes[fileBlockId] = fsize;
-                String blockfilename = ChiFilenames.getFilenameShardEdataBlock(edgeDataFilename, fileBlockId, blocksize);
-                CompressedIO.readCompressed(new File(blockfilename), dataBlockManager.getRawBlock(blockIds[fileBlockId]), fsize);
+                if (selectiveLoading) {
+                    blockIds[fileBlockId] = -1;
+                    continue;
+                }
+                blockIds[fileBlockId] = dataBlockManager.allocateBlock(fsize);
+                File blockFile = new File(ChiFilenames.getFilenameShardEdataBlock(edgeDataFilename, fileBlockId, blocksize));
+                if (blockIO != null) {
+                    reads[fileBlockId] = blockIO.read(blockFile, codec, dataBlockManager, blockIds[fileBlockId], fsize);
+                } else {
+                    CompressedIO.readCompressed(blockFile, dataBlockManager.getBlock(blockIds[fileBlockId]), fsize, codec);
+                }
+            }
+            /* Blocks are decompressed in parallel */
+            for(Future<?> read : reads) {
+                AsyncBlockIO.waitFor(read);
             }
 
             loaded = true;
         }
     }
 
+    /**
+     * @return bytes of the adjacency data on the heap; the edge data is
+     *         accounted by the block manager
+     */
+    public long getHeapMemorySize() {
+        ByteBuffer adj = adjData;
+        return (adj != null && adj.hasArray() ? adj.capacity() : 0);
+    }
+
+    /**
+     * @return bytes of the loaded edge data blocks
+     */
+    public long getEdataMemorySize() {
+        int[] ids = blockIds;
+        int[] sizes = blockSizes;
+        long bytes = 0;
+        for(int i=0; i < ids.length && i < sizes.length; i++) {
+            if (ids[i] >= 0) bytes += sizes[i];
+        }
+        return bytes;
+    }
+
     public DataBlockManager getDataBlockManager() {
         return dataBlockManager;
     }
@@ -358,6 +484,10 @@ public class MemoryShard <EdgeDataType> {
         this.dataBlockManager = dataBlockManager;
     }
 
+    public void setBlockIO(AsyncBlockIO blockIO) {
+        this.blockIO = blockIO;
+    }
+
     public void setConverter(BytesToValueConverter<EdgeDataType> converter) {
         this.converter = converter;
     }
@@ -377,4 +507,31 @@ public class MemoryShard <EdgeDataType> {
     public void setOnlyAdjacency(boolean onlyAdjacency) {
         this.onlyAdjacency = onlyAdjacency;
     }
+
+    public boolean isSelectiveLoading() {
+        return selectiveLoading;
+    }
+
+    /**
+     * If enabled, edge data blocks are read only when they contain edges of the
+     * vertices being loaded, and only the blocks read are written back. Used when
+     * only a few vertices of the interval are scheduled. Must be set before loading.
+     * @param selectiveLoading
+     */
+    public void setSelectiveLoading(boolean selectiveLoading) {
+        this.selectiveLoading = selectiveLoading;
+    }
+
+    public boolean isUseMemoryMapping() {
+        return useMemoryMapping;
+    }
+
+    /**
+     * If enabled, the adjacency shard is memory-mapped instead of being
+     * copied to the heap. Has no effect for gzip-compressed shards.
+     * @param useMemoryMapping
+     */
+    public void setUseMemoryMapping(boolean useMemoryMapping) {
+        this.useMemoryMapping = useMemoryMapping;
+    }
 }
@@ -74,6 +74,21 @@ public class ShardIndex {
 
 
 
+    /**
+     * Index entries of the vertices after afterVertex, up to and including the first
+     * entry of a vertex at or after untilVertex, if there is one.
+     */
+    public ArrayList<IndexEntry> entriesBetween(int afterVertex, int untilVertex) {
+        ArrayList<IndexEntry> entries = new ArrayList<IndexEntry>();
+        int idx = Arrays.binarySearch(vertices, afterVertex);
+        idx = (idx >= 0 ? idx + 1 : -(idx + 1));
+        for(; idx < vertices.length; idx++) {
+            entries.add(new IndexEntry(vertices[idx], edgePointer[idx], fileOffset[idx]));
+            if (vertices[idx] >= untilVertex) break;
+        }
+        return entries;
+    }
+
     public static class IndexEntry {
 
         public int vertex, edgePointer, fileOffset;
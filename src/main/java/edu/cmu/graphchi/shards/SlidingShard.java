@@ -3,14 +3,24 @@ package edu.cmu.graphchi.shards;
 import edu.cmu.graphchi.ChiFilenames;
 import edu.cmu.graphchi.ChiLogger;
 import edu.cmu.graphchi.ChiVertex;
+import edu.cmu.graphchi.VertexArrayWindow;
+import edu.cmu.graphchi.VertexWindow;
 import edu.cmu.graphchi.datablocks.BytesToValueConverter;
 import edu.cmu.graphchi.datablocks.ChiPointer;
 import edu.cmu.graphchi.datablocks.DataBlockManager;
+import edu.cmu.graphchi.io.AsyncBlockIO;
+import edu.cmu.graphchi.io.BlockCodec;
+import edu.cmu.graphchi.io.ChannelDataInput;
 import edu.cmu.graphchi.io.CompressedIO;
-import nom.tam.util.BufferedDataInputStream;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.ByteOrder;
 import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 import java.util.zip.GZIPInputStream;
 
@@ -43,8 +53,11 @@ public class SlidingShard <EdgeDataType> {
     private int rangeEnd;
 
     private DataBlockManager blockManager;
+    private AsyncBlockIO blockIO;
+    private BlockCodec codec;
 
     private ArrayList<Block> activeBlocks;
+    private ArrayList<Block> retiredBlocks = new ArrayList<Block>();
 
     public long edataFilesize, adjFilesize;
     private Block curBlock = null;
@@ -54,25 +67,55 @@ public class SlidingShard <EdgeDataType> {
     private int adjOffset = 0;
     private int curvid = 0;
     private boolean onlyAdjacency = false;
+    private boolean varintAdjacency = false;
     private boolean asyncEdataLoading = true;
+    private boolean directIO = false;
+
+    /* Windows are parsed in parallel in chunks of at least this many bytes of adjacency (changed by tests) */
+    static int parallelChunkBytes = 64 * 1024;
+    private ExecutorService parallelExecutor;
+    /* Adjacency of the window, reused between windows */
+    private ByteBuffer windowAdj;
 
     private BytesToValueConverter<EdgeDataType> converter;
-    private BufferedDataInputStream adjFile;
+    private ChannelDataInput adjFile;
+    private CompressedAdjacency compressedAdj;
     private boolean modifiesOutedges = true;
+
+    /* Index for seeking past vertices which are not loaded, null if not available */
+    private ShardIndex index;
+    private boolean indexLoaded = false;
+    private int nextLoaded, lookedUp;
     
     private static final Logger logger = ChiLogger.getLogger("slidingshard");
 
 
     public SlidingShard(String edgeDataFilename, String adjDataFilename,
                         int rangeStart, int rangeEnd) throws IOException {
+        this(edgeDataFilename, adjDataFilename, rangeStart, rangeEnd, -1, -1, null, null);
+    }
+
+    /**
+     * Shard whose sizes and formats are known, typically from the graph manifest.
+     * Negative sizes and null codec or format are read from the files of the shard.
+     */
+    public SlidingShard(String edgeDataFilename, String adjDataFilename, int rangeStart, int rangeEnd,
+                        long adjFilesize, long edataFilesize, BlockCodec codec, AdjacencyFormat adjFormat) throws IOException {
         this.edgeDataFilename = edgeDataFilename;
         this.adjDataFilename = adjDataFilename;
         this.rangeStart = rangeStart;
         this.rangeEnd = rangeEnd;
 
-        adjFilesize = new File(adjDataFilename).length();
+        if (CompressedAdjacency.exists(adjDataFilename)) {
+            compressedAdj = new CompressedAdjacency(adjDataFilename);
+            if (adjFilesize < 0) adjFilesize = compressedAdj.size();
+        }
+        this.adjFilesize = (adjFilesize >= 0 ? adjFilesize : new File(adjDataFilename).length());
+        if (adjFormat == null) adjFormat = AdjacencyFormat.forShard(adjDataFilename);
+        varintAdjacency = (adjFormat == AdjacencyFormat.VARINT);
         if (edgeDataFilename != null) {
-            edataFilesize = ChiFilenames.getShardEdataSize(edgeDataFilename);
+            this.edataFilesize = (edataFilesize >= 0 ? edataFilesize : ChiFilenames.getShardEdataSize(edgeDataFilename));
+            this.codec = (codec != null ? codec : CompressedIO.getShardCodec(edgeDataFilename));
             activeBlocks = new ArrayList<Block>();
         } else {
             onlyAdjacency = true;
@@ -113,19 +156,44 @@ public class SlidingShard <EdgeDataType> {
 
 
     public void skip(int n) throws IOException {
-        int tot = n * 4;
-        adjOffset += tot;
-        adjFile.skipBytes(tot);
+        if (varintAdjacency) {
+            adjOffset += AdjacencyFormat.skipVarints(adjFile, n);
+        } else {
+            int tot = n * 4;
+            adjOffset += tot;
+            adjFile.skipBytes(tot);
+        }
         edataOffset += sizeOf * n;
         if (curBlock != null) {
             curBlock.ptr += sizeOf * n;
         }
     }
 
-    public void readNextVertices(ChiVertex[] vertices, int start, boolean disableWrites) throws IOException {
-        int nvecs = vertices.length;
+    public <VertexDataType> void readNextVertices(ChiVertex<VertexDataType, EdgeDataType>[] vertices, int start,
+                                                  boolean disableWrites) throws IOException {
+        readNextVertices(new VertexArrayWindow<VertexDataType, EdgeDataType>(vertices), start, disableWrites, false);
+    }
+
+    public <VertexDataType> void readNextVertices(ChiVertex<VertexDataType, EdgeDataType>[] vertices, int start,
+                                                  boolean disableWrites, boolean deferRelease) throws IOException {
+        readNextVertices(new VertexArrayWindow<VertexDataType, EdgeDataType>(vertices), start, disableWrites, deferRelease);
+    }
+
+    /**
+     * Reads the out-edges of the next window of vertices.
+     * @param deferRelease if true, the blocks of the previous windows are not committed,
+     *                     but kept until releaseRetiredBlocks() is called. Used when the next
+     *                     window is loaded while the previous one is still being updated.
+     */
+    public void readNextVertices(VertexWindow<?, EdgeDataType> vertices, int start, boolean disableWrites, boolean deferRelease) throws IOException {
+        int nvecs = vertices.size();
         curBlock = null;
-        releasePriorToOffset(false, disableWrites);
+        if (deferRelease) {
+            retirePriorToOffset();
+        } else {
+            releaseRetiredBlocks(disableWrites);
+            releasePriorToOffset(false, disableWrites);
+        }
         assert(activeBlocks.size() <= 1);
 
         /* Read next */
@@ -136,19 +204,36 @@ public class SlidingShard <EdgeDataType> {
         if (adjFile == null) {
 
             File compressedFile = new File(adjDataFilename + ".gz");
-            if (compressedFile.exists()) {
+            if (compressedAdj != null) {
+                adjFile = new ChannelDataInput(compressedAdj.channel(adjOffset), compressedAdj.chunkStart(adjOffset));
+            } else if (compressedFile.exists()) {
                 logger.info("Note: using compressed: " + compressedFile.getName());
-                adjFile = new BufferedDataInputStream(new GZIPInputStream(new FileInputStream(compressedFile)), 1024 * 1024);
+                adjFile = new ChannelDataInput(Channels.newChannel(new GZIPInputStream(new FileInputStream(compressedFile))));
 
             } else {
-                adjFile = new BufferedDataInputStream(new FileInputStream(adjDataFilename), 1024 * 1024);
+                adjFile = new ChannelDataInput(new File(adjDataFilename), directIO);
+            }
+        }
+        if (adjFile.position() != adjOffset) {
+            seekAdj(adjOffset);
+        }
+
+        if (parallelExecutor != null && readNextVerticesParallel(vertices, start)) {
+            if (!onlyAdjacency) {
+                for(Block b : activeBlocks) b.awaitRead();
             }
-            adjFile.skipBytes(adjOffset);
+            return;
         }
 
+        nextLoaded = -1;
+        lookedUp = -1;
 
         try {
             for(int i=(curvid - start); i < nvecs; i++) {
+                if ((i < 0 || !vertices.contains(i)) && seekForward(vertices, start, i)) {
+                    i = curvid - start - 1;
+                    continue;
+                }
                 int n;
                 int ns = adjFile.readUnsignedByte();
 
@@ -177,13 +262,17 @@ public class SlidingShard <EdgeDataType> {
                 if (i < 0) {
                     skip(n);
                 } else {
-                    ChiVertex vertex = vertices[i];
-                    assert(vertex == null || vertex.getId() == curvid);
-
-                    if (vertex != null) {
+                    if (vertices.contains(i)) {
+                        int target = rangeStart;
                         while (--n >= 0) {
-                            int target = adjFile.readIntReversed();
-                            adjOffset += 4;
+                            if (varintAdjacency) {
+                                int gap = AdjacencyFormat.readVarint(adjFile);
+                                target += gap;
+                                adjOffset += AdjacencyFormat.varintSize(gap);
+                            } else {
+                                target = adjFile.readIntReversed();
+                                adjOffset += 4;
+                            }
                             ChiPointer eptr = readEdgePtr();
 
                             if (!onlyAdjacency) {
@@ -196,7 +285,7 @@ public class SlidingShard <EdgeDataType> {
                                 }
                                 curBlock.active = true;
                             }
-                            vertex.addOutEdge(eptr == null ? -1 : eptr.blockId, eptr == null ? -1 : eptr.offset, target);
+                            vertices.addOutEdge(i, eptr == null ? -1 : eptr.blockId, eptr == null ? -1 : eptr.offset, target);
 
                             if (!(target >= rangeStart && target <= rangeEnd)) {
                                 throw new IllegalStateException("Target " + target + " not in range!");
@@ -209,17 +298,296 @@ public class SlidingShard <EdgeDataType> {
                 curvid++;
             }
         } catch (EOFException e) {}    // kosher
+
+        /* Edge data must be in memory before the vertices are updated */
+        if (!onlyAdjacency) {
+            for(Block b : activeBlocks) b.awaitRead();
+        }
+    }
+
+    /**
+     * Seeks to the closest index entry before the next vertex to be loaded,
+     * if it is ahead of the current position. Without this, the adjacency of all
+     * vertices between would be read, which matters if only a few vertices are scheduled.
+     * @return true if the position was moved
+     */
+    private boolean seekForward(VertexWindow<?, EdgeDataType> vertices, int start, int i) throws IOException {
+        loadIndex();
+        if (index == null) return false;
+
+        if (nextLoaded < Math.max(i, 0)) {
+            nextLoaded = Math.max(i, 0);
+            while (nextLoaded < vertices.size() && !vertices.contains(nextLoaded)) nextLoaded++;
+        }
+        if (lookedUp == nextLoaded) return false;
+        lookedUp = nextLoaded;
+
+        /* If no more vertices are loaded, seek close to the end of the window */
+        ShardIndex.IndexEntry entry = index.lookup(start + nextLoaded);
+        if (entry.fileOffset <= adjOffset) return false;
+
+        seekAdj(entry.fileOffset);
+        adjOffset = entry.fileOffset;
+        curvid = entry.vertex;
+        int edataSkip = entry.edgePointer * sizeOf - edataOffset;
+        edataOffset += edataSkip;
+        if (curBlock != null) {
+            curBlock.ptr += edataSkip;
+        }
+        return true;
+    }
+
+    /**
+     * Seeks the adjacency. A compressed adjacency is opened again at the chunk of the
+     * position, if the position is behind or in a later chunk.
+     */
+    private void seekAdj(long pos) throws IOException {
+        if (compressedAdj != null && (pos < adjFile.position() || compressedAdj.chunkStart(pos) > adjFile.position())) {
+            adjFile.close();
+            adjFile = new ChannelDataInput(compressedAdj.channel(pos), compressedAdj.chunkStart(pos));
+        }
+        adjFile.seek(pos);
+    }
+
+    private void loadIndex() throws IOException {
+        if (!indexLoaded) {
+            indexLoaded = true;
+            if (new File(adjDataFilename + ".index").exists() && !new File(adjDataFilename + ".gz").exists()) {
+                index = new ShardIndex(new File(adjDataFilename));
+            }
+        }
+    }
+
+    /* Part of a window between two index entries, parsed by one thread */
+    private static class Chunk {
+        int vertex, fileOffset, edataOffset, end;
+        boolean parse;
+
+        Chunk(int vertex, int fileOffset, int edataOffset) {
+            this.vertex = vertex;
+            this.fileOffset = fileOffset;
+            this.edataOffset = edataOffset;
+        }
+    }
+
+    /**
+     * Reads the out-edges of the window by splitting it to chunks at the entries of
+     * the shard index, and parsing the chunks in parallel, like the memory shard does.
+     * Chunks without loaded vertices are not parsed. The last chunk is parsed by the
+     * calling thread, and it gives the position where the next window starts.
+     * @return false if the window was not read, because the shard has no index or
+     *         the window has less than two chunks to parse
+     */
+    private boolean readNextVerticesParallel(final VertexWindow<?, EdgeDataType> vertices, final int start) throws IOException {
+        loadIndex();
+        int windowEnd = start + vertices.size();
+        if (index == null || (!adjFile.isSeekable() && compressedAdj == null) || curvid >= windowEnd) return false;
+
+        /* Vertices before the window are skipped */
+        ArrayList<Chunk> chunks = new ArrayList<Chunk>();
+        ShardIndex.IndexEntry first = index.lookup(Math.max(start, curvid));
+        if (first.vertex > curvid) {
+            chunks.add(new Chunk(first.vertex, first.fileOffset, first.edgePointer * sizeOf));
+        } else {
+            chunks.add(new Chunk(curvid, adjOffset, edataOffset));
+        }
+
+        int bound = (int) adjFilesize;
+        for(ShardIndex.IndexEntry e : index.entriesBetween(chunks.get(0).vertex, windowEnd)) {
+            if (e.vertex >= windowEnd) {
+                bound = e.fileOffset;
+                break;
+            }
+            if (e.fileOffset - chunks.get(chunks.size() - 1).fileOffset >= parallelChunkBytes) {
+                chunks.add(new Chunk(e.vertex, e.fileOffset, e.edgePointer * sizeOf));
+            }
+        }
+
+        int numParsed = 0;
+        int readStart = -1;
+        for(int c=0; c < chunks.size(); c++) {
+            Chunk chunk = chunks.get(c);
+            if (c < chunks.size() - 1) {
+                Chunk next = chunks.get(c + 1);
+                chunk.end = next.fileOffset;
+                for(int v=Math.max(chunk.vertex, start); v < next.vertex && !chunk.parse; v++) {
+                    chunk.parse = vertices.contains(v - start);
+                }
+            } else {
+                chunk.end = bound;
+                chunk.parse = true;
+            }
+            if (chunk.parse) {
+                numParsed++;
+                if (readStart < 0) readStart = chunk.fileOffset;
+            }
+        }
+        if (numParsed < 2) return false;
+
+        int len = bound - readStart;
+        if (windowAdj == null || windowAdj.capacity() < len) {
+            windowAdj = ByteBuffer.allocate(len);
+        }
+        windowAdj.clear();
+        windowAdj.limit(len);
+        seekAdj(readStart);
+        adjFile.readFully(windowAdj);
+
+        final int base = readStart;
+        ArrayList<Future<?>> parsing = new ArrayList<Future<?>>();
+        for(int c=0; c < chunks.size() - 1; c++) {
+            final Chunk chunk = chunks.get(c);
+            if (!chunk.parse) continue;
+            parsing.add(parallelExecutor.submit(new Callable<Object>() {
+                public Object call() throws IOException {
+                    parseChunk(chunk, base, vertices, start);
+                    return null;
+                }
+            }));
+        }
+        Chunk last = chunks.get(chunks.size() - 1);
+        try {
+            parseChunk(last, base, vertices, start);
+        } finally {
+            for(Future<?> f : parsing) AsyncBlockIO.waitFor(f);
+        }
+
+        curvid = last.vertex;
+        adjOffset = last.fileOffset;
+        edataOffset = last.edataOffset;
+        /* The next window continues from the block at the offset */
+        if (!onlyAdjacency) {
+            for(Block b : activeBlocks) {
+                if (edataOffset >= b.offset && edataOffset < b.end) b.ptr = edataOffset - b.offset;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parses the adjacency of a chunk, and sets its position to where parsing stopped:
+     * the end of the chunk or the end of the window.
+     */
+    private void parseChunk(Chunk chunk, int base, VertexWindow<?, EdgeDataType> vertices, int start) throws IOException {
+        ByteBuffer adj = windowAdj.duplicate();
+        adj.order(ByteOrder.LITTLE_ENDIAN);
+        adj.position(chunk.fileOffset - base);
+        adj.limit(chunk.end - base);
+
+        int nvecs = vertices.size();
+        int vid = chunk.vertex;
+        int edata = chunk.edataOffset;
+        Block block = null;
+        while (adj.hasRemaining() && vid - start < nvecs) {
+            int ns = adj.get() & 0xff;
+            if (ns == 0) {
+                vid++;
+                vid += adj.get() & 0xff;
+                continue;
+            }
+            int n = (ns == 0xff ? adj.getInt() : ns);
+
+            int i = vid - start;
+            if (i >= 0 && vertices.contains(i)) {
+                int target = rangeStart;
+                while (--n >= 0) {
+                    target = (varintAdjacency ? target + AdjacencyFormat.readVarint(adj) : adj.getInt());
+                    if (onlyAdjacency) {
+                        vertices.addOutEdge(i, -1, -1, target);
+                    } else {
+                        if (block == null || edata < block.offset || edata >= block.end) {
+                            block = blockFor(edata);
+                        }
+                        vertices.addOutEdge(i, block.blockId, edata - block.offset, target);
+                    }
+                    edata += sizeOf;
+
+                    if (!(target >= rangeStart && target <= rangeEnd)) {
+                        throw new IllegalStateException("Target " + target + " not in range!");
+                    }
+                }
+            } else {
+                edata += sizeOf * n;
+                if (varintAdjacency) {
+                    while (--n >= 0) AdjacencyFormat.readVarint(adj);
+                } else {
+                    adj.position(adj.position() + n * 4);
+                }
+            }
+            vid++;
+        }
+        chunk.vertex = vid;
+        chunk.fileOffset = base + adj.position();
+        chunk.edataOffset = edata;
+    }
+
+    /**
+     * Edge data block containing the offset, which is read if it is new.
+     */
+    private Block blockFor(int edataPos) throws IOException {
+        Block block = null;
+        boolean read = false;
+        synchronized (activeBlocks) {
+            for(Block b : activeBlocks) {
+                if (edataPos >= b.offset && edataPos < b.end) {
+                    block = b;
+                    break;
+                }
+            }
+            if (block == null) {
+                int blockStart = (edataPos / blockSize) * blockSize;
+                block = new Block(edgeDataFilename, blockStart,
+                        (int) Math.min(blockStart + blockSize, edataFilesize), edataPos / blockSize, blockSize);
+                activeBlocks.add(block);
+            }
+            if (!block.active) {
+                block.active = true;
+                read = true;
+            }
+        }
+        if (read) {
+            if (asyncEdataLoading) {
+                block.readAsync();
+            } else {
+                block.readNow();
+            }
+        }
+        return block;
     }
 
     public void flush() throws IOException {
+        releaseRetiredBlocks(false);
         releasePriorToOffset(true, false);
     }
 
+    private void retirePriorToOffset() {
+        if (onlyAdjacency) return;
+        for(int i=activeBlocks.size() - 1; i >= 0; i--) {
+            Block b = activeBlocks.get(i);
+            if (b.end <= edataOffset) {
+                retiredBlocks.add(b);
+                activeBlocks.remove(i);
+            }
+        }
+    }
+
+    /**
+     * Commits and releases the blocks retired by a deferred read. Must not be called
+     * before the vertices of the previous windows have been updated.
+     */
+    public void releaseRetiredBlocks(boolean disableWrites) throws IOException {
+        for(Block b : retiredBlocks) {
+            commit(b, false, disableWrites);
+        }
+        retiredBlocks.clear();
+    }
+
+    /**
+     * Moves the stream to the given position. The file is kept open, unless it
+     * is compressed and cannot be read backwards.
+     */
     public void setOffset(int newoff, int _curvid, int edgeptr) {
-        try {
-           if (adjFile != null) adjFile.close();
-        } catch (IOException ioe) {}
-        adjFile = null;
+        if (adjFile != null && !adjFile.isSeekable()) close();
         adjOffset = newoff;
         curvid = _curvid;
         edataOffset = edgeptr;
@@ -237,6 +605,16 @@ public class SlidingShard <EdgeDataType> {
         }
     }
 
+    /**
+     * Closes the adjacency file. It is opened again when the next vertices are read.
+     */
+    public void close() {
+        try {
+            if (adjFile != null) adjFile.close();
+        } catch (IOException ioe) {}
+        adjFile = null;
+    }
+
     public long getEdataFilesize() {
         return edataFilesize;
     }
@@ -253,6 +631,14 @@ public class SlidingShard <EdgeDataType> {
         this.blockManager = dataBlockManager;
     }
 
+    /**
+     * Sets the I/O pipeline used for reading and writing edge data blocks
+     * asynchronously. If not set, blocks are read and written synchronously.
+     */
+    public void setBlockIO(AsyncBlockIO blockIO) {
+        this.blockIO = blockIO;
+    }
+
     public BytesToValueConverter<EdgeDataType> getConverter() {
         return converter;
     }
@@ -270,6 +656,7 @@ public class SlidingShard <EdgeDataType> {
 
     void commit(Block b, boolean synchronously, boolean disableWrites) throws IOException {
         disableWrites = disableWrites || !modifiesOutedges;
+        b.awaitRead();
         if (synchronously) {
             if (!disableWrites) b.commitNow();
             b.release();
@@ -279,6 +666,22 @@ public class SlidingShard <EdgeDataType> {
         }
     }
 
+    /**
+     * If enabled, the adjacency is read bypassing the OS page cache where supported,
+     * see ChannelDataInput. Must be set before the first vertices are read.
+     */
+    public void setDirectIO(boolean directIO) {
+        this.directIO = directIO;
+    }
+
+    /**
+     * Sets the executor for parsing windows in parallel. If not set, windows are
+     * parsed by the calling thread.
+     */
+    public void setParallelExecutor(ExecutorService parallelExecutor) {
+        this.parallelExecutor = parallelExecutor;
+    }
+
     public void setModifiesOutedges(boolean modifiesOutedges) {
         this.modifiesOutedges = modifiesOutedges;
     }
@@ -299,6 +702,7 @@ public class SlidingShard <EdgeDataType> {
         int blockId;
         int ptr;
         boolean active = false;
+        Future<?> readFuture = null;
 
         Block(String edataFileName, int offset, int end, int fileBlockId, int blockSize) {
             this.end = end;
@@ -310,25 +714,46 @@ public class SlidingShard <EdgeDataType> {
 
 
         void readAsync() throws IOException {
-            // TODO: actually async
-            readNow();
+            if (blockIO == null) {
+                readNow();
+            } else {
+                readFuture = blockIO.read(new File(blockFileName), codec, blockManager, blockId, end - offset);
+            }
         }
 
         void readNow() throws IOException {
-            byte[] data = blockManager.getRawBlock(blockId);
-            CompressedIO.readCompressed(new File(blockFileName), data, end - offset);
+            ByteBuffer data = blockManager.getBlock(blockId);
+            CompressedIO.readCompressed(new File(blockFileName), data, end - offset, codec);
+        }
 
+        void awaitRead() throws IOException {
+            if (readFuture != null) {
+                AsyncBlockIO.waitFor(readFuture);
+                readFuture = null;
+            }
         }
 
         void commitNow() throws IOException {
-            byte[] data = blockManager.getRawBlock(blockId);
-            CompressedIO.writeCompressed(new File(blockFileName), data, end - offset);
+            awaitRead();
+            if (blockIO == null) {
+                ByteBuffer data = blockManager.getBlock(blockId);
+                CompressedIO.writeCompressed(new File(blockFileName), data, end - offset, codec);
+            } else {
+                blockIO.writeNow(new File(blockFileName), codec, blockManager, blockId, end - offset);
+            }
         }
 
+        /**
+         * Writes the block in the background and releases it after the write.
+         */
         void commitAsync() throws IOException {
-            commitNow();
-            // TODO asynchronous implementation
-            release();
+            if (blockIO == null) {
+                commitNow();
+                release();
+            } else {
+                awaitRead();
+                blockIO.writeBehind(new File(blockFileName), codec, blockManager, blockId, end - offset, true);
+            }
         }
 
         void release() {
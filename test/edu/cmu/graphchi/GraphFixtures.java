@@ -0,0 +1,98 @@
+package edu.cmu.graphchi;
+
+import edu.cmu.graphchi.datablocks.FloatConverter;
+import edu.cmu.graphchi.preprocessing.EdgeProcessor;
+import edu.cmu.graphchi.preprocessing.FastSharder;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Graphs for the tests: a temporary directory for the graph files, a sharder
+ * with float vertex and edge values, and random edges.
+ */
+public class GraphFixtures {
+
+    public static final long SEED = 260;
+
+    /**
+     * Creates an empty temporary directory. Delete it with delete().
+     */
+    public static File createTempDir(String prefix) throws IOException {
+        File dir = File.createTempFile(prefix, "");
+        dir.delete();
+        if (!dir.mkdir()) throw new IOException("Could not create " + dir);
+        return dir;
+    }
+
+    /**
+     * Base filename of a graph in a new temporary directory. Delete it with deleteGraph().
+     */
+    public static String createBaseFilename(String prefix) throws IOException {
+        return new File(createTempDir(prefix), "graph").getAbsolutePath();
+    }
+
+    /**
+     * Sharder whose edge value is the value in the input, or from + to if there is none.
+     */
+    public static FastSharder<Float, Float> createSharder(String baseFilename, int numShards) throws IOException {
+        return new FastSharder<Float, Float>(baseFilename, numShards, null, new EdgeProcessor<Float>() {
+            public Float receiveEdge(int from, int to, String token) {
+                return (token == null ? (float) (from + to) : Float.parseFloat(token));
+            }
+        }, new FloatConverter(), new FloatConverter());
+    }
+
+    /**
+     * Adds random edges without self-edges, which the sharder would drop.
+     */
+    public static void addRandomEdges(FastSharder<?, ?> sharder, Random r, int numVertices, int numEdges) throws IOException {
+        for(int i=0; i < numEdges; i++) {
+            int from = r.nextInt(numVertices);
+            sharder.addEdge(from, (from + 1 + r.nextInt(numVertices - 1)) % numVertices, null);
+        }
+    }
+
+    /**
+     * Deletes the directory of a graph created with createBaseFilename().
+     */
+    public static void deleteGraph(String baseFilename) {
+        delete(new File(baseFilename).getParentFile());
+    }
+
+    public static void delete(File f) {
+        File[] children = f.listFiles();
+        if (children != null) {
+            for(File child : children) delete(child);
+        }
+        f.delete();
+    }
+
+    /**
+     * Asserts that the file, or all the files in the directory, have the same contents.
+     */
+    public static void assertSameFiles(File expected, File actual) throws IOException {
+        assertTrue(actual.toString(), actual.exists());
+        if (expected.isDirectory()) {
+            for(String name : expected.list()) {
+                assertSameFiles(new File(expected, name), new File(actual, name));
+            }
+        } else {
+            assertTrue(actual.toString(), Arrays.equals(readFile(expected), readFile(actual)));
+        }
+    }
+
+    public static byte[] readFile(File f) throws IOException {
+        byte[] data = new byte[(int) f.length()];
+        DataInputStream in = new DataInputStream(new FileInputStream(f));
+        try {
+            in.readFully(data);
+        } finally {
+            in.close();
+        }
+        return data;
+    }
+}
@@ -3,6 +3,10 @@ package edu.cmu.graphchi;
 import edu.cmu.graphchi.datablocks.ChiPointer;
 import edu.cmu.graphchi.datablocks.DataBlockManager;
 import edu.cmu.graphchi.datablocks.FloatConverter;
+import edu.cmu.graphchi.datablocks.FloatPair;
+import edu.cmu.graphchi.datablocks.FloatPairConverter;
+import edu.cmu.graphchi.datablocks.IntConverter;
+import edu.cmu.graphchi.datablocks.LongConverter;
 import edu.cmu.graphchi.engine.auxdata.VertexDegree;
 import org.junit.Test;
 import static org.junit.Assert.*;
@@ -116,5 +120,73 @@ public class TestChiVertex {
         }
     }
 
+    @Test
+    public void testPrimitiveValues() {
+        DataBlockManager blockMgr = new DataBlockManager();
+        int blockId = blockMgr.allocateBlock(1024 * 1024);
+
+        FloatConverter floatConv = new FloatConverter();
+        ChiVertex.edgeValueConverter = floatConv;
+        ChiVertex.vertexValueConverter = floatConv;
+        ChiVertex.blockManager = blockMgr;
+
+        ChiVertex<Float, Float> vertex = new ChiVertex<Float, Float>(3, new VertexDegree(10, 10));
+        vertex.setDataPtr(new ChiPointer(blockId, 0));
+        vertex.setFloatValue(0.25f);
+        assertEquals(0.25f, vertex.getValue(), 1e-15);
+        vertex.setValue(7.5f);
+        assertEquals(7.5f, vertex.getFloatValue(), 1e-15);
+
+        for(int i=0; i < 10; i++) {
+            vertex.addInEdge(blockId, 4 + i * 4, i);
+            vertex.addOutEdge(blockId, 44 + i * 4, 100 + i);
+        }
+        for(int i=0; i < 10; i++) {
+            vertex.setInEdgeFloatValue(i, i * 1.5f);
+            vertex.outEdge(i).setFloatValue(-i);
+        }
+        for(int i=0; i < 10; i++) {
+            assertEquals(i * 1.5f, vertex.inEdge(i).getValue(), 1e-15);
+            assertEquals(i * 1.5f, vertex.inEdge(i).getFloatValue(), 1e-15);
+            assertEquals(-i, vertex.getOutEdgeFloatValue(i), 1e-15);
+            assertEquals(-i, vertex.outEdge(i).getValue(), 1e-15);
+        }
+
+        /* Ints and longs use the encoding of the converters */
+        vertex.setIntValue(-123456);
+        assertEquals(-123456, (int) new IntConverter().getValue(new byte[] {
+                blockMgr.getRawBlock(blockId)[0], blockMgr.getRawBlock(blockId)[1],
+                blockMgr.getRawBlock(blockId)[2], blockMgr.getRawBlock(blockId)[3]}));
+        blockMgr.writeValue(new ChiPointer(blockId, 0), new LongConverter(), 1234567890123L);
+        assertEquals(1234567890123L, vertex.getLongValue());
+    }
+
+    @Test
+    public void testCompoundValueFields() {
+        DataBlockManager blockMgr = new DataBlockManager();
+        int blockId = blockMgr.allocateBlock(1024);
 
+        FloatPairConverter pairConv = new FloatPairConverter();
+        ChiVertex.edgeValueConverter = pairConv;
+        ChiVertex.vertexValueConverter = new FloatConverter();
+        ChiVertex.blockManager = blockMgr;
+
+        ChiVertex<Float, FloatPair> vertex = new ChiVertex<Float, FloatPair>(3, new VertexDegree(5, 5));
+        for(int i=0; i < 5; i++) {
+            blockMgr.writeValue(new ChiPointer(blockId, i * 8), pairConv, new FloatPair(i, -i));
+            vertex.addInEdge(blockId, i * 8, i);
+            vertex.addOutEdge(blockId, 40 + i * 8, 100 + i);
+        }
+        for(int i=0; i < 5; i++) {
+            vertex.setOutEdgeFloatValue(i, 0, vertex.getInEdgeFloatValue(i, 4));
+            vertex.setOutEdgeFloatValue(i, 4, vertex.getInEdgeFloatValue(i, 0) * 2);
+            vertex.setInEdgeFloatValue(i, 4, 0.5f);
+        }
+        for(int i=0; i < 5; i++) {
+            assertEquals(new FloatPair(-i, 2 * i), vertex.outEdge(i).getValue());
+            assertEquals(new FloatPair(i, 0.5f), vertex.inEdge(i).getValue());
+            assertEquals(2 * i, vertex.getOutEdgeFloatValue(i, 4), 1e-15);
+            assertEquals(0.5f, vertex.inEdge(i).getFloatValue(4), 1e-15);
+        }
+    }
 }
@@ -0,0 +1,105 @@
+package edu.cmu.graphchi;
+
+import edu.cmu.graphchi.datablocks.BytesToValueConverter;
+import edu.cmu.graphchi.datablocks.FloatConverter;
+import edu.cmu.graphchi.engine.auxdata.VertexDegree;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Compact window must give the same vertices as a window of ChiVertex objects.
+ */
+public class TestCompactVertexWindow {
+
+    private BytesToValueConverter edgeValueConverter;
+
+    @Before
+    public void setUp() {
+        edgeValueConverter = ChiVertex.edgeValueConverter;
+    }
+
+    @After
+    public void tearDown() {
+        ChiVertex.edgeValueConverter = edgeValueConverter;
+    }
+
+    private void compareWindows(boolean edgeValues) {
+        ChiVertex.edgeValueConverter = (edgeValues ? new FloatConverter() : null);
+        int first = 100;
+        int n = 500;
+        Random r = new Random(260);
+        int[] from = new int[4000];
+        int[] to = new int[from.length];
+        int[] inDeg = new int[n];
+        int[] outDeg = new int[n];
+        for(int e=0; e < from.length; e++) {
+            from[e] = r.nextInt(n);
+            to[e] = r.nextInt(n);
+            outDeg[from[e]]++;
+            inDeg[to[e]]++;
+        }
+
+        ChiVertex[] vertices = new ChiVertex[n];
+        CompactVertexWindow compact = new CompactVertexWindow(first, n);
+        for(int i=0; i < n; i++) {
+            if (i % 7 != 3) {
+                vertices[i] = new ChiVertex(first + i, new VertexDegree(inDeg[i], outDeg[i]));
+                compact.addVertex(i, inDeg[i], outDeg[i]);
+            }
+        }
+        compact.allocateEdges();
+
+        VertexWindow[] windows = new VertexWindow[] {new VertexArrayWindow(vertices), compact};
+        for(VertexWindow window : windows) {
+            for(int e=0; e < from.length; e++) {
+                if (window.contains(from[e])) window.addOutEdge(from[e], e, e * 4, first + to[e]);
+                if (window.contains(to[e])) {
+                    window.addInEdge(to[e], e, e * 4, first + from[e]);
+                    if (e % 3 == 0 && window.contains(from[e])) window.setParallelUnsafe(to[e]);
+                }
+            }
+        }
+
+        ChiVertex reuse = null;
+        for(int i=0; i < n; i++) {
+            ChiVertex expected = windows[0].vertex(i, null);
+            ChiVertex actual = compact.vertex(i, reuse);
+            assertEquals(windows[0].numEdges(i), compact.numEdges(i));
+            if (expected == null) {
+                assertNull(actual);
+                continue;
+            }
+            reuse = actual;
+            assertEquals(expected.getId(), actual.getId());
+            assertEquals(expected.parallelSafe, actual.parallelSafe);
+            assertEquals(expected.numInEdges(), actual.numInEdges());
+            assertEquals(expected.numOutEdges(), actual.numOutEdges());
+            for(int j=0; j < expected.numInEdges(); j++) {
+                assertEquals(expected.getInEdgeId(j), actual.getInEdgeId(j));
+            }
+            for(int j=0; j < expected.numOutEdges(); j++) {
+                assertEquals(expected.getOutEdgeId(j), actual.getOutEdgeId(j));
+            }
+            int[] expectedNbrs = expected.getOutNeighborArray();
+            int[] actualNbrs = actual.getOutNeighborArray();
+            assertEquals(expectedNbrs.length, actualNbrs.length);
+            for(int j=0; j < expectedNbrs.length; j++) assertEquals(expectedNbrs[j], actualNbrs[j]);
+        }
+    }
+
+    @Test
+    public void testWithEdgeValues() {
+        compareWindows(true);
+    }
+
+    @Test
+    public void testWithoutEdgeValues() {
+        compareWindows(false);
+    }
+}
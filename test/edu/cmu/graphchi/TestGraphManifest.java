@@ -0,0 +1,105 @@
+package edu.cmu.graphchi;
+
+import edu.cmu.graphchi.datablocks.FloatConverter;
+import edu.cmu.graphchi.engine.VertexInterval;
+import edu.cmu.graphchi.engine.auxdata.DegreeData;
+import edu.cmu.graphchi.io.CompressedIO;
+import edu.cmu.graphchi.preprocessing.FastSharder;
+import edu.cmu.graphchi.shards.AdjacencyFormat;
+import org.junit.Test;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Manifest written by the sharder must agree with the text files and the shards.
+ */
+public class TestGraphManifest {
+
+    private static final int NUM_SHARDS = 3;
+    private static final int N = 5000;
+
+    @Test
+    public void testShardedManifest() throws IOException {
+        String baseFilename = GraphFixtures.createBaseFilename("graphchi-manifest");
+        try {
+            FastSharder<Float, Float> sharder = GraphFixtures.createSharder(baseFilename, NUM_SHARDS);
+            sharder.setAdjacencyFormat(AdjacencyFormat.VARINT);
+            int numEdges = 40000;
+            GraphFixtures.addRandomEdges(sharder, new Random(GraphFixtures.SEED), N, numEdges);
+            sharder.process();
+
+            GraphManifest manifest = GraphManifest.load(baseFilename, NUM_SHARDS);
+            assertNotNull(manifest);
+            assertEquals(GraphManifest.VERSION, manifest.getVersion());
+            assertEquals(NUM_SHARDS, manifest.getNumShards());
+            assertEquals(numEdges, manifest.getNumEdges());
+            assertEquals(AdjacencyFormat.VARINT, manifest.getAdjacencyFormat());
+            assertEquals(4, manifest.getEdgeValueSize());
+
+            /* Manifest is preferred by loadIntervals, so read the text file directly */
+            BufferedReader rd = new BufferedReader(new FileReader(ChiFilenames.getFilenameIntervals(baseFilename, NUM_SHARDS)));
+            ArrayList<VertexInterval> intervals = manifest.getIntervals();
+            int first = 0;
+            for(int p=0; p < NUM_SHARDS; p++) {
+                int last = Integer.parseInt(rd.readLine().trim());
+                assertEquals(first, intervals.get(p).getFirstVertex());
+                assertEquals(last, intervals.get(p).getLastVertex());
+                first = last + 1;
+            }
+            rd.close();
+            assertEquals(ChiFilenames.loadIntervals(baseFilename, NUM_SHARDS).size(), NUM_SHARDS);
+
+            long edges = 0;
+            for(int p=0; p < NUM_SHARDS; p++) {
+                assertEquals(edges, manifest.getShardEdgeOffset(p));
+                edges += manifest.getShardEdges(p);
+                assertEquals(new File(ChiFilenames.getFilenameShardsAdj(baseFilename, p, NUM_SHARDS)).length(), manifest.getAdjSize(p));
+                String edataName = ChiFilenames.getFilenameShardEdata(baseFilename, new FloatConverter(), p, NUM_SHARDS);
+                assertEquals(ChiFilenames.getShardEdataSize(edataName), manifest.getEdataSize(p, 4));
+                assertEquals(-1, manifest.getEdataSize(p, 8));
+                assertEquals(CompressedIO.getShardCodec(edataName).getName(), manifest.getCodec().getName());
+            }
+            assertEquals(numEdges, edges);
+
+            DegreeData degreeData = new DegreeData(baseFilename, manifest.isSparseDegrees());
+            degreeData.load(0, manifest.numVertices() - 1);
+            int withEdges = 0;
+            int maxIn = 0;
+            int maxOut = 0;
+            for(int v=0; v < manifest.numVertices(); v++) {
+                if (degreeData.inDegree(v) + degreeData.outDegree(v) > 0) withEdges++;
+                maxIn = Math.max(maxIn, degreeData.inDegree(v));
+                maxOut = Math.max(maxOut, degreeData.outDegree(v));
+            }
+            assertEquals(withEdges, manifest.getNumVerticesWithEdges());
+            assertEquals(maxIn, manifest.getMaxInDegree());
+            assertEquals(maxOut, manifest.getMaxOutDegree());
+        } finally {
+            GraphFixtures.deleteGraph(baseFilename);
+        }
+    }
+
+    @Test
+    public void testMissingAndNewerVersion() throws IOException {
+        String baseFilename = GraphFixtures.createBaseFilename("graphchi-manifest");
+        try {
+            assertNull(GraphManifest.load(baseFilename, NUM_SHARDS));
+
+            DataOutputStream out = new DataOutputStream(new FileOutputStream(ChiFilenames.getFilenameManifest(baseFilename, NUM_SHARDS)));
+            out.writeInt(GraphManifest.MAGIC);
+            out.writeInt(GraphManifest.VERSION + 1);
+            out.close();
+            try {
+                GraphManifest.load(baseFilename, NUM_SHARDS);
+                fail("Newer manifest version must be rejected");
+            } catch (IOException expected) {
+            }
+        } finally {
+            GraphFixtures.deleteGraph(baseFilename);
+        }
+    }
+}
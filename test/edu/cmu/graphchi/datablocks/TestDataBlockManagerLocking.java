@@ -0,0 +1,99 @@
+package edu.cmu.graphchi.datablocks;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TestDataBlockManagerLocking {
+
+    /* Concurrent increments with compare-and-set must not lose updates */
+    private void testIncrements(final DataBlockManager blockMgr) throws InterruptedException {
+        blockMgr.setLocking(true);
+        final int blockId = blockMgr.allocateBlock(64);
+        for(int i=0; i < 16; i++) blockMgr.setInt(blockId, i * 4, 0);
+
+        final int numIncrements = 20000;
+        Thread[] threads = new Thread[4];
+        for(int t=0; t < threads.length; t++) {
+            threads[t] = new Thread(new Runnable() {
+                public void run() {
+                    for(int i=0; i < numIncrements; i++) {
+                        int offset = (i % 16) * 4;
+                        int cur;
+                        do {
+                            cur = blockMgr.getInt(blockId, offset);
+                        } while (!blockMgr.compareAndSetInt(blockId, offset, cur, cur + 1));
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for(Thread t : threads) t.join();
+
+        for(int i=0; i < 16; i++) {
+            assertEquals(threads.length * numIncrements / 16, blockMgr.getInt(blockId, i * 4));
+        }
+    }
+
+    @Test
+    public void testHeapIncrements() throws InterruptedException {
+        testIncrements(new DataBlockManager());
+    }
+
+    @Test
+    public void testOffHeapIncrements() throws InterruptedException {
+        testIncrements(new OffHeapDataBlockManager());
+    }
+
+    @Test
+    public void testCompareAndSet() {
+        DataBlockManager blockMgr = new DataBlockManager();
+        int blockId = blockMgr.allocateBlock(16);
+        blockMgr.setFloat(blockId, 0, 1.5f);
+        assertFalse(blockMgr.compareAndSetFloat(blockId, 0, 2.0f, 3.0f));
+        assertTrue(blockMgr.compareAndSetFloat(blockId, 0, 1.5f, 3.0f));
+        assertEquals(3.0f, blockMgr.getFloat(blockId, 0), 0.0f);
+
+        blockMgr.setLong(blockId, 8, 1L << 40);
+        assertTrue(blockMgr.compareAndSetLong(blockId, 8, 1L << 40, 7L));
+        assertEquals(7L, blockMgr.getLong(blockId, 8));
+    }
+
+    /* Runs the access while the lock of the value is held, and checks that it waits for the lock */
+    private void assertWaitsForValueLock(DataBlockManager blockMgr, int blockId, int offset, Runnable access)
+            throws InterruptedException {
+        Thread accessor = new Thread(access);
+        synchronized (blockMgr.lockFor(blockId, offset)) {
+            accessor.start();
+            long deadline = System.currentTimeMillis() + 5000;
+            while (accessor.getState() != Thread.State.BLOCKED && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+            }
+            assertEquals(Thread.State.BLOCKED, accessor.getState());
+        }
+        accessor.join();
+    }
+
+    @Test
+    public void testFieldsUseLockOfValue() throws InterruptedException {
+        /* A field of a compound value is accessed under the lock of the whole value */
+        final DataBlockManager blockMgr = new DataBlockManager();
+        blockMgr.setLocking(true);
+        final int blockId = blockMgr.allocateBlock(64);
+        blockMgr.writeValue(new ChiPointer(blockId, 8), new FloatPairConverter(), new FloatPair(1.0f, 2.0f));
+
+        assertWaitsForValueLock(blockMgr, blockId, 8, new Runnable() {
+            public void run() {
+                blockMgr.setFloat(blockId, 8, 4, 3.0f);
+            }
+        });
+        final float[] read = new float[1];
+        assertWaitsForValueLock(blockMgr, blockId, 8, new Runnable() {
+            public void run() {
+                read[0] = blockMgr.getFloat(blockId, 8, 4);
+            }
+        });
+        assertEquals(3.0f, read[0], 0.0f);
+        assertEquals(1.0f, blockMgr.getFloat(blockId, 8, 0), 0.0f);
+    }
+}
@@ -0,0 +1,63 @@
+package edu.cmu.graphchi.datablocks;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class TestOffHeapDataBlockManager {
+
+    @Test
+    public void testValues() {
+        OffHeapDataBlockManager blockMgr = new OffHeapDataBlockManager();
+        int blockId = blockMgr.allocateBlock(1000);
+        assertEquals(1000, blockMgr.getBlock(blockId).limit());
+        assertTrue(blockMgr.getBlock(blockId).isDirect());
+
+        FloatConverter conv = new FloatConverter();
+        for(int i=0; i < 250; i++) {
+            blockMgr.writeValue(new ChiPointer(blockId, i * 4), conv, i * 0.5f);
+        }
+        for(int i=0; i < 250; i++) {
+            assertEquals(i * 0.5f, blockMgr.dereference(new ChiPointer(blockId, i * 4), conv), 1e-15f);
+        }
+    }
+
+    @Test
+    public void testRecycling() {
+        OffHeapDataBlockManager blockMgr = new OffHeapDataBlockManager();
+        int blockId = blockMgr.allocateBlock(100000);
+        ByteBuffer block = blockMgr.getBlock(blockId);
+        blockMgr.release(blockId);
+        assertTrue(blockMgr.getPooledBytes() >= 100000);
+        blockMgr.reset();
+
+        /* Same size class is reused after reset */
+        int blockId2 = blockMgr.allocateBlock(99000);
+        assertSame(block, blockMgr.getBlock(blockId2));
+        assertEquals(99000, blockMgr.getBlock(blockId2).limit());
+        assertEquals(0, blockMgr.getPooledBytes());
+    }
+
+    @Test
+    public void testAllocatedBytes() {
+        DataBlockManager[] managers = new DataBlockManager[] {new DataBlockManager(), new OffHeapDataBlockManager()};
+        for(DataBlockManager blockMgr : managers) {
+            int a = blockMgr.allocateBlock(1000);
+            int b = blockMgr.allocateBlock(5000);
+            assertTrue(blockMgr.getAllocatedBytes() >= 6000);
+            blockMgr.release(a);
+            assertEquals(blockMgr.getBlock(b).capacity(), blockMgr.getAllocatedBytes());
+            blockMgr.release(b);
+            /* Pooled blocks are not counted */
+            assertEquals(0, blockMgr.getAllocatedBytes());
+        }
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testNoRawBlock() {
+        OffHeapDataBlockManager blockMgr = new OffHeapDataBlockManager();
+        blockMgr.getRawBlock(blockMgr.allocateBlock(10));
+    }
+}
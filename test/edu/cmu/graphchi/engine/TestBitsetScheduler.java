@@ -0,0 +1,65 @@
+package edu.cmu.graphchi.engine;
+
+import org.junit.Test;
+
+import java.util.BitSet;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class TestBitsetScheduler {
+
+    @Test
+    public void testRanges() {
+        int n = 1000;
+        BitsetScheduler scheduler = new BitsetScheduler(n);
+        BitSet expected = new BitSet(n);
+        Random r = new Random(260);
+        for(int i=0; i < 200; i++) {
+            int v = r.nextInt(n);
+            scheduler.addTask(v);
+            expected.set(v);
+        }
+        assertTrue(scheduler.hasTasks());
+
+        for(int k=0; k < 500; k++) {
+            int from = r.nextInt(n);
+            int to = Math.min(n - 1, from + r.nextInt(200));
+            int next = expected.nextSetBit(from);
+            assertEquals(next >= 0 && next <= to ? next : -1, scheduler.nextScheduled(from, to));
+            assertEquals(expected.get(from, to + 1).cardinality(), scheduler.numScheduled(from, to));
+        }
+
+        scheduler.removeTasks(63, 64);
+        scheduler.removeTasks(100, 300);
+        expected.clear(63, 65);
+        expected.clear(100, 301);
+        for(int i=0; i < n; i++) {
+            assertEquals(expected.get(i), scheduler.isScheduled(i));
+        }
+
+        scheduler.addAllTasks();
+        assertEquals(n, scheduler.numScheduled(0, n - 1));
+        scheduler.removeAllTasks();
+        assertFalse(scheduler.hasTasks());
+        assertEquals(-1, scheduler.nextScheduled(0, n - 1));
+    }
+
+    @Test
+    public void testConcurrentAdds() throws InterruptedException {
+        final int n = 100000;
+        final BitsetScheduler scheduler = new BitsetScheduler(n);
+        Thread[] threads = new Thread[4];
+        for(int t=0; t < threads.length; t++) {
+            final int offset = t;
+            threads[t] = new Thread(new Runnable() {
+                public void run() {
+                    for(int i=offset; i < n; i += 4) scheduler.addTask(i);
+                }
+            });
+            threads[t].start();
+        }
+        for(Thread t : threads) t.join();
+        assertEquals(n, scheduler.numScheduled(0, n - 1));
+    }
+}
@@ -0,0 +1,84 @@
+package edu.cmu.graphchi.engine;
+
+import edu.cmu.graphchi.ChiVertex;
+import edu.cmu.graphchi.VertexArrayWindow;
+import edu.cmu.graphchi.datablocks.BytesToValueConverter;
+import edu.cmu.graphchi.engine.auxdata.VertexDegree;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestColoring {
+
+    private BytesToValueConverter edgeValueConverter;
+
+    @Before
+    public void setUp() {
+        edgeValueConverter = ChiVertex.edgeValueConverter;
+        ChiVertex.edgeValueConverter = null;
+    }
+
+    @After
+    public void tearDown() {
+        ChiVertex.edgeValueConverter = edgeValueConverter;
+    }
+
+    @Test
+    public void testNoEdgesWithinColor() {
+        int first = 500;
+        int n = 1000;
+        Random r = new Random(260);
+        int[] from = new int[5000];
+        int[] to = new int[from.length];
+        int[] inDeg = new int[n];
+        int[] outDeg = new int[n];
+        for(int e=0; e < from.length; e++) {
+            from[e] = r.nextInt(n);
+            to[e] = (e % 5 == 0 ? n + r.nextInt(n) : r.nextInt(n));
+            outDeg[from[e]]++;
+            if (to[e] < n) inDeg[to[e]]++;
+        }
+
+        ChiVertex[] vertices = new ChiVertex[n];
+        for(int i=0; i < n; i++) {
+            if (i % 11 != 7) vertices[i] = new ChiVertex(first + i, new VertexDegree(inDeg[i], outDeg[i]));
+        }
+        for(int e=0; e < from.length; e++) {
+            if (vertices[from[e]] != null) vertices[from[e]].addOutEdge(0, 0, first + to[e]);
+            if (to[e] < n && vertices[to[e]] != null) {
+                vertices[to[e]].addInEdge(0, 0, first + from[e]);
+                vertices[to[e]].parallelSafe = false;
+                if (vertices[from[e]] != null) vertices[from[e]].parallelSafe = false;
+            }
+        }
+
+        int[][] classes = GraphChiEngine.colorClasses(new VertexArrayWindow(vertices), first);
+        int[] color = new int[n];
+        int colored = 0;
+        for(int c=0; c < classes.length; c++) {
+            for(int i : classes[c]) {
+                assertTrue(vertices[i] != null);
+                color[i] = c;
+                colored++;
+            }
+        }
+        int nonNull = 0;
+        for(ChiVertex v : vertices) if (v != null) nonNull++;
+        assertEquals(nonNull, colored);
+
+        for(int e=0; e < from.length; e++) {
+            if (to[e] < n && from[e] != to[e] && vertices[from[e]] != null && vertices[to[e]] != null) {
+                assertTrue(color[from[e]] != color[to[e]]);
+            }
+        }
+        /* Classes are in the order of the vertex ids */
+        for(int[] cls : classes) {
+            for(int i=1; i < cls.length; i++) assertTrue(cls[i - 1] < cls[i]);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package edu.cmu.graphchi.engine;
+
+import edu.cmu.graphchi.ChiVertex;
+import edu.cmu.graphchi.GraphChiContext;
+import edu.cmu.graphchi.GraphChiProgram;
+import edu.cmu.graphchi.GraphFixtures;
+import edu.cmu.graphchi.datablocks.FloatConverter;
+import edu.cmu.graphchi.preprocessing.FastSharder;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.assertTrue;
+
+public class TestGraphChiEngine {
+
+    private static final int NUM_SHARDS = 2;
+
+    /**
+     * Vertex value from the in-edges, and out-edge values from the vertex value.
+     */
+    private static class EdgeSumProgram implements GraphChiProgram<Float, Float> {
+        public void update(ChiVertex<Float, Float> vertex, GraphChiContext context) {
+            float sum = 0.0f;
+            for(int i=0; i < vertex.numInEdges(); i++) {
+                sum += vertex.getInEdgeFloatValue(i);
+            }
+            vertex.setFloatValue(sum * 0.5f + vertex.getId() % 7 + context.getIteration());
+            for(int i=0; i < vertex.numOutEdges(); i++) {
+                vertex.setOutEdgeFloatValue(i, vertex.getFloatValue() / (vertex.numOutEdges() + i));
+            }
+        }
+
+        public void beginIteration(GraphChiContext ctx) {}
+        public void endIteration(GraphChiContext ctx) {}
+        public void beginInterval(GraphChiContext ctx, VertexInterval interval) {}
+        public void endInterval(GraphChiContext ctx, VertexInterval interval) {}
+        public void beginSubInterval(GraphChiContext ctx, VertexInterval interval) {}
+        public void endSubInterval(GraphChiContext ctx, VertexInterval interval) {}
+    }
+
+    private String createGraph(int numVertices, int numEdges) throws IOException {
+        String baseFilename = GraphFixtures.createBaseFilename("graphchi-engine");
+        FastSharder<Float, Float> sharder = GraphFixtures.createSharder(baseFilename, NUM_SHARDS);
+        GraphFixtures.addRandomEdges(sharder, new Random(GraphFixtures.SEED), numVertices, numEdges);
+        sharder.process();
+        return baseFilename;
+    }
+
+    private GraphChiEngine<Float, Float> createEngine(String baseFilename) throws IOException {
+        GraphChiEngine<Float, Float> engine = new GraphChiEngine<Float, Float>(baseFilename, NUM_SHARDS);
+        engine.setEdataConverter(new FloatConverter());
+        engine.setVertexDataConverter(new FloatConverter());
+        engine.setEnableDeterministicExecution(true);
+        return engine;
+    }
+
+    @Test
+    public void testMemoryScaleWithTightBudget() throws IOException {
+        /* The memory shards alone are about the budget */
+        String baseFilename = createGraph(20000, 400000);
+        try {
+            GraphChiEngine<Float, Float> engine = createEngine(baseFilename);
+            engine.setMemoryBudgetMb(1);
+            engine.setAdaptiveWindowSize(true);
+            engine.run(new EdgeSumProgram(), 2);
+            assertTrue("Scale " + engine.getMemoryScale(), engine.getMemoryScale() < 3.0);
+        } finally {
+            GraphFixtures.deleteGraph(baseFilename);
+        }
+    }
+
+    @Test
+    public void testAutoLoadNext() throws IOException {
+        /* Several windows in each interval, so the next window is loaded ahead */
+        String serial = createGraph(20000, 200000);
+        String prefetched = createGraph(20000, 200000);
+        try {
+            GraphChiEngine<Float, Float> engine = createEngine(serial);
+            engine.setMemoryBudgetMb(1);
+            engine.run(new EdgeSumProgram(), 3);
+
+            engine = createEngine(prefetched);
+            engine.setMemoryBudgetMb(1);
+            engine.setAutoLoadNext(true);
+            engine.run(new EdgeSumProgram(), 3);
+
+            /* Vertex values and edge values */
+            GraphFixtures.assertSameFiles(new File(serial).getParentFile(), new File(prefetched).getParentFile());
+        } finally {
+            GraphFixtures.deleteGraph(serial);
+            GraphFixtures.deleteGraph(prefetched);
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package edu.cmu.graphchi.engine;
+
+import edu.cmu.graphchi.ChiVertex;
+import edu.cmu.graphchi.engine.auxdata.VertexDegree;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestSplitByEdges {
+
+    @Test
+    public void testHubGetsOwnChunk() {
+        ChiVertex.disableInedges = true;
+        ChiVertex.disableOutedges = true;
+        try {
+            ChiVertex[] vertices = new ChiVertex[100000];
+            for(int i=0; i < vertices.length; i++) {
+                int degree = (i == 5000 ? 1000000 : 10);
+                vertices[i] = (i % 7 == 3 ? null : new ChiVertex(i, new VertexDegree(degree, degree)));
+            }
+            int[] starts = GraphChiEngine.splitByEdges(vertices, 16);
+
+            assertEquals(0, starts[0]);
+            assertEquals(vertices.length, starts[starts.length - 1]);
+            long max = 0;
+            for(int c=0; c < starts.length - 1; c++) {
+                assertTrue(starts[c] < starts[c + 1]);
+                long edges = 0;
+                for(int i=starts[c]; i < starts[c + 1]; i++) {
+                    if (vertices[i] != null && i != 5000) edges += vertices[i].numEdges();
+                }
+                max = Math.max(max, edges);
+                if (starts[c] <= 5000 && 5000 < starts[c + 1]) {
+                    /* The hub is alone */
+                    for(int i=starts[c]; i < starts[c + 1]; i++) {
+                        assertTrue(i == 5000 || vertices[i] == null);
+                    }
+                }
+            }
+            /* Chunks of the other vertices are about 1/16 of all edges */
+            assertTrue(max <= (2000000 + 2 * 20 * vertices.length) / 16);
+        } finally {
+            ChiVertex.disableInedges = false;
+            ChiVertex.disableOutedges = false;
+        }
+    }
+}
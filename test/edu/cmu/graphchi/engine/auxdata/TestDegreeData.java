@@ -0,0 +1,76 @@
+package edu.cmu.graphchi.engine.auxdata;
+
+import edu.cmu.graphchi.ChiFilenames;
+import org.junit.Test;
+
+import java.io.*;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestDegreeData {
+
+    private static final int N = 10000;
+
+    private void checkDegrees(boolean sparse) throws IOException {
+        File dir = File.createTempFile("graphchi-degrees", "");
+        dir.delete();
+        dir.mkdir();
+        String baseFilename = new File(dir, "graph").getAbsolutePath();
+
+        Random r = new Random(260);
+        int[] inDeg = new int[N];
+        int[] outDeg = new int[N];
+        for(int i=0; i < N; i++) {
+            if (!sparse || r.nextInt(5) == 0) {
+                inDeg[i] = r.nextInt(1000);
+                outDeg[i] = r.nextInt(1000) + 1;
+            }
+        }
+
+        File degreeFile = new File(ChiFilenames.getFilenameOfDegreeData(baseFilename, sparse));
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(degreeFile)));
+        for(int i=0; i < N; i++) {
+            if (sparse && inDeg[i] + outDeg[i] == 0) continue;
+            if (sparse) dos.writeInt(Integer.reverseBytes(i));
+            dos.writeInt(Integer.reverseBytes(inDeg[i]));
+            dos.writeInt(Integer.reverseBytes(outDeg[i]));
+        }
+        dos.close();
+
+        DegreeData degreeData = new DegreeData(baseFilename);
+        /* Windows in ascending order, then from the beginning again; the last one is past the file */
+        int[][] windows = new int[][] {{0, 999}, {1000, 4321}, {4322, 9999}, {500, 1500}, {9000, N + 500}};
+        for(int[] window : windows) {
+            degreeData.load(window[0], window[1]);
+            for(int v=window[1]; v >= window[0]; v -= 3) {
+                int expectedIn = (v < N ? inDeg[v] : 0);
+                int expectedOut = (v < N ? outDeg[v] : 0);
+                assertEquals(expectedIn, degreeData.inDegree(v));
+                assertEquals(expectedOut, degreeData.outDegree(v));
+            }
+            for(int v=window[0]; v <= window[1]; v++) {
+                int expectedIn = (v < N ? inDeg[v] : 0);
+                int expectedOut = (v < N ? outDeg[v] : 0);
+                assertEquals(expectedIn, degreeData.inDegree(v));
+                assertEquals(expectedOut, degreeData.outDegree(v));
+                VertexDegree degree = degreeData.getDegree(v);
+                assertEquals(expectedIn, degree.inDegree);
+                assertEquals(expectedOut, degree.outDegree);
+            }
+        }
+
+        degreeFile.delete();
+        dir.delete();
+    }
+
+    @Test
+    public void testDense() throws IOException {
+        checkDegrees(false);
+    }
+
+    @Test
+    public void testSparse() throws IOException {
+        checkDegrees(true);
+    }
+}
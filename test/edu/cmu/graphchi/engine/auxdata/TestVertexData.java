@@ -0,0 +1,116 @@
+package edu.cmu.graphchi.engine.auxdata;
+
+import edu.cmu.graphchi.ChiFilenames;
+import edu.cmu.graphchi.datablocks.ChiPointer;
+import edu.cmu.graphchi.datablocks.DataBlockManager;
+import edu.cmu.graphchi.datablocks.IntConverter;
+import org.junit.Test;
+
+import java.io.*;
+import java.util.Iterator;
+
+import static org.junit.Assert.*;
+
+public class TestVertexData {
+
+    private static final int N = 10000;
+
+    /* Vertices with edges in the sparse degree file */
+    private static boolean hasEdges(int v) {
+        return v % 3 != 1;
+    }
+
+    private String createGraph(boolean sparse) throws IOException {
+        File dir = File.createTempFile("graphchi-vertexdata", "");
+        dir.delete();
+        dir.mkdir();
+        String baseFilename = new File(dir, "graph").getAbsolutePath();
+        if (sparse) {
+            DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(ChiFilenames.getFilenameOfDegreeData(baseFilename, true))));
+            for(int v=0; v < N; v++) {
+                if (!hasEdges(v)) continue;
+                dos.writeInt(Integer.reverseBytes(v));
+                dos.writeInt(Integer.reverseBytes(1));
+                dos.writeInt(Integer.reverseBytes(1));
+            }
+            dos.close();
+        }
+        return baseFilename;
+    }
+
+    private static void delete(String baseFilename) {
+        File dir = new File(baseFilename).getParentFile();
+        for(File f : dir.listFiles()) f.delete();
+        dir.delete();
+    }
+
+    private void writeAndRead(boolean sparse) throws IOException {
+        String baseFilename = createGraph(sparse);
+        IntConverter conv = new IntConverter();
+        DataBlockManager blockManager = new DataBlockManager();
+
+        VertexData<Integer> vertexData = new VertexData<Integer>(N, baseFilename, conv, sparse);
+        vertexData.setBlockManager(blockManager);
+        for(int st=0; st < N; st += 1000) {
+            int blockId = vertexData.load(st, st + 999);
+            Iterator<Integer> iter = vertexData.currentIterator();
+            int count = 0;
+            while (iter.hasNext()) {
+                int v = iter.next();
+                assertTrue(v >= st && v <= st + 999);
+                ChiPointer ptr = vertexData.getVertexValuePtr(v, blockId);
+                assertEquals(0, (int) blockManager.dereference(ptr, conv));
+                blockManager.writeValue(ptr, conv, v * 2 + 1);
+                count++;
+            }
+            if (sparse) {
+                assertEquals(st % 3 == 1 ? 666 : 667, count);
+                /* Vertex without edges is not in the file */
+                int noEdges = st + (4 - st % 3) % 3;
+                assertFalse(hasEdges(noEdges));
+                assertNull(vertexData.getVertexValuePtr(noEdges, blockId));
+            }
+            vertexData.releaseAndCommit(st, blockId);
+        }
+        vertexData.close();
+        assertTrue(blockManager.empty());
+
+        vertexData = new VertexData<Integer>(N, baseFilename, conv, sparse);
+        vertexData.setBlockManager(blockManager);
+        int blockId = vertexData.load(2500, 7499);
+        for(int v=2500; v <= 7499; v++) {
+            ChiPointer ptr = vertexData.getVertexValuePtr(v, blockId);
+            if (sparse && !hasEdges(v)) {
+                assertNull(ptr);
+            } else {
+                assertEquals(v * 2 + 1, (int) blockManager.dereference(ptr, conv));
+            }
+        }
+        vertexData.releaseAndCommit(2500, blockId);
+
+        if (!sparse) {
+            /* Window past the end of the file is copied to a block */
+            blockId = vertexData.load(N - 500, N + 499);
+            for(int v=N - 500; v < N + 500; v++) {
+                ChiPointer ptr = vertexData.getVertexValuePtr(v, blockId);
+                assertEquals(v < N ? v * 2 + 1 : 0, (int) blockManager.dereference(ptr, conv));
+                blockManager.writeValue(ptr, conv, -v);
+            }
+            vertexData.releaseAndCommit(N - 500, blockId);
+            assertEquals((N + 500) * 4L, new File(ChiFilenames.getFilenameOfVertexData(baseFilename, conv, false)).length());
+        }
+        vertexData.close();
+        delete(baseFilename);
+    }
+
+    @Test
+    public void testDense() throws IOException {
+        writeAndRead(false);
+    }
+
+    @Test
+    public void testSparse() throws IOException {
+        writeAndRead(true);
+    }
+}
@@ -0,0 +1,149 @@
+package edu.cmu.graphchi.io;
+
+import edu.cmu.graphchi.GraphFixtures;
+import edu.cmu.graphchi.datablocks.DataBlockManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class TestAsyncBlockIO {
+
+    private static final int BLOCK_SIZE = 64 * 1024;
+
+    private File dir;
+    private AsyncBlockIO blockIO;
+    private DataBlockManager blockManager;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = GraphFixtures.createTempDir("graphchi-blockio");
+        /* Small queue, so that the caller also runs some of the operations */
+        blockIO = new AsyncBlockIO(4, 8);
+        blockManager = new DataBlockManager();
+    }
+
+    @After
+    public void tearDown() {
+        blockIO.shutdown();
+        GraphFixtures.delete(dir);
+    }
+
+    /* Block filled with the version number */
+    private int block(int version) {
+        int blockId = blockManager.allocateBlock(BLOCK_SIZE);
+        for(int i=0; i < BLOCK_SIZE; i += 4) blockManager.setInt(blockId, i, version);
+        return blockId;
+    }
+
+    private void assertVersion(int version, int blockId) {
+        for(int i=0; i < BLOCK_SIZE; i += 4) assertEquals(version, blockManager.getInt(blockId, i));
+    }
+
+    @Test
+    public void testWritesOfSameFileInOrder() throws IOException {
+        File f = new File(dir, "block");
+        for(int version=0; version < 200; version++) {
+            blockIO.writeBehind(f, CompressedIO.LZ, blockManager, block(version), BLOCK_SIZE, true);
+        }
+        blockIO.drain();
+        assertEquals(0, blockManager.getAllocatedBytes());
+
+        int blockId = blockManager.allocateBlock(BLOCK_SIZE);
+        CompressedIO.readCompressed(f, blockManager.getBlock(blockId), BLOCK_SIZE, CompressedIO.LZ);
+        assertVersion(199, blockId);
+    }
+
+    @Test
+    public void testReadAfterWrite() throws IOException {
+        for(int version=0; version < 100; version++) {
+            File f = new File(dir, "block" + (version % 5));
+            blockIO.writeBehind(f, CompressedIO.ZLIB, blockManager, block(version), BLOCK_SIZE, true);
+            int blockId = blockManager.allocateBlock(BLOCK_SIZE);
+            Future<?> read = blockIO.read(f, CompressedIO.ZLIB, blockManager, blockId, BLOCK_SIZE);
+            AsyncBlockIO.waitFor(read);
+            assertVersion(version, blockId);
+            blockManager.release(blockId);
+        }
+        blockIO.drain();
+    }
+
+    @Test
+    public void testDrain() throws Exception {
+        final File[] files = new File[20];
+        for(int i=0; i < files.length; i++) files[i] = new File(dir, "block" + i);
+
+        /* Writes queued while draining */
+        Thread writer = new Thread() {
+            public void run() {
+                for(int version=0; version < 400; version++) {
+                    blockIO.writeBehind(files[version % files.length], CompressedIO.LZ, blockManager, block(version), BLOCK_SIZE, true);
+                }
+            }
+        };
+        writer.start();
+        while (writer.isAlive()) blockIO.drain();
+        writer.join();
+        blockIO.drain();
+
+        assertEquals(0, blockManager.getAllocatedBytes());
+        int blockId = blockManager.allocateBlock(BLOCK_SIZE);
+        for(int i=0; i < files.length; i++) {
+            CompressedIO.readCompressed(files[i], blockManager.getBlock(blockId), BLOCK_SIZE, CompressedIO.LZ);
+            assertVersion(400 - files.length + i, blockId);
+        }
+    }
+
+    @Test
+    public void testWriteDuringDrain() throws Exception {
+        /* One thread with a backlog of writes, which drain() waits for */
+        final AsyncBlockIO slowIO = new AsyncBlockIO(1, 2000);
+        for(int i=0; i < 1000; i++) {
+            slowIO.writeBehind(new File(dir, "other" + i), CompressedIO.ZLIB, blockManager, block(i), BLOCK_SIZE, true);
+        }
+        File f = new File(dir, "block");
+        slowIO.writeBehind(f, CompressedIO.ZLIB, blockManager, block(1), BLOCK_SIZE, true);
+        Thread drainer = new Thread() {
+            public void run() {
+                try {
+                    slowIO.drain();
+                } catch (IOException ioe) {
+                    throw new RuntimeException(ioe);
+                }
+            }
+        };
+        drainer.start();
+        Thread.sleep(50);
+
+        /* Must wait for the pending write of the file, although drain() is waiting for it too */
+        int blockId = block(2);
+        slowIO.writeNow(f, CompressedIO.ZLIB, blockManager, blockId, BLOCK_SIZE);
+        blockManager.release(blockId);
+        drainer.join();
+        slowIO.drain();
+        slowIO.shutdown();
+
+        blockId = blockManager.allocateBlock(BLOCK_SIZE);
+        CompressedIO.readCompressed(f, blockManager.getBlock(blockId), BLOCK_SIZE, CompressedIO.ZLIB);
+        assertVersion(2, blockId);
+    }
+
+    @Test
+    public void testDrainReportsFailure() throws IOException {
+        File missingDir = new File(dir, "missing");
+        blockIO.writeBehind(new File(missingDir, "block"), CompressedIO.LZ, blockManager, block(1), BLOCK_SIZE, true);
+        try {
+            blockIO.drain();
+            fail("Write to a missing directory must fail");
+        } catch (IOException expected) {
+        }
+        /* Failure is reported once */
+        blockIO.drain();
+        assertEquals(0, blockManager.getAllocatedBytes());
+    }
+}
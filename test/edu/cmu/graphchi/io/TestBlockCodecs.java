@@ -0,0 +1,85 @@
+package edu.cmu.graphchi.io;
+
+import org.junit.Test;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.DeflaterOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestBlockCodecs {
+
+    private static final BlockCodec[] CODECS = new BlockCodec[] {
+            CompressedIO.NONE, CompressedIO.ZLIB, CompressedIO.LZ, CompressedIO.FLOAT_XOR};
+
+    private static byte[] floats(int n, Random r) {
+        ByteBuffer buf = ByteBuffer.allocate(n * 4).order(ByteOrder.LITTLE_ENDIAN);
+        for(int i=0; i < n; i++) buf.putFloat(0.15f + 0.85f * r.nextFloat());
+        return buf.array();
+    }
+
+    private static int roundTrip(BlockCodec codec, byte[] data) throws IOException {
+        byte[] encoded = new byte[codec.maxEncodedLength(data.length)];
+        int len = codec.encode(data, data.length, encoded);
+        assertTrue(len <= encoded.length);
+        byte[] decoded = new byte[data.length];
+        codec.decode(encoded, len, decoded, data.length);
+        assertTrue(codec.getName(), Arrays.equals(data, decoded));
+        return len;
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        Random r = new Random(260);
+        byte[] randomBytes = new byte[100003];
+        r.nextBytes(randomBytes);
+        byte[] runs = new byte[70000];
+        for(int i=0; i < runs.length; i++) runs[i] = (byte) (i / 1000 % 3);
+        byte[][] inputs = new byte[][] {new byte[0], new byte[] {7}, new byte[] {1, 2, 3, 4, 5, 6},
+                randomBytes, runs, new byte[1 << 20], floats(50000, r), Arrays.copyOf(floats(1000, r), 4001)};
+        for(BlockCodec codec : CODECS) {
+            for(byte[] data : inputs) {
+                roundTrip(codec, data);
+            }
+            assertTrue(codec.getName(), roundTrip(codec, runs) <= runs.length);
+        }
+        assertTrue(roundTrip(CompressedIO.LZ, runs) < runs.length / 50);
+        assertTrue(roundTrip(CompressedIO.FLOAT_XOR, inputs[6]) < roundTrip(CompressedIO.LZ, inputs[6]));
+    }
+
+    @Test
+    public void testFiles() throws IOException {
+        File f = File.createTempFile("graphchi-codec", ".bin");
+        byte[] data = floats(10000, new Random(1));
+
+        /* Blocks written with DeflaterOutputStream by earlier versions */
+        DeflaterOutputStream dos = new DeflaterOutputStream(new FileOutputStream(f));
+        dos.write(data);
+        dos.close();
+        byte[] read = new byte[data.length];
+        CompressedIO.readCompressed(f, read, data.length, CompressedIO.ZLIB);
+        assertArrayEquals(data, read);
+
+        for(BlockCodec codec : CODECS) {
+            CompressedIO.writeCompressed(f, ByteBuffer.wrap(data), data.length, codec);
+            ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+            CompressedIO.readCompressed(f, direct, data.length, codec);
+            direct.get(read);
+            assertTrue(codec.getName(), Arrays.equals(data, read));
+        }
+        f.delete();
+    }
+
+    @Test(expected = IOException.class)
+    public void testTruncated() throws IOException {
+        byte[] data = floats(1000, new Random(2));
+        byte[] encoded = new byte[CompressedIO.LZ.maxEncodedLength(data.length)];
+        int len = CompressedIO.LZ.encode(data, data.length, encoded);
+        CompressedIO.LZ.decode(encoded, len / 2, new byte[data.length], data.length);
+    }
+}
@@ -0,0 +1,118 @@
+package edu.cmu.graphchi.io;
+
+import org.junit.Test;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.*;
+
+public class TestChannelDataInput {
+
+    /* Spans several buffers and does not end at a block boundary */
+    private static final int N = 700000;
+
+    private File writeInts(boolean gzip) throws IOException {
+        File f = File.createTempFile("graphchi-channelinput", gzip ? ".gz" : "");
+        OutputStream os = new BufferedOutputStream(new FileOutputStream(f));
+        DataOutputStream dos = new DataOutputStream(gzip ? new GZIPOutputStream(os) : os);
+        dos.writeByte(7);
+        for(int i=0; i < N; i++) dos.writeInt(Integer.reverseBytes(i * 31));
+        dos.close();
+        return f;
+    }
+
+    private void readSequentially(ChannelDataInput in) throws IOException {
+        assertEquals(7, in.readUnsignedByte());
+        for(int i=0; i < N; i++) {
+            if (i % 100000 == 5) {
+                assertEquals(4, in.skipBytes(4));
+                i++;
+            }
+            assertEquals(i * 31, in.readIntReversed());
+        }
+        assertEquals(1 + N * 4L, in.position());
+        try {
+            in.readUnsignedByte();
+            fail("Expected end of file");
+        } catch (EOFException eof) {
+        }
+        in.close();
+    }
+
+    @Test
+    public void testSequential() throws IOException {
+        File f = writeInts(false);
+        readSequentially(new ChannelDataInput(f, false));
+        /* Falls back to the page cache if O_DIRECT is not supported */
+        readSequentially(new ChannelDataInput(f, true));
+        f.delete();
+    }
+
+    @Test
+    public void testCompressedStream() throws IOException {
+        File f = writeInts(true);
+        ChannelDataInput in = new ChannelDataInput(Channels.newChannel(new GZIPInputStream(new FileInputStream(f))));
+        assertFalse(in.isSeekable());
+        readSequentially(in);
+
+        in = new ChannelDataInput(Channels.newChannel(new GZIPInputStream(new FileInputStream(f))));
+        in.seek(1 + 4L * 500000);
+        assertEquals(500000 * 31, in.readIntReversed());
+        try {
+            in.seek(1);
+            fail("Stream cannot be read backwards");
+        } catch (IOException expected) {
+        }
+        in.close();
+        f.delete();
+    }
+
+    @Test
+    public void testSeek() throws IOException {
+        File f = writeInts(false);
+        for(boolean directIO : new boolean[] {false, true}) {
+            ChannelDataInput in = new ChannelDataInput(f, directIO);
+            Random r = new Random(260);
+            for(int j=0; j < 2000; j++) {
+                /* Mostly near the previous position, sometimes far */
+                int i = (j % 10 == 0 ? r.nextInt(N) : Math.max(0, Math.min(N - 1, (int) ((in.position() - 1) / 4) + r.nextInt(200) - 100)));
+                in.seek(1 + 4L * i);
+                assertEquals(i * 31, in.readIntReversed());
+            }
+            in.seek(0);
+            assertEquals(7, in.readByte());
+            in.close();
+        }
+        f.delete();
+    }
+
+    @Test
+    public void testReadLine() throws IOException {
+        File f = File.createTempFile("graphchi-channelinput", ".txt");
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(f));
+        String[] terminators = new String[] {"\n", "\r\n", "\r"};
+        for(int i=0; i < 300000; i++) {
+            out.write((i + "\t" + (i * 7)).getBytes("ISO-8859-1"));
+            out.write(terminators[i % 3].getBytes("ISO-8859-1"));
+        }
+        out.write("last".getBytes("ISO-8859-1"));
+        out.close();
+
+        /* Lines cross the buffers, of a file and of a stream */
+        for(boolean stream : new boolean[] {false, true}) {
+            ChannelDataInput in = (stream ? new ChannelDataInput(Channels.newChannel(new FileInputStream(f)))
+                    : new ChannelDataInput(f, false));
+            for(int i=0; i < 300000; i++) {
+                assertEquals(i + "\t" + (i * 7), in.readLine());
+            }
+            assertEquals("last", in.readLine());
+            assertNull(in.readLine());
+            in.close();
+        }
+        f.delete();
+    }
+}
@@ -0,0 +1,72 @@
+package edu.cmu.graphchi.preprocessing;
+
+import edu.cmu.graphchi.ChiFilenames;
+import edu.cmu.graphchi.GraphFixtures;
+import edu.cmu.graphchi.datablocks.FloatConverter;
+import org.junit.Test;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Shards sorted externally in runs must be identical to shards sorted in memory.
+ */
+public class TestExternalSort {
+
+    private static final int NUM_SHARDS = 2;
+
+    private String shard(File input, String suffix, long memoryBudget) throws IOException {
+        String baseFilename = input.getAbsolutePath() + suffix;
+        FastSharder<Float, Float> sharder = GraphFixtures.createSharder(baseFilename, NUM_SHARDS);
+        sharder.setShovelMemoryBudget(memoryBudget);
+        sharder.shard(new FileInputStream(input), "edgelist");
+        return baseFilename;
+    }
+
+    @Test
+    public void testExternalSort() throws IOException {
+        File dir = GraphFixtures.createTempDir("graphchi-extsort");
+        File input = new File(dir, "graph.edgelist");
+        Random r = new Random(GraphFixtures.SEED);
+        PrintWriter wr = new PrintWriter(new BufferedWriter(new FileWriter(input)));
+        for(int i=0; i < 200000; i++) {
+            /* Duplicate edges with different values check that the merge is stable */
+            wr.println(r.nextInt(5000) + "\t" + r.nextInt(5000) + "\t" + i);
+        }
+        wr.close();
+        try {
+            compareSorts(input);
+        } finally {
+            GraphFixtures.delete(dir);
+        }
+    }
+
+    private void compareSorts(File input) throws IOException {
+        String inMemory = shard(input, ".mem", 1L << 30);
+        String external = shard(input, ".ext", 200000);
+
+        int blockSize = ChiFilenames.getBlocksize(4);
+        FloatConverter conv = new FloatConverter();
+        assertTrue(Arrays.equals(GraphFixtures.readFile(new File(ChiFilenames.getFilenameOfDegreeData(inMemory, false))),
+                GraphFixtures.readFile(new File(ChiFilenames.getFilenameOfDegreeData(external, false)))));
+        for(int p=0; p < NUM_SHARDS; p++) {
+            String adjMem = ChiFilenames.getFilenameShardsAdj(inMemory, p, NUM_SHARDS);
+            String adjExt = ChiFilenames.getFilenameShardsAdj(external, p, NUM_SHARDS);
+            assertTrue(Arrays.equals(GraphFixtures.readFile(new File(adjMem)), GraphFixtures.readFile(new File(adjExt))));
+            assertTrue(Arrays.equals(GraphFixtures.readFile(new File(adjMem + ".index")), GraphFixtures.readFile(new File(adjExt + ".index"))));
+
+            String edataMem = ChiFilenames.getFilenameShardEdata(inMemory, conv, p, NUM_SHARDS);
+            String edataExt = ChiFilenames.getFilenameShardEdata(external, conv, p, NUM_SHARDS);
+            int nblocks = ChiFilenames.getShardEdataSize(edataMem) / blockSize + 1;
+            for(int b=0; b < nblocks; b++) {
+                File blockMem = new File(ChiFilenames.getFilenameShardEdataBlock(edataMem, b, blockSize));
+                File blockExt = new File(ChiFilenames.getFilenameShardEdataBlock(edataExt, b, blockSize));
+                assertTrue(blockMem.exists() == blockExt.exists());
+                if (blockMem.exists()) assertTrue(Arrays.equals(GraphFixtures.readFile(blockMem), GraphFixtures.readFile(blockExt)));
+            }
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package edu.cmu.graphchi.preprocessing;
 
 import edu.cmu.graphchi.datablocks.FloatConverter;
+import edu.cmu.graphchi.datablocks.IntConverter;
 import org.junit.Test;
 
 import java.util.Random;
@@ -51,4 +52,35 @@ public class TestIdPacking {
              assertTrue(i == 0 || ids[i] > ids[i-1]);
         }
     }
+
+    @Test
+    public void testParallelSortWithValues() {
+        /* Large enough to be sorted in several threads; values are the original positions */
+        int n = 300000;
+        Random r = new Random(260);
+        long[] ids = new long[n];
+        byte[] valuedat = new byte[4 * n];
+        IntConverter intConv = new IntConverter();
+        byte[] tmp = new byte[4];
+        for(int i=0; i < n; i++) {
+            ids[i] = FastSharder.packEdges(r.nextInt(1 << 20), r.nextInt(1000));
+            if (i % 1000 == 0) ids[i] = -ids[i];
+            intConv.setValue(tmp, i);
+            System.arraycopy(tmp, 0, valuedat, i * 4, 4);
+        }
+        long[] original = ids.clone();
+
+        ParallelRadixSort.sortWithValues(ids, valuedat, 4, 4);
+
+        int prevPos = -1;
+        for(int i=0; i < n; i++) {
+            System.arraycopy(valuedat, i * 4, tmp, 0, 4);
+            int pos = intConv.getValue(tmp);
+            assertEquals(original[pos], ids[i]);
+            assertTrue(i == 0 || ids[i] >= ids[i-1]);
+            /* Stable */
+            assertTrue(i == 0 || ids[i] > ids[i-1] || pos > prevPos);
+            prevPos = pos;
+        }
+    }
 }
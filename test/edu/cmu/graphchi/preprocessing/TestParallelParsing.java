@@ -0,0 +1,177 @@
+package edu.cmu.graphchi.preprocessing;
+
+import edu.cmu.graphchi.GraphFixtures;
+import edu.cmu.graphchi.GraphManifest;
+import edu.cmu.graphchi.datablocks.FloatConverter;
+import org.junit.Test;
+
+import java.io.*;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Parallel parsing must produce the same shards as parsing in one thread.
+ */
+public class TestParallelParsing {
+
+    private static final int NUM_SHARDS = 3;
+
+    private FastSharder<Float, Float> createSharder(String baseFilename, int parserThreads) throws IOException {
+        FastSharder<Float, Float> sharder = new FastSharder<Float, Float>(baseFilename, NUM_SHARDS, new VertexProcessor<Float>() {
+            public Float receiveVertexValue(int vertexId, String token) {
+                return Float.parseFloat(token);
+            }
+        }, new EdgeProcessor<Float>() {
+            public Float receiveEdge(int from, int to, String token) {
+                return (token == null ? (float) (from + to) : Float.parseFloat(token));
+            }
+        }, new FloatConverter(), new FloatConverter());
+        sharder.setNumParserThreads(parserThreads);
+        return sharder;
+    }
+
+    private void shardAndCompare(File input, String format) throws IOException {
+        File dir = input.getParentFile();
+        createSharder(new File(dir, "seq").getAbsolutePath(), 1).shard(new FileInputStream(input), format);
+        createSharder(new File(dir, "par").getAbsolutePath(), 4).shard(new FileInputStream(input), format);
+        assertSameGraphs(dir, "seq", "par");
+    }
+
+    /* Compares all the files of the graphs: shards, edge data, degrees and vertex values */
+    private void assertSameGraphs(File dir, String expected, String actual) throws IOException {
+        int numFiles = 0;
+        for(String name : dir.list()) {
+            if (name.startsWith(expected + ".")) {
+                GraphFixtures.assertSameFiles(new File(dir, name), new File(dir, actual + name.substring(expected.length())));
+                numFiles++;
+            }
+        }
+        assertTrue(numFiles > 2 * NUM_SHARDS);
+    }
+
+    @Test
+    public void testParseInt() {
+        String[] tokens = {"0", "7", "-12", "+34", "007", "2147483647", "-2147483648",
+                "2147483648", "-2147483649", "99999999999", "", "-", "+", "1.5", "1a", " 1"};
+        for(String token : tokens) {
+            byte[] data = ("#" + token + "#").getBytes();
+            Integer expected;
+            try {
+                expected = Integer.parseInt(token);
+            } catch (NumberFormatException nfe) {
+                expected = null;
+            }
+            try {
+                assertEquals(token, expected, Integer.valueOf(FastSharder.parseInt(data, 1, data.length - 1)));
+            } catch (NumberFormatException nfe) {
+                assertNull(token, expected);
+                assertEquals("For input string: \"" + token + "\"", nfe.getMessage());
+            }
+        }
+    }
+
+    @Test
+    public void testLineEndsAndSeparators() throws IOException {
+        /* Lines are split like BufferedReader.readLine() and String.split() */
+        File dir = GraphFixtures.createTempDir("graphchi-parse");
+        File input = new File(dir, "graph.edgelist");
+        File clean = new File(dir, "graph-clean.edgelist");
+        FileOutputStream out = new FileOutputStream(input);
+        out.write("1\t2\r\n# comment\r\n\r\n3 4 \n5\t6\t\r\n7\t8\t1.5\r9 10".getBytes());
+        out.close();
+        out = new FileOutputStream(clean);
+        out.write("1\t2\n3\t4\n5\t6\n7\t8\t1.5\n9\t10\n".getBytes());
+        out.close();
+        try {
+            createSharder(new File(dir, "clean").getAbsolutePath(), 1).shard(new FileInputStream(clean), "edgelist");
+            createSharder(new File(dir, "seq").getAbsolutePath(), 1).shard(new FileInputStream(input), "edgelist");
+            assertSameGraphs(dir, "clean", "seq");
+        } finally {
+            GraphFixtures.delete(dir);
+        }
+    }
+
+    @Test
+    public void testEdgeList() throws IOException {
+        /* Larger than one parsing chunk */
+        File dir = GraphFixtures.createTempDir("graphchi-parse");
+        File input = new File(dir, "graph.edgelist");
+        Random r = new Random(GraphFixtures.SEED);
+        PrintWriter wr = new PrintWriter(new BufferedWriter(new FileWriter(input)));
+        wr.println("# comment");
+        for(int i=0; i < 500000; i++) {
+            if (i % 3 == 0) {
+                wr.println(r.nextInt(100000) + "\t" + r.nextInt(100000) + "\t" + (i % 7) + ".5");
+            } else {
+                wr.println(r.nextInt(100000) + " " + r.nextInt(100000));
+            }
+        }
+        wr.close();
+        try {
+            shardAndCompare(input, "edgelist");
+        } finally {
+            GraphFixtures.delete(dir);
+        }
+    }
+
+    @Test
+    public void testDuplicatesInInputOrder() throws IOException {
+        /* The same edges and vertex values in every chunk, with different values */
+        File dir = GraphFixtures.createTempDir("graphchi-parse");
+        File input = new File(dir, "graph.edgelist");
+        PrintWriter wr = new PrintWriter(new BufferedWriter(new FileWriter(input)));
+        for(int i=0; i < 600000; i++) {
+            int v = i % 1000;
+            if (i % 5 == 0) {
+                wr.println(v + "\t" + v + "\t" + i);
+            } else {
+                wr.println(v + "\t" + (v * 7 + 1) % 1000 + "\t" + i);
+            }
+        }
+        wr.close();
+        try {
+            shardAndCompare(input, "edgelist");
+        } finally {
+            GraphFixtures.delete(dir);
+        }
+    }
+
+    @Test
+    public void testAdjacencyList() throws IOException {
+        File dir = GraphFixtures.createTempDir("graphchi-parse");
+        File input = new File(dir, "graph.adjlist");
+        Random r = new Random(GraphFixtures.SEED);
+        PrintWriter wr = new PrintWriter(new BufferedWriter(new FileWriter(input)));
+        for(int v=0; v < 50000; v++) {
+            int n = r.nextInt(30) + 1;
+            StringBuilder sb = new StringBuilder(v + " " + n);
+            for(int j=0; j < n; j++) sb.append(" ").append(r.nextInt(50000));
+            wr.println(sb.toString());
+        }
+        wr.close();
+        try {
+            shardAndCompare(input, "adjlist");
+        } finally {
+            GraphFixtures.delete(dir);
+        }
+    }
+
+    @Test
+    public void testAdjacencyListStopsAtMismatch() throws IOException {
+        /* Reading stops at the line whose edge count is wrong, which is in a later chunk */
+        File dir = GraphFixtures.createTempDir("graphchi-parse");
+        File input = new File(dir, "graph.adjlist");
+        PrintWriter wr = new PrintWriter(new BufferedWriter(new FileWriter(input)));
+        for(int v=0; v < 400000; v++) {
+            wr.println(v + " 3 " + (v + 1) + " " + (v + 2) + (v == 300000 ? "" : " " + (v + 3)));
+        }
+        wr.close();
+        try {
+            shardAndCompare(input, "adjlist");
+            assertEquals(3L * 300000, GraphManifest.load(new File(dir, "par").getAbsolutePath(), NUM_SHARDS).getNumEdges());
+        } finally {
+            GraphFixtures.delete(dir);
+        }
+    }
+}
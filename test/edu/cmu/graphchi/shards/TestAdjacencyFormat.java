@@ -0,0 +1,240 @@
+package edu.cmu.graphchi.shards;
+
+import edu.cmu.graphchi.ChiFilenames;
+import edu.cmu.graphchi.ChiVertex;
+import edu.cmu.graphchi.GraphFixtures;
+import edu.cmu.graphchi.datablocks.DataBlockManager;
+import edu.cmu.graphchi.datablocks.FloatConverter;
+import edu.cmu.graphchi.engine.VertexInterval;
+import edu.cmu.graphchi.engine.auxdata.DegreeData;
+import edu.cmu.graphchi.io.BlockCodec;
+import edu.cmu.graphchi.io.CompressedIO;
+import edu.cmu.graphchi.preprocessing.FastSharder;
+import edu.cmu.graphchi.queries.VertexQuery;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Graphs sharded in the RAW and VARINT formats must give the same edges.
+ */
+public class TestAdjacencyFormat {
+
+    private static final int NUM_SHARDS = 3;
+    private static final int N = 20000;
+
+    @After
+    public void tearDown() {
+        ChiVertex.disableInedges = false;
+        ChiVertex.disableOutedges = false;
+        SlidingShard.parallelChunkBytes = 64 * 1024;
+        CompressedAdjacency.chunkBytes = 256 * 1024;
+    }
+
+    @Test
+    public void testVarints() throws IOException {
+        int[] values = new int[] {0, 1, 127, 128, 16383, 16384, 1 << 21, (1 << 28) + 5, Integer.MAX_VALUE, -1, -200};
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for(int v : values) AdjacencyFormat.writeVarint(out, v);
+        out.close();
+        byte[] encoded = bytes.toByteArray();
+
+        ByteBuffer buf = ByteBuffer.wrap(encoded);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(encoded));
+        int total = 0;
+        for(int v : values) {
+            assertEquals(v, AdjacencyFormat.readVarint(buf));
+            assertEquals(v, AdjacencyFormat.readVarint(in));
+            total += AdjacencyFormat.varintSize(v);
+        }
+        assertEquals(encoded.length, total);
+        assertEquals(encoded.length, AdjacencyFormat.skipVarints(new DataInputStream(new ByteArrayInputStream(encoded)), values.length));
+    }
+
+    private String shard(AdjacencyFormat format) throws IOException {
+        return shard(format, null);
+    }
+
+    private String shard(AdjacencyFormat format, BlockCodec adjCodec) throws IOException {
+        String baseFilename = GraphFixtures.createBaseFilename("graphchi-adjformat");
+        FastSharder<Float, Float> sharder = GraphFixtures.createSharder(baseFilename, NUM_SHARDS);
+        sharder.setAdjacencyFormat(format);
+        sharder.setAdjacencyCompression(adjCodec);
+        Random r = new Random(GraphFixtures.SEED);
+        GraphFixtures.addRandomEdges(sharder, r, N, 200000);
+        /* Vertex with more than 255 edges in a shard */
+        for(int i=0; i < 2000; i++) {
+            sharder.addEdge(17, r.nextInt(N), null);
+        }
+        sharder.process();
+        return baseFilename;
+    }
+
+    private static long adjSize(String baseFilename) {
+        long size = 0;
+        for(int p=0; p < NUM_SHARDS; p++) size += new File(ChiFilenames.getFilenameShardsAdj(baseFilename, p, NUM_SHARDS)).length();
+        return size;
+    }
+
+    /**
+     * Loads the vertices of an interval with the memory shard of the interval,
+     * and the out-edges to the next interval with its sliding shard.
+     * With loadEvery > 1, only every loadEvery'th vertex is loaded. With an executor,
+     * the sliding shard is parsed in parallel.
+     */
+    private static void assertSameQueries(String expectedGraph, String actualGraph) throws IOException {
+        List<Integer> queryIds = Arrays.asList(0, 17, 5000, 6666, 6667, 19999);
+        VertexQuery expectedQuery = new VertexQuery(expectedGraph, NUM_SHARDS);
+        VertexQuery actualQuery = new VertexQuery(actualGraph, NUM_SHARDS);
+        HashMap<Integer, ArrayList<Integer>> expected = expectedQuery.queryOutNeighbors(queryIds);
+        HashMap<Integer, ArrayList<Integer>> actual = actualQuery.queryOutNeighbors(queryIds);
+        for(int id : queryIds) {
+            ArrayList<Integer> e = expected.get(id);
+            ArrayList<Integer> a = actual.get(id);
+            Collections.sort(e);
+            Collections.sort(a);
+            assertEquals(e, a);
+        }
+        assertEquals(expectedQuery.queryOutNeighborsAndCombine(queryIds), actualQuery.queryOutNeighborsAndCombine(queryIds));
+        expectedQuery.shutdown();
+        actualQuery.shutdown();
+    }
+
+    private ChiVertex<Float, Float>[] load(String baseFilename, int interval, int loadEvery, ExecutorService parsing) throws IOException {
+        ArrayList<VertexInterval> intervals = ChiFilenames.loadIntervals(baseFilename, NUM_SHARDS);
+        VertexInterval window = intervals.get(interval);
+        FloatConverter converter = new FloatConverter();
+        DataBlockManager blockManager = new DataBlockManager();
+        ChiVertex.blockManager = blockManager;
+        ChiVertex.edgeValueConverter = converter;
+        ChiVertex.vertexValueConverter = null;
+
+        DegreeData degreeData = new DegreeData(baseFilename);
+        degreeData.load(window.getFirstVertex(), window.getLastVertex());
+        ChiVertex<Float, Float>[] vertices = (ChiVertex<Float, Float>[]) new ChiVertex[window.getLastVertex() - window.getFirstVertex() + 1];
+        for(int i=0; i < vertices.length; i += loadEvery) {
+            int vertexId = window.getFirstVertex() + i;
+            vertices[i] = new ChiVertex<Float, Float>(vertexId, degreeData.getDegree(vertexId));
+        }
+
+        MemoryShard<Float> memoryShard = new MemoryShard<Float>(ChiFilenames.getFilenameShardEdata(baseFilename, converter, interval, NUM_SHARDS),
+                ChiFilenames.getFilenameShardsAdj(baseFilename, interval, NUM_SHARDS), window.getFirstVertex(), window.getLastVertex());
+        memoryShard.setConverter(converter);
+        memoryShard.setDataBlockManager(blockManager);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        memoryShard.loadVertices(window.getFirstVertex(), window.getLastVertex(), vertices, false, executor);
+        executor.shutdown();
+
+        int next = (interval + 1) % NUM_SHARDS;
+        SlidingShard<Float> slidingShard = new SlidingShard<Float>(ChiFilenames.getFilenameShardEdata(baseFilename, converter, next, NUM_SHARDS),
+                ChiFilenames.getFilenameShardsAdj(baseFilename, next, NUM_SHARDS),
+                intervals.get(next).getFirstVertex(), intervals.get(next).getLastVertex());
+        slidingShard.setConverter(converter);
+        slidingShard.setDataBlockManager(blockManager);
+        slidingShard.setModifiesOutedges(false);
+        slidingShard.setParallelExecutor(parsing);
+        slidingShard.readNextVertices(vertices, window.getFirstVertex(), true);
+        return vertices;
+    }
+
+    private static void assertSameEdges(ChiVertex<Float, Float>[] expected, ChiVertex<Float, Float>[] actual) {
+        int checked = 0;
+        for(int i=0; i < expected.length; i++) {
+            if (actual[i] == null) continue;
+            assertEquals(expected[i].numInEdges(), actual[i].numInEdges());
+            assertEquals(expected[i].numOutEdges(), actual[i].numOutEdges());
+            for(int j=0; j < expected[i].numInEdges(); j++) {
+                assertEquals(expected[i].getInEdgeId(j), actual[i].getInEdgeId(j));
+                assertEquals(expected[i].getInEdgeFloatValue(j), actual[i].getInEdgeFloatValue(j), 0.0f);
+                checked++;
+            }
+            for(int j=0; j < expected[i].numOutEdges(); j++) {
+                assertEquals(expected[i].getOutEdgeId(j), actual[i].getOutEdgeId(j));
+                assertEquals(expected[i].getOutEdgeFloatValue(j), actual[i].getOutEdgeFloatValue(j), 0.0f);
+                checked++;
+            }
+        }
+        assertTrue(checked > 0);
+    }
+
+    @Test
+    public void testSameEdges() throws IOException {
+        String raw = shard(AdjacencyFormat.RAW);
+        String varint = shard(AdjacencyFormat.VARINT);
+        try {
+            assertEquals(AdjacencyFormat.VARINT, AdjacencyFormat.forShard(ChiFilenames.getFilenameShardsAdj(varint, 0, NUM_SHARDS)));
+            assertTrue(adjSize(varint) < adjSize(raw) * 6 / 10);
+
+            /* Small chunks, so that windows are parsed in many chunks */
+            SlidingShard.parallelChunkBytes = 4096;
+            ExecutorService parsing = Executors.newFixedThreadPool(3);
+            for(int interval=0; interval < NUM_SHARDS; interval++) {
+                ChiVertex<Float, Float>[] expected = load(raw, interval, 1, null);
+                assertSameEdges(expected, load(varint, interval, 1, null));
+                /* Sliding shard skips and seeks past the vertices which are not loaded */
+                assertSameEdges(expected, load(varint, interval, 997, null));
+
+                assertSameEdges(expected, load(raw, interval, 1, parsing));
+                assertSameEdges(expected, load(varint, interval, 1, parsing));
+                assertSameEdges(expected, load(raw, interval, 97, parsing));
+                assertSameEdges(expected, load(varint, interval, 97, parsing));
+            }
+            parsing.shutdown();
+
+            assertSameQueries(raw, varint);
+        } finally {
+            GraphFixtures.deleteGraph(raw);
+            GraphFixtures.deleteGraph(varint);
+        }
+    }
+
+    @Test
+    public void testCompressedAdjacency() throws IOException {
+        String raw = shard(AdjacencyFormat.RAW);
+        /* Small chunks, so that shards have many */
+        CompressedAdjacency.chunkBytes = 16 * 1024;
+        String compressed = shard(AdjacencyFormat.RAW, CompressedIO.LZ);
+        String compressedVarint = shard(AdjacencyFormat.VARINT, CompressedIO.ZLIB);
+        try {
+            for(int p=0; p < NUM_SHARDS; p++) {
+                String adj = ChiFilenames.getFilenameShardsAdj(compressed, p, NUM_SHARDS);
+                assertFalse(new File(adj).exists());
+                assertTrue(CompressedAdjacency.exists(adj));
+                CompressedAdjacency blocks = new CompressedAdjacency(adj);
+                assertEquals(new File(ChiFilenames.getFilenameShardsAdj(raw, p, NUM_SHARDS)).length(), blocks.size());
+                assertTrue(blocks.numChunks() > 5);
+                assertTrue(new File(ChiFilenames.getFilenameShardsAdjBlocks(adj)).length() < blocks.size());
+            }
+
+            SlidingShard.parallelChunkBytes = 4096;
+            ExecutorService parsing = Executors.newFixedThreadPool(3);
+            for(int interval=0; interval < NUM_SHARDS; interval++) {
+                ChiVertex<Float, Float>[] expected = load(raw, interval, 1, null);
+                for(String graph : new String[] {compressed, compressedVarint}) {
+                    assertSameEdges(expected, load(graph, interval, 1, null));
+                    assertSameEdges(expected, load(graph, interval, 997, null));
+                    assertSameEdges(expected, load(graph, interval, 1, parsing));
+                    assertSameEdges(expected, load(graph, interval, 97, parsing));
+                }
+            }
+            parsing.shutdown();
+
+            assertSameQueries(raw, compressed);
+            assertSameQueries(raw, compressedVarint);
+        } finally {
+            GraphFixtures.deleteGraph(raw);
+            GraphFixtures.deleteGraph(compressed);
+            GraphFixtures.deleteGraph(compressedVarint);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package edu.cmu.graphchi.shards;
+
+import edu.cmu.graphchi.ChiFilenames;
+import edu.cmu.graphchi.ChiVertex;
+import edu.cmu.graphchi.GraphFixtures;
+import edu.cmu.graphchi.datablocks.DataBlockManager;
+import edu.cmu.graphchi.datablocks.FloatConverter;
+import edu.cmu.graphchi.engine.VertexInterval;
+import edu.cmu.graphchi.engine.auxdata.DegreeData;
+import edu.cmu.graphchi.preprocessing.FastSharder;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Sliding shard seeks past vertices which are not loaded; the loaded
+ * vertices must get the same edges as when reading the whole shard.
+ */
+public class TestSlidingShardSeek {
+
+    private static final int NUM_SHARDS = 2;
+
+    private ChiVertex<Float, Float>[] readWindow(String baseFilename, VertexInterval window, int shard,
+                                                 DegreeData degreeData, DataBlockManager blockManager,
+                                                 int loadEvery) throws IOException {
+        ArrayList<VertexInterval> intervals = ChiFilenames.loadIntervals(baseFilename, NUM_SHARDS);
+        FloatConverter converter = new FloatConverter();
+        degreeData.load(window.getFirstVertex(), window.getLastVertex());
+        ChiVertex<Float, Float>[] vertices = (ChiVertex<Float, Float>[]) new ChiVertex[window.getLastVertex() - window.getFirstVertex() + 1];
+        for(int i=0; i < vertices.length; i++) {
+            if (i % loadEvery == 0) {
+                int vertexId = window.getFirstVertex() + i;
+                vertices[i] = new ChiVertex<Float, Float>(vertexId, degreeData.getDegree(vertexId));
+            }
+        }
+        SlidingShard<Float> slidingShard = new SlidingShard<Float>(ChiFilenames.getFilenameShardEdata(baseFilename, converter, shard, NUM_SHARDS),
+                ChiFilenames.getFilenameShardsAdj(baseFilename, shard, NUM_SHARDS),
+                intervals.get(shard).getFirstVertex(), intervals.get(shard).getLastVertex());
+        slidingShard.setConverter(converter);
+        slidingShard.setDataBlockManager(blockManager);
+        slidingShard.setModifiesOutedges(false);
+        slidingShard.readNextVertices(vertices, window.getFirstVertex(), true);
+        return vertices;
+    }
+
+    @Test
+    public void testSparseRead() throws IOException {
+        String baseFilename = GraphFixtures.createBaseFilename("graphchi-seek");
+        try {
+            checkSparseRead(baseFilename);
+        } finally {
+            GraphFixtures.deleteGraph(baseFilename);
+        }
+    }
+
+    private void checkSparseRead(String baseFilename) throws IOException {
+        FastSharder<Float, Float> sharder = GraphFixtures.createSharder(baseFilename, NUM_SHARDS);
+        GraphFixtures.addRandomEdges(sharder, new Random(GraphFixtures.SEED), 20000, 200000);
+        sharder.process();
+
+        ChiVertex.edgeValueConverter = new FloatConverter();
+        ChiVertex.vertexValueConverter = null;
+        ChiVertex.disableInedges = true;
+        ChiVertex.disableOutedges = false;
+        try {
+            ArrayList<VertexInterval> intervals = ChiFilenames.loadIntervals(baseFilename, NUM_SHARDS);
+            DegreeData degreeData = new DegreeData(baseFilename);
+            DataBlockManager blockManager = new DataBlockManager();
+            ChiVertex.blockManager = blockManager;
+
+            /* Out-edges of the second interval are in the sliding shard of the first */
+            VertexInterval window = intervals.get(1);
+            ChiVertex<Float, Float>[] all = readWindow(baseFilename, window, 0, degreeData, blockManager, 1);
+            ChiVertex<Float, Float>[] sparse = readWindow(baseFilename, window, 0, degreeData, blockManager, 997);
+
+            int checked = 0;
+            for(int i=0; i < sparse.length; i++) {
+                if (sparse[i] == null) continue;
+                assertEquals(all[i].numOutEdges(), sparse[i].numOutEdges());
+                for(int j=0; j < sparse[i].numOutEdges(); j++) {
+                    assertEquals(all[i].getOutEdgeId(j), sparse[i].getOutEdgeId(j));
+                    assertEquals(all[i].getOutEdgeFloatValue(j), sparse[i].getOutEdgeFloatValue(j), 0.0f);
+                    checked++;
+                }
+            }
+            assertEquals(true, checked > 0);
+        } finally {
+            ChiVertex.disableInedges = false;
+        }
+    }
+}